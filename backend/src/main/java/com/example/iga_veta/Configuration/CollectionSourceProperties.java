@@ -0,0 +1,66 @@
+package com.example.iga_veta.Configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upstream collections feeds, e.g.
+ *
+ * <pre>
+ * collections.sources[0].name=collections-api
+ * collections.sources[0].url=http://.../api/collections/fetch
+ * collections.sources[0].api-key=...
+ * collections.sources[0].interval-seconds=100
+ * </pre>
+ *
+ * Each source has its own checkpoint (keyed by name), schedule, worker thread and circuit
+ * breaker. With no sources configured the original single feed is used.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "collections")
+public class CollectionSourceProperties {
+
+    public static final String DEFAULT_NAME = "collections-api";
+    public static final String DEFAULT_URL = "http://41.59.229.41:6092/api/collections/fetch";
+    public static final String DEFAULT_API_KEY = "Vj7k_Oc7Gm5j2QHqZJ3lJ4UrVzml8GoxT9CwpuG8OqY";
+
+    private List<Source> sources = new ArrayList<>();
+
+    @Data
+    public static class Source {
+        // also the checkpoint key, so renaming a source restarts its cursor
+        private String name;
+        private String url;
+        private String apiKey;
+        private long intervalSeconds = 100;
+        private boolean enabled = true;
+    }
+
+    /** Enabled sources, or the built-in default feed when none are configured. */
+    public List<Source> activeSources() {
+        List<Source> out = new ArrayList<>();
+        for (Source s : sources) {
+            if (s.isEnabled() && s.getName() != null && s.getUrl() != null) out.add(s);
+        }
+        if (out.isEmpty() && sources.isEmpty()) {
+            Source s = new Source();
+            s.setName(DEFAULT_NAME);
+            s.setUrl(DEFAULT_URL);
+            s.setApiKey(DEFAULT_API_KEY);
+            out.add(s);
+        }
+        return out;
+    }
+
+    public Source find(String name) {
+        for (Source s : activeSources()) {
+            if (s.getName().equals(name)) return s;
+        }
+        return null;
+    }
+}
@@ -1,10 +1,12 @@
 package com.example.iga_veta.Configuration;
 
 
+import com.example.iga_veta.Model.User;
 import com.example.iga_veta.components.ApiKeyFilter;
 import com.example.iga_veta.components.JwtAuthenticationFilter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -44,6 +46,12 @@ public class SecurityConfig {
                                 "/swagger-ui/**",
                                 "/swagger-ui.html"
                         ).permitAll()
+                        // push sources authenticate with their own key; see ApiKey.SCOPE_PUSH
+                        .requestMatchers(HttpMethod.POST, "/api/ingestion/push").hasRole(ApiKeyFilter.PUSH_SOURCE_ROLE)
+                        .requestMatchers(HttpMethod.GET, "/api/ingestion/push/*")
+                            .hasAnyRole(ApiKeyFilter.PUSH_SOURCE_ROLE, User.Role.ADMIN.name())
+                        // runs, rebuilds, repairs, partitioning and backfill
+                        .requestMatchers("/api/ingestion/**").hasRole(User.Role.ADMIN.name())
                         .requestMatchers("/api/**").authenticated()
                         .anyRequest().authenticated()
                 )
@@ -4,11 +4,9 @@ package com.example.iga_veta.Controller;
 import com.example.iga_veta.Model.Allocation;
 import com.example.iga_veta.Model.ApiUsage;
 import com.example.iga_veta.Model.Collections;
-import com.example.iga_veta.Model.Payment;
 import com.example.iga_veta.Repository.AllocationRepository;
 import com.example.iga_veta.Repository.ApiUsageRepository;
 import com.example.iga_veta.Repository.CollectionRepository;
-import com.example.iga_veta.Repository.PaymentRepository;
 import com.example.iga_veta.Service.AllocationService;
 import lombok.Data;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,10 +27,6 @@ public class AllocationController {
     @Autowired
     private AllocationService allocationService;
 
-    @Autowired
-    private PaymentRepository paymentRepository;
-
-
     @Autowired
     private AllocationRepository allocationRepository;
 
@@ -51,8 +45,7 @@ public class AllocationController {
 
         LocalDateTime start = request.getStartDate().atStartOfDay();
         LocalDateTime end = request.getEndDate().atTime(23, 59, 59);
-        List<Payment> allCollections = paymentRepository.findAll();
-        return allocationService.allocateAllCentres(allCollections,start,end);
+        return allocationService.allocateAllCentres(start, end);
     }
 
     @PostMapping("/get")
@@ -8,6 +8,7 @@ import com.example.iga_veta.Model.Collections;
 import com.example.iga_veta.Repository.ApiUsageRepository;
 import com.example.iga_veta.Repository.CollectionRepository;
 import com.example.iga_veta.Service.CollectionService;
+import com.example.iga_veta.Service.IngestionCoordinator;
 import com.example.iga_veta.dto.CollectionsReportResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +32,9 @@ public class CollectionController {
     @Autowired
     private CollectionService collectionDataService;
 
+    @Autowired
+    private IngestionCoordinator ingestionCoordinator;
+
     @Autowired
     private CollectionRepository collectionRepository;
 
@@ -46,7 +50,13 @@ public class CollectionController {
     @PostMapping("/storeCollection")
     public String storeCollection() {
         trackUsage("/save", "POST");
-        collectionDataService.fetchDataFromApi();
+        IngestionCoordinator.RunResult run = ingestionCoordinator.runNow("manual");
+        if (run.outcome() == IngestionCoordinator.Outcome.SKIPPED_LOCKED) {
+            return "Collections sync is already running on another node.";
+        }
+        if (run.outcome() == IngestionCoordinator.Outcome.FAILED) {
+            throw new RuntimeException("Collections sync failed: " + run.error());
+        }
         return "Collections fetched and stored successfully!";
     }
 
@@ -92,15 +102,22 @@ public class CollectionController {
         int page = req.getPage() == null ? 0 : req.getPage();
         int size = req.getSize() == null ? 10 : req.getSize();
 
-        CollectionsReportResponse out = reportService.collectionsReport(
-                req.getFromDate(),
-                req.getToDate(),
-                req.getCentre(),
-                req.getZone(),
-                req.getServiceCode(),
-                page,
-                size
-        );
+        CollectionsReportResponse out;
+        try {
+            out = reportService.collectionsReport(
+                    req.getFromDate(),
+                    req.getToDate(),
+                    req.getCentre(),
+                    req.getZone(),
+                    req.getServiceCode(),
+                    page,
+                    size,
+                    req.getCursor()
+            );
+        } catch (IllegalArgumentException e) {
+            // cursor not produced by this API
+            return ResponseEntity.badRequest().build();
+        }
 
         return ResponseEntity.ok(out);
     }
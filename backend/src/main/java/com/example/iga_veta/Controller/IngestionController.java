@@ -0,0 +1,198 @@
+package com.example.iga_veta.Controller;
+
+import com.example.iga_veta.Model.User;
+import com.example.iga_veta.Service.CollectionBackfillService;
+import com.example.iga_veta.Service.CollectionPushService;
+import com.example.iga_veta.Service.CollectionService;
+import com.example.iga_veta.Service.DimensionCacheService;
+import com.example.iga_veta.Service.FilterOptionsService;
+import com.example.iga_veta.Service.IngestionCoordinator;
+import com.example.iga_veta.Service.IngestionPipeline;
+import com.example.iga_veta.Service.PaymentBulkWriter;
+import com.example.iga_veta.Service.PaymentChangeSignal;
+import com.example.iga_veta.Service.PaymentCube;
+import com.example.iga_veta.Service.PaymentDailyAggService;
+import com.example.iga_veta.Service.PaymentPartitionService;
+import com.example.iga_veta.Service.PaymentZoneService;
+import com.example.iga_veta.Service.SummaryCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ingestion operations, for admins only (see SecurityConfig), except the push endpoints,
+ * which take a push source's own API key.
+ */
+@RestController
+@RequestMapping("/api/ingestion")
+public class IngestionController {
+
+    @Autowired
+    private DimensionCacheService dimensionCacheService;
+
+    @Autowired
+    private IngestionCoordinator ingestionCoordinator;
+
+    @Autowired
+    private IngestionPipeline ingestionPipeline;
+
+    @Autowired
+    private CollectionService collectionService;
+
+    @Autowired
+    private CollectionBackfillService backfillService;
+
+    @Autowired
+    private CollectionPushService pushService;
+
+    @Autowired
+    private PaymentBulkWriter paymentBulkWriter;
+
+    @Autowired
+    private PaymentDailyAggService paymentDailyAggService;
+
+    @Autowired
+    private PaymentCube paymentCube;
+
+    @Autowired
+    private PaymentChangeSignal paymentChangeSignal;
+
+    @Autowired
+    private SummaryCache summaryCache;
+
+    @Autowired
+    private FilterOptionsService filterOptionsService;
+
+    @Autowired
+    private PaymentZoneService paymentZoneService;
+
+    @Autowired
+    private PaymentPartitionService paymentPartitionService;
+
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> status() {
+        return ResponseEntity.ok(ingestionCoordinator.status());
+    }
+
+    // same single-flight path as /storeCollection, but returns the run outcome instead of a message
+    // all enabled sources in parallel, or just ?source=<name>
+    @PostMapping("/run")
+    public ResponseEntity<?> run(@RequestParam(value = "source", required = false) String source) {
+        if (source == null || source.isBlank()) {
+            return ResponseEntity.ok(ingestionCoordinator.runAll("manual"));
+        }
+        try {
+            return ResponseEntity.ok(ingestionCoordinator.runNow(source.trim(), "manual"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> metrics() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("dimensionCache", dimensionCacheService.stats());
+        out.put("pipeline", ingestionPipeline.stats());
+        out.put("paymentWriter", paymentBulkWriter.stats());
+        out.put("dailyAgg", paymentDailyAggService.stats());
+        out.put("cube", paymentCube.stats());
+        out.put("changeSignal", paymentChangeSignal.stats());
+        out.put("summaryCache", summaryCache.stats());
+        out.put("filterOptions", filterOptionsService.stats());
+        out.put("paymentZone", paymentZoneService.stats());
+        out.put("paymentPartitions", paymentPartitionService.stats());
+        out.put("fetchWindow", collectionService.fetchWindowStats());
+        out.put("push", pushService.stats());
+        return ResponseEntity.ok(out);
+    }
+
+    // recomputes payments_daily_agg from payments; blocks ingestion writes while it runs
+    @PostMapping("/rollup/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildRollup() {
+        int rows = paymentDailyAggService.rebuild();
+        summaryCache.invalidateAll();
+        filterOptionsService.markStale();
+        Map<String, Object> out = new LinkedHashMap<>(paymentDailyAggService.stats());
+        out.put("rowsWritten", rows);
+        return ResponseEntity.ok(out);
+    }
+
+    // re-copies centre.zone_id onto payments whose zone_id drifted; batched, ingestion keeps running
+    @PostMapping("/payments/zone/repair")
+    public ResponseEntity<Map<String, Object>> repairPaymentZones() {
+        long rows = paymentZoneService.repair();
+        Map<String, Object> out = new LinkedHashMap<>(paymentZoneService.stats());
+        out.put("rowsFixed", rows);
+        return ResponseEntity.ok(out);
+    }
+
+    // one-off: moves payments into monthly partitions while ingestion keeps running; restart other nodes afterwards
+    @PostMapping("/payments/partition")
+    public ResponseEntity<?> partitionPayments() {
+        try {
+            return ResponseEntity.ok(paymentPartitionService.migrate());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // loads a dump file from collections.backfill.dir, e.g. ?file=2024-dar.ndjson
+    @PostMapping("/backfill")
+    public ResponseEntity<?> backfill(@RequestParam("file") String file) {
+        try {
+            return ResponseEntity.ok(backfillService.backfill(file));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Push endpoint for upstream or a relay: {"batchId": "...", "collections": [ {feed row}, ... ]}.
+     * Returns 202 once the batch is stored; rows are applied in the background.
+     */
+    @PostMapping("/push")
+    @SuppressWarnings("unchecked")
+    public ResponseEntity<?> push(
+            @RequestBody Map<String, Object> body,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey
+    ) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String owner = auth != null ? auth.getName() : null;
+
+        Object batchId = body.get("batchId");
+        String key = idempotencyKey != null ? idempotencyKey : (batchId != null ? batchId.toString() : null);
+
+        Object rows = body.get("collections");
+        if (!(rows instanceof List<?>)) {
+            return ResponseEntity.badRequest().body(Map.of("error", "collections must be an array"));
+        }
+
+        try {
+            CollectionPushService.PushAck ack = pushService.enqueue(owner, key, (List<Map<String, Object>>) rows);
+            return ResponseEntity.status(ack.duplicate() ? HttpStatus.OK : HttpStatus.ACCEPTED).body(ack);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // a push source only sees its own batches
+    @GetMapping("/push/{id}")
+    public ResponseEntity<?> pushBatch(@PathVariable Long id) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        boolean admin = auth != null && auth.getAuthorities().stream()
+                .anyMatch(a -> ("ROLE_" + User.Role.ADMIN.name()).equals(a.getAuthority()));
+        return pushService.find(id)
+                .filter(b -> admin || (auth != null && b.getSource().equals(auth.getName())))
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
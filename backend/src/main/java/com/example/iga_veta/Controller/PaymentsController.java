@@ -1,6 +1,7 @@
 package com.example.iga_veta.Controller;
 
 import com.example.iga_veta.Service.DashboardService;
+import com.example.iga_veta.Service.FilterOptionsService;
 import com.example.iga_veta.Service.ReportService;
 import com.example.iga_veta.dto.*;
 import com.example.iga_veta.Model.ApiUsage;
@@ -8,14 +9,18 @@ import com.example.iga_veta.Model.Collections;
 import com.example.iga_veta.Repository.ApiUsageRepository;
 import com.example.iga_veta.Repository.CollectionRepository;
 import com.example.iga_veta.Service.CollectionService;
+import com.example.iga_veta.Service.IngestionCoordinator;
 import com.example.iga_veta.dto.CollectionsReportResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
@@ -31,6 +36,9 @@ public class PaymentsController {
     @Autowired
     private CollectionService collectionDataService;
 
+    @Autowired
+    private IngestionCoordinator ingestionCoordinator;
+
     @Autowired
     private CollectionRepository collectionRepository;
 
@@ -43,10 +51,19 @@ public class PaymentsController {
     @Autowired
     private ReportService reportService;
 
+    @Autowired
+    private FilterOptionsService filterOptionsService;
+
     @PostMapping("/storeCollection")
     public String storeCollection() {
         trackUsage("/save", "POST");
-        collectionDataService.fetchDataFromApi();
+        IngestionCoordinator.RunResult run = ingestionCoordinator.runNow("manual");
+        if (run.outcome() == IngestionCoordinator.Outcome.SKIPPED_LOCKED) {
+            return "Collections sync is already running on another node.";
+        }
+        if (run.outcome() == IngestionCoordinator.Outcome.FAILED) {
+            throw new RuntimeException("Collections sync failed: " + run.error());
+        }
         return "Collections fetched and stored successfully!";
     }
 
@@ -92,15 +109,22 @@ public class PaymentsController {
         int page = req.getPage() == null ? 0 : req.getPage();
         int size = req.getSize() == null ? 10 : req.getSize();
 
-        CollectionsReportResponse out = reportService.collectionsReport(
-                req.getFromDate(),
-                req.getToDate(),
-                req.getCentre(),
-                req.getZone(),
-                req.getServiceCode(),
-                page,
-                size
-        );
+        CollectionsReportResponse out;
+        try {
+            out = reportService.collectionsReport(
+                    req.getFromDate(),
+                    req.getToDate(),
+                    req.getCentre(),
+                    req.getZone(),
+                    req.getServiceCode(),
+                    page,
+                    size,
+                    req.getCursor()
+            );
+        } catch (IllegalArgumentException e) {
+            // cursor not produced by this API
+            return ResponseEntity.badRequest().build();
+        }
 
         return ResponseEntity.ok(out);
     }
@@ -116,10 +140,33 @@ public class PaymentsController {
                 ? null
                 : zone.trim();
 
-        List<String> centres = collectionRepository.centreOptionsByZone(cleanZone);
+        List<String> centres = filterOptionsService.centresByZone(cleanZone);
         return ResponseEntity.ok(centres);
     }
 
+    // report/dashboard filter lists; revalidate with If-None-Match, 304 until ingestion adds a dimension
+    @GetMapping("/filter-options")
+    public ResponseEntity<Map<String, Object>> getFilterOptions(WebRequest request) {
+        trackUsage("/filter-options", "GET");
+
+        FilterOptionsService.Options options = filterOptionsService.current();
+        String etag = "\"filter-options-" + Long.toHexString(options.version()) + "\"";
+
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .body(Map.of(
+                        "centres", options.centres(),
+                        "zones", options.zones(),
+                        "services", options.services(),
+                        "centresByZone", options.centresByZone()
+                ));
+    }
+
     @GetMapping("/get")
     public List<Collections> getCollections() {
         return collectionDataService.findAll();
@@ -9,6 +9,9 @@ import java.time.LocalDateTime;
 @Data
 public class ApiKey {
 
+    /** Scope of a push source's key: it may only call /api/ingestion/push, and its owner is the source. */
+    public static final String SCOPE_PUSH = "PUSH";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -20,5 +23,9 @@ public class ApiKey {
 
     private boolean active = true;
 
+    // null for the application keys; SCOPE_PUSH for a push source
+    @Column(length = 20)
+    private String scope;
+
     private LocalDateTime createdAt = LocalDateTime.now();
 }
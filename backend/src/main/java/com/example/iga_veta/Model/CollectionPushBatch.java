@@ -0,0 +1,65 @@
+package com.example.iga_veta.Model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * One batch of collection rows pushed by upstream or a relay. The batch is stored before the
+ * push is acknowledged and applied later by the push applier, so an accepted batch survives
+ * a restart.
+ */
+@Entity
+@Data
+@Table(
+        name = "collections_push_batch",
+        indexes = {
+                @Index(name = "idx_push_batch_status", columnList = "status, next_attempt_at, id"),
+                @Index(name = "idx_push_batch_source", columnList = "source, status, id")
+        },
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uq_push_batch_key", columnNames = {"source", "idempotency_key"})
+        }
+)
+public class CollectionPushBatch {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // api key owner that pushed the batch
+    @Column(name = "source", length = 100, nullable = false)
+    private String source;
+
+    // optional client batch id; a retried push with the same key is not stored twice
+    @Column(name = "idempotency_key", length = 100)
+    private String idempotencyKey;
+
+    // normalised rows as JSON, same shape as the polled feed rows
+    @JsonIgnore
+    @Column(name = "payload", nullable = false, columnDefinition = "text")
+    private String payload;
+
+    @Column(name = "row_count", nullable = false)
+    private Integer rowCount;
+
+    @Column(name = "status", length = 20, nullable = false)
+    private String status;
+
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "applied_at")
+    private LocalDateTime appliedAt;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+}
@@ -12,6 +12,7 @@ import java.time.LocalDateTime;
         name = "collections",
         indexes = {
                 @Index(name = "idx_collections_date", columnList = "date"),
+                @Index(name = "idx_collections_date_id", columnList = "date desc, id desc"),
                 @Index(name = "idx_collections_centre", columnList = "centre_id"),
                 @Index(name = "idx_collections_gfs_code", columnList = "gfs_code_id"),
                 @Index(name = "idx_collections_centre_date", columnList = "centre_id, date"),
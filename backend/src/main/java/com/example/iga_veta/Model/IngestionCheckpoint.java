@@ -0,0 +1,52 @@
+package com.example.iga_veta.Model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Ingestion cursor per upstream source. Updated in the same transaction as every chunk
+ * it covers, so after a crash the next run resumes right after the last committed chunk.
+ */
+@Entity
+@Data
+@Table(name = "ingestion_checkpoint")
+public class IngestionCheckpoint {
+
+    @Id
+    @Column(name = "source", length = 100)
+    private String source;
+
+    // highest payment_date committed so far; the next request starts from here
+    @Column(name = "last_fetched_date", nullable = false)
+    private LocalDateTime lastFetchedDate;
+
+    // "lastFetchedDate" reported by upstream on the last completed run
+    @Column(name = "api_last_fetched_date")
+    private LocalDateTime apiLastFetchedDate;
+
+    @Column(name = "status", length = 20)
+    private String status;
+
+    @Column(name = "run_started_at")
+    private LocalDateTime runStartedAt;
+
+    @Column(name = "run_finished_at")
+    private LocalDateTime runFinishedAt;
+
+    @Column(name = "rows_committed")
+    private Long rowsCommitted = 0L;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        updatedAt = LocalDateTime.now();
+    }
+}
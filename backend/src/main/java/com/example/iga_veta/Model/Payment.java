@@ -11,17 +11,18 @@ import java.time.LocalDateTime;
         name = "payments",
         indexes = {
                 @Index(name = "idx_payments_date", columnList = "payment_date"),
+                // keyset paging of report rows: (payment_date desc, id desc)
+                @Index(name = "idx_payments_date_id", columnList = "payment_date desc, id desc"),
                 @Index(name = "idx_payments_centre", columnList = "centre_id"),
+                // filtered report pages, same order as idx_payments_date_id
+                @Index(name = "idx_payments_centre_date_id", columnList = "centre_id, payment_date desc, id desc"),
+                @Index(name = "idx_payments_zone_date_id", columnList = "zone_id, payment_date desc, id desc"),
                 @Index(name = "idx_payments_control", columnList = "control_number"),
                 @Index(name = "idx_payments_pid_gfs", columnList = "payment_id, gfs_code_id"),
                 @Index(name = "idx_payments_bill", columnList = "bill_id")
-        },
-        uniqueConstraints = {
-                @UniqueConstraint(
-                        name = "uq_payment_line",
-                        columnNames = {"payment_id","bill_id"}
-                )
         }
+        // the upsert key (payment_id, bill_id) is created by PaymentPartitionService: once the
+        // table is partitioned by month it becomes (payment_id, bill_id, payment_date)
 )
 public class Payment {
 
@@ -43,6 +44,14 @@ public class Payment {
     @JoinColumn(name="centre_id", nullable=false)
     private Centre centre;
 
+    /**
+     * Zone of the centre, copied onto the row so zone filters need no join. Written by the
+     * payment upserts and re-pointed by {@code PaymentZoneService.moveCentre}; read-only here.
+     */
+    @ManyToOne
+    @JoinColumn(name = "zone_id", insertable = false, updatable = false)
+    private Zone zone;
+
     @ManyToOne
     @JoinColumn(name = "gfs_code_id")
     private GfsCode gfsCode;
@@ -68,6 +77,10 @@ public class Payment {
     @Column(name="last_fetched")
     private LocalDateTime lastFetched;
 
+    // hash of the business fields, lets ingestion skip rewriting unchanged rows
+    @Column(name="content_hash", length=32)
+    private String contentHash;
+
     @Column(name="created_at", updatable=false)
     private LocalDateTime createdAt;
 
@@ -0,0 +1,62 @@
+package com.example.iga_veta.Model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Daily rollup of {@code payments} per (day, centre, zone, GFS code, payment type).
+ *
+ * Maintained as deltas by the statements that write payments, in the same transaction, so
+ * dashboard and report aggregates read a few hundred rows per day instead of every payment.
+ * The unique key is an expression index over {@code coalesce(gfs_code_id, 0)} and is created
+ * by {@code PaymentDailyAggService}, since payments without a GFS code must still collapse
+ * into one row per bucket.
+ */
+@Entity
+@Data
+@Table(
+        name = "payments_daily_agg",
+        indexes = {
+                @Index(name = "idx_daily_agg_day", columnList = "day"),
+                @Index(name = "idx_daily_agg_centre_day", columnList = "centre_id, day")
+        }
+)
+public class PaymentDailyAgg {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // payment_date::date in database wall-clock time
+    @Column(name = "day", nullable = false)
+    private LocalDate day;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "centre_id", nullable = false)
+    private Centre centre;
+
+    // zone of the centre; re-pointed when a centre moves zone
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "zone_id", nullable = false)
+    private Zone zone;
+
+    @ManyToOne
+    @JoinColumn(name = "gfs_code_id")
+    private GfsCode gfsCode;
+
+    // null payment types are stored as 'UNKNOWN', as the dashboard reports them
+    @Column(name = "payment_type", nullable = false, length = 120)
+    private String paymentType;
+
+    @Column(name = "total_billed", nullable = false, precision = 18, scale = 2)
+    private BigDecimal totalBilled = BigDecimal.ZERO;
+
+    @Column(name = "total_paid", nullable = false, precision = 18, scale = 2)
+    private BigDecimal totalPaid = BigDecimal.ZERO;
+
+    @Column(name = "tx_count", nullable = false)
+    private Long txCount = 0L;
+}
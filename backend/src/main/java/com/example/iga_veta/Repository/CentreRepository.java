@@ -5,6 +5,8 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface CentreRepository extends JpaRepository<Centre, Long> {
@@ -12,6 +14,8 @@ public interface CentreRepository extends JpaRepository<Centre, Long> {
     Optional<Centre> getCentreByCode(String code);
     Optional<Centre> getCentreByName(String name);
 
+    List<Centre> findByNameIn(Collection<String> names);
+
     Boolean existsByCode(String code);
     Boolean existsByName(String name);
 
@@ -0,0 +1,32 @@
+package com.example.iga_veta.Repository;
+
+import com.example.iga_veta.Model.CollectionPushBatch;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface CollectionPushBatchRepository extends JpaRepository<CollectionPushBatch, Long> {
+
+    Optional<CollectionPushBatch> findBySourceAndIdempotencyKey(String source, String idempotencyKey);
+
+    long countByStatus(String status);
+
+    // Only the oldest pending batch of each source is eligible, so a batch waiting on its
+    // backoff holds back the newer batches of its source instead of being applied after them.
+    // Callers hold the push apply lock, so one node claims at a time.
+    @Query(value = """
+        select * from collections_push_batch b
+        where b.status = 'PENDING' and b.next_attempt_at <= :now
+          and not exists (
+              select 1 from collections_push_batch o
+              where o.source = b.source and o.status = 'PENDING' and o.id < b.id
+          )
+        order by b.id
+        limit 1
+        for update
+    """, nativeQuery = true)
+    Optional<CollectionPushBatch> claimNextPending(@Param("now") LocalDateTime now);
+}
@@ -218,72 +218,6 @@ public interface CollectionRepository extends JpaRepository<Collections, Long> {
 
     // -------------------- collection report page (UPDATED filters + amountBilled) --------------------
 
-    @Query("""
-      select 
-        c.id as id,
-        coalesce(c.customer.name, 'N/A') as customerName,
-        coalesce(c.centre.name, 'N/A') as centreName,
-        coalesce(c.centre.zones.name, 'N/A') as zoneName,
-        coalesce(c.gfsCode.code, 'N/A') as serviceCode,
-        coalesce(c.paymentType, '') as paymentType,    
-        coalesce(c.controlNumber, '') as controlNumber,    
-        coalesce(c.gfsCode.description, 'N/A') as serviceDesc,
-        c.amountBilled as amount,
-        coalesce(c.amountPaid, 0) as amountPaid,
-        c.date as datePaid
-      from Collections c
-      where c.date >= :start and c.date < :end
-        and (:centre is null or c.centre.name = :centre)
-        and (:zone is null or c.centre.zones.name = :zone)
-        and (:service is null or c.gfsCode.description = :service)
-      order by c.date desc
-    """)
-    org.springframework.data.domain.Page<CollectionRowView> reportRows(
-            @Param("start") LocalDateTime start,
-            @Param("end") LocalDateTime end,
-            @Param("centre") String centre,
-            @Param("zone") String zone,
-            @Param("service") String service,
-            org.springframework.data.domain.Pageable pageable
-    );
-
-    @Query("""
-      select coalesce(sum(c.amountBilled),0), count(c)
-      from Collections c
-      where c.date >= :start and c.date < :end
-        and (:centre is null or c.centre.name = :centre)
-        and (:zone is null or c.centre.zones.name = :zone)
-        and (:service is null or c.gfsCode.description = :service)
-    """)
-    List<Object[]> reportTotals(
-            @Param("start") LocalDateTime start,
-            @Param("end") LocalDateTime end,
-            @Param("centre") String centre,
-            @Param("zone") String zone,
-            @Param("service") String service
-    );
-
-    @Query("""
-      select
-        coalesce(c.gfsCode.code, 'N/A'),
-        coalesce(c.gfsCode.description, 'N/A'),
-        coalesce(sum(c.amountPaid),0)
-      from Collections c
-      where c.date >= :start and c.date < :end
-        and (:centre is null or c.centre.name = :centre)
-        and (:zone is null or c.centre.zones.name = :zone)
-        and (:service is null or c.gfsCode.description = :service)
-      group by c.gfsCode.code, c.gfsCode.description
-      order by sum(c.amountPaid) desc
-    """)
-    List<Object[]> reportSummaryByService(
-            @Param("start") LocalDateTime start,
-            @Param("end") LocalDateTime end,
-            @Param("centre") String centre,
-            @Param("zone") String zone,
-            @Param("service") String service
-    );
-
     // -------------------- typed projections (UPDATED to amountBilled) --------------------
 
     @Query("""
@@ -444,14 +378,6 @@ public interface CollectionRepository extends JpaRepository<Collections, Long> {
 
 
 
-    @Query("""
-    select distinct p.centre.name
-    from Payment p
-    where (:zoneName is null or p.centre.zones.name = :zoneName)
-    order by p.centre.name
-""")
-    List<String> centreOptionsByZone(@Param("zoneName") String zoneName);
-
 
 
 
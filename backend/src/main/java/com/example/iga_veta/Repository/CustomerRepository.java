@@ -3,7 +3,11 @@ package com.example.iga_veta.Repository;
 import com.example.iga_veta.Model.Centre;
 import com.example.iga_veta.Model.Customer;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface CustomerRepository extends JpaRepository<Customer,Long> {
@@ -15,6 +19,12 @@ public interface CustomerRepository extends JpaRepository<Customer,Long> {
 
     Optional<Customer> findByNameAndCentre_Id(String name, Long centreId);
 
+    @Query("select c.id, c.name from Customer c where c.centre.id = :centreId and c.name in :names order by c.id asc")
+    List<Object[]> findIdAndNameByCentreIdAndNameIn(
+            @Param("centreId") Long centreId,
+            @Param("names") Collection<String> names
+    );
+
 
 
 
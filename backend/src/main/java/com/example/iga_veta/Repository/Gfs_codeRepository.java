@@ -3,10 +3,14 @@ package com.example.iga_veta.Repository;
 import com.example.iga_veta.Model.GfsCode;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface Gfs_codeRepository extends JpaRepository<GfsCode,Long> {
 
     Optional<GfsCode> findByCode(String code);
 
+    List<GfsCode> findByCodeIn(Collection<String> codes);
+
 }
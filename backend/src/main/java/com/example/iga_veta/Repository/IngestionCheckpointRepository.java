@@ -0,0 +1,7 @@
+package com.example.iga_veta.Repository;
+
+import com.example.iga_veta.Model.IngestionCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface IngestionCheckpointRepository extends JpaRepository<IngestionCheckpoint, String> {
+}
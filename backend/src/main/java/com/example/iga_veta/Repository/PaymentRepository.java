@@ -1,17 +1,14 @@
 package com.example.iga_veta.Repository;
 
 import com.example.iga_veta.Model.Payment;
-import com.example.iga_veta.Repository.projections.PaymentRowView;
-import com.example.iga_veta.Repository.projections.ServiceSummaryView;
-import com.example.iga_veta.Repository.projections.TotalsView;
-import org.springframework.data.domain.Page;
+import com.example.iga_veta.Repository.projections.PaymentKeyView;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,6 +23,14 @@ public interface PaymentRepository extends JpaRepository<Payment, Long> {
 
     Optional<Payment> findByPaymentIdAndGfsCode_Code(Long paymentId, String code);
 
+    @Query("""
+        select p.id as id, p.paymentId as paymentId, p.billId as billId
+        from Payment p
+        where p.paymentId in :paymentIds
+        order by p.id asc
+    """)
+    List<PaymentKeyView> findKeysByPaymentIdIn(@Param("paymentIds") Collection<Long> paymentIds);
+
     @Query("select max(p.paymentDate) from Payment p")
     Optional<LocalDateTime> findMaxPaymentDate();
 
@@ -129,110 +134,7 @@ public interface PaymentRepository extends JpaRepository<Payment, Long> {
     @Query("select distinct coalesce(p.paymentType, 'UNKNOWN') from Payment p order by coalesce(p.paymentType, 'UNKNOWN')")
     List<String> paymentTypeOptions();
 
-    @Query("""
-        select
-          coalesce(sum(p.totalBilled), 0) as totalIncome,
-          coalesce(sum(p.totalPaid), 0)   as totalPaid,
-          count(p)                        as totalTransactions
-        from Payment p
-        where p.paymentDate >= :start and p.paymentDate < :end
-          and (:centreName is null or p.centre.name = :centreName)
-          and (:zoneName is null or p.centre.zones.name = :zoneName)
-          and (:gfsCode is null or p.gfsCode.code = :gfsCode)
-    """)
-    TotalsView totalsView(
-            @Param("start") LocalDateTime start,
-            @Param("end") LocalDateTime end,
-            @Param("centreName") String centreName,
-            @Param("zoneName") String zoneName,
-            @Param("gfsCode") String gfsCode
-    );
-
-    @Query("""
-        select
-          p.id as id,
-          p.paymentId as paymentId,
-          p.customer.name as customerName,
-          p.centre.name as centreName,
-          p.centre.zones.name as zoneName,
-          p.paymentType as paymentType,
-          p.controlNumber as controlNumber,
-          p.totalBilled as totalBilled,
-          p.totalPaid as totalPaid,
-          p.paymentDate as paymentDate,
-          coalesce(p.gfsCode.code, 'UNKNOWN') as gfsCode,
-          coalesce(p.gfsCode.description, 'UNKNOWN') as gfsDesc
-        from Payment p
-        where p.paymentDate >= :start and p.paymentDate < :end
-          and (:centreName is null or p.centre.name = :centreName)
-          and (:zoneName is null or p.centre.zones.name = :zoneName)
-          and (:gfsCode is null or p.gfsCode.code = :gfsCode)
-        order by p.paymentDate desc, p.id desc
-    """)
-    Page<PaymentRowView> reportRows(
-            @Param("start") LocalDateTime start,
-            @Param("end") LocalDateTime end,
-            @Param("centreName") String centreName,
-            @Param("zoneName") String zoneName,
-            @Param("gfsCode") String gfsCode,
-            Pageable pageable
-    );
-
-    @Query("""
-        select
-          coalesce(p.gfsCode.code, 'UNKNOWN') as serviceCode,
-          coalesce(p.gfsCode.description, 'UNKNOWN') as serviceDesc,
-          coalesce(sum(p.totalBilled), 0) as totalBilled,
-          coalesce(sum(p.totalPaid), 0) as totalPaid,
-          count(p) as totalTransactions
-        from Payment p
-        where p.paymentDate >= :start and p.paymentDate < :end
-          and (:centreName is null or p.centre.name = :centreName)
-          and (:zoneName is null or p.centre.zones.name = :zoneName)
-          and (:gfsCode is null or p.gfsCode.code = :gfsCode)
-        group by coalesce(p.gfsCode.code, 'UNKNOWN'), coalesce(p.gfsCode.description, 'UNKNOWN')
-        order by totalBilled desc
-    """)
-    List<ServiceSummaryView> summaryByService(
-            @Param("start") LocalDateTime start,
-            @Param("end") LocalDateTime end,
-            @Param("centreName") String centreName,
-            @Param("zoneName") String zoneName,
-            @Param("gfsCode") String gfsCode
-    );
-
-    @Query("select distinct p.centre.name from Payment p order by p.centre.name")
-    List<String> centreOptions();
-
-
 
-    @Query("select distinct p.centre.zones.name from Payment p order by p.centre.zones.name")
-    List<String> zoneOptions();
-
-    @Query("""
-        select distinct
-          coalesce(p.gfsCode.code, 'UNKNOWN'),
-          coalesce(p.gfsCode.description, 'UNKNOWN')
-        from Payment p
-        order by coalesce(p.gfsCode.code, 'UNKNOWN')
-    """)
-    List<Object[]> serviceOptions();
-
-    @Query("""
-        select coalesce(sum(p.totalBilled), 0)
-        from Payment p
-        where p.paymentDate >= :start and p.paymentDate < :end
-          and (:centreName is null or p.centre.name = :centreName)
-          and (:zoneName is null or p.centre.zones.name = :zoneName)
-          and (:gfsCode is null or p.gfsCode.code = :gfsCode)
-    """)
-    BigDecimal totalAmount(
-            @Param("start") LocalDateTime start,
-            @Param("end") LocalDateTime end,
-            @Param("centreName") String centreName,
-            @Param("zoneName") String zoneName,
-            @Param("gfsCode") String gfsCode
-    );
 
 
     @Query("""
@@ -0,0 +1,7 @@
+package com.example.iga_veta.Repository.projections;
+
+public interface PaymentKeyView {
+    Long getId();
+    Long getPaymentId();
+    Long getBillId();
+}
@@ -0,0 +1,72 @@
+package com.example.iga_veta.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size of the next upstream time window. After each window it grows or shrinks so a
+ * response lands near the target row count and the target latency, whichever is tighter.
+ */
+public class AdaptiveFetchWindow {
+
+    private final Duration min;
+    private final Duration max;
+    private final long targetRows;
+    private final Duration targetLatency;
+
+    private volatile Duration current;
+    private volatile long lastRows;
+    private volatile long lastLatencyMillis;
+
+    public AdaptiveFetchWindow(Duration initial, Duration min, Duration max, long targetRows, Duration targetLatency) {
+        this.min = min;
+        this.max = max.compareTo(min) < 0 ? min : max;
+        this.targetRows = Math.max(targetRows, 1);
+        this.targetLatency = targetLatency;
+        this.current = clamp(initial);
+    }
+
+    public Duration current() {
+        return current;
+    }
+
+    /**
+     * Feeds back the result of the window just fetched. Growth and shrink are capped at 2x per
+     * step so one odd response (a burst day, a slow upstream minute) does not swing the size.
+     */
+    public void record(long rows, Duration latency) {
+        lastRows = rows;
+        lastLatencyMillis = latency.toMillis();
+
+        double factor;
+        if (rows <= 0) {
+            factor = 2.0;
+        } else {
+            double byRows = (double) targetRows / rows;
+            double byLatency = latency.isZero()
+                    ? 2.0
+                    : (double) targetLatency.toMillis() / Math.max(latency.toMillis(), 1);
+            factor = Math.min(byRows, byLatency);
+        }
+        factor = Math.max(0.5, Math.min(2.0, factor));
+
+        current = clamp(Duration.ofMillis((long) (current.toMillis() * factor)));
+    }
+
+    private Duration clamp(Duration d) {
+        if (d.compareTo(min) < 0) return min;
+        if (d.compareTo(max) > 0) return max;
+        return d;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("windowMinutes", current.toMinutes());
+        out.put("lastRows", lastRows);
+        out.put("lastLatencyMillis", lastLatencyMillis);
+        out.put("targetRows", targetRows);
+        out.put("targetLatencyMillis", targetLatency.toMillis());
+        return out;
+    }
+}
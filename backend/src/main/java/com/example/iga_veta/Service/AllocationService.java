@@ -3,9 +3,12 @@ package com.example.iga_veta.Service;
 import com.example.iga_veta.Model.*;
 import com.example.iga_veta.Repository.AllocationRepository;
 import com.example.iga_veta.Repository.CentreRepository;
+import com.example.iga_veta.Repository.Gfs_codeRepository;
+import com.example.iga_veta.components.JdbcTimeZone;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -18,15 +21,160 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class AllocationService {
 
+    // payments of this code are split into driving, short course tuition and other contribution
+    private static final String SPLIT_GFS_CODE = "142301600001";
+
+    /**
+     * Paid totals per centre and GFS code in [start, end]. Rows of {@link #SPLIT_GFS_CODE} are
+     * also grouped by description and payment type, so they are classified by the same
+     * {@link #isDriving} / {@link #isShortCourseTuitionFee} as the in-memory path. Each group
+     * carries its oldest payment (lowest id), whose date becomes the allocation date.
+     */
+    private static final String SUMS_SQL = """
+        with g as (
+            select p.centre_id, p.gfs_code_id,
+                   case when gc.code = ? then p.description end as description,
+                   case when gc.code = ? then p.payment_type end as payment_type,
+                   sum(coalesce(p.total_paid, 0)) as total_paid,
+                   min(p.id) as first_id
+            from payments p
+            join gfs_code gc on gc.id = p.gfs_code_id
+            where p.payment_date >= ?::timestamp and p.payment_date <= ?::timestamp
+            group by 1, 2, 3, 4
+        )
+        select g.centre_id, g.gfs_code_id, g.description, g.payment_type, g.total_paid,
+               g.first_id, f.payment_date as first_date
+        from g
+        join payments f on f.id = g.first_id
+        where f.payment_date >= ?::timestamp and f.payment_date <= ?::timestamp
+    """;
+
     private final AllocationRepository allocationRepository;
+    private final Gfs_codeRepository gfsCodeRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTimeZone jdbcTimeZone;
 
     @Autowired
     private CentreRepository centreRepository;
 
+    /** One row of {@link #SUMS_SQL}. */
+    private record SumRow(long centreId, long gfsId, String description, String paymentType,
+                          BigDecimal totalPaid, long firstId, LocalDateTime firstDate) {}
+
+    /** Paid total of one allocation line and its oldest payment. */
+    private static final class Bucket {
+        BigDecimal total = BigDecimal.ZERO;
+        long firstId = Long.MAX_VALUE;
+        LocalDateTime firstDate;
+
+        void add(BigDecimal paid, long id, LocalDateTime date) {
+            total = total.add(paid);
+            if (id < firstId) {
+                firstId = id;
+                firstDate = date;
+            }
+        }
+    }
+
     // ==========================
     // MAIN ENTRY
     // ==========================
 
+    /**
+     * Same allocations as {@link #allocateAllCentres(List, LocalDateTime, LocalDateTime)} but
+     * summed in the database: only one row per centre and GFS code (per description for the
+     * split code) is read instead of every payment. Lines of a centre are ordered by GFS code.
+     */
+    public List<Allocation> allocateAllCentres(LocalDateTime startDate, LocalDateTime endDate) {
+
+        String start = jdbcTimeZone.toDbText(startDate);
+        String end = jdbcTimeZone.toDbText(endDate);
+
+        // centre id -> gfs id -> [plain or driving, short course tuition, other contribution]
+        Map<Long, Map<Long, Bucket[]>> sums = new HashMap<>();
+        Set<Long> gfsIds = new HashSet<>();
+
+        List<SumRow> rows = jdbcTemplate.query(SUMS_SQL, (rs, i) -> new SumRow(
+                rs.getLong("centre_id"),
+                rs.getLong("gfs_code_id"),
+                rs.getString("description"),
+                rs.getString("payment_type"),
+                rs.getBigDecimal("total_paid"),
+                rs.getLong("first_id"),
+                jdbcTimeZone.fromDb(rs.getObject("first_date", LocalDateTime.class))
+        ), SPLIT_GFS_CODE, SPLIT_GFS_CODE, start, end, start, end);
+        for (SumRow r : rows) {
+            gfsIds.add(r.gfsId());
+        }
+
+        Map<Long, GfsCode> gfsById = new HashMap<>();
+        for (GfsCode gfs : gfsCodeRepository.findAllById(gfsIds)) {
+            gfsById.put(gfs.getId(), gfs);
+        }
+
+        for (SumRow r : rows) {
+            GfsCode gfs = gfsById.get(r.gfsId());
+            if (gfs == null) continue;
+
+            int part = 0;
+            if (SPLIT_GFS_CODE.equals(gfs.getCode()) && !isDriving(safeStr(r.description()))) {
+                part = isShortCourseTuitionFee(r.paymentType()) ? 1 : 2;
+            }
+
+            Bucket[] buckets = sums.computeIfAbsent(r.centreId(), c -> new HashMap<>())
+                    .computeIfAbsent(gfs.getId(), g -> new Bucket[3]);
+            if (buckets[part] == null) buckets[part] = new Bucket();
+            buckets[part].add(r.totalPaid(), r.firstId(), r.firstDate());
+        }
+
+        List<Allocation> result = new ArrayList<>();
+
+        for (Centre centre : centreRepository.findAll()) {
+
+            Map<Long, Bucket[]> centreSums = sums.get(centre.getId());
+
+            if (centreSums == null) {
+                result.add(createEmptyAllocation(centre));
+                continue;
+            }
+
+            List<GfsCode> codes = new ArrayList<>();
+            for (Long gfsId : centreSums.keySet()) {
+                codes.add(gfsById.get(gfsId));
+            }
+            codes.sort(Comparator.comparing(GfsCode::getCode).thenComparing(GfsCode::getId));
+
+            for (GfsCode gfs : codes) {
+
+                Bucket[] b = centreSums.get(gfs.getId());
+
+                if (SPLIT_GFS_CODE.equals(gfs.getCode())) {
+
+                    if (b[0] != null) {
+                        result.add(createSpecialAllocation(b[0].total, centre, b[0].firstDate, gfs,
+                                parseMarkup(gfs.getMarkupPercent()), "BASIC DRIVING", gfs.getCode() + "-DRIVING"));
+                    }
+                    if (b[1] != null) {
+                        result.add(createSpecialAllocation(b[1].total, centre, b[1].firstDate, gfs,
+                                parseMarkup(gfs.getMarkupPercent()), "SHORT COURSE TUITION FEE",
+                                gfs.getCode() + "-SHORT_COURSE_TUITION_FEE"));
+                    }
+                    if (b[2] != null) {
+                        result.add(createNoCalcAllocation(b[2].total, centre, b[2].firstDate,
+                                "OTHER CONTRIBUTION", gfs.getCode() + "-OTHER_CONTRIBUTION"));
+                    }
+
+                } else {
+
+                    result.add(createSpecialAllocation(b[0].total, centre, b[0].firstDate, gfs,
+                            parseMarkup(gfs.getMarkupPercent()), gfs.getDescription(), gfs.getCode()));
+                }
+            }
+        }
+
+        return result;
+    }
+
     public List<Allocation> allocateAllCentres(List<Payment> payments,
                                                LocalDateTime startDate,
                                                LocalDateTime endDate) {
@@ -77,7 +225,7 @@ public class AllocationService {
             if (gfs == null) continue;
 
             // Special split for code 142301600001
-            if ("142301600001".equals(gfs.getCode())) {
+            if (SPLIT_GFS_CODE.equals(gfs.getCode())) {
 
                 Map<Boolean, List<Payment>> split = groupPayments.stream()
                         .collect(Collectors.partitioningBy(p -> isDriving(safeStr(p.getDescription()))));
@@ -166,10 +314,19 @@ public class AllocationService {
 
         if (payments == null || payments.isEmpty()) return null;
 
-        BigDecimal totalAmount = payments.stream()
-                .map(p -> p.getTotalPaid() == null ? BigDecimal.ZERO : p.getTotalPaid())
-                .reduce(BigDecimal.ZERO, BigDecimal::add)
-                .setScale(2, RoundingMode.HALF_UP);
+        return createSpecialAllocation(sumPaid(payments), payments.get(0).getCentre(), payments.get(0).getPaymentDate(),
+                gfs, markupPercent, allocationDescLabel, overrideCode);
+    }
+
+    private Allocation createSpecialAllocation(BigDecimal totalPaid,
+                                               Centre centre,
+                                               LocalDateTime date,
+                                               GfsCode gfs,
+                                               BigDecimal markupPercent,
+                                               String allocationDescLabel,
+                                               String overrideCode) {
+
+        BigDecimal totalAmount = totalPaid.setScale(2, RoundingMode.HALF_UP);
 
         BigDecimal expenditure;
         BigDecimal profitMarkupPerCentre;
@@ -260,8 +417,8 @@ public class AllocationService {
             allocation.setRemittedToCentre(calc(profitMarkupPerCentre, 0.47));
         }
 
-        allocation.setCentre(payments.get(0).getCentre());
-        allocation.setDate(payments.get(0).getPaymentDate());
+        allocation.setCentre(centre);
+        allocation.setDate(date);
         allocation.setGfs_code(overrideCode);
         allocation.setGfs_code_description(allocationDescLabel);
 
@@ -276,10 +433,17 @@ public class AllocationService {
                                               String allocationDescLabel,
                                               String overrideCode) {
 
-        BigDecimal totalAmount = payments.stream()
-                .map(p -> p.getTotalPaid() == null ? BigDecimal.ZERO : p.getTotalPaid())
-                .reduce(BigDecimal.ZERO, BigDecimal::add)
-                .setScale(2, RoundingMode.HALF_UP);
+        return createNoCalcAllocation(sumPaid(payments), payments.get(0).getCentre(), payments.get(0).getPaymentDate(),
+                allocationDescLabel, overrideCode);
+    }
+
+    private Allocation createNoCalcAllocation(BigDecimal totalPaid,
+                                              Centre centre,
+                                              LocalDateTime date,
+                                              String allocationDescLabel,
+                                              String overrideCode) {
+
+        BigDecimal totalAmount = totalPaid.setScale(2, RoundingMode.HALF_UP);
 
         Allocation allocation = new Allocation();
 
@@ -297,8 +461,8 @@ public class AllocationService {
         allocation.setDepreciationIncentiveToFacilitators(BigDecimal.ZERO);
         allocation.setRemittedToCentre(BigDecimal.ZERO);
 
-        allocation.setCentre(payments.get(0).getCentre());
-        allocation.setDate(payments.get(0).getPaymentDate());
+        allocation.setCentre(centre);
+        allocation.setDate(date);
         allocation.setGfs_code(overrideCode);
         allocation.setGfs_code_description(allocationDescLabel);
 
@@ -309,6 +473,13 @@ public class AllocationService {
     // UTILITIES
     // ==========================
 
+    private static BigDecimal sumPaid(List<Payment> payments) {
+
+        return payments.stream()
+                .map(p -> p.getTotalPaid() == null ? BigDecimal.ZERO : p.getTotalPaid())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
     private BigDecimal calc(BigDecimal amount, double percent) {
 
         return amount.multiply(BigDecimal.valueOf(percent))
@@ -362,9 +533,12 @@ public class AllocationService {
 
     private static boolean isShortCourseTuitionFee(Payment p) {
 
-        String pt = (p == null) ? "" : safeStr(p.getPaymentType());
+        return isShortCourseTuitionFee(p == null ? null : p.getPaymentType());
+    }
+
+    private static boolean isShortCourseTuitionFee(String paymentType) {
 
-        return pt.equalsIgnoreCase("Short Course Tuition Fee");
+        return safeStr(paymentType).equalsIgnoreCase("Short Course Tuition Fee");
     }
 
     private Allocation createEmptyAllocation(Centre centre) {
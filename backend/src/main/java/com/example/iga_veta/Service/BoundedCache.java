@@ -0,0 +1,94 @@
+package com.example.iga_veta.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small thread-safe LRU cache with a per-entry time-to-live and hit/miss counters.
+ * Used for in-process lookups where pulling in a cache library would be overkill.
+ * An expired entry is dropped when it is next read; until then it only holds one of the
+ * {@code maxSize} slots, so there is nothing to sweep.
+ */
+public class BoundedCache<K, V> {
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private record Entry<V>(V value, long expiresAt) {}
+
+    /**
+     * @param ttlMillis 0 or less means entries never expire, only LRU eviction applies
+     */
+    public BoundedCache(String name, int maxSize, long ttlMillis) {
+        this.name = name;
+        this.maxSize = Math.max(maxSize, 1);
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > BoundedCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> e = map.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (e.expiresAt() > 0 && e.expiresAt() < System.currentTimeMillis()) {
+            map.remove(key);
+            evictions.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.value();
+    }
+
+    public synchronized void put(K key, V value) {
+        if (key == null || value == null) return;
+        long expiresAt = ttlMillis > 0 ? System.currentTimeMillis() + ttlMillis : 0L;
+        map.put(key, new Entry<>(value, expiresAt));
+    }
+
+    public synchronized void remove(K key) {
+        map.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("name", name);
+        out.put("size", size());
+        out.put("maxSize", maxSize);
+        out.put("ttlMillis", ttlMillis);
+        out.put("hits", h);
+        out.put("misses", m);
+        out.put("evictions", evictions.get());
+        out.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        return out;
+    }
+}
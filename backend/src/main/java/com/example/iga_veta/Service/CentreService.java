@@ -5,6 +5,7 @@ import com.example.iga_veta.Model.Centre;
 import com.example.iga_veta.Model.Zone;
 import com.example.iga_veta.Repository.CentreRepository;
 import com.example.iga_veta.Repository.ZoneRepository;
+import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -19,6 +20,27 @@ public class CentreService {
     @Autowired
     private ZoneRepository zoneRepository;
 
+    @Autowired
+    private DimensionCacheService dimensionCacheService;
+
+    @Autowired
+    private PaymentDailyAggService paymentDailyAggService;
+
+    @Autowired
+    private PaymentCube paymentCube;
+
+    @Autowired
+    private PaymentZoneService paymentZoneService;
+
+    @Autowired
+    private SummaryCache summaryCache;
+
+    @Autowired
+    private FilterOptionsService filterOptionsService;
+
+    @Autowired
+    private PaymentChangeSignal paymentChangeSignal;
+
 
     public String createCentre(String name, String rank, Long zoneId) {
         // Check if centre with same name already exists
@@ -66,6 +88,7 @@ public class CentreService {
     }
 
 
+    @Transactional
     public String updateCentre(Long centreId, Centre updatedCentre, Long zoneId) {
 
         Centre centre = centreRepository.findById(centreId)
@@ -89,7 +112,28 @@ public class CentreService {
             centre.setZones(zone);
         }
 
-        centreRepository.save(centre);
+        if (zoneId != null) {
+            // payment writers read the centre's zone with a plain join, which the row lock of
+            // the UPDATE does not block: take every payment key so chunks in flight commit
+            // first and later ones wait for this commit, then read the new zone
+            paymentDailyAggService.lockAllPaymentKeys();
+        }
+        // flushed before the JDBC updates below: they must see the new zone_id
+        centreRepository.saveAndFlush(centre);
+        if (zoneId != null) {
+            // rollup rows and payments carry the zone, keep them with the centre
+            paymentDailyAggService.moveCentre(centre.getId(), zoneId);
+            paymentZoneService.moveCentre(centre.getId(), zoneId);
+            paymentCube.moveCentreAfterCommit(centre.getId(), zoneId);
+        }
+        if (zoneId != null || updatedCentre.getName() != null) {
+            // cached summaries are keyed and labelled by centre/zone name
+            paymentCube.namesChangedAfterCommit();
+            paymentChangeSignal.publish();
+            summaryCache.invalidateAfterCommit();
+            filterOptionsService.markStaleAfterCommit();
+        }
+        dimensionCacheService.evictCentres();
         return "Centre updated successfully";
     }
 
@@ -0,0 +1,718 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Offline backfill of historical collections from NDJSON or CSV dumps of the upstream feed.
+ *
+ * Rows are parsed with the same rules as the live path, streamed into an unlogged staging
+ * table with {@code COPY}, then merged with a handful of set-based statements:
+ * group (incl. SPLIT_GFS) -> create zones/centres/gfs codes/customers -> upsert payments.
+ * Nothing goes through JPA, so a full history load is bound by Postgres, not by round trips.
+ */
+@Service
+public class CollectionBackfillService {
+
+    private static final Logger log = LoggerFactory.getLogger(CollectionBackfillService.class);
+
+    private static final String STAGE_DDL = """
+        create unlogged table if not exists collections_backfill_stage (
+            line_no          bigint      not null,
+            payment_id       bigint      not null,
+            bill_id          bigint,
+            must_split       boolean     not null,
+            customer_name    text        not null,
+            centre_name      text        not null,
+            zone_name        text        not null,
+            gfs_code         text,
+            control_number   text,
+            payment_type     text,
+            description      text        not null,
+            amount_billed    numeric     not null,
+            amount_paid      numeric     not null,
+            payment_date     timestamp   not null,
+            payment_date_key text        not null
+        )
+    """;
+
+    private static final String COPY_SQL = """
+        copy collections_backfill_stage (
+            line_no, payment_id, bill_id, must_split, customer_name, centre_name, zone_name,
+            gfs_code, control_number, payment_type, description, amount_billed, amount_paid,
+            payment_date, payment_date_key
+        ) from stdin with (format csv)
+    """;
+
+    // One row per payment group: the first line's fields plus the summed amounts.
+    // Group key is the same as processApiData_GroupByPaymentId: paymentId, or for SPLIT_GFS
+    // lines paymentId + billId (a line without billId is a group on its own).
+    private static final String GROUP_SQL = """
+        create temp table backfill_groups on commit drop as
+        with keyed as (
+            select s.line_no, s.payment_id,
+                   case when s.must_split then coalesce('b' || s.bill_id, 'l' || s.line_no) else '' end as gkey,
+                   s.amount_billed, s.amount_paid
+            from collections_backfill_stage s
+        ),
+        sums as (
+            select payment_id, min(line_no) as first_line,
+                   sum(amount_billed) as total_billed, sum(amount_paid) as total_paid
+            from keyed
+            group by payment_id, gkey
+        )
+        select f.payment_id, f.bill_id, f.must_split, f.customer_name, f.centre_name, f.zone_name,
+               f.gfs_code, f.control_number, f.payment_type, f.description,
+               f.payment_date, f.payment_date_key,
+               sums.total_billed, sums.total_paid, sums.first_line,
+               null::bigint as centre_id, null::bigint as gfs_code_id,
+               null::bigint as customer_id, null::bigint as target_bill_id
+        from sums
+        join collections_backfill_stage f on f.line_no = sums.first_line
+    """;
+
+    // DimensionCacheService folds names case-insensitively within a chunk, keeps the first
+    // spelling it sees and then looks that spelling up exactly; these two statements give the
+    // backfill the same canonical spelling per group before any lookup.
+    private static final String CANONICAL_CENTRE_NAMES_SQL = """
+        update backfill_groups g set centre_name = f.centre_name
+        from (
+            select distinct on (lower(centre_name)) centre_name
+            from backfill_groups
+            order by lower(centre_name), first_line
+        ) f
+        where lower(g.centre_name) = lower(f.centre_name) and g.centre_name <> f.centre_name
+    """;
+
+    private static final String CANONICAL_CUSTOMER_NAMES_SQL = """
+        update backfill_groups g set customer_name = f.customer_name
+        from (
+            select distinct on (centre_id, lower(customer_name)) centre_id, customer_name
+            from backfill_groups
+            order by centre_id, lower(customer_name), first_line
+        ) f
+        where f.centre_id = g.centre_id
+          and lower(g.customer_name) = lower(f.customer_name) and g.customer_name <> f.customer_name
+    """;
+
+    private static final String CREATE_ZONES_SQL = """
+        insert into zone (name, code)
+        select z.zone_name, substr(md5(random()::text), 1, 8)
+        from (
+            select distinct g.zone_name
+            from backfill_groups g
+            where not exists (select 1 from centre c where c.name = g.centre_name)
+        ) z
+        where not exists (select 1 from zone where zone.name = z.zone_name)
+    """;
+
+    private static final String CREATE_CENTRES_SQL = """
+        insert into centre (name, code, rank, zone_id)
+        select n.centre_name, substr(md5(random()::text), 1, 8), 'A',
+               (select min(z.id) from zone z where z.name = n.zone_name)
+        from (
+            select distinct on (g.centre_name) g.centre_name, g.zone_name
+            from backfill_groups g
+            where not exists (select 1 from centre c where c.name = g.centre_name)
+            order by g.centre_name, g.first_line
+        ) n
+    """;
+
+    private static final String CREATE_GFS_SQL = """
+        insert into gfs_code (code, description, markup_percent)
+        select distinct g.gfs_code, 'UNKNOWN', '0'
+        from backfill_groups g
+        where g.gfs_code is not null
+          and not exists (select 1 from gfs_code x where x.code = g.gfs_code)
+    """;
+
+    private static final String RESOLVE_CENTRES_SQL = """
+        update backfill_groups g set centre_id = c.id
+        from (select name, min(id) as id from centre group by name) c
+        where c.name = g.centre_name
+    """;
+
+    private static final String RESOLVE_GFS_SQL = """
+        update backfill_groups g set gfs_code_id = x.id
+        from (select code, min(id) as id from gfs_code group by code) x
+        where x.code = g.gfs_code
+    """;
+
+    // email as DimensionCacheService#insertCustomers builds it
+    private static final String CREATE_CUSTOMERS_SQL = """
+        insert into customer (name, email, centre_id, created_at, updated_at)
+        select n.customer_name,
+               case when btrim(n.customer_name) = '' then 'unknown'
+                    else lower(replace(n.customer_name, ' ', '.')) end || '@example.com',
+               n.centre_id, ?::timestamp, ?::timestamp
+        from (
+            select distinct g.centre_id, g.customer_name
+            from backfill_groups g
+            where not exists (
+                select 1 from customer c
+                where c.centre_id = g.centre_id and c.name = g.customer_name
+            )
+        ) n
+    """;
+
+    private static final String RESOLVE_CUSTOMERS_SQL = """
+        update backfill_groups g set customer_id = c.id
+        from (
+            select centre_id, name, min(id) as id
+            from customer
+            where centre_id in (select distinct centre_id from backfill_groups)
+            group by centre_id, name
+        ) c
+        where c.centre_id = g.centre_id and c.name = g.customer_name
+    """;
+
+    // Same matching as the live path: SPLIT_GFS lines keep their billId, everything else
+    // lands on the oldest stored row of the paymentId.
+    private static final String RESOLVE_BILL_SQL = """
+        update backfill_groups g set target_bill_id = coalesce(
+            case when not g.must_split or g.bill_id is null then (
+                select p.bill_id from payments p where p.payment_id = g.payment_id order by p.id limit 1
+            ) end,
+            g.bill_id,
+            0
+        )
+    """;
+
+    // content_hash must equal PaymentBulkWriter.PaymentUpsert#contentHash so the live feed
+    // does not rewrite backfilled rows; payment_date_key is LocalDateTime#toString of the value.
+    private static final String MERGE_PAYMENTS_TEMPLATE = """
+        with src as (
+            select distinct on (g.payment_id, g.target_bill_id)
+                   g.payment_id, g.target_bill_id as bill_id, g.customer_id, g.centre_id, g.gfs_code_id,
+                   g.control_number, g.payment_type, g.description,
+                   g.total_billed, g.total_paid, g.payment_date,
+                   md5(concat_ws(chr(31),
+                       g.customer_id::text,
+                       g.centre_id::text,
+                       coalesce(g.gfs_code_id::text, 'null'),
+                       coalesce(g.control_number, 'null'),
+                       coalesce(g.payment_type, 'null'),
+                       g.description,
+                       round(g.total_billed, 2)::text,
+                       round(g.total_paid, 2)::text,
+                       g.payment_date_key
+                   )) as content_hash
+            from backfill_groups g
+            order by g.payment_id, g.target_bill_id, g.first_line desc
+        ),
+        old as (
+            select p.id, p.payment_id, p.bill_id, p.centre_id, p.gfs_code_id, p.payment_type,
+                   p.payment_date, p.total_billed, p.total_paid
+            from payments p
+            join src s on s.payment_id = p.payment_id and s.bill_id = p.bill_id
+        ),
+        {moved}
+        up as (
+            insert into payments (
+                {id_column}payment_id, bill_id, customer_id, centre_id, gfs_code_id,
+                control_number, payment_type, description,
+                total_billed, total_paid, payment_date, last_fetched, content_hash,
+                created_at, updated_at, zone_id
+            )
+            select {id_value}t.payment_id, t.bill_id, t.customer_id, t.centre_id, t.gfs_code_id,
+                   t.control_number, t.payment_type, t.description,
+                   t.total_billed, t.total_paid, t.payment_date, ?::timestamp, t.content_hash,
+                   ?::timestamp, ?::timestamp, c.zone_id
+            from src t
+            left join centre c on c.id = t.centre_id
+            {moved_join}
+            on conflict {conflict_key} do update set
+                customer_id    = excluded.customer_id,
+                centre_id      = excluded.centre_id,
+                gfs_code_id    = excluded.gfs_code_id,
+                control_number = excluded.control_number,
+                payment_type   = excluded.payment_type,
+                description    = excluded.description,
+                total_billed   = excluded.total_billed,
+                total_paid     = excluded.total_paid,
+                payment_date   = excluded.payment_date,
+                last_fetched   = excluded.last_fetched,
+                content_hash   = excluded.content_hash,
+                updated_at     = excluded.updated_at,
+                zone_id        = excluded.zone_id
+            where payments.content_hash is distinct from excluded.content_hash
+            returning payment_id, bill_id, centre_id, gfs_code_id, payment_type,
+                      payment_date, total_billed, total_paid, {inserted} as inserted
+        ),
+        """ + PaymentDailyAggService.DELTA_CTE + """
+        select count(*) filter (where inserted), count(*) filter (where not inserted), (select count(*) from src)
+        from up
+    """;
+
+    private static final String MERGE_PAYMENTS_SQL = PaymentPartitionService.upsertSql(MERGE_PAYMENTS_TEMPLATE, "src", false);
+    private static final String MERGE_PAYMENTS_MONTHLY_SQL = PaymentPartitionService.upsertSql(MERGE_PAYMENTS_TEMPLATE, "src", true);
+
+    public record BackfillResult(
+            String file,
+            String format,
+            long linesRead,
+            long rowsStaged,
+            long skippedNoPaymentId,
+            long groups,
+            int zonesCreated,
+            int centresCreated,
+            int gfsCodesCreated,
+            int customersCreated,
+            long inserted,
+            long updated,
+            long unchanged,
+            long stageMillis,
+            long mergeMillis
+    ) {}
+
+    private record StageCounts(long linesRead, long rowsStaged, long skippedNoPaymentId) {}
+
+    private final CollectionService collectionService;
+    private final DimensionCacheService dimensionCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTimeZone jdbcTimeZone;
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final PaymentCube paymentCube;
+    private final SummaryCache summaryCache;
+    private final FilterOptionsService filterOptions;
+    private final PaymentPartitionService paymentPartitions;
+    private final PaymentDailyAggService dailyAgg;
+    private final PaymentChangeSignal changeSignal;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Value("${collections.backfill.dir:backfill}")
+    private String backfillDir;
+
+    public CollectionBackfillService(
+            CollectionService collectionService,
+            DimensionCacheService dimensionCache,
+            JdbcTemplate jdbcTemplate,
+            JdbcTimeZone jdbcTimeZone,
+            DataSource dataSource,
+            ObjectMapper objectMapper,
+            PlatformTransactionManager transactionManager,
+            PaymentCube paymentCube,
+            SummaryCache summaryCache,
+            FilterOptionsService filterOptions,
+            PaymentPartitionService paymentPartitions,
+            PaymentDailyAggService dailyAgg,
+            PaymentChangeSignal changeSignal
+    ) {
+        this.collectionService = collectionService;
+        this.dimensionCache = dimensionCache;
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcTimeZone = jdbcTimeZone;
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.paymentCube = paymentCube;
+        this.summaryCache = summaryCache;
+        this.filterOptions = filterOptions;
+        this.paymentPartitions = paymentPartitions;
+        this.dailyAgg = dailyAgg;
+        this.changeSignal = changeSignal;
+    }
+
+    /**
+     * Loads one dump file from {@code collections.backfill.dir}. The format follows the file
+     * extension: {@code .ndjson}/{@code .jsonl} (one feed row object per line) or {@code .csv}
+     * (header row with the feed field names).
+     */
+    public BackfillResult backfill(String fileName) {
+        Path file = resolveFile(fileName);
+        String format = formatOf(file);
+
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A backfill is already running");
+        }
+        try {
+            LocalDateTime fetchedAt = LocalDateTime.now();
+
+            long t0 = System.nanoTime();
+            StageCounts staged = transactionTemplate.execute(status -> stage(file, format, fetchedAt));
+            long stageMillis = (System.nanoTime() - t0) / 1_000_000;
+
+            long t1 = System.nanoTime();
+            BackfillResult merged = transactionTemplate.execute(status -> merge(file, format, staged, fetchedAt));
+            long mergeMillis = (System.nanoTime() - t1) / 1_000_000;
+
+            // centres may have been created or renamed under the cache's feet
+            dimensionCache.evictCentres();
+            // a dump touches too many rows to log one by one
+            paymentCube.reloadAsync();
+            summaryCache.invalidateAll();
+            filterOptions.markStale();
+
+            BackfillResult result = new BackfillResult(
+                    merged.file(), merged.format(), merged.linesRead(), merged.rowsStaged(), merged.skippedNoPaymentId(),
+                    merged.groups(), merged.zonesCreated(), merged.centresCreated(), merged.gfsCodesCreated(),
+                    merged.customersCreated(), merged.inserted(), merged.updated(), merged.unchanged(),
+                    stageMillis, mergeMillis
+            );
+            log.info("Backfill done: {}", result);
+            return result;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private Path resolveFile(String fileName) {
+        if (fileName == null || fileName.isBlank()) {
+            throw new IllegalArgumentException("file is required");
+        }
+        Path dir = Paths.get(backfillDir).toAbsolutePath().normalize();
+        Path file = dir.resolve(fileName).normalize();
+        if (!file.startsWith(dir)) {
+            throw new IllegalArgumentException("file must be inside " + dir);
+        }
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("No such backfill file: " + fileName);
+        }
+        return file;
+    }
+
+    private static String formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) return "ndjson";
+        if (name.endsWith(".csv")) return "csv";
+        throw new IllegalArgumentException("Unsupported backfill file type: " + file.getFileName());
+    }
+
+    // ==========================
+    // STAGE: file -> COPY
+    // ==========================
+
+    private StageCounts stage(Path file, String format, LocalDateTime fetchedAt) {
+        jdbcTemplate.execute(STAGE_DDL);
+        jdbcTemplate.execute("truncate table collections_backfill_stage");
+
+        Connection con = DataSourceUtils.getConnection(dataSource);
+        CopyIn copy = null;
+        try {
+            copy = con.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            CopyWriter out = new CopyWriter(copy);
+
+            long[] counts = new long[3]; // lines, staged, skipped
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                if ("csv".equals(format)) {
+                    readCsv(reader, row -> stageRow(row, fetchedAt, out, counts));
+                } else {
+                    readNdjson(reader, row -> stageRow(row, fetchedAt, out, counts));
+                }
+            }
+            out.flush();
+            long copied = copy.endCopy();
+            copy = null;
+
+            log.info("Backfill staged {} rows from {} ({} lines, {} without paymentId)",
+                    copied, file.getFileName(), counts[0], counts[2]);
+            return new StageCounts(counts[0], copied, counts[2]);
+        } catch (SQLException e) {
+            throw new RuntimeException("COPY into staging failed: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading " + file.getFileName() + " failed", e);
+        } finally {
+            if (copy != null && copy.isActive()) {
+                try {
+                    copy.cancelCopy();
+                } catch (SQLException ignored) {
+                    // the transaction is rolled back anyway
+                }
+            }
+            DataSourceUtils.releaseConnection(con, dataSource);
+        }
+    }
+
+    /** Parses one feed row with the live path's rules and writes it as a CSV line for COPY. */
+    private void stageRow(Map<String, String> row, LocalDateTime fetchedAt, CopyWriter out, long[] counts) {
+        long lineNo = ++counts[0];
+
+        Long paymentId = collectionService.parseLongOrNull(row.get("paymentId"));
+        if (paymentId == null) {
+            counts[2]++;
+            return;
+        }
+        Long billId = collectionService.parseLongOrNull(row.get("billId"));
+        String gfsCode = collectionService.safeTrim(row.get("gfsCode"));
+        boolean mustSplit = gfsCode != null && CollectionService.SPLIT_GFS.contains(gfsCode);
+
+        String centreName = collectionService.safeTrim(row.get("centreName"));
+        String customerName = collectionService.safeTrim(row.get("customerName"));
+        String description = collectionService.safeTrim(row.get("description"));
+        LocalDateTime paymentDate = collectionService.parseDate(row.get("paymentDate"));
+
+        if (centreName == null) centreName = "UNKNOWN CENTRE";
+        if (customerName == null) customerName = "UNKNOWN";
+        if (description == null) description = "";
+        if (paymentDate == null) paymentDate = fetchedAt;
+
+        String firstToken = !centreName.isBlank() ? centreName.split("\\s+")[0] : "";
+
+        BigDecimal billed = collectionService.parseBigDecimalOrZero(row.get("amountBilled"));
+        BigDecimal paid = collectionService.parseBigDecimalOrZero(row.get("amountPaid"));
+
+        try {
+            out.number(lineNo).number(paymentId).number(billId).bool(mustSplit)
+                    .text(customerName).text(centreName).text(DimensionCacheService.zoneNameForCentre(firstToken))
+                    .text(gfsCode)
+                    .text(collectionService.safeTrim(row.get("controlNumber")))
+                    .text(collectionService.safeTrim(row.get("paymentType")))
+                    .text(description)
+                    .number(billed).number(paid)
+                    .text(jdbcTimeZone.toDbText(paymentDate))
+                    .text(paymentDate.toString())
+                    .endRow();
+        } catch (SQLException e) {
+            throw new RuntimeException("COPY into staging failed: " + e.getMessage(), e);
+        }
+        counts[1]++;
+    }
+
+    private interface RowSink {
+        void accept(Map<String, String> row);
+    }
+
+    private void readNdjson(BufferedReader reader, RowSink sink) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            JsonNode node = objectMapper.readTree(line);
+            Map<String, String> row = new HashMap<>();
+            for (String field : CollectionFeedReader.FIELDS) {
+                row.put(field, scalar(node.get(field)));
+            }
+            sink.accept(row);
+        }
+    }
+
+    private static String scalar(JsonNode v) {
+        if (v == null || v.isNull() || v.isContainerNode()) return null;
+        String s = v.asText().trim();
+        if (s.isEmpty() || "null".equalsIgnoreCase(s)) return null;
+        return s;
+    }
+
+    private void readCsv(BufferedReader reader, RowSink sink) throws IOException {
+        List<String> header = readCsvRecord(reader);
+        if (header == null) return;
+
+        // map header columns to feed field names, ignoring case and unknown columns
+        Map<String, String> byLower = new HashMap<>();
+        for (String f : CollectionFeedReader.FIELDS) byLower.put(f.toLowerCase(Locale.ROOT), f);
+        String[] fieldAt = new String[header.size()];
+        for (int i = 0; i < header.size(); i++) {
+            fieldAt[i] = byLower.get(header.get(i).trim().toLowerCase(Locale.ROOT));
+        }
+
+        List<String> record;
+        while ((record = readCsvRecord(reader)) != null) {
+            if (record.size() == 1 && record.get(0).isBlank()) continue;
+            Map<String, String> row = new HashMap<>();
+            for (int i = 0; i < record.size() && i < fieldAt.length; i++) {
+                if (fieldAt[i] == null) continue;
+                String s = record.get(i).trim();
+                row.put(fieldAt[i], s.isEmpty() || "null".equalsIgnoreCase(s) ? null : s);
+            }
+            sink.accept(row);
+        }
+    }
+
+    /** RFC 4180 record: quoted fields may contain commas, doubled quotes and line breaks. */
+    private static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) return null;
+
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            cur.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        cur.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    out.add(cur.toString());
+                    cur.setLength(0);
+                } else {
+                    cur.append(c);
+                }
+            }
+            if (!quoted) break;
+
+            String next = reader.readLine();
+            if (next == null) break;
+            cur.append('\n');
+            line = next;
+        }
+        out.add(cur.toString());
+        return out;
+    }
+
+    /** Buffers CSV rows for COPY and ships them in 64 KB writes. */
+    private static final class CopyWriter {
+        private final CopyIn copy;
+        private final StringBuilder row = new StringBuilder(256);
+        private final byte[] buf = new byte[64 * 1024];
+        private int len;
+        private boolean firstColumn = true;
+
+        CopyWriter(CopyIn copy) {
+            this.copy = copy;
+        }
+
+        CopyWriter number(Object v) {
+            sep();
+            if (v != null) row.append(v instanceof BigDecimal bd ? bd.toPlainString() : v.toString());
+            return this;
+        }
+
+        CopyWriter bool(boolean v) {
+            sep();
+            row.append(v ? 't' : 'f');
+            return this;
+        }
+
+        // null stays an unquoted empty field (NULL); strings are always quoted so "" stays ""
+        CopyWriter text(String v) {
+            sep();
+            if (v != null) {
+                row.append('"').append(v.replace("\"", "\"\"")).append('"');
+            }
+            return this;
+        }
+
+        void endRow() throws SQLException {
+            row.append('\n');
+            byte[] bytes = row.toString().getBytes(StandardCharsets.UTF_8);
+            row.setLength(0);
+            firstColumn = true;
+
+            if (len + bytes.length > buf.length) flush();
+            if (bytes.length > buf.length) {
+                copy.writeToCopy(bytes, 0, bytes.length);
+            } else {
+                System.arraycopy(bytes, 0, buf, len, bytes.length);
+                len += bytes.length;
+            }
+        }
+
+        void flush() throws SQLException {
+            if (len > 0) {
+                copy.writeToCopy(buf, 0, len);
+                len = 0;
+            }
+        }
+
+        private void sep() {
+            if (!firstColumn) row.append(',');
+            firstColumn = false;
+        }
+    }
+
+    // ==========================
+    // MERGE: staging -> tables
+    // ==========================
+
+    private BackfillResult merge(Path file, String format, StageCounts staged, LocalDateTime fetchedAt) {
+        jdbcTemplate.execute(GROUP_SQL);
+        Long groups = jdbcTemplate.queryForObject("select count(*) from backfill_groups", Long.class);
+
+        // same locks, in the same order, as the live path takes them when creating dimensions
+        jdbcTemplate.update(CANONICAL_CENTRE_NAMES_SQL);
+        dimensionCache.lockForCreate("centre");
+        int zones = jdbcTemplate.update(CREATE_ZONES_SQL);
+        int centres = jdbcTemplate.update(CREATE_CENTRES_SQL);
+        dimensionCache.lockForCreate("gfs_code");
+        int gfsCodes = jdbcTemplate.update(CREATE_GFS_SQL);
+        jdbcTemplate.update(RESOLVE_CENTRES_SQL);
+        jdbcTemplate.update(RESOLVE_GFS_SQL);
+
+        String now = jdbcTimeZone.toDbText(LocalDateTime.now());
+        jdbcTemplate.update(CANONICAL_CUSTOMER_NAMES_SQL);
+        dimensionCache.lockForCreate("customer");
+        int customers = jdbcTemplate.update(CREATE_CUSTOMERS_SQL, now, now);
+        jdbcTemplate.update(RESOLVE_CUSTOMERS_SQL);
+        jdbcTemplate.update(RESOLVE_BILL_SQL);
+
+        boolean monthly = paymentPartitions.isPartitioned();
+        if (monthly) {
+            paymentPartitions.ensureMonths(jdbcTemplate.queryForList(
+                    "select distinct date_trunc('month', payment_date) from backfill_groups", LocalDateTime.class));
+        }
+
+        // a dump touches payments all over the key space, so hold off every live writer
+        dailyAgg.lockAllPaymentKeys();
+        long[] counts;
+        try {
+            counts = jdbcTemplate.queryForObject(
+                    monthly ? MERGE_PAYMENTS_MONTHLY_SQL : MERGE_PAYMENTS_SQL,
+                    (rs, i) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)},
+                    jdbcTimeZone.toDbText(fetchedAt), now, now
+            );
+        } catch (DataAccessException e) {
+            paymentPartitions.writeFailed();
+            throw e;
+        }
+        if (counts == null) {
+            throw new IllegalStateException("Backfill merge returned no result");
+        }
+        // too many rows to log one by one: every cube reloads instead
+        jdbcTemplate.update(PaymentCube.RELOAD_MARKER_SQL);
+        changeSignal.publish();
+
+        long g = groups == null ? 0 : groups;
+        return new BackfillResult(
+                file.getFileName().toString(), format,
+                staged.linesRead(), staged.rowsStaged(), staged.skippedNoPaymentId(),
+                g, zones, centres, gfsCodes, customers,
+                counts[0], counts[1], counts[2] - counts[0] - counts[1],
+                0, 0
+        );
+    }
+}
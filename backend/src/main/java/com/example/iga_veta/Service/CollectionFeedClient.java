@@ -0,0 +1,406 @@
+package com.example.iga_veta.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP client for the upstream collections feed, on {@link HttpClient}.
+ *
+ * - connect and response-header timeouts, plus an idle timeout while the body is streamed
+ * - bounded retry with jittered exponential backoff for connect errors, timeouts and 5xx
+ * - asks for gzip and inflates on the fly, so the parser reads the body as it arrives
+ * - a circuit breaker per source: after repeated failures requests fail fast until a cool-down passes
+ */
+@Component
+public class CollectionFeedClient {
+
+    private static final Logger log = LoggerFactory.getLogger(CollectionFeedClient.class);
+
+    public enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    /** Reads the response body; runs while the body is still arriving. */
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    /** Thrown without touching the network while the circuit is open. */
+    public static class CircuitOpenException extends RuntimeException {
+        public CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+
+    @Value("${collections.feed.request-timeout-seconds:60}")
+    private long requestTimeoutSeconds;
+
+    @Value("${collections.feed.read-idle-timeout-seconds:60}")
+    private long readIdleTimeoutSeconds;
+
+    @Value("${collections.feed.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${collections.feed.backoff-initial-millis:500}")
+    private long backoffInitialMillis;
+
+    @Value("${collections.feed.backoff-max-millis:10000}")
+    private long backoffMaxMillis;
+
+    @Value("${collections.feed.circuit.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${collections.feed.circuit.open-seconds:60}")
+    private long openSeconds;
+
+    @Value("${collections.feed.circuit.max-open-seconds:900}")
+    private long maxOpenSeconds;
+
+    // one breaker per source, so one unhealthy feed does not stop the others
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong gzipResponses = new AtomicLong();
+
+    public CollectionFeedClient(
+            ObjectMapper objectMapper,
+            @Value("${collections.feed.connect-timeout-seconds:10}") long connectTimeoutSeconds
+    ) {
+        this.objectMapper = objectMapper;
+        AtomicInteger n = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "feed-client-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "feed-client-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * POSTs the body as JSON and hands the (inflated) response stream to the reader on the
+     * calling thread. Retries only happen before the reader has seen any bytes.
+     *
+     * Only transport and parse errors ({@link IOException}s) count against the source's
+     * circuit. Runtime exceptions thrown by the reader, e.g. a failed chunk write or an
+     * aborted pipeline, are the consumer's and are passed through without touching it.
+     */
+    public <T> T post(String source, String url, Map<String, Object> body, BodyReader<T> reader) {
+        Circuit circuit = circuit(source);
+        HttpResponse<InputStream> response = join(sendWithRetry(circuit, url, body));
+        return readBody(circuit, response, reader);
+    }
+
+    /** True when a request for the source would be attempted now (circuit closed, or open but cooled down). */
+    public boolean isAvailable(String source) {
+        return circuit(source).isAvailable();
+    }
+
+    private Circuit circuit(String source) {
+        return circuits.computeIfAbsent(source, Circuit::new);
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> sendWithRetry(Circuit circuit, String url, Map<String, Object> body) {
+        circuit.acquirePermit();
+
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofSeconds(requestTimeoutSeconds))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "application/json")
+                    .header("Accept-Encoding", "gzip")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        CompletableFuture<HttpResponse<InputStream>> result = new CompletableFuture<>();
+        attempt(circuit, request, 1, result);
+        return result;
+    }
+
+    private void attempt(Circuit circuit, HttpRequest request, int attemptNo, CompletableFuture<HttpResponse<InputStream>> result) {
+        requests.incrementAndGet();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .whenComplete((response, error) -> {
+                    Throwable failure = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+
+                    if (failure == null && response.statusCode() >= 500) {
+                        closeQuietly(response.body());
+                        failure = new IOException("Upstream returned status " + response.statusCode());
+                    }
+                    if (failure == null && response.statusCode() >= 400) {
+                        // client errors will not get better with a retry
+                        closeQuietly(response.body());
+                        RuntimeException e = new RuntimeException("Failed to fetch data from API, status=" + response.statusCode());
+                        circuit.onFailure(e);
+                        result.completeExceptionally(e);
+                        return;
+                    }
+                    if (failure == null) {
+                        result.complete(response);
+                        return;
+                    }
+
+                    if (attemptNo < Math.max(maxAttempts, 1) && isRetryable(failure)) {
+                        long delay = backoffMillis(attemptNo);
+                        retries.incrementAndGet();
+                        log.warn("Feed {} attempt {} failed ({}), retrying in {} ms",
+                                circuit.source, attemptNo, failure.toString(), delay);
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, executor)
+                                .execute(() -> attempt(circuit, request, attemptNo + 1, result));
+                        return;
+                    }
+
+                    circuit.onFailure(failure);
+                    result.completeExceptionally(failure);
+                });
+    }
+
+    private <T> T readBody(Circuit circuit, HttpResponse<InputStream> response, BodyReader<T> reader) {
+        IdleTimeoutInputStream in = new IdleTimeoutInputStream(response.body());
+        long idleMillis = Duration.ofSeconds(readIdleTimeoutSeconds).toMillis();
+        ScheduledFuture<?> check = idleMillis <= 0 ? null : watchdog.scheduleWithFixedDelay(
+                () -> in.closeIfIdle(idleMillis), idleMillis, Math.max(idleMillis / 4, 250), TimeUnit.MILLISECONDS);
+
+        try (InputStream body = in) {
+            InputStream decoded = body;
+            String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+            if ("gzip".equalsIgnoreCase(encoding.trim())) {
+                gzipResponses.incrementAndGet();
+                decoded = new GZIPInputStream(body, 64 * 1024);
+            }
+            T value = reader.read(decoded);
+            circuit.onSuccess();
+            return value;
+        } catch (IOException e) {
+            IOException reported = in.timedOut()
+                    ? new HttpTimeoutException("No data from upstream for " + readIdleTimeoutSeconds + "s")
+                    : e;
+            circuit.onFailure(reported);
+            throw new UncheckedIOException(reported);
+        } finally {
+            if (check != null) check.cancel(false);
+        }
+    }
+
+    private static boolean isRetryable(Throwable t) {
+        return t instanceof IOException;
+    }
+
+    private long backoffMillis(int attemptNo) {
+        long base = Math.max(backoffInitialMillis, 1) << Math.min(attemptNo - 1, 16);
+        long capped = Math.min(base, Math.max(backoffMaxMillis, 1));
+        // full jitter: spread retries of several nodes instead of hitting upstream together
+        return ThreadLocalRandom.current().nextLong(capped / 2, capped + 1);
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            if (in != null) in.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof RuntimeException re) throw re;
+            if (c instanceof IOException io) throw new UncheckedIOException(io);
+            throw e;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("requests", requests.get());
+        out.put("retries", retries.get());
+        out.put("failures", failures.get());
+        out.put("rejected", rejected.get());
+        out.put("gzipResponses", gzipResponses.get());
+        Map<String, Object> bySource = new LinkedHashMap<>();
+        for (Circuit c : circuits.values()) {
+            bySource.put(c.source, c.stats());
+        }
+        out.put("circuits", bySource);
+        return out;
+    }
+
+    /** Breaker state of one source. */
+    private final class Circuit {
+        final String source;
+
+        // guarded by this
+        private CircuitState state = CircuitState.CLOSED;
+        private int consecutiveFailures;
+        private int openings;
+        private long openUntilMillis;
+        private String lastFailure;
+        private LocalDateTime lastFailureAt;
+
+        Circuit(String source) {
+            this.source = source;
+        }
+
+        synchronized boolean isAvailable() {
+            return state != CircuitState.OPEN || System.currentTimeMillis() >= openUntilMillis;
+        }
+
+        synchronized void acquirePermit() {
+            if (state == CircuitState.OPEN) {
+                if (System.currentTimeMillis() < openUntilMillis) {
+                    rejected.incrementAndGet();
+                    throw new CircuitOpenException("Feed " + source + " circuit is open until "
+                            + Instant.ofEpochMilli(openUntilMillis) + ", last error: " + lastFailure);
+                }
+                state = CircuitState.HALF_OPEN;
+                log.info("Feed {} circuit half-open, probing upstream", source);
+            }
+        }
+
+        synchronized void onSuccess() {
+            if (state != CircuitState.CLOSED) {
+                log.info("Feed {} circuit closed", source);
+            }
+            state = CircuitState.CLOSED;
+            consecutiveFailures = 0;
+            openings = 0;
+        }
+
+        synchronized void onFailure(Throwable t) {
+            failures.incrementAndGet();
+            consecutiveFailures++;
+            lastFailure = t.toString();
+            lastFailureAt = LocalDateTime.now();
+
+            if (state == CircuitState.HALF_OPEN || consecutiveFailures >= Math.max(failureThreshold, 1)) {
+                // each consecutive opening doubles the cool-down, up to the max
+                long seconds = Math.min(Math.max(openSeconds, 1) << Math.min(openings, 10), Math.max(maxOpenSeconds, 1));
+                openings++;
+                state = CircuitState.OPEN;
+                openUntilMillis = System.currentTimeMillis() + seconds * 1000;
+                log.warn("Feed {} circuit open for {}s after {} consecutive failures: {}",
+                        source, seconds, consecutiveFailures, lastFailure);
+            }
+        }
+
+        synchronized Map<String, Object> stats() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("circuit", state == CircuitState.OPEN && System.currentTimeMillis() >= openUntilMillis
+                    ? "OPEN (cooled down)" : state.name());
+            out.put("consecutiveFailures", consecutiveFailures);
+            out.put("openUntil", state == CircuitState.OPEN ? Instant.ofEpochMilli(openUntilMillis) : null);
+            out.put("lastFailure", lastFailure);
+            out.put("lastFailureAt", lastFailureAt);
+            return out;
+        }
+    }
+
+    /**
+     * Lets the watchdog abort a read that has been blocked too long. Time spent outside read()
+     * (the parser waiting on a full pipeline queue) does not count as idle.
+     */
+    private static final class IdleTimeoutInputStream extends FilterInputStream {
+
+        private volatile long readStartedMillis;
+        private volatile boolean reading;
+        private volatile boolean timedOut;
+
+        IdleTimeoutInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            begin();
+            try {
+                return super.read();
+            } finally {
+                reading = false;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            begin();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                reading = false;
+            }
+        }
+
+        private void begin() {
+            readStartedMillis = System.currentTimeMillis();
+            reading = true;
+        }
+
+        void closeIfIdle(long idleMillis) {
+            if (!timedOut && reading && System.currentTimeMillis() - readStartedMillis > idleMillis) {
+                timedOut = true;
+                closeQuietly(in);
+            }
+        }
+
+        boolean timedOut() {
+            return timedOut;
+        }
+    }
+}
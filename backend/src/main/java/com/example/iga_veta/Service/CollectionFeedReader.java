@@ -0,0 +1,299 @@
+package com.example.iga_veta.Service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reads the upstream collections feed token by token.
+ *
+ * The feed looks like {@code {"lastFetchedDate": "...", "collections": [ {...}, ... ]}}.
+ * Rows are handed to a {@link ChunkSink} in chunks of about {@code chunkSize} rows, and each
+ * chunk is written before the next one is read. A chunk is only cut between two different
+ * paymentIds, so lines of one payment that arrive next to each other land in the same chunk.
+ *
+ * Lines of one payment are not guaranteed to be adjacent, and every chunk is grouped and
+ * written on its own: a chunk holding only the later lines would overwrite the stored totals
+ * with a partial sum. Only the paymentIds already handed out are kept (as a set of longs, no
+ * lines), and a chunk tells its sink which of its paymentIds are such continuations; the
+ * writer adds their amounts to the row the earlier chunks stored. The set is capped by
+ * {@code collections.feed.max-tracked-payments}: once it is full, no more chunks are cut and
+ * the rest of the response goes out as one last chunk.
+ */
+@Service
+public class CollectionFeedReader {
+
+    private static final Logger log = LoggerFactory.getLogger(CollectionFeedReader.class);
+
+    static final String[] FIELDS = {
+            "paymentId",
+            "billId",
+            "customerName",
+            "gfsCode",
+            "amountBilled",
+            "amountPaid",
+            "description",
+            "centreName",
+            "paymentType",
+            "controlNumber",
+            "paymentDate"
+    };
+
+    private final ObjectMapper objectMapper;
+
+    // 16 bytes per paymentId at most
+    @Value("${collections.feed.max-tracked-payments:1000000}")
+    private int maxTrackedPayments;
+
+    public CollectionFeedReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @FunctionalInterface
+    public interface ChunkSink {
+        /**
+         * @param rows            rows of this chunk, same shape as the legacy {@code Map<String,String>} rows
+         * @param lastFetchedDate upstream "lastFetchedDate" if it was seen before the array, else null
+         * @param continued       paymentIds of this chunk that earlier chunks already carried lines of
+         */
+        void accept(List<Map<String, String>> rows, String lastFetchedDate, Set<Long> continued);
+    }
+
+    /** {@code trackedPayments}: paymentIds kept to spot continuations, the only state held across chunks. */
+    public record FeedSummary(String lastFetchedDate, long rows, int chunks, long bytes, int trackedPayments) {}
+
+    public FeedSummary read(InputStream in, int chunkSize, ChunkSink sink) throws IOException {
+        int limit = Math.max(chunkSize, 1);
+        CountingInputStream counting = new CountingInputStream(in);
+
+        String lastFetchedDate = null;
+        long rows = 0;
+        int chunks = 0;
+        // paymentIds handed out in earlier chunks
+        LongSet emitted = new LongSet();
+
+        try (JsonParser p = objectMapper.getFactory().createParser(counting)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Collections feed is not a JSON object");
+            }
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+
+                if ("lastFetchedDate".equals(field)) {
+                    lastFetchedDate = scalar(p, value);
+                    continue;
+                }
+
+                if (!"collections".equals(field) || value != JsonToken.START_ARRAY) {
+                    p.skipChildren();
+                    continue;
+                }
+
+                List<Map<String, String>> chunk = new ArrayList<>(limit);
+                String lastPaymentId = null;
+                Set<Long> inChunk = new HashSet<>();
+                boolean buffering = false;
+
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    if (p.currentToken() != JsonToken.START_OBJECT) {
+                        p.skipChildren();
+                        continue;
+                    }
+
+                    Map<String, String> row = readRow(p);
+                    String paymentId = row.get("paymentId");
+
+                    if (!buffering && chunk.size() >= limit && !Objects.equals(paymentId, lastPaymentId)) {
+                        if (emitted.size() + inChunk.size() > maxTrackedPayments) {
+                            // cannot tell continuations apart any more: keep the rest together
+                            log.warn("Collections feed has more than {} payments, buffering the rest of the response",
+                                    maxTrackedPayments);
+                            buffering = true;
+                        } else {
+                            sink.accept(chunk, lastFetchedDate, continued(inChunk, emitted, true));
+                            chunks++;
+                            chunk = new ArrayList<>(limit);
+                            inChunk.clear();
+                        }
+                    }
+
+                    Long id = paymentId(paymentId);
+                    if (id != null) inChunk.add(id);
+
+                    chunk.add(row);
+                    lastPaymentId = paymentId;
+                    rows++;
+                }
+
+                if (!chunk.isEmpty()) {
+                    sink.accept(chunk, lastFetchedDate, continued(inChunk, emitted, false));
+                    chunks++;
+                }
+            }
+        }
+
+        return new FeedSummary(lastFetchedDate, rows, chunks, counting.count, emitted.size());
+    }
+
+    /** Ids of the chunk that earlier chunks carried; with {@code track} the chunk's ids join {@code emitted}. */
+    private static Set<Long> continued(Set<Long> inChunk, LongSet emitted, boolean track) {
+        Set<Long> continued = new HashSet<>();
+        for (Long id : inChunk) {
+            if (track ? !emitted.add(id) : emitted.contains(id)) continued.add(id);
+        }
+        return continued;
+    }
+
+    /** Same parsing as {@code CollectionService.parseLongOrNull}; rows without a numeric id are dropped there. */
+    private static Long paymentId(String s) {
+        if (s == null) return null;
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Map<String, String> readRow(JsonParser p) throws IOException {
+        Map<String, String> row = new HashMap<>(FIELDS.length * 2);
+        for (String f : FIELDS) {
+            row.put(f, null);
+        }
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if (row.containsKey(field)) {
+                row.put(field, scalar(p, value));
+            } else {
+                p.skipChildren();
+            }
+        }
+        return row;
+    }
+
+    /** Same normalisation as {@code CollectionService.safeString}: trimmed, blank or "null" becomes null. */
+    private static String scalar(JsonParser p, JsonToken token) throws IOException {
+        if (token == null || token == JsonToken.VALUE_NULL) return null;
+        if (token.isStructStart()) {
+            p.skipChildren();
+            return null;
+        }
+        String s = p.getValueAsString();
+        if (s == null) return null;
+        s = s.trim();
+        if (s.isEmpty() || "null".equalsIgnoreCase(s)) return null;
+        return s;
+    }
+
+    /** Open-addressing set of longs, so a tracked paymentId costs 8 to 16 bytes instead of a boxed entry. */
+    private static final class LongSet {
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] slots = newSlots(1024);
+        private boolean hasEmpty;
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(long v) {
+            if (v == EMPTY) return hasEmpty;
+            int mask = slots.length - 1;
+            int i = slot(v, mask);
+            while (slots[i] != EMPTY) {
+                if (slots[i] == v) return true;
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        /** @return false when the value was already there */
+        boolean add(long v) {
+            if (v == EMPTY) {
+                if (hasEmpty) return false;
+                hasEmpty = true;
+                size++;
+                return true;
+            }
+            if (!insert(slots, v)) return false;
+            if (++size * 2 > slots.length) {
+                long[] bigger = newSlots(slots.length * 2);
+                for (long s : slots) {
+                    if (s != EMPTY) insert(bigger, s);
+                }
+                slots = bigger;
+            }
+            return true;
+        }
+
+        private static boolean insert(long[] table, long v) {
+            int mask = table.length - 1;
+            int i = slot(v, mask);
+            while (table[i] != EMPTY) {
+                if (table[i] == v) return false;
+                i = (i + 1) & mask;
+            }
+            table[i] = v;
+            return true;
+        }
+
+        private static int slot(long v, int mask) {
+            return Long.hashCode(v * 0x9E3779B97F4A7C15L) & mask;
+        }
+
+        private static long[] newSlots(int n) {
+            long[] table = new long[n];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
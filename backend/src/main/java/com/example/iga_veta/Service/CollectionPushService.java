@@ -0,0 +1,312 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Model.CollectionPushBatch;
+import com.example.iga_veta.Repository.CollectionPushBatchRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Push alternative to polling: upstream (or a relay) POSTs batches of feed rows.
+ *
+ * A batch is stored in {@code collections_push_batch} and acknowledged right away; a
+ * background applier then runs it through the normal grouping + upsert path. Re-applying a
+ * batch, or pushing the same rows twice, is harmless because payments are upserted on
+ * (payment_id, bill_id) and unchanged rows are skipped by content hash.
+ */
+@Service
+public class CollectionPushService {
+
+    private static final Logger log = LoggerFactory.getLogger(CollectionPushService.class);
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_APPLIED = "APPLIED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    /** Checkpoint key prefix; each pushing api key owner gets its own checkpoint row. */
+    public static final String SOURCE_PREFIX = "push:";
+
+    private static final TypeReference<List<Map<String, String>>> ROWS = new TypeReference<>() {};
+
+    private final CollectionPushBatchRepository batchRepository;
+    private final CollectionService collectionService;
+    private final ObjectMapper objectMapper;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ExecutorService applier = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "collections-push-applier");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicLong batchesAccepted = new AtomicLong();
+    private final AtomicLong batchesDuplicate = new AtomicLong();
+    private final AtomicLong batchesApplied = new AtomicLong();
+    private final AtomicLong batchFailures = new AtomicLong();
+    private final AtomicLong rowsApplied = new AtomicLong();
+    private volatile LocalDateTime lastAppliedAt;
+    private volatile long lastApplyLagMillis;
+
+    @Value("${collections.push.max-batch-rows:5000}")
+    private int maxBatchRows;
+
+    @Value("${collections.push.max-attempts:5}")
+    private int maxAttempts;
+
+    // comma separated owners of push keys (scope PUSH) allowed to push; empty means any of them
+    @Value("${collections.push.allowed-owners:}")
+    private String allowedOwners;
+
+    public CollectionPushService(
+            CollectionPushBatchRepository batchRepository,
+            CollectionService collectionService,
+            ObjectMapper objectMapper,
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager
+    ) {
+        this.batchRepository = batchRepository;
+        this.collectionService = collectionService;
+        this.objectMapper = objectMapper;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        applier.shutdownNow();
+    }
+
+    public record PushAck(Long batchId, int rows, String status, boolean duplicate) {}
+
+    /**
+     * Durably stores the batch and returns without applying it.
+     *
+     * @param idempotencyKey optional client batch id; a retry with the same key returns the first ack
+     */
+    public PushAck enqueue(String owner, String idempotencyKey, List<Map<String, Object>> rows) {
+        if (!isAllowed(owner)) {
+            throw new AccessDeniedException("API key owner '" + owner + "' may not push collections");
+        }
+        if (rows == null || rows.isEmpty()) {
+            throw new IllegalArgumentException("collections must not be empty");
+        }
+        if (rows.size() > Math.max(maxBatchRows, 1)) {
+            throw new IllegalArgumentException("Batch too large: " + rows.size() + " rows, max " + maxBatchRows);
+        }
+
+        String key = (idempotencyKey == null || idempotencyKey.isBlank()) ? null : idempotencyKey.trim();
+        if (key != null && key.length() > 100) {
+            throw new IllegalArgumentException("batchId must be at most 100 characters");
+        }
+        if (key != null) {
+            Optional<CollectionPushBatch> existing = batchRepository.findBySourceAndIdempotencyKey(owner, key);
+            if (existing.isPresent()) {
+                batchesDuplicate.incrementAndGet();
+                return ack(existing.get(), true);
+            }
+        }
+
+        CollectionPushBatch batch = new CollectionPushBatch();
+        batch.setSource(owner);
+        batch.setIdempotencyKey(key);
+        batch.setPayload(toPayload(rows));
+        batch.setRowCount(rows.size());
+        batch.setStatus(STATUS_PENDING);
+        batch.setAttempts(0);
+        batch.setReceivedAt(LocalDateTime.now());
+        batch.setNextAttemptAt(batch.getReceivedAt());
+
+        try {
+            batch = batchRepository.save(batch);
+        } catch (DataIntegrityViolationException e) {
+            // same key pushed twice at the same moment
+            if (key == null) throw e;
+            batchesDuplicate.incrementAndGet();
+            return ack(batchRepository.findBySourceAndIdempotencyKey(owner, key).orElseThrow(() -> e), true);
+        }
+
+        batchesAccepted.incrementAndGet();
+        wake();
+        return ack(batch, false);
+    }
+
+    public Optional<CollectionPushBatch> find(Long id) {
+        return batchRepository.findById(id);
+    }
+
+    private boolean isAllowed(String owner) {
+        if (owner == null || owner.isBlank()) return false;
+        if (allowedOwners == null || allowedOwners.isBlank()) return true;
+        for (String o : allowedOwners.split(",")) {
+            if (o.trim().equalsIgnoreCase(owner)) return true;
+        }
+        return false;
+    }
+
+    private static PushAck ack(CollectionPushBatch b, boolean duplicate) {
+        return new PushAck(b.getId(), b.getRowCount() == null ? 0 : b.getRowCount(), b.getStatus(), duplicate);
+    }
+
+    /** Keeps only the feed fields, normalised the same way as polled rows. */
+    private String toPayload(List<Map<String, Object>> rows) {
+        List<Map<String, String>> out = new ArrayList<>(rows.size());
+        for (Map<String, Object> item : rows) {
+            if (item == null) continue;
+            Map<String, String> row = new HashMap<>();
+            for (String field : CollectionFeedReader.FIELDS) {
+                Object v = item.get(field);
+                if (v == null || v instanceof Map || v instanceof Collection) {
+                    row.put(field, null);
+                    continue;
+                }
+                String s = v.toString().trim();
+                row.put(field, s.isEmpty() || "null".equalsIgnoreCase(s) ? null : s);
+            }
+            out.add(row);
+        }
+        try {
+            return objectMapper.writeValueAsString(out);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Batch could not be serialised: " + e.getMessage(), e);
+        }
+    }
+
+    // ==========================
+    // APPLY
+    // ==========================
+
+    /** Starts draining on the applier thread unless it is already draining. */
+    public void wake() {
+        if (!draining.compareAndSet(false, true)) return;
+        applier.execute(() -> {
+            try {
+                while (applyNext()) {
+                    // keep going until the queue is empty or another node holds the apply lock
+                }
+            } catch (RuntimeException e) {
+                log.warn("Push applier stopped: {}", e.getMessage());
+            } finally {
+                draining.set(false);
+            }
+        });
+    }
+
+    // safety net for batches left behind by a restart or a backoff
+    @Scheduled(fixedDelayString = "${collections.push.poll-millis:5000}")
+    public void poll() {
+        wake();
+    }
+
+    /**
+     * Applies the oldest due batch in one transaction: rows, checkpoint and batch status commit
+     * together. A transaction-scoped advisory lock lets one node apply at a time, and batches
+     * of a source are applied strictly in id order.
+     *
+     * In parallel write mode the write workers commit the rows on their own transactions
+     * before the batch is marked applied. If the apply fails after that, the batch stays
+     * pending and is re-applied in full, which the idempotent upsert makes harmless.
+     *
+     * @return true if a batch was taken (applied or failed), false when there is nothing to do
+     */
+    private boolean applyNext() {
+        Long[] claimedId = new Long[1];
+        try {
+            Boolean applied = transactionTemplate.execute(status -> {
+                Boolean locked = jdbcTemplate.queryForObject(
+                        "select pg_try_advisory_xact_lock(hashtext(?))", Boolean.class, "collections-push-apply");
+                if (!Boolean.TRUE.equals(locked)) return false;
+
+                Optional<CollectionPushBatch> claimed = batchRepository.claimNextPending(LocalDateTime.now());
+                if (claimed.isEmpty()) return false;
+
+                CollectionPushBatch batch = claimed.get();
+                claimedId[0] = batch.getId();
+
+                List<Map<String, String>> rows;
+                try {
+                    rows = objectMapper.readValue(batch.getPayload(), ROWS);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalStateException("Stored payload of batch " + batch.getId() + " is unreadable", e);
+                }
+
+                collectionService.processChunk(SOURCE_PREFIX + batch.getSource(), rows, batch.getReceivedAt());
+
+                LocalDateTime now = LocalDateTime.now();
+                batch.setStatus(STATUS_APPLIED);
+                batch.setAttempts(batch.getAttempts() + 1);
+                batch.setAppliedAt(now);
+                batch.setLastError(null);
+                batchRepository.save(batch);
+
+                batchesApplied.incrementAndGet();
+                rowsApplied.addAndGet(rows.size());
+                lastAppliedAt = now;
+                lastApplyLagMillis = Duration.between(batch.getReceivedAt(), now).toMillis();
+                return true;
+            });
+            return Boolean.TRUE.equals(applied);
+        } catch (RuntimeException e) {
+            if (claimedId[0] == null) throw e;
+            batchFailures.incrementAndGet();
+            transactionTemplate.executeWithoutResult(status -> markFailed(claimedId[0], e));
+            return true;
+        }
+    }
+
+    private void markFailed(Long batchId, RuntimeException error) {
+        batchRepository.findById(batchId).ifPresent(b -> {
+            int attempts = b.getAttempts() + 1;
+            b.setAttempts(attempts);
+            String msg = String.valueOf(error.getMessage());
+            b.setLastError(msg.length() > 500 ? msg.substring(0, 500) : msg);
+
+            if (attempts >= Math.max(maxAttempts, 1)) {
+                // gives up and unblocks the source; its rows are older than the batches behind it
+                b.setStatus(STATUS_FAILED);
+                log.error("Push batch {} failed {} times, giving up: {}", batchId, attempts, msg);
+            } else {
+                // 10s, 20s, 40s, ...; newer batches of the same source wait behind it so they
+                // are not overwritten by its older rows, other sources keep applying
+                long backoff = 10L << Math.min(attempts - 1, 10);
+                b.setNextAttemptAt(LocalDateTime.now().plusSeconds(backoff));
+                log.warn("Push batch {} failed (attempt {}), retrying in {}s: {}", batchId, attempts, backoff, msg);
+            }
+            batchRepository.save(b);
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("pending", batchRepository.countByStatus(STATUS_PENDING));
+        out.put("failed", batchRepository.countByStatus(STATUS_FAILED));
+        out.put("accepted", batchesAccepted.get());
+        out.put("duplicates", batchesDuplicate.get());
+        out.put("applied", batchesApplied.get());
+        out.put("applyFailures", batchFailures.get());
+        out.put("rowsApplied", rowsApplied.get());
+        out.put("lastAppliedAt", lastAppliedAt);
+        out.put("lastApplyLagMillis", lastApplyLagMillis);
+        return out;
+    }
+}
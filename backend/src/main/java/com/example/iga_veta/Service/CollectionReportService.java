@@ -1,12 +1,11 @@
 package com.example.iga_veta.Service;
 
-import com.example.iga_veta.Repository.CollectionRepository;
+import com.example.iga_veta.Repository.CollectionRowView;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,25 +13,12 @@ import java.util.Map;
 @Service
 public class CollectionReportService {
 
-    private final CollectionRepository repo;
+    private final ReportQueryEngine engine;
 
-    public CollectionReportService(CollectionRepository repo) {
-        this.repo = repo;
+    public CollectionReportService(ReportQueryEngine engine) {
+        this.engine = engine;
     }
 
-    private static BigDecimal toBigDecimal(Object v) {
-        if (v == null) return BigDecimal.ZERO;
-        if (v instanceof BigDecimal bd) return bd;
-        if (v instanceof Number n) return BigDecimal.valueOf(n.doubleValue());
-        try { return new BigDecimal(String.valueOf(v)); }
-        catch (Exception e) { return BigDecimal.ZERO; }
-    }
-    private static long toLong(Object v) {
-        if (v == null) return 0L;
-        if (v instanceof Number n) return n.longValue();
-        try { return Long.parseLong(String.valueOf(v)); }
-        catch (Exception e) { return 0L; }
-    }
     private static String emptyToNull(String s) {
         if (s == null) return null;
         s = s.trim();
@@ -42,6 +28,16 @@ public class CollectionReportService {
     public Map<String, Object> report(LocalDate fromDate, LocalDate toDate,
                                       String centre, String zone, String service,
                                       int page, int size) {
+        return report(fromDate, toDate, centre, zone, service, page, size, null);
+    }
+
+    /**
+     * @param cursor nextCursor of the previous page; when set, rows are read by keyset and
+     *               page only labels the response
+     */
+    public Map<String, Object> report(LocalDate fromDate, LocalDate toDate,
+                                      String centre, String zone, String service,
+                                      int page, int size, String cursor) {
 
         centre = emptyToNull(centre);
         zone = emptyToNull(zone);
@@ -50,32 +46,36 @@ public class CollectionReportService {
         LocalDateTime start = fromDate.atStartOfDay();
         LocalDateTime endExclusive = toDate.plusDays(1).atStartOfDay();
 
-        var pageable = org.springframework.data.domain.PageRequest.of(page, size);
-
-        var rowsPage = repo.reportRows(start, endExclusive, centre, zone, service, pageable);
+        page = Math.max(page, 0);
+        size = Math.max(size, 1);
+        ReportQueryEngine.PageSpec spec = new ReportQueryEngine.PageSpec(ReportCursor.decode(cursor), page, size);
 
-        // totals
-        var totalsRows = repo.reportTotals(start, endExclusive, centre, zone, service);
-        Object[] totals = (!totalsRows.isEmpty() ? totalsRows.get(0) : null);
+        // rows, totals and summary by service in one statement; the totals row count replaces a page count query
+        ReportQueryEngine.CollectionReport report = engine.collections(start, endExclusive, centre, zone, service, spec);
+        BigDecimal totalAmount = report.totalAmount();
+        long totalRows = report.totalRows();
 
-        BigDecimal totalAmount = totals == null ? BigDecimal.ZERO : toBigDecimal(totals[0]);
-        long totalRows = totals == null ? 0L : toLong(totals[1]);
-
-        // summary by service
-        List<Map<String, Object>> summaryByService = new ArrayList<>();
-        for (Object[] r : repo.reportSummaryByService(start, endExclusive, centre, zone, service)) {
-            Map<String, Object> m = new LinkedHashMap<>();
-            m.put("serviceCode", String.valueOf(r[0]));
-            m.put("service", String.valueOf(r[1]));
-            m.put("total", toBigDecimal(r[2]));
-            summaryByService.add(m);
+        List<CollectionRowView> rows;
+        boolean hasNext;
+        if (spec.after() != null) {
+            hasNext = report.rows().size() > size;
+            rows = hasNext ? report.rows().subList(0, size) : report.rows();
+        } else {
+            rows = report.rows();
+            hasNext = rows.size() == size && (long) (page + 1) * size < totalRows;
         }
+        CollectionRowView last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+        ReportCursor next = (hasNext && last != null) ? ReportCursor.after(last.getDatePaid(), last.getId()) : null;
+
+        List<Map<String, Object>> summaryByService = report.byService();
 
         Map<String, Object> out = new LinkedHashMap<>();
-        out.put("rows", rowsPage.getContent());
+        out.put("rows", rows);
         out.put("page", page);
         out.put("size", size);
         out.put("totalRows", totalRows);
+        out.put("nextCursor", next == null ? null : next.encode());
+        out.put("hasNext", next != null);
         out.put("totalAmount", totalAmount);
         out.put("summaryByService", summaryByService);
         return out;
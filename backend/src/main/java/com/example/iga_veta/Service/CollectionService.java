@@ -1,16 +1,19 @@
 package com.example.iga_veta.Service;
 
+import com.example.iga_veta.Configuration.CollectionSourceProperties;
 import com.example.iga_veta.Model.*;
 import com.example.iga_veta.Model.Collections;
 import com.example.iga_veta.Repository.*;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.PersistenceContext;
+import com.example.iga_veta.Repository.projections.PaymentKeyView;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 
 import java.math.BigDecimal;
@@ -20,45 +23,141 @@ import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class CollectionService {
 
     private static final Logger log = LoggerFactory.getLogger(CollectionService.class);
 
-    private final CustomerRepository customerRepository;
-    private final CentreRepository centreRepository;
-    private final Gfs_codeRepository gfsCodeRepository;
     private final CollectionRepository collectionsRepository;
     private final PaymentRepository paymentRepository;
-    private final ZoneRepository zoneRepository;
     private final RestTemplate restTemplate;
+    private final CollectionFeedReader feedReader;
+    private final CollectionFeedClient feedClient;
+    private final PaymentBulkWriter paymentBulkWriter;
+    private final DimensionCacheService dimensionCache;
+    private final IngestionCheckpointService checkpointService;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate dimensionTx;
+    private final IngestionPipeline pipeline;
+    private final CollectionSourceProperties sourceProperties;
 
-    @PersistenceContext
-    private EntityManager em;
+    @Value("${collections.ingest.streaming:true}")
+    private boolean streaming;
+
+    @Value("${collections.ingest.chunk-size:1000}")
+    private int chunkSize;
+
+    @Value("${collections.ingest.lookup-batch-size:1000}")
+    private int lookupBatchSize;
+
+    @Value("${collections.ingest.pipeline.enabled:true}")
+    private boolean pipelined;
+
+    // upstream must honour the end-of-window field; off by default until it does
+    @Value("${collections.ingest.window.enabled:false}")
+    private boolean windowed;
+
+    @Value("${collections.ingest.window.end-field:toDate}")
+    private String windowEndField;
+
+    private final Duration windowInitial;
+    private final Duration windowMin;
+    private final Duration windowMax;
+    private final long windowTargetRows;
+    private final Duration windowTargetLatency;
+
+    // one window per source: feeds differ in volume and latency
+    private final Map<String, AdaptiveFetchWindow> fetchWindows = new ConcurrentHashMap<>();
 
     public CollectionService(
-            CustomerRepository customerRepository,
-            CentreRepository centreRepository,
-            Gfs_codeRepository gfsCodeRepository,
             CollectionRepository collectionsRepository,
             PaymentRepository paymentRepository,
-            ZoneRepository zoneRepository,
-            RestTemplate restTemplate
+            RestTemplate restTemplate,
+            CollectionFeedReader feedReader,
+            CollectionFeedClient feedClient,
+            PaymentBulkWriter paymentBulkWriter,
+            DimensionCacheService dimensionCache,
+            IngestionCheckpointService checkpointService,
+            PlatformTransactionManager transactionManager,
+            IngestionPipeline pipeline,
+            CollectionSourceProperties sourceProperties,
+            @Value("${collections.ingest.window.initial-minutes:360}") long windowInitialMinutes,
+            @Value("${collections.ingest.window.min-minutes:5}") long windowMinMinutes,
+            @Value("${collections.ingest.window.max-minutes:10080}") long windowMaxMinutes,
+            @Value("${collections.ingest.window.target-rows:20000}") long windowTargetRows,
+            @Value("${collections.ingest.window.target-seconds:30}") long windowTargetSeconds
     ) {
-        this.customerRepository = customerRepository;
-        this.centreRepository = centreRepository;
-        this.gfsCodeRepository = gfsCodeRepository;
         this.collectionsRepository = collectionsRepository;
         this.paymentRepository = paymentRepository;
-        this.zoneRepository = zoneRepository;
         this.restTemplate = restTemplate;
+        this.feedReader = feedReader;
+        this.feedClient = feedClient;
+        this.paymentBulkWriter = paymentBulkWriter;
+        this.dimensionCache = dimensionCache;
+        this.checkpointService = checkpointService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.dimensionTx = new TransactionTemplate(transactionManager);
+        this.dimensionTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.pipeline = pipeline;
+        this.sourceProperties = sourceProperties;
+        this.windowInitial = Duration.ofMinutes(windowInitialMinutes);
+        this.windowMin = Duration.ofMinutes(windowMinMinutes);
+        this.windowMax = Duration.ofMinutes(windowMaxMinutes);
+        this.windowTargetRows = windowTargetRows;
+        this.windowTargetLatency = Duration.ofSeconds(windowTargetSeconds);
     }
 
-    private static final String API_URL = "http://41.59.229.41:6092/api/collections/fetch";
-    private static final String API_KEY = "Vj7k_Oc7Gm5j2QHqZJ3lJ4UrVzml8GoxT9CwpuG8OqY";
+    /** Checkpoint key of the built-in upstream feed. */
+    public static final String DEFAULT_SOURCE = CollectionSourceProperties.DEFAULT_NAME;
+
+    /** Outcome of one chunk; maxPaymentDate is what the checkpoint advances to. */
+    public record ChunkResult(int inserted, int updated, int unchanged, int groups, LocalDateTime maxPaymentDate) {}
+
+    /** Totals of one ingestion pass. */
+    public record RunSummary(
+            String source,
+            long chunks,
+            long groups,
+            long inserted,
+            long updated,
+            long unchanged,
+            LocalDateTime apiLastFetchedDate
+    ) {}
+
+    private static final class RunTotals {
+        long chunks, groups, inserted, updated, unchanged;
+        LocalDateTime maxPaymentDate;
+
+        synchronized void add(ChunkResult r) {
+            if (r == null) return;
+            chunks++;
+            groups += r.groups();
+            inserted += r.inserted();
+            updated += r.updated();
+            unchanged += r.unchanged();
+            if (r.maxPaymentDate() != null
+                    && (maxPaymentDate == null || r.maxPaymentDate().isAfter(maxPaymentDate))) {
+                maxPaymentDate = r.maxPaymentDate();
+            }
+        }
+
+        synchronized long groups() {
+            return groups;
+        }
+
+        synchronized LocalDateTime maxPaymentDate() {
+            return maxPaymentDate;
+        }
+
+        synchronized RunSummary toSummary(String source, LocalDateTime apiLastFetchedDate) {
+            return new RunSummary(source, chunks, groups, inserted, updated, unchanged, apiLastFetchedDate);
+        }
+    }
 
-    private static final Set<String> SPLIT_GFS = Set.of(
+    static final Set<String> SPLIT_GFS = Set.of(
             "142202540053",
             "142301600001",
             "142202120086",
@@ -76,30 +175,223 @@ public class CollectionService {
                     .optionalEnd()
                     .toFormatter();
 
-    @Scheduled(fixedRate = 100000)
-    public void fetchDataPeriodically() {
-        fetchDataFromApi();
+    /** Runs one ingestion pass against the first configured source. */
+    public RunSummary fetchDataFromApi() {
+        List<CollectionSourceProperties.Source> sources = sourceProperties.activeSources();
+        if (sources.isEmpty()) {
+            throw new IllegalStateException("No collections source is enabled");
+        }
+        return fetchDataFromApi(sources.get(0));
     }
 
-    @SuppressWarnings("unchecked")
-    public void fetchDataFromApi() {
+    /**
+     * Runs one ingestion pass against one upstream source. Callers should go through
+     * {@link IngestionCoordinator} so only one pass per source runs at a time across the cluster.
+     * Sources share the dimension caches and the payment writer but nothing else.
+     */
+    public RunSummary fetchDataFromApi(CollectionSourceProperties.Source src) {
+        String source = src.getName();
 
-        LocalDateTime cursor = paymentRepository
-                .findMaxPaymentDate()
-                .orElse(LocalDateTime.of(2024, 11, 30, 0, 0))
-                .minusMinutes(5);
+        LocalDateTime cursor = checkpointService.cursorFor(source);
 
+        RunTotals totals = new RunTotals();
+
+        checkpointService.markStarted(source);
+        try {
+            LocalDateTime apiLastFetchedDate = windowed
+                    ? fetchWindowed(src, cursor, totals)
+                    : fetchOnce(src, cursor, requestBody(src, cursor, null), totals);
+            checkpointService.markCompleted(source, apiLastFetchedDate);
+            return totals.toSummary(source, apiLastFetchedDate);
+        } catch (RuntimeException e) {
+            checkpointService.markFailed(source, e);
+            throw e;
+        }
+    }
+
+    private Map<String, Object> requestBody(CollectionSourceProperties.Source src, LocalDateTime from, LocalDateTime to) {
         DateTimeFormatter iso = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
 
         Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("lastFetchedDate", cursor.format(iso));
-        requestBody.put("apiKey", API_KEY);
+        requestBody.put("lastFetchedDate", from.format(iso));
+        if (to != null) {
+            requestBody.put(windowEndField, to.format(iso));
+        }
+        requestBody.put("apiKey", src.getApiKey());
+        return requestBody;
+    }
+
+    private LocalDateTime fetchOnce(CollectionSourceProperties.Source src, LocalDateTime cursor, Map<String, Object> requestBody, RunTotals totals) {
+        if (!streaming) {
+            return fetchBuffered(src, cursor, requestBody, totals);
+        }
+        if (pipelined) {
+            return fetchPipelined(src, cursor, requestBody, totals);
+        }
+        return fetchStreaming(src, cursor, requestBody,
+                (chunk, date, continued) -> totals.add(processChunk(src.getName(), chunk, date, continued)));
+    }
+
+    /**
+     * Asks upstream for bounded [from, to) windows until it is caught up, so one request never
+     * carries the whole backlog after downtime. The window size adapts to the previous
+     * response's group count and latency.
+     */
+    private LocalDateTime fetchWindowed(CollectionSourceProperties.Source src, LocalDateTime cursor, RunTotals totals) {
+        AdaptiveFetchWindow fetchWindow = fetchWindow(src.getName());
+        LocalDateTime from = cursor;
+        LocalDateTime apiLastFetchedDate = null;
+        int windows = 0;
+
+        while (true) {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime to = from.plus(fetchWindow.current());
+            boolean last = !to.isBefore(now);
+
+            long groupsBefore = totals.groups();
+            long t0 = System.nanoTime();
+
+            // the last window is left open-ended so nothing newer than "now" is missed
+            apiLastFetchedDate = fetchOnce(src, from, requestBody(src, from, last ? null : to), totals);
+            windows++;
+
+            Duration latency = Duration.ofNanos(System.nanoTime() - t0);
+            long groups = totals.groups() - groupsBefore;
+            log.info("{} window {} [{} .. {}) groups={} latencyMs={}",
+                    src.getName(), windows, from, last ? "open" : to, groups, latency.toMillis());
+
+            if (last) break;
+
+            LocalDateTime maxSeen = totals.maxPaymentDate();
+            if (maxSeen != null && maxSeen.isAfter(to.plusMinutes(1))) {
+                // upstream ignored the window end and returned everything: we are caught up
+                log.warn("Upstream ignored '{}' (got payments up to {}), stopping windowed fetch", windowEndField, maxSeen);
+                break;
+            }
+
+            fetchWindow.record(groups, latency);
+            from = to;
+        }
+
+        return apiLastFetchedDate;
+    }
+
+    private AdaptiveFetchWindow fetchWindow(String source) {
+        return fetchWindows.computeIfAbsent(source, k -> new AdaptiveFetchWindow(
+                windowInitial, windowMin, windowMax, windowTargetRows, windowTargetLatency));
+    }
+
+    public Map<String, Object> fetchWindowStats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", windowed);
+        Map<String, Object> bySource = new LinkedHashMap<>();
+        fetchWindows.forEach((name, w) -> bySource.put(name, w.stats()));
+        out.put("sources", bySource);
+        return out;
+    }
+
+    /**
+     * Groups and writes one chunk and advances the source checkpoint in the same transaction.
+     */
+    public ChunkResult processChunk(String source, List<Map<String, String>> rows, LocalDateTime apiLastFetchedDate) {
+        return processChunk(source, rows, apiLastFetchedDate, Set.of());
+    }
+
+    /**
+     * As above; {@code continued} are the paymentIds whose earlier lines an earlier chunk of the
+     * same response already wrote (see {@link CollectionFeedReader}).
+     */
+    ChunkResult processChunk(String source, List<Map<String, String>> rows, LocalDateTime apiLastFetchedDate,
+                             Set<Long> continued) {
+        if (paymentBulkWriter.isParallel()) {
+            // partition workers use their own connections, so new centres/GFS codes/customers
+            // must be committed before they write
+            ResolvedChunk resolved = dimensionTx.execute(status -> resolveDimensions(parseRows(rows, apiLastFetchedDate, continued)));
+            return transactionTemplate.execute(status -> {
+                ChunkResult r = writeResolved(resolved);
+                checkpointService.advance(source, r.maxPaymentDate(), r.groups());
+                return r;
+            });
+        }
+        return transactionTemplate.execute(status -> {
+            ChunkResult r = writeResolved(resolveDimensions(parseRows(rows, apiLastFetchedDate, continued)));
+            checkpointService.advance(source, r.maxPaymentDate(), r.groups());
+            return r;
+        });
+    }
+
+    /** Receives each chunk of raw rows as the response is read. */
+    private interface ChunkHandler {
+        void accept(List<Map<String, String>> rows, LocalDateTime apiLastFetchedDate, Set<Long> continued);
+    }
+
+    /** Raw chunk handed from the fetch stage to the parse stage. */
+    private record RawChunk(List<Map<String, String>> rows, LocalDateTime apiLastFetchedDate, Set<Long> continued) {}
+
+    /**
+     * Streaming fetch run through {@link IngestionPipeline}: the next chunk is read from the
+     * network while earlier ones are grouped, resolved and written.
+     */
+    private LocalDateTime fetchPipelined(CollectionSourceProperties.Source src, LocalDateTime cursor, Map<String, Object> requestBody, RunTotals totals) {
+        String source = src.getName();
+        AtomicReference<LocalDateTime> apiLastFetchedDate = new AtomicReference<>();
+
+        pipeline.<RawChunk, ParsedChunk, ResolvedChunk>run(
+                source,
+                emit -> apiLastFetchedDate.set(fetchStreaming(src, cursor, requestBody,
+                        (chunk, date, continued) -> emit.emit(new RawChunk(chunk, date, continued), chunk.size()))),
+                raw -> parseRows(raw.rows(), raw.apiLastFetchedDate(), raw.continued()),
+                parsed -> transactionTemplate.execute(status -> resolveDimensions(parsed)),
+                resolved -> totals.add(transactionTemplate.execute(status -> {
+                    ChunkResult r = writeResolved(resolved);
+                    checkpointService.advance(source, r.maxPaymentDate(), r.groups());
+                    return r;
+                }))
+        );
+
+        return apiLastFetchedDate.get();
+    }
+
+    /**
+     * Streams the response straight into {@link CollectionFeedReader}; rows are handed to the
+     * handler chunk by chunk, so the full response is never held in memory.
+     */
+    private LocalDateTime fetchStreaming(CollectionSourceProperties.Source src, LocalDateTime cursor, Map<String, Object> requestBody, ChunkHandler handler) {
+        final LocalDateTime fetchStartedAt = LocalDateTime.now();
+
+        CollectionFeedReader.FeedSummary summary = feedClient.post(
+                src.getName(),
+                src.getUrl(),
+                requestBody,
+                body -> feedReader.read(body, chunkSize, (chunk, lastFetched, continued) -> {
+                    LocalDateTime apiLastFetchedDate = parseDate(lastFetched);
+                    if (apiLastFetchedDate == null) {
+                        apiLastFetchedDate = fetchStartedAt;
+                    }
+                    handler.accept(chunk, apiLastFetchedDate, continued);
+                })
+        );
+
+        if (summary == null) {
+            throw new RuntimeException("Failed to fetch data from API, empty response");
+        }
+
+        log.info("Source={}, CursorSent={}, apiLastFetchedDate={}, API items={}, chunks={}, bytes={}, trackedPayments={}",
+                src.getName(), cursor, summary.lastFetchedDate(), summary.rows(), summary.chunks(), summary.bytes(),
+                summary.trackedPayments());
+
+        LocalDateTime apiLastFetchedDate = parseDate(summary.lastFetchedDate());
+        return apiLastFetchedDate != null ? apiLastFetchedDate : fetchStartedAt;
+    }
+
+    @SuppressWarnings("unchecked")
+    private LocalDateTime fetchBuffered(CollectionSourceProperties.Source src, LocalDateTime cursor, Map<String, Object> requestBody, RunTotals totals) {
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
-        ResponseEntity<Map> response = restTemplate.postForEntity(API_URL, entity, Map.class);
+        ResponseEntity<Map> response = restTemplate.postForEntity(src.getUrl(), entity, Map.class);
 
         if (response.getBody() != null) {
             String responseBody = response.getBody().toString();
@@ -144,7 +436,8 @@ public class CollectionService {
             apiData.add(row);
         }
 
-        processApiData_GroupByPaymentId(apiData, apiLastFetchedDate);
+        totals.add(processChunk(src.getName(), apiData, apiLastFetchedDate));
+        return apiLastFetchedDate;
     }
 
     private String safeString(Object obj) {
@@ -155,7 +448,7 @@ public class CollectionService {
         return s;
     }
 
-    private String safeTrim(String s) {
+    String safeTrim(String s) {
         if (s == null) return null;
         String t = s.trim();
         if (t.isEmpty()) return null;
@@ -163,7 +456,7 @@ public class CollectionService {
         return t;
     }
 
-    private BigDecimal parseBigDecimalOrZero(String s) {
+    BigDecimal parseBigDecimalOrZero(String s) {
         if (s == null) return BigDecimal.ZERO;
 
         String t = s.trim();
@@ -182,7 +475,7 @@ public class CollectionService {
         }
     }
 
-    private Long parseLongOrNull(String s) {
+    Long parseLongOrNull(String s) {
         if (s == null) return null;
         String t = s.trim();
         if (t.isEmpty() || "null".equalsIgnoreCase(t)) return null;
@@ -193,7 +486,7 @@ public class CollectionService {
         }
     }
 
-    private LocalDateTime parseDate(String dateStr) {
+    LocalDateTime parseDate(String dateStr) {
         if (dateStr == null || dateStr.isBlank()) return null;
         String t = dateStr.trim();
         try {
@@ -207,20 +500,57 @@ public class CollectionService {
         }
     }
 
+    /**
+     * One payment group after parsing: the first line's fields plus the summed amounts.
+     * {@code continuation}: an earlier chunk of the response wrote other lines of the payment.
+     */
+    record PaymentGroup(
+            Long paymentId,
+            Long billId,
+            boolean mustSplit,
+            String centreName,
+            String customerName,
+            String controlNumber,
+            String paymentType,
+            String description,
+            String gfsCode,
+            LocalDateTime paymentDate,
+            BigDecimal totalBilled,
+            BigDecimal totalPaid,
+            boolean continuation
+    ) {}
+
+    /** Parse stage output: the chunk's payment groups, before any database access. */
+    record ParsedChunk(List<PaymentGroup> groups, int noPaymentIdRows, LocalDateTime apiLastFetchedDate) {}
+
+    /** Resolve stage output: groups with their centre, gfs code and customer ids. */
+    record ResolvedChunk(
+            List<PaymentGroup> groups,
+            List<Long> centreIds,
+            List<Long> gfsCodeIds,
+            List<Long> customerIds,
+            int noPaymentIdRows,
+            LocalDateTime apiLastFetchedDate
+    ) {}
+
     @Transactional
-    public void processApiData_GroupByPaymentId(List<Map<String, String>> apiData, LocalDateTime apiLastFetchedDate) {
+    public ChunkResult processApiData_GroupByPaymentId(List<Map<String, String>> apiData, LocalDateTime apiLastFetchedDate) {
+        return writeResolved(resolveDimensions(parseRows(apiData, apiLastFetchedDate, Set.of())));
+    }
 
-        Map<String, Centre> centreCache = new HashMap<>();
-        Map<String, GfsCode> gfsCache = new HashMap<>();
-        Map<String, Customer> customerCache = new HashMap<>();
+    /**
+     * Groups raw rows by paymentId (SPLIT_GFS lines by paymentId + billId) and sums their
+     * amounts. Pure CPU work, safe to run on several threads.
+     */
+    ParsedChunk parseRows(List<Map<String, String>> apiData, LocalDateTime apiLastFetchedDate, Set<Long> continued) {
 
         Map<String, List<Map<String, String>>> grouped = new LinkedHashMap<>();
-        List<Map<String, String>> noPaymentId = new ArrayList<>();
+        int noPaymentId = 0;
 
         for (Map<String, String> row : apiData) {
             Long paymentId = parseLongOrNull(row.get("paymentId"));
             if (paymentId == null) {
-                noPaymentId.add(row);
+                noPaymentId++;
                 continue;
             }
 
@@ -238,188 +568,173 @@ public class CollectionService {
             grouped.computeIfAbsent(groupKey, k -> new ArrayList<>()).add(row);
         }
 
-        int inserted = 0, updated = 0;
-        final int BATCH = 200;
+        List<PaymentGroup> groups = new ArrayList<>(grouped.size());
+        for (List<Map<String, String>> lines : grouped.values()) {
+            PaymentGroup g = toPaymentGroup(lines, apiLastFetchedDate, continued);
+            if (g != null) groups.add(g);
+        }
+        return new ParsedChunk(groups, noPaymentId, apiLastFetchedDate);
+    }
 
-        for (Map.Entry<String, List<Map<String, String>>> entry : grouped.entrySet()) {
-            List<Map<String, String>> lines = entry.getValue();
-            if (lines == null || lines.isEmpty()) {
-                continue;
-            }
+    /**
+     * Resolves every dimension of the chunk at once through the shared cache, creating
+     * missing centres, gfs codes and customers.
+     */
+    ResolvedChunk resolveDimensions(ParsedChunk parsed) {
+        List<PaymentGroup> groups = parsed.groups();
+
+        Set<String> centreNames = new LinkedHashSet<>();
+        Set<String> gfsCodes = new LinkedHashSet<>();
+        for (PaymentGroup g : groups) {
+            centreNames.add(g.centreName());
+            if (g.gfsCode() != null) gfsCodes.add(g.gfsCode());
+        }
+        Map<String, DimensionCacheService.CentreRef> centres = dimensionCache.resolveCentres(centreNames);
+        Map<String, DimensionCacheService.GfsRef> gfsRefs = dimensionCache.resolveGfsCodes(gfsCodes);
+
+        List<Long> centreIds = new ArrayList<>(groups.size());
+        List<Long> gfsCodeIds = new ArrayList<>(groups.size());
+        List<DimensionCacheService.CustomerKey> customerKeys = new ArrayList<>(groups.size());
+        for (PaymentGroup g : groups) {
+            DimensionCacheService.CentreRef centre = centres.get(g.centreName().toLowerCase(Locale.ROOT));
+            DimensionCacheService.GfsRef gfs = g.gfsCode() != null ? gfsRefs.get(g.gfsCode()) : null;
+            centreIds.add(centre.id());
+            gfsCodeIds.add(gfs != null ? gfs.id() : null);
+            customerKeys.add(new DimensionCacheService.CustomerKey(centre.id(), g.customerName()));
+        }
+        Map<String, Long> customers = dimensionCache.resolveCustomers(customerKeys);
 
-            Map<String, String> first = lines.get(0);
+        List<Long> customerIds = new ArrayList<>(groups.size());
+        for (DimensionCacheService.CustomerKey k : customerKeys) {
+            customerIds.add(customers.get(k.cacheKey()));
+        }
 
-            Long paymentId = parseLongOrNull(first.get("paymentId"));
-            Long billId = parseLongOrNull(first.get("billId"));
-            if (paymentId == null) {
-                continue;
-            }
+        return new ResolvedChunk(groups, centreIds, gfsCodeIds, customerIds,
+                parsed.noPaymentIdRows(), parsed.apiLastFetchedDate());
+    }
 
-            String centreName = safeTrim(first.get("centreName"));
-            String customerName = safeTrim(first.get("customerName"));
-            String controlNumber = safeTrim(first.get("controlNumber"));
-            String paymentType = safeTrim(first.get("paymentType"));
-            String description = safeTrim(first.get("description"));
-            String gfsCodeValue = safeTrim(first.get("gfsCode"));
-            LocalDateTime paymentDate = parseDate(first.get("paymentDate"));
-
-            if (centreName == null) centreName = "UNKNOWN CENTRE";
-            if (customerName == null) customerName = "UNKNOWN";
-            if (description == null) description = "";
-            if (paymentDate == null) paymentDate = apiLastFetchedDate;
-
-            String centreKey = centreName.toLowerCase(Locale.ROOT);
-            Centre centre = centreCache.get(centreKey);
-            if (centre == null) {
-                String finalCentreName = centreName;
-                centre = centreRepository.getCentreByName(finalCentreName).orElseGet(() -> {
-                    Centre newCentre = new Centre();
-                    newCentre.setName(finalCentreName);
-                    newCentre.setCode(UUID.randomUUID().toString().substring(0, 8));
-                    newCentre.setRank(Centre.Rank.A);
-
-                    String firstToken = (!finalCentreName.isBlank()) ? finalCentreName.split("\\s+")[0] : "";
-                    String zoneName = getZoneName(firstToken);
-
-                    Zone zone = zoneRepository.findOneByName(zoneName).orElseGet(() -> {
-                        Zone z = new Zone();
-                        z.setName(zoneName);
-                        z.setCode(UUID.randomUUID().toString().substring(0, 8));
-                        return zoneRepository.save(z);
-                    });
-
-                    newCentre.setZones(zone);
-                    return centreRepository.save(newCentre);
-                });
-                centreCache.put(centreKey, centre);
+    /**
+     * Matches groups to stored rows and upserts them. Runs inside the chunk transaction.
+     */
+    ChunkResult writeResolved(ResolvedChunk chunk) {
+        List<PaymentGroup> groups = chunk.groups();
+        LocalDateTime apiLastFetchedDate = chunk.apiLastFetchedDate();
+
+        Map<Long, List<PaymentKeyView>> existing = preloadExistingPayments(groups);
+        List<PaymentBulkWriter.PaymentUpsert> upserts = new ArrayList<>(groups.size());
+
+        for (int i = 0; i < groups.size(); i++) {
+            PaymentGroup g = groups.get(i);
+
+            // Same matching as before: split GFS lines match on (paymentId, billId),
+            // everything else updates the oldest row for the paymentId and, when upstream
+            // sends a billId, moves that row to it.
+            Long rowBillId = g.billId() != null ? g.billId() : 0L;
+            Long storedBillId = null;
+            if (!g.mustSplit() || g.billId() == null) {
+                List<PaymentKeyView> matches = existing.get(g.paymentId());
+                if (matches != null && !matches.isEmpty()) {
+                    storedBillId = matches.get(0).getBillId();
+                    if (g.billId() == null) rowBillId = storedBillId;
+                }
             }
 
-            String customerKey = centre.getId() + "|" + customerName.toLowerCase(Locale.ROOT);
-            Customer customer = customerCache.get(customerKey);
-            if (customer == null) {
-                String finalCustomerName = customerName;
-                Centre finalCentre = centre;
-                customer = customerRepository
-                        .findByNameAndCentre_Id(finalCustomerName, finalCentre.getId())
-                        .orElseGet(() -> {
-                            Customer c = new Customer();
-                            c.setName(finalCustomerName);
-                            String emailName = (!finalCustomerName.isBlank())
-                                    ? finalCustomerName.replace(" ", ".").toLowerCase(Locale.ROOT)
-                                    : "unknown";
-                            c.setEmail(emailName + "@example.com");
-                            c.setCentre(finalCentre);
-                            return customerRepository.save(c);
-                        });
-                customerCache.put(customerKey, customer);
-            }
+            upserts.add(new PaymentBulkWriter.PaymentUpsert(
+                    g.paymentId(),
+                    rowBillId,
+                    chunk.customerIds().get(i),
+                    chunk.centreIds().get(i),
+                    chunk.gfsCodeIds().get(i),
+                    g.controlNumber(),
+                    g.paymentType(),
+                    g.description(),
+                    g.totalBilled(),
+                    g.totalPaid(),
+                    g.paymentDate(),
+                    apiLastFetchedDate,
+                    storedBillId,
+                    g.continuation()
+            ));
+        }
 
-            GfsCode gfs = null;
-            if (gfsCodeValue != null) {
-                gfs = gfsCache.get(gfsCodeValue);
-                if (gfs == null) {
-                    String finalCode = gfsCodeValue;
-                    gfs = gfsCodeRepository.findByCode(finalCode).orElseGet(() -> {
-                        GfsCode g = new GfsCode();
-                        g.setCode(finalCode);
-                        return gfsCodeRepository.save(g);
-                    });
-                    gfsCache.put(gfsCodeValue, gfs);
-                }
-            }
+        PaymentBulkWriter.UpsertResult result = paymentBulkWriter.upsert(upserts);
 
-            BigDecimal totalBilled = BigDecimal.ZERO;
-            BigDecimal totalPaid = BigDecimal.ZERO;
-            for (Map<String, String> line : lines) {
-                totalBilled = totalBilled.add(parseBigDecimalOrZero(line.get("amountBilled")));
-                totalPaid = totalPaid.add(parseBigDecimalOrZero(line.get("amountPaid")));
+        LocalDateTime maxPaymentDate = null;
+        for (PaymentGroup g : groups) {
+            if (maxPaymentDate == null || g.paymentDate().isAfter(maxPaymentDate)) {
+                maxPaymentDate = g.paymentDate();
             }
+        }
 
-            Payment pay;
-            boolean mustSplit = (gfsCodeValue != null && SPLIT_GFS.contains(gfsCodeValue));
+        log.info("DONE payments: inserted={}, updated={}, unchanged={}, groups={}, noPaymentIdRows={}",
+                result.inserted(), result.updated(), result.unchanged(), groups.size(), chunk.noPaymentIdRows());
+        return new ChunkResult(result.inserted(), result.updated(), result.unchanged(), groups.size(), maxPaymentDate);
+    }
 
-            if (mustSplit && billId != null) {
-                pay = paymentRepository.findByPaymentIdAndBillId(paymentId, billId).orElse(null);
-            } else {
-                List<Payment> found = em.createQuery(
-                                "select p from Payment p where p.paymentId = :pid order by p.id asc",
-                                Payment.class
-                        )
-                        .setParameter("pid", paymentId)
-                        .setMaxResults(1)
-                        .getResultList();
-
-                pay = found.isEmpty() ? null : found.get(0);
-            }
+    private PaymentGroup toPaymentGroup(List<Map<String, String>> lines, LocalDateTime apiLastFetchedDate, Set<Long> continued) {
+        if (lines == null || lines.isEmpty()) {
+            return null;
+        }
 
-            if (pay == null) {
-                pay = new Payment();
-                pay.setPaymentId(paymentId);
-                if (billId != null) {
-                    pay.setBillId(billId);
-                } else {
-                    pay.setBillId(0L);
-                }
-                inserted++;
-            } else {
-                updated++;
-                if (billId != null) {
-                    pay.setBillId(billId);
-                }
-            }
+        Map<String, String> first = lines.get(0);
 
-            pay.setCentre(centre);
-            pay.setCustomer(customer);
-            pay.setGfsCode(gfs);
-            pay.setControlNumber(controlNumber);
-            pay.setPaymentType(paymentType);
-            pay.setDescription(description);
-            pay.setPaymentDate(paymentDate);
-            pay.setTotalBilled(totalBilled);
-            pay.setTotalPaid(totalPaid);
-            pay.setLastFetched(apiLastFetchedDate);
-
-            paymentRepository.save(pay);
-
-            if ((inserted + updated) % BATCH == 0) {
-                paymentRepository.flush();
-                em.clear();
-                log.info("Progress payments: inserted={}, updated={}, groups={}",
-                        inserted, updated, grouped.size());
-            }
+        Long paymentId = parseLongOrNull(first.get("paymentId"));
+        Long billId = parseLongOrNull(first.get("billId"));
+        if (paymentId == null) {
+            return null;
+        }
+
+        String centreName = safeTrim(first.get("centreName"));
+        String customerName = safeTrim(first.get("customerName"));
+        String controlNumber = safeTrim(first.get("controlNumber"));
+        String paymentType = safeTrim(first.get("paymentType"));
+        String description = safeTrim(first.get("description"));
+        String gfsCodeValue = safeTrim(first.get("gfsCode"));
+        LocalDateTime paymentDate = parseDate(first.get("paymentDate"));
+
+        if (centreName == null) centreName = "UNKNOWN CENTRE";
+        if (customerName == null) customerName = "UNKNOWN";
+        if (description == null) description = "";
+        if (paymentDate == null) paymentDate = apiLastFetchedDate;
+
+        BigDecimal totalBilled = BigDecimal.ZERO;
+        BigDecimal totalPaid = BigDecimal.ZERO;
+        for (Map<String, String> line : lines) {
+            totalBilled = totalBilled.add(parseBigDecimalOrZero(line.get("amountBilled")));
+            totalPaid = totalPaid.add(parseBigDecimalOrZero(line.get("amountPaid")));
+        }
+
+        boolean mustSplit = (gfsCodeValue != null && SPLIT_GFS.contains(gfsCodeValue));
+
+        return new PaymentGroup(
+                paymentId, billId, mustSplit,
+                centreName, customerName, controlNumber, paymentType, description, gfsCodeValue,
+                paymentDate, totalBilled, totalPaid, continued.contains(paymentId)
+        );
+    }
+
+    /**
+     * Loads the keys of already stored payments for every paymentId in the chunk with a few
+     * {@code paymentId in (...)} queries, instead of one lookup per group.
+     */
+    private Map<Long, List<PaymentKeyView>> preloadExistingPayments(List<PaymentGroup> groups) {
+        Set<Long> paymentIds = new LinkedHashSet<>();
+        for (PaymentGroup g : groups) {
+            paymentIds.add(g.paymentId());
         }
 
-        paymentRepository.flush();
-        em.clear();
-
-        log.info("DONE payments: inserted={}, updated={}, noPaymentIdRows={}",
-                inserted, updated, noPaymentId.size());
-    }
-
-    private String getZoneName(String firstName) {
-        if (firstName == null) return "HIGHLAND ZONE";
-        String name = firstName.trim().toUpperCase(Locale.ROOT);
-
-        if (name.equals("DODOMA") || name.equals("SINGIDA") || name.equals("MANYARA"))
-            return "CENTRAL ZONE";
-        if (name.equals("MWANZA") || name.equals("MARA") || name.equals("KAGERA") || name.equals("GEITA"))
-            return "LAKE ZONE";
-        if (name.equals("MBEYA") || name.equals("RUKWA"))
-            return "SOUTH WEST ZONE";
-        if (name.equals("DAR"))
-            return "DSM ZONE";
-        if (name.equals("ARUSHA") || name.equals("TANGA"))
-            return "NORTHERN ZONE";
-        if (name.equals("KIGOMA") || name.equals("TABORA") || name.equals("SHINYANGA") || name.equals("SIMIYU"))
-            return "WESTERN ZONE";
-        if (name.equals("PWANI") || name.equals("KIHONDA") || name.equals("MIKUMI"))
-            return "EASTERN ZONE";
-        if (name.equals("MTWARA") || name.equals("LINDI"))
-            return "SOUTH EAST ZONE";
-        if (name.equals("IRINGA") || name.equals("NJOMBE") || name.equals("MIKUMI"))
-            return "HIGHLAND ZONE";
-
-        return "HIGHLAND ZONE";
+        Map<Long, List<PaymentKeyView>> byPaymentId = new HashMap<>(paymentIds.size() * 2);
+        if (paymentIds.isEmpty()) return byPaymentId;
+
+        List<Long> ids = new ArrayList<>(paymentIds);
+        int size = Math.max(lookupBatchSize, 1);
+        for (int from = 0; from < ids.size(); from += size) {
+            List<Long> slice = ids.subList(from, Math.min(from + size, ids.size()));
+            for (PaymentKeyView k : paymentRepository.findKeysByPaymentIdIn(slice)) {
+                byPaymentId.computeIfAbsent(k.getPaymentId(), x -> new ArrayList<>(1)).add(k);
+            }
+        }
+        return byPaymentId;
     }
 
     public List<Collections> findAll() {
@@ -15,6 +15,10 @@ public class CollectionsReportResponse {
     private long totalElements;
     private int totalPages;
 
+    // keyset paging: pass nextCursor back to get the following page; null on the last page
+    private String nextCursor;
+    private boolean hasNext;
+
     private List<?> rows;
     private List<?> summaryByService;
     private BigDecimal totalAmount;
@@ -45,6 +49,12 @@ public class CollectionsReportResponse {
     public int getTotalPages() { return totalPages; }
     public void setTotalPages(int totalPages) { this.totalPages = totalPages; }
 
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+
+    public boolean isHasNext() { return hasNext; }
+    public void setHasNext(boolean hasNext) { this.hasNext = hasNext; }
+
     public List<?> getRows() { return rows; }
     public void setRows(List<?> rows) { this.rows = rows; }
 
@@ -1,21 +1,90 @@
 package com.example.iga_veta.Service;
 
-import com.example.iga_veta.Repository.PaymentRepository;
-import org.springframework.data.domain.PageRequest;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class DashboardService {
 
-    private final PaymentRepository repo;
+    private static final Logger log = LoggerFactory.getLogger(DashboardService.class);
 
-    public DashboardService(PaymentRepository repo) {
-        this.repo = repo;
+    private final ReportQueryEngine engine;
+    private final FilterOptionsService filterOptions;
+    private final PaymentDailyAggService dailyAgg;
+    private final PaymentCube cube;
+    private final SummaryCache summaryCache;
+
+    // per-query deadline for the summary parts
+    @Value("${dashboard.summary.query-timeout-millis:5000}")
+    private long queryTimeoutMillis;
+
+    /**
+     * Runs the summary parts. Bounded on both threads and queue: when it is full the request
+     * thread runs the part itself, so a burst degrades to sequential instead of queuing up.
+     * Each in-flight part can hold a pool connection, so keep it well below the Hikari size.
+     */
+    private final ThreadPoolExecutor summaryPool;
+
+    public DashboardService(ReportQueryEngine engine, FilterOptionsService filterOptions, PaymentDailyAggService dailyAgg,
+                            PaymentCube cube,
+                            SummaryCache summaryCache,
+                            @Value("${dashboard.summary.threads:4}") int summaryThreads,
+                            @Value("${dashboard.summary.queue-capacity:32}") int summaryQueue) {
+        this.engine = engine;
+        this.filterOptions = filterOptions;
+        this.dailyAgg = dailyAgg;
+        this.cube = cube;
+        this.summaryCache = summaryCache;
+        AtomicInteger threadNo = new AtomicInteger();
+        this.summaryPool = new ThreadPoolExecutor(
+                summaryThreads, summaryThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(summaryQueue, 1)),
+                r -> {
+                    Thread t = new Thread(r, "dashboard-summary-" + threadNo.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        this.summaryPool.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryPool.shutdownNow();
+    }
+
+    private <T> Future<List<T>> submit(Callable<List<T>> part) {
+        return summaryPool.submit(part);
+    }
+
+    /** Result of one part, or an empty list when it failed or missed the deadline. */
+    private static <T> List<T> await(String name, Future<List<T>> f, long deadlineNanos, List<String> failedParts) {
+        try {
+            long left = Math.max(deadlineNanos - System.nanoTime(), 0);
+            List<T> rows = f.get(left, TimeUnit.NANOSECONDS);
+            return rows == null ? List.of() : rows;
+        } catch (TimeoutException e) {
+            f.cancel(true);
+            log.warn("Dashboard summary part '{}' timed out", name);
+        } catch (ExecutionException e) {
+            log.warn("Dashboard summary part '{}' failed: {}", name, String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            f.cancel(true);
+        }
+        failedParts.add(name);
+        return List.of();
     }
 
     private static BigDecimal toBigDecimal(Object v) {
@@ -61,14 +130,56 @@ public class DashboardService {
             String centreName,
             String zoneName
     ) {
-        centreName = clean(centreName);
-        zoneName = clean(zoneName);
+        String centre = clean(centreName);
+        String zone = clean(zoneName);
+
+        // partial results (a part timed out) are served but not cached
+        return summaryCache.get(
+                new SummaryCache.Key("dashboard", fromDate, toDate, centre, zone, null),
+                () -> computeSummary(fromDate, toDate, centre, zone),
+                m -> !Boolean.TRUE.equals(m.get("partial")));
+    }
+
+    private Map<String, Object> computeSummary(
+            LocalDate fromDate,
+            LocalDate toDate,
+            String centre,
+            String zone
+    ) {
 
         LocalDateTime start = fromDate.atStartOfDay();
         LocalDateTime endExclusive = toDate.plusDays(1).atStartOfDay();
 
+        // aggregates come from the in-memory cube, or the daily rollup until it has loaded;
+        // only recent payments need raw rows
+        boolean fromCube = cube.isReady();
+        PaymentCube.Query q = new PaymentCube.Query(start, endExclusive, centre, zone, null);
+        PaymentDailyAggService.RollupRange range = dailyAgg.range(start, endExclusive);
+        ReportFilter filter = filterOptions.resolve(centre, zone, null);
+
+        // the five parts are independent: run them side by side, wait at most until the deadline
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(queryTimeoutMillis, 1));
+        List<String> failedParts = new ArrayList<>();
+
         // totals -> [sumBilled, count, sumPaid]
-        List<Object[]> totalsRows = repo.totals(start, endExclusive, centreName, zoneName);
+        Future<List<Object[]>> totalsF = submit(() -> {
+            if (!fromCube) return engine.rollupTotals(range, filter);
+            PaymentCube.Totals t = cube.totals(q);
+            return List.<Object[]>of(new Object[]{t.totalIncome(), t.totalTransactions(), t.totalPaid()});
+        });
+        Future<List<Object[]>> topServicesF = submit(() -> fromCube
+                ? cube.topPaymentTypes(q, 3, false)
+                : engine.rollupTopPaymentTypes(range, filter, 3));
+        Future<List<Object[]>> topCentersF = submit(() -> fromCube
+                ? cube.topCenters(q, 3, false)
+                : engine.rollupTopCentres(range, filter, 3, false));
+        Future<List<Object[]>> bottomCentersF = submit(() -> fromCube
+                ? cube.topCenters(q, 3, true)
+                : engine.rollupTopCentres(range, filter, 3, true));
+        Future<List<Object[]>> recentF = submit(() ->
+                engine.recentPayments(start, endExclusive, filter, 8));
+
+        List<Object[]> totalsRows = await("totals", totalsF, deadline, failedParts);
         Object[] totalsRow = (totalsRows != null && !totalsRows.isEmpty()) ? totalsRows.get(0) : null;
 
         BigDecimal totalIncome = BigDecimal.ZERO;
@@ -82,8 +193,7 @@ public class DashboardService {
         }
 
         // top services (paymentType)
-        List<Object[]> topServicesRows =
-                repo.topPaymentTypes(start, endExclusive, centreName, zoneName, PageRequest.of(0, 3));
+        List<Object[]> topServicesRows = await("topServices", topServicesF, deadline, failedParts);
 
         List<Map<String, Object>> topServices = new ArrayList<>();
         for (Object[] r : topServicesRows) {
@@ -95,11 +205,9 @@ public class DashboardService {
         }
 
         // top/bottom centers -> USE SELECTED DATE RANGE
-        List<Object[]> topCentersRows =
-                repo.topCenters(start, endExclusive, centreName, zoneName, PageRequest.of(0, 3));
+        List<Object[]> topCentersRows = await("topCenters", topCentersF, deadline, failedParts);
 
-        List<Object[]> bottomCentersRows =
-                repo.bottomCenters(start, endExclusive, centreName, zoneName, PageRequest.of(0, 3));
+        List<Object[]> bottomCentersRows = await("bottomCenters", bottomCentersF, deadline, failedParts);
 
         List<Map<String, Object>> topCenters = new ArrayList<>();
         for (Object[] r : topCentersRows) {
@@ -118,8 +226,7 @@ public class DashboardService {
         }
 
         // recent payments -> [name, centre, zone, paymentType, totalBilled, totalPaid, paymentDate]
-        List<Object[]> recentRows =
-                repo.recentPayments(start, endExclusive, centreName, zoneName, PageRequest.of(0, 8));
+        List<Object[]> recentRows = await("recentPayments", recentF, deadline, failedParts);
 
         List<Map<String, Object>> recentPayments = new ArrayList<>();
         for (Object[] r : recentRows) {
@@ -147,6 +254,9 @@ public class DashboardService {
         out.put("topCenters", topCenters);
         out.put("bottomCenters", bottomCenters);
         out.put("recentPayments", recentPayments);
+        // parts that failed or missed the deadline are returned empty and listed here
+        out.put("partial", !failedParts.isEmpty());
+        out.put("failedParts", failedParts);
 
         return out;
     }
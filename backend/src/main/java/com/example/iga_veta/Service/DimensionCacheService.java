@@ -0,0 +1,398 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Model.Centre;
+import com.example.iga_veta.Model.GfsCode;
+import com.example.iga_veta.Model.Zone;
+import com.example.iga_veta.Repository.CentreRepository;
+import com.example.iga_veta.Repository.CustomerRepository;
+import com.example.iga_veta.Repository.Gfs_codeRepository;
+import com.example.iga_veta.Repository.ZoneRepository;
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Long-lived lookup cache for the dimensions used by collections ingestion
+ * (centre, zone, gfs code and customer).
+ *
+ * Entries survive across fetch cycles and are bounded by size and TTL. Lookups are
+ * done per chunk: all keys of a chunk are resolved with a few IN queries, and whatever
+ * is still missing is created in one go.
+ */
+@Service
+public class DimensionCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(DimensionCacheService.class);
+
+    private static final String INSERT_CUSTOMERS_SQL = """
+        insert into customer (name, email, centre_id, created_at, updated_at)
+        select t.name, t.email, t.centre_id, ?::timestamp, ?::timestamp
+        from unnest(?::varchar[], ?::varchar[], ?::bigint[]) as t(name, email, centre_id)
+        returning id, centre_id, name
+    """;
+
+    private final CentreRepository centreRepository;
+    private final ZoneRepository zoneRepository;
+    private final Gfs_codeRepository gfsCodeRepository;
+    private final CustomerRepository customerRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTimeZone jdbcTimeZone;
+    private final FilterOptionsService filterOptions;
+
+    private final BoundedCache<String, CentreRef> centres;
+    private final BoundedCache<String, GfsRef> gfsCodes;
+    private final BoundedCache<String, Long> customers;
+
+    /** Cached centre; zoneId lets callers avoid touching the entity graph. */
+    public record CentreRef(Long id, String name, Long zoneId) {}
+
+    public record GfsRef(Long id, String code) {}
+
+    /** Customer identity as ingestion sees it: centre plus case-insensitive name. */
+    public record CustomerKey(Long centreId, String name) {
+        public String cacheKey() {
+            return centreId + "|" + name.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public DimensionCacheService(
+            CentreRepository centreRepository,
+            ZoneRepository zoneRepository,
+            Gfs_codeRepository gfsCodeRepository,
+            CustomerRepository customerRepository,
+            JdbcTemplate jdbcTemplate,
+            JdbcTimeZone jdbcTimeZone,
+            FilterOptionsService filterOptions,
+            @Value("${collections.dimension-cache.max-size:20000}") int maxSize,
+            @Value("${collections.dimension-cache.customer-max-size:200000}") int customerMaxSize,
+            @Value("${collections.dimension-cache.ttl-minutes:360}") long ttlMinutes
+    ) {
+        this.centreRepository = centreRepository;
+        this.zoneRepository = zoneRepository;
+        this.gfsCodeRepository = gfsCodeRepository;
+        this.customerRepository = customerRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcTimeZone = jdbcTimeZone;
+        this.filterOptions = filterOptions;
+
+        long ttlMillis = ttlMinutes * 60_000L;
+        this.centres = new BoundedCache<>("centre", maxSize, ttlMillis);
+        this.gfsCodes = new BoundedCache<>("gfsCode", maxSize, ttlMillis);
+        this.customers = new BoundedCache<>("customer", customerMaxSize, ttlMillis);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        try {
+            for (Centre c : centreRepository.findAll()) {
+                cacheCentre(c);
+            }
+            for (GfsCode g : gfsCodeRepository.findAll()) {
+                if (g.getCode() != null) gfsCodes.put(g.getCode(), new GfsRef(g.getId(), g.getCode()));
+            }
+            log.info("Dimension cache warmed: centres={}, gfsCodes={}", centres.size(), gfsCodes.size());
+        } catch (Exception e) {
+            log.warn("Dimension cache warm-up failed, will load lazily: {}", e.getMessage());
+        }
+    }
+
+    // ==========================
+    // CENTRES
+    // ==========================
+
+    /**
+     * @return lower-cased centre name -> centre, creating centres (and their zone) that do not exist yet
+     */
+    public Map<String, CentreRef> resolveCentres(Collection<String> centreNames) {
+        Map<String, CentreRef> out = new HashMap<>();
+        Map<String, String> missing = new LinkedHashMap<>();
+
+        for (String name : centreNames) {
+            if (name == null) continue;
+            String key = name.toLowerCase(Locale.ROOT);
+            if (out.containsKey(key) || missing.containsKey(key)) continue;
+            CentreRef hit = centres.get(key);
+            if (hit != null) out.put(key, hit);
+            else missing.put(key, name);
+        }
+        if (missing.isEmpty()) return out;
+
+        loadCentres(missing, out);
+        if (missing.isEmpty()) return out;
+
+        // another writer may have created some of them meanwhile; look again under the lock
+        lockForCreate("centre");
+        loadCentres(missing, out);
+        if (missing.isEmpty()) return out;
+
+        Map<String, Zone> zones = new HashMap<>();
+        List<Centre> toCreate = new ArrayList<>(missing.size());
+        for (String name : missing.values()) {
+            Centre newCentre = new Centre();
+            newCentre.setName(name);
+            newCentre.setCode(UUID.randomUUID().toString().substring(0, 8));
+            newCentre.setRank(Centre.Rank.A);
+
+            String firstToken = (!name.isBlank()) ? name.split("\\s+")[0] : "";
+            String zoneName = zoneNameForCentre(firstToken);
+            newCentre.setZones(zones.computeIfAbsent(zoneName, this::findOrCreateZone));
+            toCreate.add(newCentre);
+        }
+
+        List<String> createdKeys = new ArrayList<>(toCreate.size());
+        for (Centre c : centreRepository.saveAll(toCreate)) {
+            String key = c.getName().toLowerCase(Locale.ROOT);
+            out.put(key, cacheCentre(c));
+            createdKeys.add(key);
+        }
+        evictOnRollback(centres, createdKeys);
+        filterOptions.markStaleAfterCommit();
+        log.info("Created centres: {}", missing.values());
+        return out;
+    }
+
+    private void loadCentres(Map<String, String> missing, Map<String, CentreRef> out) {
+        for (Centre c : centreRepository.findByNameIn(missing.values())) {
+            CentreRef ref = cacheCentre(c);
+            String key = c.getName().toLowerCase(Locale.ROOT);
+            if (missing.remove(key) != null) out.put(key, ref);
+        }
+    }
+
+    private CentreRef cacheCentre(Centre c) {
+        CentreRef ref = new CentreRef(c.getId(), c.getName(), c.getZones() != null ? c.getZones().getId() : null);
+        if (c.getName() != null) centres.put(c.getName().toLowerCase(Locale.ROOT), ref);
+        return ref;
+    }
+
+    private Zone findOrCreateZone(String zoneName) {
+        return zoneRepository.findOneByName(zoneName).orElseGet(() -> {
+            Zone z = new Zone();
+            z.setName(zoneName);
+            z.setCode(UUID.randomUUID().toString().substring(0, 8));
+            return zoneRepository.save(z);
+        });
+    }
+
+    /** Drops every cached centre, e.g. after a centre was renamed or moved to another zone. */
+    public void evictCentres() {
+        centres.invalidateAll();
+    }
+
+    // ==========================
+    // GFS CODES
+    // ==========================
+
+    public Map<String, GfsRef> resolveGfsCodes(Collection<String> codes) {
+        Map<String, GfsRef> out = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+
+        for (String code : codes) {
+            if (code == null || out.containsKey(code)) continue;
+            GfsRef hit = gfsCodes.get(code);
+            if (hit != null) out.put(code, hit);
+            else missing.add(code);
+        }
+        if (missing.isEmpty()) return out;
+
+        loadGfsCodes(missing, out);
+        if (missing.isEmpty()) return out;
+
+        lockForCreate("gfs_code");
+        loadGfsCodes(missing, out);
+        if (missing.isEmpty()) return out;
+
+        List<GfsCode> toCreate = new ArrayList<>(missing.size());
+        for (String code : missing) {
+            GfsCode g = new GfsCode();
+            g.setCode(code);
+            g.setDescription("UNKNOWN");
+            g.setMarkupPercent("0");
+            toCreate.add(g);
+        }
+        for (GfsCode g : gfsCodeRepository.saveAll(toCreate)) {
+            GfsRef ref = new GfsRef(g.getId(), g.getCode());
+            gfsCodes.put(g.getCode(), ref);
+            out.put(g.getCode(), ref);
+        }
+        evictOnRollback(gfsCodes, new ArrayList<>(missing));
+        filterOptions.markStaleAfterCommit();
+        log.info("Created gfs codes: {}", missing);
+        return out;
+    }
+
+    private void loadGfsCodes(Set<String> missing, Map<String, GfsRef> out) {
+        for (GfsCode g : gfsCodeRepository.findByCodeIn(missing)) {
+            if (out.containsKey(g.getCode())) continue;
+            GfsRef ref = new GfsRef(g.getId(), g.getCode());
+            gfsCodes.put(g.getCode(), ref);
+            out.put(g.getCode(), ref);
+            missing.remove(g.getCode());
+        }
+    }
+
+    // ==========================
+    // CUSTOMERS
+    // ==========================
+
+    /**
+     * @return {@link CustomerKey#cacheKey()} -> customer id, inserting missing customers with one statement
+     */
+    public Map<String, Long> resolveCustomers(Collection<CustomerKey> keys) {
+        Map<String, Long> out = new HashMap<>();
+        Map<String, CustomerKey> missing = new LinkedHashMap<>();
+
+        for (CustomerKey k : keys) {
+            String ck = k.cacheKey();
+            if (out.containsKey(ck) || missing.containsKey(ck)) continue;
+            Long hit = customers.get(ck);
+            if (hit != null) out.put(ck, hit);
+            else missing.put(ck, k);
+        }
+        if (missing.isEmpty()) return out;
+
+        loadCustomers(missing, out);
+        if (missing.isEmpty()) return out;
+
+        lockForCreate("customer");
+        loadCustomers(missing, out);
+        if (missing.isEmpty()) return out;
+
+        out.putAll(insertCustomers(missing.values()));
+        return out;
+    }
+
+    private void loadCustomers(Map<String, CustomerKey> missing, Map<String, Long> out) {
+        Map<Long, List<String>> namesByCentre = new LinkedHashMap<>();
+        for (CustomerKey k : missing.values()) {
+            namesByCentre.computeIfAbsent(k.centreId(), x -> new ArrayList<>()).add(k.name());
+        }
+        for (Map.Entry<Long, List<String>> e : namesByCentre.entrySet()) {
+            for (Object[] r : customerRepository.findIdAndNameByCentreIdAndNameIn(e.getKey(), e.getValue())) {
+                String ck = new CustomerKey(e.getKey(), String.valueOf(r[1])).cacheKey();
+                if (missing.remove(ck) != null) {
+                    Long id = ((Number) r[0]).longValue();
+                    customers.put(ck, id);
+                    out.put(ck, id);
+                }
+            }
+        }
+    }
+
+    private Map<String, Long> insertCustomers(Collection<CustomerKey> keys) {
+        int n = keys.size();
+        String[] names = new String[n];
+        String[] emails = new String[n];
+        Long[] centreIds = new Long[n];
+
+        int i = 0;
+        for (CustomerKey k : keys) {
+            names[i] = k.name();
+            String emailName = (!k.name().isBlank())
+                    ? k.name().replace(" ", ".").toLowerCase(Locale.ROOT)
+                    : "unknown";
+            emails[i] = emailName + "@example.com";
+            centreIds[i] = k.centreId();
+            i++;
+        }
+
+        String now = jdbcTimeZone.toDbText(LocalDateTime.now());
+        Map<String, Long> created = new HashMap<>();
+
+        jdbcTemplate.query(
+                con -> {
+                    PreparedStatement ps = con.prepareStatement(INSERT_CUSTOMERS_SQL);
+                    ps.setString(1, now);
+                    ps.setString(2, now);
+                    ps.setArray(3, con.createArrayOf("varchar", names));
+                    ps.setArray(4, con.createArrayOf("varchar", emails));
+                    ps.setArray(5, con.createArrayOf("bigint", centreIds));
+                    return ps;
+                },
+                rs -> {
+                    String ck = new CustomerKey(rs.getLong(2), rs.getString(3)).cacheKey();
+                    long id = rs.getLong(1);
+                    customers.put(ck, id);
+                    created.put(ck, id);
+                }
+        );
+
+        evictOnRollback(customers, new ArrayList<>(created.keySet()));
+        log.debug("Created customers: {}", created.size());
+        return created;
+    }
+
+    /**
+     * Serialises creation of one dimension across threads and nodes (polling, push, parallel
+     * resolve workers, backfill) until the caller's transaction ends, so no name is created twice.
+     */
+    public void lockForCreate(String dimension) {
+        jdbcTemplate.query("select pg_advisory_xact_lock(hashtext(?))", rs -> null, "dimension:" + dimension);
+    }
+
+    /**
+     * Rows created inside a chunk transaction must not stay cached if that transaction
+     * rolls back, otherwise later chunks would reference ids that do not exist.
+     */
+    private static void evictOnRollback(BoundedCache<String, ?> cache, List<String> keys) {
+        if (keys.isEmpty() || !TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    keys.forEach(cache::remove);
+                }
+            }
+        });
+    }
+
+    // ==========================
+    // METRICS
+    // ==========================
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("centre", centres.stats());
+        out.put("gfsCode", gfsCodes.stats());
+        out.put("customer", customers.stats());
+        return out;
+    }
+
+    /** Zone for a new centre, based on the first word of the centre name. */
+    public static String zoneNameForCentre(String firstName) {
+        if (firstName == null) return "HIGHLAND ZONE";
+        String name = firstName.trim().toUpperCase(Locale.ROOT);
+
+        if (name.equals("DODOMA") || name.equals("SINGIDA") || name.equals("MANYARA"))
+            return "CENTRAL ZONE";
+        if (name.equals("MWANZA") || name.equals("MARA") || name.equals("KAGERA") || name.equals("GEITA"))
+            return "LAKE ZONE";
+        if (name.equals("MBEYA") || name.equals("RUKWA"))
+            return "SOUTH WEST ZONE";
+        if (name.equals("DAR"))
+            return "DSM ZONE";
+        if (name.equals("ARUSHA") || name.equals("TANGA"))
+            return "NORTHERN ZONE";
+        if (name.equals("KIGOMA") || name.equals("TABORA") || name.equals("SHINYANGA") || name.equals("SIMIYU"))
+            return "WESTERN ZONE";
+        if (name.equals("PWANI") || name.equals("KIHONDA") || name.equals("MIKUMI"))
+            return "EASTERN ZONE";
+        if (name.equals("MTWARA") || name.equals("LINDI"))
+            return "SOUTH EAST ZONE";
+        if (name.equals("IRINGA") || name.equals("NJOMBE") || name.equals("MIKUMI"))
+            return "HIGHLAND ZONE";
+
+        return "HIGHLAND ZONE";
+    }
+}
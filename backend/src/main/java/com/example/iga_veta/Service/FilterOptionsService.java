@@ -0,0 +1,267 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.dto.ServiceOptionDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Filter option lists of the report and dashboard (centres, zones, services and centres per
+ * zone), kept in memory.
+ *
+ * The lists hold the dimensions that payments actually use, read from the daily rollup
+ * instead of a {@code select distinct} over payments. They are marked stale when ingestion
+ * writes a centre or GFS code that is not listed yet, and when dimensions are renamed or
+ * rebuilt; the next reader reloads them. Writes on other nodes do not reach this node, so a
+ * filter name that is not listed also reloads them (at most once per
+ * {@code dashboard.filter-options.miss-reload-millis}) before it is treated as unknown.
+ */
+@Service
+public class FilterOptionsService {
+
+    private static final Logger log = LoggerFactory.getLogger(FilterOptionsService.class);
+
+    private static final String LOAD_SQL = """
+        select a.centre_id, a.zone_id, ce.name as centre_name, z.name as zone_name,
+               coalesce(a.gfs_code_id, 0) as gfs_id,
+               coalesce(g.code, 'UNKNOWN') as gfs_code,
+               coalesce(g.description, 'UNKNOWN') as gfs_desc
+        from (
+            select distinct centre_id, zone_id, gfs_code_id
+            from payments_daily_agg
+            where tx_count > 0
+        ) a
+        join centre ce on ce.id = a.centre_id
+        join zone z on z.id = a.zone_id
+        left join gfs_code g on g.id = a.gfs_code_id
+    """;
+
+    /** One consistent set of option lists; {@code version} is a hash of the listed content. */
+    public record Options(
+            long version,
+            List<String> centres,
+            List<String> zones,
+            List<ServiceOptionDto> services,
+            Map<String, List<String>> centresByZone,
+            Set<Long> centreIds,
+            Set<Long> gfsIds,
+            Map<String, Set<Long>> centreIdsByName,
+            Map<String, Set<Long>> zoneIdsByName,
+            Map<String, Set<Long>> gfsIdsByCode
+    ) {}
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Options options;
+    private final AtomicBoolean stale = new AtomicBoolean(true);
+    private final Object loadLock = new Object();
+
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong missReloads = new AtomicLong();
+    private volatile LocalDateTime lastReloadAt;
+    private volatile long lastReloadMillis;
+    private volatile long lastReloadNanos;
+
+    // unknown names are cheap to send, so they may not reload the lists on every request
+    private final long missReloadNanos;
+
+    public FilterOptionsService(
+            JdbcTemplate jdbcTemplate,
+            @Value("${dashboard.filter-options.miss-reload-millis:10000}") long missReloadMillis
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.missReloadNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(missReloadMillis, 0));
+    }
+
+    public Options current() {
+        Options o = options;
+        if (o != null && !stale.get()) return o;
+
+        synchronized (loadLock) {
+            if (options == null || stale.get()) {
+                // cleared before reading, so a change committed during the load marks it stale again
+                stale.set(false);
+                try {
+                    options = load();
+                } catch (RuntimeException e) {
+                    stale.set(true);
+                    if (options == null) throw e;
+                    log.warn("Filter options reload failed, serving previous lists: {}", e.getMessage());
+                }
+            }
+            return options;
+        }
+    }
+
+    public List<String> centres() {
+        return current().centres();
+    }
+
+    public List<String> zones() {
+        return current().zones();
+    }
+
+    public List<ServiceOptionDto> services() {
+        return current().services();
+    }
+
+    /** Centres of one zone, or all centres when zone is null. */
+    public List<String> centresByZone(String zone) {
+        Options o = current();
+        if (zone == null) return o.centres();
+        return o.centresByZone().getOrDefault(zone, List.of());
+    }
+
+    /**
+     * Turns report filter names into the ids that carry them. A name that no payment uses,
+     * even after reloading the lists, resolves to a filter that matches nothing, so the query
+     * can skip the lookup joins and still return no rows.
+     */
+    public ReportFilter resolve(String centreName, String zoneName, String gfsCode) {
+        if (centreName == null && zoneName == null && gfsCode == null) return ReportFilter.ALL;
+        ReportFilter f = resolve(current(), centreName, zoneName, gfsCode);
+        if (f.matchesNothing() && reloadOnMiss()) {
+            f = resolve(current(), centreName, zoneName, gfsCode);
+        }
+        return f;
+    }
+
+    private static ReportFilter resolve(Options o, String centreName, String zoneName, String gfsCode) {
+        Set<Long> centreIds = centreName == null ? null : o.centreIdsByName().get(centreName);
+        Set<Long> zoneIds = zoneName == null ? null : o.zoneIdsByName().get(zoneName);
+        Set<Long> gfsIds = gfsCode == null ? null : o.gfsIdsByCode().get(gfsCode);
+        if ((centreName != null && centreIds == null) || (zoneName != null && zoneIds == null)
+                || (gfsCode != null && gfsIds == null)) {
+            return ReportFilter.NOTHING;
+        }
+        return new ReportFilter(centreIds, zoneIds, gfsIds, false);
+    }
+
+    /** Marks the lists stale for an unknown name, unless they were loaded very recently. */
+    private boolean reloadOnMiss() {
+        if (System.nanoTime() - lastReloadNanos < missReloadNanos) return false;
+        missReloads.incrementAndGet();
+        markStale();
+        return true;
+    }
+
+    public void markStale() {
+        stale.set(true);
+    }
+
+    /** Marks the lists stale once the current transaction commits, or now when there is none. */
+    public void markStaleAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            markStale();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                markStale();
+            }
+        });
+    }
+
+    /**
+     * Called by payment writers with the rows they wrote: only a centre or GFS code that is
+     * not listed yet makes the lists stale, so steady ingestion never reloads them.
+     */
+    public void observe(PaymentCube.Delta delta) {
+        Options o = options;
+        if (o == null || delta == null) return;
+        for (int i = 0; i < delta.size; i++) {
+            if (delta.sign[i] > 0 && (!o.centreIds().contains(delta.centreId[i]) || !o.gfsIds().contains(delta.gfsId[i]))) {
+                markStaleAfterCommit();
+                return;
+            }
+        }
+    }
+
+    private Options load() {
+        long t0 = System.nanoTime();
+
+        TreeSet<String> centres = new TreeSet<>();
+        TreeSet<String> zones = new TreeSet<>();
+        TreeMap<String, String> services = new TreeMap<>();
+        TreeMap<String, TreeSet<String>> byZone = new TreeMap<>();
+        Set<Long> centreIds = new HashSet<>();
+        Set<Long> gfsIds = new HashSet<>();
+        Map<String, Set<Long>> centreIdsByName = new HashMap<>();
+        Map<String, Set<Long>> zoneIdsByName = new HashMap<>();
+        Map<String, Set<Long>> gfsIdsByCode = new HashMap<>();
+
+        jdbcTemplate.query(LOAD_SQL, rs -> {
+            String centre = rs.getString("centre_name");
+            String zone = rs.getString("zone_name");
+            long gfsId = rs.getLong("gfs_id");
+            centreIds.add(rs.getLong("centre_id"));
+            gfsIds.add(gfsId);
+            if (centre != null) centreIdsByName.computeIfAbsent(centre, k -> new HashSet<>()).add(rs.getLong("centre_id"));
+            if (zone != null) zoneIdsByName.computeIfAbsent(zone, k -> new HashSet<>()).add(rs.getLong("zone_id"));
+            // 'UNKNOWN' stands for "no GFS code" and never matches a code filter
+            if (gfsId != 0) gfsIdsByCode.computeIfAbsent(rs.getString("gfs_code"), k -> new HashSet<>()).add(gfsId);
+            if (centre != null) centres.add(centre);
+            if (zone != null) {
+                zones.add(zone);
+                if (centre != null) byZone.computeIfAbsent(zone, z -> new TreeSet<>()).add(centre);
+            }
+            services.putIfAbsent(rs.getString("gfs_code"), rs.getString("gfs_desc"));
+        });
+
+        List<ServiceOptionDto> serviceList = new ArrayList<>(services.size());
+        services.forEach((code, desc) -> serviceList.add(new ServiceOptionDto(code, desc)));
+        Map<String, List<String>> centresByZone = new LinkedHashMap<>();
+        byZone.forEach((zone, names) -> centresByZone.put(zone, List.copyOf(names)));
+
+        List<String> centreList = List.copyOf(centres);
+        List<String> zoneList = List.copyOf(zones);
+
+        // content hash, so it is stable across restarts and usable as an ETag
+        List<String> serviceKeys = new ArrayList<>(services.size());
+        services.forEach((code, desc) -> serviceKeys.add(code + '\u0000' + desc));
+        long version = Integer.toUnsignedLong(Objects.hash(centreList, zoneList, centresByZone, serviceKeys));
+
+        reloads.incrementAndGet();
+        lastReloadNanos = System.nanoTime();
+        lastReloadAt = LocalDateTime.now();
+        lastReloadMillis = (System.nanoTime() - t0) / 1_000_000;
+        log.debug("Filter options loaded: centres={}, zones={}, services={} in {} ms",
+                centreList.size(), zoneList.size(), serviceList.size(), lastReloadMillis);
+
+        return new Options(version, centreList, zoneList, List.copyOf(serviceList),
+                Collections.unmodifiableMap(centresByZone), Set.copyOf(centreIds), Set.copyOf(gfsIds),
+                copyOfSets(centreIdsByName), copyOfSets(zoneIdsByName), copyOfSets(gfsIdsByCode));
+    }
+
+    private static Map<String, Set<Long>> copyOfSets(Map<String, Set<Long>> m) {
+        Map<String, Set<Long>> out = new HashMap<>(m.size());
+        m.forEach((k, v) -> out.put(k, Set.copyOf(v)));
+        return Map.copyOf(out);
+    }
+
+    public Map<String, Object> stats() {
+        Options o = options;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("version", o == null ? 0 : o.version());
+        out.put("centres", o == null ? 0 : o.centres().size());
+        out.put("zones", o == null ? 0 : o.zones().size());
+        out.put("services", o == null ? 0 : o.services().size());
+        out.put("stale", stale.get());
+        out.put("reloads", reloads.get());
+        out.put("missReloads", missReloads.get());
+        out.put("lastReloadAt", lastReloadAt);
+        out.put("lastReloadMillis", lastReloadMillis);
+        return out;
+    }
+}
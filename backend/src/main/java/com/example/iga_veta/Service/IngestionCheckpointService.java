@@ -0,0 +1,111 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Model.IngestionCheckpoint;
+import com.example.iga_veta.Repository.IngestionCheckpointRepository;
+import com.example.iga_veta.Repository.PaymentRepository;
+import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Service
+public class IngestionCheckpointService {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionCheckpointService.class);
+
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    private static final LocalDateTime FIRST_FETCH_DATE = LocalDateTime.of(2024, 11, 30, 0, 0);
+
+    private final IngestionCheckpointRepository checkpointRepository;
+    private final PaymentRepository paymentRepository;
+
+    // rows can reach upstream a little after their payment_date, so keep a small re-read margin
+    @Value("${collections.ingest.cursor-overlap-minutes:5}")
+    private long overlapMinutes;
+
+    public IngestionCheckpointService(
+            IngestionCheckpointRepository checkpointRepository,
+            PaymentRepository paymentRepository
+    ) {
+        this.checkpointRepository = checkpointRepository;
+        this.paymentRepository = paymentRepository;
+    }
+
+    public Optional<IngestionCheckpoint> find(String source) {
+        return checkpointRepository.findById(source);
+    }
+
+    /**
+     * Cursor to send upstream. Reads the checkpoint row by primary key; only the very first
+     * run for a source falls back to scanning payments for max(payment_date).
+     */
+    public LocalDateTime cursorFor(String source) {
+        LocalDateTime committed = checkpointRepository.findById(source)
+                .map(IngestionCheckpoint::getLastFetchedDate)
+                .orElseGet(() -> paymentRepository.findMaxPaymentDate().orElse(FIRST_FETCH_DATE));
+        return committed.minusMinutes(Math.max(overlapMinutes, 0));
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void markStarted(String source) {
+        IngestionCheckpoint cp = loadOrCreate(source);
+        cp.setStatus(STATUS_RUNNING);
+        cp.setRunStartedAt(LocalDateTime.now());
+        cp.setRunFinishedAt(null);
+        cp.setLastError(null);
+        checkpointRepository.save(cp);
+    }
+
+    /**
+     * Moves the cursor forward after a chunk. Must be called inside the chunk's transaction
+     * so the cursor and the rows commit or roll back together.
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void advance(String source, LocalDateTime chunkMaxPaymentDate, long rows) {
+        IngestionCheckpoint cp = loadOrCreate(source);
+        if (chunkMaxPaymentDate != null
+                && (cp.getLastFetchedDate() == null || chunkMaxPaymentDate.isAfter(cp.getLastFetchedDate()))) {
+            cp.setLastFetchedDate(chunkMaxPaymentDate);
+        }
+        cp.setRowsCommitted((cp.getRowsCommitted() == null ? 0L : cp.getRowsCommitted()) + rows);
+        checkpointRepository.save(cp);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void markCompleted(String source, LocalDateTime apiLastFetchedDate) {
+        IngestionCheckpoint cp = loadOrCreate(source);
+        cp.setStatus(STATUS_COMPLETED);
+        cp.setApiLastFetchedDate(apiLastFetchedDate);
+        cp.setRunFinishedAt(LocalDateTime.now());
+        checkpointRepository.save(cp);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void markFailed(String source, Throwable error) {
+        IngestionCheckpoint cp = loadOrCreate(source);
+        cp.setStatus(STATUS_FAILED);
+        cp.setRunFinishedAt(LocalDateTime.now());
+        String msg = error == null ? null : String.valueOf(error.getMessage());
+        if (msg != null && msg.length() > 500) msg = msg.substring(0, 500);
+        cp.setLastError(msg);
+        checkpointRepository.save(cp);
+        log.warn("Ingestion for source={} failed, resuming from {} next run", source, cp.getLastFetchedDate());
+    }
+
+    private IngestionCheckpoint loadOrCreate(String source) {
+        return checkpointRepository.findById(source).orElseGet(() -> {
+            IngestionCheckpoint cp = new IngestionCheckpoint();
+            cp.setSource(source);
+            cp.setLastFetchedDate(paymentRepository.findMaxPaymentDate().orElse(FIRST_FETCH_DATE));
+            cp.setRowsCommitted(0L);
+            return cp;
+        });
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Configuration.CollectionSourceProperties;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single entry point for collections ingestion.
+ *
+ * Every configured source ({@link CollectionSourceProperties}) gets its own worker thread,
+ * schedule, checkpoint and advisory lock, so a slow or failing feed never holds back the
+ * others. In this JVM, concurrent triggers for the same source (scheduler, /storeCollection)
+ * join the run already in progress instead of starting a second one. Across nodes, a run only
+ * starts after taking a Postgres session advisory lock for its source, so replicas behind
+ * nginx never ingest the same feed at the same time. The lock is tied to a dedicated
+ * connection and is released automatically if the node dies.
+ */
+@Service
+public class IngestionCoordinator {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionCoordinator.class);
+
+    public enum Outcome { SUCCESS, FAILED, SKIPPED_LOCKED, SKIPPED_UPSTREAM_DOWN }
+
+    public record RunResult(
+            String source,
+            String trigger,
+            Outcome outcome,
+            LocalDateTime startedAt,
+            LocalDateTime finishedAt,
+            CollectionService.RunSummary summary,
+            String error
+    ) {}
+
+    private record InFlight(String trigger, LocalDateTime startedAt, CompletableFuture<RunResult> future) {}
+
+    /** Run state of one source on this node. */
+    private static final class SourceState {
+        final AtomicReference<InFlight> inFlight = new AtomicReference<>();
+        volatile RunResult lastRun;
+        volatile ScheduledExecutorService worker;
+
+        final AtomicLong runsStarted = new AtomicLong();
+        final AtomicLong runsJoined = new AtomicLong();
+        final AtomicLong runsSkippedLocked = new AtomicLong();
+        final AtomicLong runsSkippedUpstream = new AtomicLong();
+    }
+
+    private final CollectionService collectionService;
+    private final IngestionCheckpointService checkpointService;
+    private final DataSource dataSource;
+    private final CollectionFeedClient feedClient;
+    private final CollectionSourceProperties sourceProperties;
+
+    private final Map<String, SourceState> states = new ConcurrentHashMap<>();
+
+    // manual "all sources" triggers fan out here; scheduled runs use the per-source workers
+    private final ExecutorService manualRuns = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "ingest-manual");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public IngestionCoordinator(
+            CollectionService collectionService,
+            IngestionCheckpointService checkpointService,
+            DataSource dataSource,
+            CollectionFeedClient feedClient,
+            CollectionSourceProperties sourceProperties
+    ) {
+        this.collectionService = collectionService;
+        this.checkpointService = checkpointService;
+        this.dataSource = dataSource;
+        this.feedClient = feedClient;
+        this.sourceProperties = sourceProperties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startSchedules() {
+        for (CollectionSourceProperties.Source src : sourceProperties.activeSources()) {
+            SourceState state = state(src.getName());
+            ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ingest-" + src.getName());
+                t.setDaemon(true);
+                return t;
+            });
+            state.worker = worker;
+            long interval = Math.max(src.getIntervalSeconds(), 1);
+            worker.scheduleAtFixedRate(() -> fetchDataPeriodically(src), 0, interval, TimeUnit.SECONDS);
+            log.info("Collections source '{}' scheduled every {}s", src.getName(), interval);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        states.values().forEach(s -> {
+            if (s.worker != null) s.worker.shutdownNow();
+        });
+        manualRuns.shutdownNow();
+    }
+
+    void fetchDataPeriodically(CollectionSourceProperties.Source src) {
+        try {
+            SourceState state = state(src.getName());
+            if (!feedClient.isAvailable(src.getName())) {
+                // circuit breaker is open: don't poll an unhealthy upstream every tick
+                state.runsSkippedUpstream.incrementAndGet();
+                state.lastRun = new RunResult(src.getName(), "scheduled", Outcome.SKIPPED_UPSTREAM_DOWN,
+                        LocalDateTime.now(), LocalDateTime.now(), null, "collections feed circuit open");
+                return;
+            }
+            RunResult r = runNow(src, "scheduled");
+            if (r.outcome() == Outcome.FAILED) {
+                log.warn("Scheduled ingestion of {} failed: {}", src.getName(), r.error());
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task for good
+            log.error("Scheduled ingestion of {} failed", src.getName(), e);
+        }
+    }
+
+    /**
+     * Runs every enabled source in parallel and folds the results: FAILED if any source
+     * failed, SKIPPED_LOCKED if every source was locked elsewhere, SUCCESS otherwise.
+     */
+    public RunResult runNow(String trigger) {
+        List<RunResult> results = runAll(trigger);
+        if (results.size() == 1) return results.get(0);
+
+        LocalDateTime startedAt = null;
+        StringJoiner errors = new StringJoiner("; ");
+        boolean allLocked = !results.isEmpty();
+        for (RunResult r : results) {
+            if (startedAt == null || r.startedAt().isBefore(startedAt)) startedAt = r.startedAt();
+            if (r.outcome() == Outcome.FAILED) errors.add(r.source() + ": " + r.error());
+            if (r.outcome() != Outcome.SKIPPED_LOCKED) allLocked = false;
+        }
+
+        Outcome outcome = errors.length() > 0 ? Outcome.FAILED
+                : allLocked ? Outcome.SKIPPED_LOCKED
+                : Outcome.SUCCESS;
+        return new RunResult(null, trigger, outcome, startedAt, LocalDateTime.now(), null,
+                errors.length() > 0 ? errors.toString() : null);
+    }
+
+    /** Runs every enabled source in parallel and returns one result per source. */
+    public List<RunResult> runAll(String trigger) {
+        List<CompletableFuture<RunResult>> futures = new ArrayList<>();
+        for (CollectionSourceProperties.Source src : sourceProperties.activeSources()) {
+            futures.add(CompletableFuture.supplyAsync(() -> runNow(src, trigger), manualRuns));
+        }
+        List<RunResult> out = new ArrayList<>(futures.size());
+        for (CompletableFuture<RunResult> f : futures) {
+            try {
+                out.add(f.join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Runs one source now, or waits for the run already in progress on this node and returns its result.
+     */
+    public RunResult runNow(String sourceName, String trigger) {
+        CollectionSourceProperties.Source src = sourceProperties.find(sourceName);
+        if (src == null) {
+            throw new IllegalArgumentException("Unknown or disabled collections source: " + sourceName);
+        }
+        return runNow(src, trigger);
+    }
+
+    private RunResult runNow(CollectionSourceProperties.Source src, String trigger) {
+        SourceState state = state(src.getName());
+        CompletableFuture<RunResult> mine = new CompletableFuture<>();
+        InFlight candidate = new InFlight(trigger, LocalDateTime.now(), mine);
+
+        InFlight existing = state.inFlight.compareAndExchange(null, candidate);
+        if (existing != null) {
+            state.runsJoined.incrementAndGet();
+            log.info("Ingestion trigger '{}' joined {} run started by '{}' at {}",
+                    trigger, src.getName(), existing.trigger(), existing.startedAt());
+            try {
+                return existing.future().join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            RunResult result = runWithClusterLock(src, state, candidate);
+            state.lastRun = result;
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            state.inFlight.set(null);
+        }
+    }
+
+    private SourceState state(String source) {
+        return states.computeIfAbsent(source, k -> new SourceState());
+    }
+
+    private RunResult runWithClusterLock(CollectionSourceProperties.Source src, SourceState state, InFlight run) {
+        String source = src.getName();
+        String lockName = "collections-ingestion:" + source;
+
+        try (Connection lockConn = dataSource.getConnection()) {
+            lockConn.setAutoCommit(true);
+
+            if (!tryAdvisoryLock(lockConn, lockName)) {
+                state.runsSkippedLocked.incrementAndGet();
+                log.info("Ingestion '{}' skipped: another node holds the lock for {}", run.trigger(), source);
+                return new RunResult(source, run.trigger(), Outcome.SKIPPED_LOCKED, run.startedAt(), LocalDateTime.now(), null, null);
+            }
+
+            try {
+                state.runsStarted.incrementAndGet();
+                CollectionService.RunSummary summary = collectionService.fetchDataFromApi(src);
+                return new RunResult(source, run.trigger(), Outcome.SUCCESS, run.startedAt(), LocalDateTime.now(), summary, null);
+            } catch (RuntimeException e) {
+                log.error("Ingestion '{}' of {} failed", run.trigger(), source, e);
+                return new RunResult(source, run.trigger(), Outcome.FAILED, run.startedAt(), LocalDateTime.now(), null, e.getMessage());
+            } finally {
+                advisoryUnlock(lockConn, lockName);
+            }
+        } catch (SQLException e) {
+            log.error("Ingestion '{}' of {} could not take the cluster lock", run.trigger(), source, e);
+            return new RunResult(source, run.trigger(), Outcome.FAILED, run.startedAt(), LocalDateTime.now(), null, e.getMessage());
+        }
+    }
+
+    private static boolean tryAdvisoryLock(Connection con, String lockName) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("select pg_try_advisory_lock(hashtext(?))")) {
+            ps.setString(1, lockName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    private static void advisoryUnlock(Connection con, String lockName) {
+        try (PreparedStatement ps = con.prepareStatement("select pg_advisory_unlock(hashtext(?))")) {
+            ps.setString(1, lockName);
+            ps.execute();
+        } catch (SQLException e) {
+            // closing the session releases the lock anyway
+            log.warn("Failed to release ingestion lock {}: {}", lockName, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        Map<String, Object> bySource = new LinkedHashMap<>();
+        for (CollectionSourceProperties.Source src : sourceProperties.activeSources()) {
+            SourceState state = state(src.getName());
+            Map<String, Object> m = new LinkedHashMap<>();
+            InFlight current = state.inFlight.get();
+            m.put("state", current == null ? "IDLE" : "RUNNING");
+            if (current != null) {
+                m.put("currentTrigger", current.trigger());
+                m.put("currentStartedAt", current.startedAt());
+            }
+            m.put("intervalSeconds", src.getIntervalSeconds());
+            m.put("lastRun", state.lastRun);
+            m.put("runsStarted", state.runsStarted.get());
+            m.put("runsJoined", state.runsJoined.get());
+            m.put("runsSkippedLocked", state.runsSkippedLocked.get());
+            m.put("runsSkippedUpstream", state.runsSkippedUpstream.get());
+            // cluster-wide view: the checkpoint row is shared by every node
+            m.put("checkpoint", checkpointService.find(src.getName()).orElse(null));
+            bySource.put(src.getName(), m);
+        }
+        out.put("sources", bySource);
+        out.put("feed", feedClient.stats());
+        return out;
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.iga_veta.Service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs ingestion as four stages joined by bounded queues:
+ * fetch (caller thread) -> parse -> resolve -> write.
+ *
+ * A full queue blocks the stage feeding it, so a slow database slows the fetch down instead
+ * of buffering the whole response. Parse and resolve run on their own thread pools; write is
+ * a single thread that commits chunks in fetch order, which keeps the checkpoint monotonic.
+ */
+@Component
+public class IngestionPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    private static final long POLL_MILLIS = 200;
+
+    @Value("${collections.ingest.pipeline.parse-threads:2}")
+    private int parseThreads;
+
+    // new dimensions are created under an advisory lock, so more resolve threads are safe but mostly wait on it
+    @Value("${collections.ingest.pipeline.resolve-threads:1}")
+    private int resolveThreads;
+
+    @Value("${collections.ingest.pipeline.queue-capacity:4}")
+    private int queueCapacity;
+
+    /** Source of the pipeline; calls emit once per chunk with its row count. */
+    public interface Feed<T> {
+        void produce(Emitter<T> emit);
+    }
+
+    public interface Emitter<T> {
+        void emit(T item, int rows);
+    }
+
+    private record Envelope<T>(long seq, int rows, T value) {
+        static final Envelope<?> END = new Envelope<>(-1, 0, null);
+
+        boolean isEnd() {
+            return this == END;
+        }
+    }
+
+    private static final class StageMetrics {
+        final String name;
+        volatile int threads;
+        final AtomicLong chunks = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong maxQueueDepth = new AtomicLong();
+        volatile BlockingQueue<?> outQueue;
+
+        // last run only
+        final AtomicLong runRows = new AtomicLong();
+        final AtomicLong runBusyNanos = new AtomicLong();
+
+        StageMetrics(String name) {
+            this.name = name;
+        }
+
+        void record(int rowCount, long nanos) {
+            chunks.incrementAndGet();
+            rows.addAndGet(rowCount);
+            busyNanos.addAndGet(nanos);
+            runRows.addAndGet(rowCount);
+            runBusyNanos.addAndGet(nanos);
+        }
+
+        void observeDepth(int depth) {
+            maxQueueDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        Map<String, Object> toMap(long runWallNanos) {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("stage", name);
+            out.put("threads", threads);
+            out.put("chunks", chunks.get());
+            out.put("rows", rows.get());
+            out.put("busyMillis", busyNanos.get() / 1_000_000);
+            long rr = runRows.get();
+            long rb = runBusyNanos.get();
+            out.put("lastRunRowsPerSec", runWallNanos > 0 ? rr * 1e9 / runWallNanos : 0.0);
+            out.put("lastRunBusyRowsPerSec", rb > 0 ? rr * 1e9 / rb : 0.0);
+            BlockingQueue<?> q = outQueue;
+            out.put("queueDepth", q == null ? 0 : q.size());
+            out.put("maxQueueDepth", maxQueueDepth.get());
+            return out;
+        }
+    }
+
+    /** Stage metrics of one source's pipeline; sources run their pipelines side by side. */
+    private static final class RunMetrics {
+        final StageMetrics fetch = new StageMetrics("fetch");
+        final StageMetrics parse = new StageMetrics("parse");
+        final StageMetrics resolve = new StageMetrics("resolve");
+        final StageMetrics write = new StageMetrics("write");
+
+        volatile LocalDateTime lastRunStartedAt;
+        volatile long lastRunStartedNanos;
+        volatile long lastRunWallNanos;
+
+        List<StageMetrics> all() {
+            return List.of(fetch, parse, resolve, write);
+        }
+    }
+
+    private final Map<String, RunMetrics> runs = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the feed through parse, resolve and write and returns once every emitted chunk is
+     * written. The first failure in any stage stops the others and is rethrown here.
+     *
+     * @param name metrics key, normally the source name
+     */
+    public <T, P, R> void run(String name, Feed<T> feed, Function<T, P> parse, Function<P, R> resolve, Consumer<R> write) {
+        int capacity = Math.max(queueCapacity, 1);
+        int nParse = Math.max(parseThreads, 1);
+        int nResolve = Math.max(resolveThreads, 1);
+
+        BlockingQueue<Envelope<T>> parseQueue = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Envelope<P>> resolveQueue = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Envelope<R>> writeQueue = new ArrayBlockingQueue<>(capacity);
+
+        RunMetrics m = runs.computeIfAbsent(name, k -> new RunMetrics());
+        resetRun(m, nParse, nResolve, parseQueue, resolveQueue, writeQueue);
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger threadNo = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(nParse + nResolve + 1, r -> {
+            Thread t = new Thread(r, "ingest-" + name + "-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        long started = m.lastRunStartedNanos;
+        try {
+            AtomicInteger parseLeft = new AtomicInteger(nParse);
+            for (int i = 0; i < nParse; i++) {
+                pool.execute(() -> stage(parseQueue, resolveQueue, parse, m.parse, m, parseLeft, nResolve, failure));
+            }
+            AtomicInteger resolveLeft = new AtomicInteger(nResolve);
+            for (int i = 0; i < nResolve; i++) {
+                pool.execute(() -> stage(resolveQueue, writeQueue, resolve, m.resolve, m, resolveLeft, 1, failure));
+            }
+            pool.execute(() -> writeStage(writeQueue, write, m, failure));
+
+            produce(feed, parseQueue, m, failure);
+            for (int i = 0; i < nParse; i++) {
+                if (!offer(parseQueue, end(), m, failure)) break;
+            }
+
+            pool.shutdown();
+            while (!pool.awaitTermination(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                // stages exit on END or on failure
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            pool.shutdownNow();
+            m.lastRunWallNanos = System.nanoTime() - started;
+        }
+
+        Throwable t = failure.get();
+        if (t != null) {
+            log.warn("Ingestion pipeline {} stopped after {} ms: {}", name, m.lastRunWallNanos / 1_000_000, t.toString());
+            if (t instanceof RuntimeException re) throw re;
+            if (t instanceof Error err) throw err;
+            throw new RuntimeException("Ingestion pipeline failed", t);
+        }
+    }
+
+    private <T> void produce(Feed<T> feed, BlockingQueue<Envelope<T>> parseQueue, RunMetrics m, AtomicReference<Throwable> failure) {
+        AtomicLong seq = new AtomicLong();
+        long[] lastEmit = {System.nanoTime()};
+        try {
+            feed.produce((item, rows) -> {
+                // time since the previous emit is fetch work (network + tokenizing)
+                long now = System.nanoTime();
+                m.fetch.record(rows, now - lastEmit[0]);
+                if (!offer(parseQueue, new Envelope<>(seq.getAndIncrement(), rows, item), m, failure)) {
+                    throw new PipelineAborted();
+                }
+                lastEmit[0] = System.nanoTime();
+            });
+        } catch (PipelineAborted e) {
+            // a downstream stage failed; its error is reported instead
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private <I, O> void stage(
+            BlockingQueue<Envelope<I>> in,
+            BlockingQueue<Envelope<O>> out,
+            Function<I, O> fn,
+            StageMetrics metrics,
+            RunMetrics m,
+            AtomicInteger workersLeft,
+            int downstreamWorkers,
+            AtomicReference<Throwable> failure
+    ) {
+        try {
+            while (failure.get() == null) {
+                Envelope<I> e = in.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (e == null) continue;
+                if (e.isEnd()) break;
+
+                long t0 = System.nanoTime();
+                O result = fn.apply(e.value());
+                metrics.record(e.rows(), System.nanoTime() - t0);
+
+                if (!offer(out, new Envelope<>(e.seq(), e.rows(), result), m, failure)) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+            return;
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            return;
+        }
+
+        // last worker of the stage closes the next one
+        if (workersLeft.decrementAndGet() == 0) {
+            for (int i = 0; i < downstreamWorkers; i++) {
+                if (!offer(out, end(), m, failure)) return;
+            }
+        }
+    }
+
+    private <R> void writeStage(BlockingQueue<Envelope<R>> in, Consumer<R> write, RunMetrics m, AtomicReference<Throwable> failure) {
+        // parse/resolve may finish chunks out of order; commit strictly by fetch sequence
+        TreeMap<Long, Envelope<R>> pending = new TreeMap<>();
+        long next = 0;
+        try {
+            while (failure.get() == null) {
+                Envelope<R> e = in.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (e == null) continue;
+                if (e.isEnd()) break;
+
+                pending.put(e.seq(), e);
+                while (!pending.isEmpty() && pending.firstKey() == next) {
+                    Envelope<R> ready = pending.pollFirstEntry().getValue();
+                    long t0 = System.nanoTime();
+                    write.accept(ready.value());
+                    m.write.record(ready.rows(), System.nanoTime() - t0);
+                    next++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private <T> boolean offer(BlockingQueue<Envelope<T>> q, Envelope<T> e, RunMetrics m, AtomicReference<Throwable> failure) {
+        try {
+            while (failure.get() == null) {
+                if (q.offer(e, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    observeDepth(m, q);
+                    return true;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, ex);
+        }
+        return false;
+    }
+
+    private static void observeDepth(RunMetrics m, BlockingQueue<?> q) {
+        for (StageMetrics s : List.of(m.fetch, m.parse, m.resolve)) {
+            if (s.outQueue == q) {
+                s.observeDepth(q.size());
+                return;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Envelope<T> end() {
+        return (Envelope<T>) Envelope.END;
+    }
+
+    private static void resetRun(RunMetrics m, int nParse, int nResolve, BlockingQueue<?> parseQueue,
+                                 BlockingQueue<?> resolveQueue, BlockingQueue<?> writeQueue) {
+        m.lastRunStartedAt = LocalDateTime.now();
+        m.lastRunStartedNanos = System.nanoTime();
+        m.lastRunWallNanos = 0;
+
+        m.fetch.threads = 1;
+        m.parse.threads = nParse;
+        m.resolve.threads = nResolve;
+        m.write.threads = 1;
+
+        m.fetch.outQueue = parseQueue;
+        m.parse.outQueue = resolveQueue;
+        m.resolve.outQueue = writeQueue;
+        m.write.outQueue = null;
+
+        for (StageMetrics s : m.all()) {
+            s.runRows.set(0);
+            s.runBusyNanos.set(0);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("queueCapacity", Math.max(queueCapacity, 1));
+        Map<String, Object> bySource = new LinkedHashMap<>();
+        runs.forEach((name, m) -> bySource.put(name, runStats(m)));
+        out.put("sources", bySource);
+        return out;
+    }
+
+    private static Map<String, Object> runStats(RunMetrics m) {
+        long wall = m.lastRunWallNanos;
+        if (wall == 0 && m.lastRunStartedAt != null) {
+            wall = System.nanoTime() - m.lastRunStartedNanos; // run still in progress
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("lastRunStartedAt", m.lastRunStartedAt);
+        out.put("lastRunMillis", wall / 1_000_000);
+        List<Map<String, Object>> stages = new ArrayList<>(4);
+        for (StageMetrics s : m.all()) {
+            stages.add(s.toMap(wall));
+        }
+        out.put("stages", stages);
+        return out;
+    }
+
+    private static final class PipelineAborted extends RuntimeException {
+        PipelineAborted() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Set-based writer for {@code payments}.
+ *
+ * Each slice of up to {@code collections.ingest.write-batch-size} rows is sent as ONE
+ * {@code INSERT ... SELECT FROM unnest(...) ON CONFLICT (payment_id, bill_id) DO UPDATE}
+ * statement, so a chunk costs one round trip instead of a select plus a save per group.
+ * IDENTITY ids are generated by Postgres, so Hibernate batching is not needed.
+ *
+ * Rows whose {@code content_hash} did not change are left alone (no new tuple, no WAL),
+ * which is most of every cycle because of the cursor overlap and upstream re-sends.
+ * A {@link PaymentUpsert#continuation()} row carries more lines of a payment an earlier chunk
+ * of the same response already wrote: its amounts are added to the stored row, which keeps its
+ * other fields and loses its hash, so the next full re-send rewrites it once.
+ * The same statement moves {@code payments_daily_agg} by the difference between the old and
+ * new values of the rows it touched (see {@link PaymentDailyAggService#DELTA_CTE}) and logs
+ * those rows for {@link PaymentCube} ({@link PaymentCube#LOG_CTE}), which catches up on them
+ * after commit; other nodes hear about the change through {@link PaymentChangeSignal}.
+ *
+ * Once payments is partitioned by month the key also carries payment_date and the months of
+ * a chunk are created first; see {@link PaymentPartitionService}.
+ *
+ * Every write first takes the paymentId lock stripes of its rows
+ * ({@link PaymentDailyAggService#lockPaymentKeys}), so a concurrent writer of the same new key
+ * (push, another node, backfill) waits instead of counting it into the rollup a second time.
+ *
+ * With {@code collections.ingest.write.parallel.enabled} a chunk is split by
+ * {@code stripe(paymentId) % workers} and each partition is written by its own worker on its
+ * own connection and transaction. All rows of a paymentId land in the same partition and no
+ * two partitions share a lock stripe, so workers never wait on each other's keys; they only
+ * meet on rollup buckets, which are locked in key order.
+ */
+@Service
+public class PaymentBulkWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentBulkWriter.class);
+
+    private static final String UPSERT_TEMPLATE = """
+        with input as (
+            select t.payment_id, t.bill_id,
+                   case when s.id is null then t.customer_id else s.customer_id end as customer_id,
+                   case when s.id is null then t.centre_id else s.centre_id end as centre_id,
+                   case when s.id is null then t.gfs_code_id else s.gfs_code_id end as gfs_code_id,
+                   case when s.id is null then t.control_number else s.control_number end as control_number,
+                   case when s.id is null then t.payment_type else s.payment_type end as payment_type,
+                   case when s.id is null then t.description else s.description end as description,
+                   t.total_billed + coalesce(s.total_billed, 0) as total_billed,
+                   t.total_paid + coalesce(s.total_paid, 0) as total_paid,
+                   case when s.id is null then t.payment_date else s.payment_date end as payment_date,
+                   t.last_fetched,
+                   case when s.id is null then t.content_hash end as content_hash
+            from unnest(
+                ?::bigint[], ?::bigint[], ?::bigint[], ?::bigint[], ?::bigint[],
+                ?::varchar[], ?::varchar[], ?::varchar[],
+                ?::numeric[], ?::numeric[], ?::timestamp[], ?::timestamp[], ?::varchar[], ?::boolean[]
+            ) as t(
+                payment_id, bill_id, customer_id, centre_id, gfs_code_id,
+                control_number, payment_type, description,
+                total_billed, total_paid, payment_date, last_fetched, content_hash, continuation
+            )
+            -- a continuation adds its lines to the stored row and keeps the stored fields
+            left join payments s on t.continuation and s.payment_id = t.payment_id and s.bill_id = t.bill_id
+        ),
+        old as (
+            select p.id, p.payment_id, p.bill_id, p.centre_id, p.gfs_code_id, p.payment_type,
+                   p.payment_date, p.total_billed, p.total_paid
+            from payments p
+            join input i on i.payment_id = p.payment_id and i.bill_id = p.bill_id
+        ),
+        {moved}
+        up as (
+            insert into payments (
+                {id_column}payment_id, bill_id, customer_id, centre_id, gfs_code_id,
+                control_number, payment_type, description,
+                total_billed, total_paid, payment_date, last_fetched, content_hash,
+                created_at, updated_at, zone_id
+            )
+            select
+                {id_value}t.payment_id, t.bill_id, t.customer_id, t.centre_id, t.gfs_code_id,
+                t.control_number, t.payment_type, t.description,
+                t.total_billed, t.total_paid, t.payment_date, t.last_fetched, t.content_hash,
+                ?::timestamp, ?::timestamp, c.zone_id
+            from input t
+            left join centre c on c.id = t.centre_id
+            {moved_join}
+            on conflict {conflict_key} do update set
+                customer_id    = excluded.customer_id,
+                centre_id      = excluded.centre_id,
+                gfs_code_id    = excluded.gfs_code_id,
+                control_number = excluded.control_number,
+                payment_type   = excluded.payment_type,
+                description    = excluded.description,
+                total_billed   = excluded.total_billed,
+                total_paid     = excluded.total_paid,
+                payment_date   = excluded.payment_date,
+                last_fetched   = excluded.last_fetched,
+                content_hash   = excluded.content_hash,
+                updated_at     = excluded.updated_at,
+                zone_id        = excluded.zone_id
+            where excluded.content_hash is null or payments.content_hash is distinct from excluded.content_hash
+            returning payment_id, bill_id, centre_id, gfs_code_id, payment_type,
+                      payment_date, total_billed, total_paid, {inserted} as inserted
+        ),
+        """ + PaymentDailyAggService.DELTA_CTE + PaymentCube.LOG_CTE + """
+        select 1, u.inserted, floor(extract(epoch from u.payment_date) / 60)::int, u.centre_id, u.gfs_code_id,
+               u.payment_type, u.total_billed, u.total_paid
+        from up u
+        union all
+        select -1, false, floor(extract(epoch from o.payment_date) / 60)::int, o.centre_id, o.gfs_code_id,
+               o.payment_type, o.total_billed, o.total_paid
+        from old o
+        join up u on u.payment_id = o.payment_id and u.bill_id = o.bill_id
+    """;
+
+    /**
+     * Moves stored rows to the billId upstream now sends for them, as saving the entity did,
+     * unless another row of the payment already has it. The hash is cleared so the upsert
+     * that follows rewrites the row.
+     */
+    private static final String REBILL_SQL = """
+        update payments p
+        set bill_id = r.bill_id, content_hash = null
+        from unnest(?::bigint[], ?::bigint[], ?::bigint[]) as r(payment_id, stored_bill_id, bill_id)
+        where p.payment_id = r.payment_id and p.bill_id = r.stored_bill_id
+          and not exists (select 1 from payments q where q.payment_id = r.payment_id and q.bill_id = r.bill_id)
+    """;
+
+    private static final String UPSERT_SQL = PaymentPartitionService.upsertSql(UPSERT_TEMPLATE, "input", false);
+    private static final String UPSERT_MONTHLY_SQL = PaymentPartitionService.upsertSql(UPSERT_TEMPLATE, "input", true);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTimeZone jdbcTimeZone;
+    private final TransactionTemplate partitionTx;
+    private final PaymentCube paymentCube;
+    private final SummaryCache summaryCache;
+    private final FilterOptionsService filterOptions;
+    private final PaymentPartitionService partitions;
+    private final PaymentDailyAggService dailyAgg;
+    private final PaymentChangeSignal changeSignal;
+
+    @Value("${collections.ingest.write-batch-size:1000}")
+    private int writeBatchSize;
+
+    @Value("${collections.ingest.write.parallel.enabled:false}")
+    private boolean parallel;
+
+    // each worker holds a pool connection while it writes; keep below the Hikari pool size
+    @Value("${collections.ingest.write.parallel.workers:4}")
+    private int workers;
+
+    // smaller chunks are not worth the extra connections and commits
+    @Value("${collections.ingest.write.parallel.min-rows:500}")
+    private int parallelMinRows;
+
+    private volatile ExecutorService writePool;
+
+    private final AtomicLong parallelChunks = new AtomicLong();
+    private final AtomicLong partitionWrites = new AtomicLong();
+    private final AtomicLong partitionFailures = new AtomicLong();
+
+    public PaymentBulkWriter(JdbcTemplate jdbcTemplate, JdbcTimeZone jdbcTimeZone, PlatformTransactionManager transactionManager,
+                             PaymentCube paymentCube, SummaryCache summaryCache, FilterOptionsService filterOptions,
+                             PaymentPartitionService partitions, PaymentDailyAggService dailyAgg,
+                             PaymentChangeSignal changeSignal) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.paymentCube = paymentCube;
+        this.summaryCache = summaryCache;
+        this.filterOptions = filterOptions;
+        this.partitions = partitions;
+        this.dailyAgg = dailyAgg;
+        this.changeSignal = changeSignal;
+        this.jdbcTimeZone = jdbcTimeZone;
+        this.partitionTx = new TransactionTemplate(transactionManager);
+        this.partitionTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ExecutorService pool = writePool;
+        if (pool != null) pool.shutdownNow();
+    }
+
+    /** True when chunks are written by partitioned workers, each committing on its own. */
+    public boolean isParallel() {
+        return parallel && workers > 1;
+    }
+
+    /**
+     * One resolved payment row, i.e. one group from {@code processApiData_GroupByPaymentId}.
+     * {@code storedBillId}, when set and different, is the bill_id the row is stored under.
+     * {@code continuation} adds the amounts to the stored row instead of replacing them.
+     */
+    public record PaymentUpsert(
+            Long paymentId,
+            Long billId,
+            Long customerId,
+            Long centreId,
+            Long gfsCodeId,
+            String controlNumber,
+            String paymentType,
+            String description,
+            BigDecimal totalBilled,
+            BigDecimal totalPaid,
+            LocalDateTime paymentDate,
+            LocalDateTime lastFetched,
+            Long storedBillId,
+            boolean continuation
+    ) {
+        public PaymentUpsert(Long paymentId, Long billId, Long customerId, Long centreId, Long gfsCodeId,
+                             String controlNumber, String paymentType, String description,
+                             BigDecimal totalBilled, BigDecimal totalPaid,
+                             LocalDateTime paymentDate, LocalDateTime lastFetched) {
+            this(paymentId, billId, customerId, centreId, gfsCodeId, controlNumber, paymentType, description,
+                    totalBilled, totalPaid, paymentDate, lastFetched, null, false);
+        }
+
+        /** True when the stored row under {@code storedBillId} takes {@code billId} as its key. */
+        boolean rebills() {
+            return storedBillId != null && !storedBillId.equals(billId);
+        }
+
+        String key() {
+            return paymentId + "|" + billId;
+        }
+
+        /** MD5 over the business fields only; the key and lastFetched are left out on purpose. */
+        public String contentHash() {
+            StringBuilder sb = new StringBuilder(192);
+            sb.append(customerId).append('\u001f')
+                    .append(centreId).append('\u001f')
+                    .append(gfsCodeId).append('\u001f')
+                    .append(controlNumber).append('\u001f')
+                    .append(paymentType).append('\u001f')
+                    .append(description == null ? "" : description).append('\u001f')
+                    .append(amount(totalBilled)).append('\u001f')
+                    .append(amount(totalPaid)).append('\u001f')
+                    .append(paymentDate);
+            try {
+                byte[] digest = MessageDigest.getInstance("MD5").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+                return HexFormat.of().formatHex(digest);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // numeric(12,2) in the table, so 10, 10.0 and 10.00 must hash the same
+        private static String amount(BigDecimal v) {
+            return v == null ? "0" : v.setScale(2, RoundingMode.HALF_UP).toPlainString();
+        }
+    }
+
+    public record UpsertResult(int inserted, int updated, int unchanged) {
+        public UpsertResult plus(UpsertResult other) {
+            return new UpsertResult(inserted + other.inserted, updated + other.updated, unchanged + other.unchanged);
+        }
+    }
+
+    /**
+     * Upserts the rows, partitioned across the write workers when parallel mode is on and the
+     * chunk is big enough; otherwise in the caller's transaction.
+     *
+     * In parallel mode every partition commits on its own before this returns, so the caller
+     * must only advance its checkpoint afterwards. If a partition fails the others may already
+     * be committed; re-running the chunk is harmless because the upsert is idempotent.
+     */
+    public UpsertResult upsert(Collection<PaymentUpsert> rows) {
+        if (rows == null || rows.isEmpty()) return new UpsertResult(0, 0, 0);
+
+        // Postgres rejects a statement that updates the same conflict key twice; last one wins.
+        Map<String, PaymentUpsert> unique = new LinkedHashMap<>();
+        for (PaymentUpsert r : rows) {
+            unique.put(r.key(), r);
+        }
+
+        List<PaymentUpsert> all = new ArrayList<>(unique.values());
+        boolean fanOut = isParallel() && all.size() >= Math.max(parallelMinRows, 1);
+        if (partitions.isPartitioned()) {
+            List<LocalDateTime> dates = new ArrayList<>(all.size());
+            for (PaymentUpsert r : all) {
+                dates.add(jdbcTimeZone.toDb(r.paymentDate()));
+            }
+            // workers write on their own transactions, so they need the months committed
+            if (fanOut) partitions.ensureMonthsCommitted(dates);
+            else partitions.ensureMonths(dates);
+        }
+        if (fanOut) {
+            return upsertPartitioned(all);
+        }
+        return upsertSlices(all);
+    }
+
+    private UpsertResult upsertPartitioned(List<PaymentUpsert> all) {
+        int n = workers;
+        List<List<PaymentUpsert>> partitions = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            partitions.add(new ArrayList<>(all.size() / n + 1));
+        }
+        for (PaymentUpsert r : all) {
+            partitions.get(PaymentDailyAggService.keyLockStripe(r.paymentId()) % n).add(r);
+        }
+
+        ExecutorService pool = writePool();
+        List<Future<UpsertResult>> futures = new ArrayList<>(n);
+        for (List<PaymentUpsert> part : partitions) {
+            if (part.isEmpty()) continue;
+            futures.add(pool.submit(() -> partitionTx.execute(status -> upsertSlices(part))));
+        }
+        parallelChunks.incrementAndGet();
+
+        UpsertResult total = new UpsertResult(0, 0, 0);
+        RuntimeException failure = null;
+        // wait for every partition, even after a failure, so none is still writing when we return
+        for (Future<UpsertResult> f : futures) {
+            try {
+                total = total.plus(f.get());
+                partitionWrites.incrementAndGet();
+            } catch (ExecutionException e) {
+                partitionFailures.incrementAndGet();
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException re
+                            ? re
+                            : new RuntimeException("Payment partition write failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(other -> other.cancel(true));
+                throw new IllegalStateException("Interrupted while writing payment partitions", e);
+            }
+        }
+        if (failure != null) throw failure;
+
+        log.debug("Payment upsert (partitioned x{}): rows={}, inserted={}, updated={}, unchanged={}",
+                futures.size(), all.size(), total.inserted(), total.updated(), total.unchanged());
+        return total;
+    }
+
+    private ExecutorService writePool() {
+        ExecutorService pool = writePool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = writePool;
+                if (pool == null) {
+                    AtomicInteger threadNo = new AtomicInteger();
+                    pool = Executors.newFixedThreadPool(workers, r -> {
+                        Thread t = new Thread(r, "payment-writer-" + threadNo.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    writePool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("parallel", isParallel());
+        out.put("workers", workers);
+        out.put("minRows", parallelMinRows);
+        out.put("parallelChunks", parallelChunks.get());
+        out.put("partitionWrites", partitionWrites.get());
+        out.put("partitionFailures", partitionFailures.get());
+        return out;
+    }
+
+    private UpsertResult upsertSlices(List<PaymentUpsert> all) {
+        // one ordered statement for the whole chunk, so slices cannot take stripes out of order
+        List<Long> paymentIds = new ArrayList<>(all.size());
+        for (PaymentUpsert r : all) {
+            paymentIds.add(r.paymentId());
+        }
+        dailyAgg.lockPaymentKeys(paymentIds);
+        rebill(all);
+
+        int size = Math.max(writeBatchSize, 1);
+        UpsertResult total = new UpsertResult(0, 0, 0);
+
+        for (int from = 0; from < all.size(); from += size) {
+            List<PaymentUpsert> slice = all.subList(from, Math.min(from + size, all.size()));
+            total = total.plus(upsertSlice(slice));
+        }
+
+        log.debug("Payment upsert: rows={}, inserted={}, updated={}, unchanged={}",
+                all.size(), total.inserted(), total.updated(), total.unchanged());
+        return total;
+    }
+
+    private void rebill(List<PaymentUpsert> rows) {
+        List<PaymentUpsert> moved = new ArrayList<>();
+        for (PaymentUpsert r : rows) {
+            if (r.rebills()) moved.add(r);
+        }
+        if (moved.isEmpty()) return;
+
+        Long[] paymentIds = new Long[moved.size()];
+        Long[] storedBillIds = new Long[moved.size()];
+        Long[] billIds = new Long[moved.size()];
+        for (int i = 0; i < moved.size(); i++) {
+            paymentIds[i] = moved.get(i).paymentId();
+            storedBillIds[i] = moved.get(i).storedBillId();
+            billIds[i] = moved.get(i).billId();
+        }
+        try {
+            jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement(REBILL_SQL);
+                ps.setArray(1, con.createArrayOf("bigint", paymentIds));
+                ps.setArray(2, con.createArrayOf("bigint", storedBillIds));
+                ps.setArray(3, con.createArrayOf("bigint", billIds));
+                return ps;
+            });
+        } catch (DataAccessException e) {
+            partitions.writeFailed();
+            throw e;
+        }
+    }
+
+    private UpsertResult upsertSlice(List<PaymentUpsert> slice) {
+        int n = slice.size();
+        Long[] paymentIds = new Long[n];
+        Long[] billIds = new Long[n];
+        Long[] customerIds = new Long[n];
+        Long[] centreIds = new Long[n];
+        Long[] gfsIds = new Long[n];
+        String[] controlNumbers = new String[n];
+        String[] paymentTypes = new String[n];
+        String[] descriptions = new String[n];
+        BigDecimal[] billed = new BigDecimal[n];
+        BigDecimal[] paid = new BigDecimal[n];
+        String[] paymentDates = new String[n];
+        String[] lastFetched = new String[n];
+        String[] hashes = new String[n];
+        Boolean[] continuations = new Boolean[n];
+
+        for (int i = 0; i < n; i++) {
+            PaymentUpsert r = slice.get(i);
+            paymentIds[i] = r.paymentId();
+            billIds[i] = r.billId();
+            customerIds[i] = r.customerId();
+            centreIds[i] = r.centreId();
+            gfsIds[i] = r.gfsCodeId();
+            controlNumbers[i] = r.controlNumber();
+            paymentTypes[i] = r.paymentType();
+            descriptions[i] = r.description() == null ? "" : r.description();
+            billed[i] = r.totalBilled() == null ? BigDecimal.ZERO : r.totalBilled();
+            paid[i] = r.totalPaid() == null ? BigDecimal.ZERO : r.totalPaid();
+            paymentDates[i] = jdbcTimeZone.toDbText(r.paymentDate());
+            lastFetched[i] = jdbcTimeZone.toDbText(r.lastFetched());
+            hashes[i] = r.contentHash();
+            continuations[i] = r.continuation();
+        }
+
+        String now = jdbcTimeZone.toDbText(LocalDateTime.now());
+        PaymentCube.Delta delta = new PaymentCube.Delta(2 * n);
+
+        int[] counts;
+        try {
+            counts = jdbcTemplate.query(
+                    (Connection con) -> {
+                        PreparedStatement ps = con.prepareStatement(partitions.isPartitioned() ? UPSERT_MONTHLY_SQL : UPSERT_SQL);
+                        int i = 1;
+                        ps.setArray(i++, con.createArrayOf("bigint", paymentIds));
+                        ps.setArray(i++, con.createArrayOf("bigint", billIds));
+                        ps.setArray(i++, con.createArrayOf("bigint", customerIds));
+                        ps.setArray(i++, con.createArrayOf("bigint", centreIds));
+                        ps.setArray(i++, con.createArrayOf("bigint", gfsIds));
+                        ps.setArray(i++, con.createArrayOf("varchar", controlNumbers));
+                        ps.setArray(i++, con.createArrayOf("varchar", paymentTypes));
+                        ps.setArray(i++, con.createArrayOf("varchar", descriptions));
+                        ps.setArray(i++, con.createArrayOf("numeric", billed));
+                        ps.setArray(i++, con.createArrayOf("numeric", paid));
+                        ps.setArray(i++, con.createArrayOf("varchar", paymentDates));
+                        ps.setArray(i++, con.createArrayOf("varchar", lastFetched));
+                        ps.setArray(i++, con.createArrayOf("varchar", hashes));
+                        ps.setArray(i++, con.createArrayOf("boolean", continuations));
+                        ps.setString(i++, now);
+                        ps.setString(i, now);
+                        return ps;
+                    },
+                    rs -> {
+                        // one +1 row per inserted/changed payment, one -1 row with the old values per change
+                        int ins = 0, upd = 0;
+                        while (rs.next()) {
+                            int sign = rs.getInt(1);
+                            if (sign > 0) {
+                                if (rs.getBoolean(2)) ins++;
+                                else upd++;
+                            }
+                            delta.add(sign, rs.getInt(3), rs.getLong(4), rs.getObject(5, Long.class),
+                                    rs.getString(6), rs.getBigDecimal(7), rs.getBigDecimal(8));
+                        }
+                        return new int[]{ins, upd};
+                    }
+            );
+        } catch (DataAccessException e) {
+            // another instance may have partitioned payments since the key was chosen
+            partitions.writeFailed();
+            throw e;
+        }
+
+        if (counts == null) {
+            throw new IllegalStateException("Payment upsert returned no result");
+        }
+        if (delta.size() > 0) {
+            paymentCube.catchUpAfterCommit();
+            changeSignal.publish();
+            summaryCache.invalidateAfterCommit();
+            filterOptions.observe(delta);
+        }
+        // rows skipped by the content_hash guard are not returned
+        return new UpsertResult(counts[0], counts[1], n - counts[0] - counts[1]);
+    }
+}
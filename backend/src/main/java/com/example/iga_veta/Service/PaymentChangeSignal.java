@@ -0,0 +1,185 @@
+package com.example.iga_veta.Service;
+
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells the other nodes that payments changed, so their in-memory copies do not go stale.
+ *
+ * Writers call {@link #publish()} inside their transaction. It is a Postgres NOTIFY, which is
+ * only delivered once the transaction commits (and never after a rollback), carrying this
+ * node's id. Every node LISTENs on one dedicated connection and hands notifications from
+ * other nodes to {@link PaymentCube}, which catches up on the rows they logged, and
+ * {@link SummaryCache}; its own commits already reach them directly.
+ *
+ * If the listening connection is lost, notifications sent meanwhile are lost too, so a
+ * reconnect counts as a change.
+ */
+@Service
+public class PaymentChangeSignal {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentChangeSignal.class);
+
+    static final String CHANNEL = "payments_changed";
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final PaymentCube paymentCube;
+    private final SummaryCache summaryCache;
+
+    @Value("${analytics.change-signal.enabled:true}")
+    private boolean enabled;
+
+    // how long one wait for notifications blocks before checking for shutdown
+    @Value("${analytics.change-signal.poll-millis:1000}")
+    private int pollMillis;
+
+    @Value("${analytics.change-signal.reconnect-millis:5000}")
+    private long reconnectMillis;
+
+    private final ExecutorService listener = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "payments-change-listener");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running;
+    private volatile boolean listening;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private volatile LocalDateTime lastReceivedAt;
+
+    public PaymentChangeSignal(DataSource dataSource, JdbcTemplate jdbcTemplate, PaymentCube paymentCube,
+                               SummaryCache summaryCache) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.paymentCube = paymentCube;
+        this.summaryCache = summaryCache;
+    }
+
+    /** Signals the other nodes once the caller's transaction commits. */
+    public void publish() {
+        if (!enabled) return;
+        jdbcTemplate.query("select pg_notify(?, ?)", rs -> {}, CHANNEL, nodeId);
+        published.incrementAndGet();
+    }
+
+    /**
+     * Starts listening before {@link PaymentCube} starts its first load, so no commit can
+     * fall between the cube's snapshot and the first LISTEN.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void start() {
+        if (!enabled) return;
+        running = true;
+        Connection first = null;
+        try {
+            first = connect();
+        } catch (SQLException e) {
+            log.warn("Payment change listener could not connect, retrying in the background: {}", e.getMessage());
+        }
+        Connection initial = first;
+        listener.execute(() -> listen(initial));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        listener.shutdownNow();
+    }
+
+    private Connection connect() throws SQLException {
+        Connection con = dataSource.getConnection();
+        try {
+            con.setAutoCommit(true);
+            try (Statement st = con.createStatement()) {
+                st.execute("listen " + CHANNEL);
+            }
+            return con;
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+    }
+
+    private void listen(Connection initial) {
+        Connection next = initial;
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try (Connection con = next != null ? next : connect()) {
+                listening = true;
+                // not listening since start-up: changes may have been missed
+                if (next == null) changedElsewhere();
+
+                PGConnection pg = con.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(Math.max(pollMillis, 1));
+                    if (notifications == null) continue;
+                    boolean remote = false;
+                    for (PGNotification n : notifications) {
+                        if (!nodeId.equals(n.getParameter())) remote = true;
+                    }
+                    if (remote) changedElsewhere();
+                }
+                return;
+            } catch (SQLException e) {
+                if (!running) return;
+                reconnects.incrementAndGet();
+                log.warn("Payment change listener lost its connection, retrying in {} ms: {}", reconnectMillis, e.getMessage());
+            } finally {
+                listening = false;
+                next = null;
+            }
+            try {
+                Thread.sleep(Math.max(reconnectMillis, 100));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void changedElsewhere() {
+        received.incrementAndGet();
+        lastReceivedAt = LocalDateTime.now();
+        paymentCube.changedElsewhere();
+        summaryCache.invalidateAll();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        out.put("listening", listening);
+        out.put("nodeId", nodeId);
+        out.put("published", published.get());
+        out.put("received", received.get());
+        out.put("reconnects", reconnects.get());
+        out.put("lastReceivedAt", lastReceivedAt);
+        return out;
+    }
+}
@@ -0,0 +1,930 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Repository.projections.ServiceSummaryView;
+import com.example.iga_veta.Repository.projections.TotalsView;
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process columnar copy of {@code payments} for dashboard and report aggregates.
+ *
+ * One slot per payment row in parallel primitive arrays: payment time in epoch minutes of
+ * database wall-clock time ({@code int}), centre,
+ * GFS code and payment type as dictionary codes ({@code short}), billed and paid in cents
+ * ({@code long}) and a {@code byte} sign; the zone is looked up through the centre. That is
+ * 27 bytes per row and no object per row.
+ *
+ * Every payments writer also logs the rows it inserted or changed to {@code payment_cube_log}
+ * ({@link #LOG_CTE}, next to the rollup delta): a change logs the old values with sign -1 and
+ * the new ones with sign +1, so the arrays are append-only and sums stay exact. Each log row
+ * carries the id of the transaction that wrote it. The cube remembers the database snapshot
+ * it is current to and catches up by appending the log rows of the transactions committed
+ * since, i.e. not visible in that snapshot. This runs after local commits, when another node
+ * signals a commit through {@link PaymentChangeSignal}, and on a schedule; writers on any
+ * node are applied the same way. When retractions pile up the cube is reloaded.
+ *
+ * A load reads payments from a REPEATABLE READ snapshot, so it blocks no writer, and then
+ * catches up from that snapshot: commits that happened during the load are appended, the
+ * ones already in the snapshot are not. Until the first load finishes {@link #isReady()} is
+ * false and callers use the rollup.
+ *
+ * The log is kept for {@code analytics.cube.log-retention-minutes}; a cube that has not caught
+ * up for half of that reloads instead. Writes too big to log row by row (backfill) log a
+ * {@link #RELOAD_MARKER_SQL} row, which makes every cube reload.
+ */
+@Service
+public class PaymentCube {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentCube.class);
+
+    private static final String UNKNOWN = "UNKNOWN";
+
+    private static final String LOG_TABLE_SQL = """
+        create table if not exists payment_cube_log (
+            id bigint generated always as identity primary key,
+            xid xid8 not null default pg_current_xact_id(),
+            logged_at timestamptz not null default now(),
+            sign smallint not null,
+            minute int,
+            centre_id bigint,
+            gfs_code_id bigint,
+            payment_type varchar(255),
+            total_billed numeric,
+            total_paid numeric
+        )
+    """;
+
+    /**
+     * Log CTE for a payments upsert, appended after {@link PaymentDailyAggService#DELTA_CTE} and
+     * expecting the same {@code old} and {@code up} CTEs.
+     */
+    static final String LOG_CTE = """
+        ,
+        cube_log as (
+            insert into payment_cube_log (sign, minute, centre_id, gfs_code_id, payment_type, total_billed, total_paid)
+            select 1, floor(extract(epoch from u.payment_date) / 60)::int, u.centre_id, u.gfs_code_id,
+                   u.payment_type, u.total_billed, u.total_paid
+            from up u
+            union all
+            select -1, floor(extract(epoch from o.payment_date) / 60)::int, o.centre_id, o.gfs_code_id,
+                   o.payment_type, o.total_billed, o.total_paid
+            from old o
+            join up u on u.payment_id = o.payment_id and u.bill_id = o.bill_id
+        )
+    """;
+
+    /** Sign 0: every cube reloads once the writing transaction commits. */
+    static final String RELOAD_MARKER_SQL = "insert into payment_cube_log (sign) values (0)";
+
+    /** Log rows of the transactions committed since the given snapshot, oldest first. */
+    private static final String CATCH_UP_SQL = """
+        select sign, minute, centre_id, gfs_code_id, payment_type, total_billed, total_paid
+        from payment_cube_log
+        where xid >= pg_snapshot_xmin(?::pg_snapshot)
+          and not pg_visible_in_snapshot(xid, ?::pg_snapshot)
+        order by id
+    """;
+
+    private static final String LOAD_SQL = """
+        select floor(extract(epoch from p.payment_date) / 60)::int,
+               p.centre_id,
+               coalesce(p.gfs_code_id, 0),
+               coalesce(p.payment_type, 'UNKNOWN'),
+               round(p.total_billed * 100)::bigint,
+               round(p.total_paid * 100)::bigint
+        from payments p
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    // loads and catch-ups each read one snapshot
+    private final TransactionTemplate snapshotTx;
+    private final JdbcTimeZone jdbcTimeZone;
+
+    @Value("${analytics.cube.enabled:true}")
+    private boolean enabled;
+
+    // reload once retracted (sign -1) rows exceed this share of all rows
+    @Value("${analytics.cube.max-retracted-ratio:0.2}")
+    private double maxRetractedRatio;
+
+    @Value("${analytics.cube.load-fetch-size:10000}")
+    private int loadFetchSize;
+
+    // catch-ups also follow every commit; this one picks up a lost signal
+    @Value("${analytics.cube.catch-up-millis:60000}")
+    private long catchUpMillis;
+
+    @Value("${analytics.cube.log-retention-minutes:60}")
+    private int logRetentionMinutes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "payment-cube-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean loadQueued = new AtomicBoolean();
+    private final AtomicBoolean catchUpQueued = new AtomicBoolean();
+
+    // guarded by lock
+    private Columns cols = new Columns(0);
+    private final Dictionaries dict = new Dictionaries();
+    private boolean ready;
+    private boolean loading;
+    private long retracted;
+
+    // guarded by this: the snapshot the cube is current to, and when it was taken
+    private String snapshot;
+    private long snapshotNanos;
+
+    private volatile LocalDateTime lastLoadAt;
+    private volatile long lastLoadMillis;
+    private volatile LocalDateTime lastCatchUpAt;
+    private volatile long appendedBatches;
+    private volatile long catchUps;
+    private volatile long remoteChanges;
+
+    public PaymentCube(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, JdbcTimeZone jdbcTimeZone) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.snapshotTx = new TransactionTemplate(transactionManager);
+        this.snapshotTx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTx.setReadOnly(true);
+        this.jdbcTimeZone = jdbcTimeZone;
+    }
+
+    // ==========================
+    // STORAGE
+    // ==========================
+
+    /** Column arrays; slots [0, size) are used. */
+    private static final class Columns {
+        int size;
+        int[] minute;
+        short[] centre;
+        short[] gfs;
+        short[] type;
+        long[] billed;
+        long[] paid;
+        byte[] sign;
+
+        Columns(int capacity) {
+            int c = Math.max(capacity, 1024);
+            minute = new int[c];
+            centre = new short[c];
+            gfs = new short[c];
+            type = new short[c];
+            billed = new long[c];
+            paid = new long[c];
+            sign = new byte[c];
+        }
+
+        void ensure(int extra) {
+            int need = size + extra;
+            if (need <= minute.length) return;
+            int c = Math.max(need, minute.length + (minute.length >> 1));
+            minute = Arrays.copyOf(minute, c);
+            centre = Arrays.copyOf(centre, c);
+            gfs = Arrays.copyOf(gfs, c);
+            type = Arrays.copyOf(type, c);
+            billed = Arrays.copyOf(billed, c);
+            paid = Arrays.copyOf(paid, c);
+            sign = Arrays.copyOf(sign, c);
+        }
+
+        long bytes() {
+            return (long) minute.length * 27;
+        }
+    }
+
+    /**
+     * DB id to short code per dimension. Names are filled from the dimension tables and
+     * refreshed when a query meets a code without one (new centre, moved zone, ...).
+     */
+    private static final class Dictionaries {
+        final Map<Long, Short> centreCodes = new HashMap<>();
+        final Map<Long, Short> zoneCodes = new HashMap<>();
+        final Map<Long, Short> gfsCodes = new HashMap<>();
+        final Map<String, Short> typeCodes = new HashMap<>();
+
+        long[] centreIds = new long[16];
+        String[] centreNames = new String[16];
+        short[] centreZone = new short[16];
+        String[] zoneNames = new String[16];
+        String[] gfsCode = new String[16];
+        String[] gfsDesc = new String[16];
+        String[] typeNames = new String[16];
+
+        boolean namesStale = true;
+
+        Dictionaries() {
+            // code 0 = no GFS code
+            gfsCodes.put(0L, (short) 0);
+            gfsCode[0] = UNKNOWN;
+            gfsDesc[0] = UNKNOWN;
+        }
+
+        short centre(long id) {
+            Short c = centreCodes.get(id);
+            if (c != null) return c;
+            short code = next(centreCodes.size(), "centre");
+            centreCodes.put(id, code);
+            centreIds = grow(centreIds, code);
+            centreNames = grow(centreNames, code);
+            centreZone = grow(centreZone, code);
+            centreIds[code] = id;
+            centreZone[code] = -1;
+            namesStale = true;
+            return code;
+        }
+
+        short zone(long id) {
+            Short c = zoneCodes.get(id);
+            if (c != null) return c;
+            short code = next(zoneCodes.size(), "zone");
+            zoneCodes.put(id, code);
+            zoneNames = grow(zoneNames, code);
+            namesStale = true;
+            return code;
+        }
+
+        short gfs(long id) {
+            Short c = gfsCodes.get(id);
+            if (c != null) return c;
+            short code = next(gfsCodes.size(), "gfs code");
+            gfsCodes.put(id, code);
+            gfsCode = grow(gfsCode, code);
+            gfsDesc = grow(gfsDesc, code);
+            namesStale = true;
+            return code;
+        }
+
+        short type(String name) {
+            String key = name == null ? UNKNOWN : name;
+            Short c = typeCodes.get(key);
+            if (c != null) return c;
+            short code = next(typeCodes.size(), "payment type");
+            typeCodes.put(key, code);
+            typeNames = grow(typeNames, code);
+            typeNames[code] = key;
+            return code;
+        }
+
+        void clear() {
+            centreCodes.clear();
+            zoneCodes.clear();
+            typeCodes.clear();
+            gfsCodes.clear();
+            gfsCodes.put(0L, (short) 0);
+            namesStale = true;
+        }
+
+        private static short next(int size, String what) {
+            if (size > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct " + what + " values for the payment cube");
+            }
+            return (short) size;
+        }
+
+        private static long[] grow(long[] a, int index) {
+            return index < a.length ? a : Arrays.copyOf(a, Math.max(index + 1, a.length * 2));
+        }
+
+        private static short[] grow(short[] a, int index) {
+            return index < a.length ? a : Arrays.copyOf(a, Math.max(index + 1, a.length * 2));
+        }
+
+        private static String[] grow(String[] a, int index) {
+            return index < a.length ? a : Arrays.copyOf(a, Math.max(index + 1, a.length * 2));
+        }
+    }
+
+    // ==========================
+    // LOAD
+    // ==========================
+
+    // before ApplicationReadyEvent, so the first payments write already finds the log
+    @EventListener(ContextRefreshedEvent.class)
+    public void init() {
+        jdbcTemplate.execute(LOG_TABLE_SQL);
+        jdbcTemplate.execute("create index if not exists idx_payment_cube_log_xid on payment_cube_log (xid)");
+        jdbcTemplate.execute("create index if not exists idx_payment_cube_log_logged_at on payment_cube_log (logged_at)");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (enabled) reloadAsync();
+    }
+
+    /** Queues a full reload; queries keep using the current arrays (or the rollup) meanwhile. */
+    public void reloadAsync() {
+        if (!enabled || !loadQueued.compareAndSet(false, true)) return;
+        loader.execute(() -> {
+            loadQueued.set(false);
+            try {
+                load();
+            } catch (RuntimeException e) {
+                log.error("Payment cube load failed, dashboard stays on the rollup", e);
+            }
+        });
+    }
+
+    /** Queues a catch-up on the loader thread, behind any queued load. */
+    private void catchUpAsync() {
+        if (!enabled || !catchUpQueued.compareAndSet(false, true)) return;
+        loader.execute(() -> {
+            catchUpQueued.set(false);
+            try {
+                catchUp();
+            } catch (RuntimeException e) {
+                log.warn("Payment cube catch-up failed, retrying on the next change: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Reads all payments from one REPEATABLE READ snapshot and swaps the arrays in, then
+     * catches up on what committed while it read. Writers are never held back.
+     */
+    private synchronized void load() {
+        long t0 = System.nanoTime();
+
+        lock.writeLock().lock();
+        try {
+            loading = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            snapshotTx.executeWithoutResult(status -> {
+                // the first statement fixes the snapshot every later one reads
+                String loadSnapshot = jdbcTemplate.queryForObject("select pg_current_snapshot()::text", String.class);
+                Long count = jdbcTemplate.queryForObject("select count(*) from payments", Long.class);
+
+                Dictionaries fresh = new Dictionaries();
+                Columns c = new Columns((int) Math.min(Integer.MAX_VALUE - 8, (count == null ? 0 : count) + 1024));
+
+                // own template: the shared one must keep its default fetch size
+                JdbcTemplate streaming = new JdbcTemplate(Objects.requireNonNull(jdbcTemplate.getDataSource()));
+                streaming.setFetchSize(Math.max(loadFetchSize, 100));
+                streaming.query(LOAD_SQL, rs -> {
+                    c.ensure(1);
+                    int i = c.size++;
+                    c.minute[i] = rs.getInt(1);
+                    c.centre[i] = fresh.centre(rs.getLong(2));
+                    c.gfs[i] = fresh.gfs(rs.getLong(3));
+                    c.type[i] = fresh.type(rs.getString(4));
+                    c.billed[i] = rs.getLong(5);
+                    c.paid[i] = rs.getLong(6);
+                    c.sign[i] = 1;
+                });
+
+                lock.writeLock().lock();
+                try {
+                    cols = c;
+                    copy(fresh, dict);
+                    refreshNames();
+                    retracted = 0;
+                    ready = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                snapshot = loadSnapshot;
+                snapshotNanos = t0;
+            });
+        } finally {
+            lock.writeLock().lock();
+            try {
+                loading = false;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lastLoadAt = LocalDateTime.now();
+        lastLoadMillis = (System.nanoTime() - t0) / 1_000_000;
+        log.info("Payment cube loaded: {} rows in {} ms", cols.size, lastLoadMillis);
+
+        catchUp();
+    }
+
+    /**
+     * Appends the logged rows of every transaction committed since the cube's snapshot and
+     * moves the snapshot forward. Reloads instead when the log may have been pruned past the
+     * snapshot or a writer asked for it.
+     */
+    private synchronized void catchUp() {
+        if (snapshot == null) return;
+        if (System.nanoTime() - snapshotNanos > logRetentionMinutes * 30_000_000_000L) {
+            log.warn("Payment cube has not caught up for {} minutes, reloading", logRetentionMinutes / 2);
+            load();
+            return;
+        }
+
+        long t0 = System.nanoTime();
+        String from = snapshot;
+        Delta delta = new Delta(64);
+        boolean[] reload = new boolean[1];
+
+        String to = snapshotTx.execute(status -> {
+            String now = jdbcTemplate.queryForObject("select pg_current_snapshot()::text", String.class);
+            jdbcTemplate.query(CATCH_UP_SQL, rs -> {
+                int sign = rs.getInt(1);
+                if (sign == 0) {
+                    reload[0] = true;
+                    return;
+                }
+                delta.add(sign, rs.getInt(2), rs.getLong(3), rs.getObject(4, Long.class), rs.getString(5),
+                        rs.getBigDecimal(6), rs.getBigDecimal(7));
+            }, from, from);
+            return now;
+        });
+
+        if (reload[0]) {
+            load();
+            return;
+        }
+        append(delta);
+        snapshot = to;
+        snapshotNanos = t0;
+        catchUps++;
+        lastCatchUpAt = LocalDateTime.now();
+    }
+
+    private static void copy(Dictionaries from, Dictionaries to) {
+        to.clear();
+        to.centreCodes.putAll(from.centreCodes);
+        to.zoneCodes.putAll(from.zoneCodes);
+        to.gfsCodes.putAll(from.gfsCodes);
+        to.typeCodes.putAll(from.typeCodes);
+        to.centreIds = from.centreIds;
+        to.centreNames = from.centreNames;
+        to.centreZone = from.centreZone;
+        to.zoneNames = from.zoneNames;
+        to.gfsCode = from.gfsCode;
+        to.gfsDesc = from.gfsDesc;
+        to.typeNames = from.typeNames;
+        to.namesStale = true;
+    }
+
+    /** Fills dimension names and centre zones. Caller holds the write lock. */
+    private void refreshNames() {
+        jdbcTemplate.query("select id, name from zone", rs -> {
+            short z = dict.zone(rs.getLong(1));
+            dict.zoneNames[z] = rs.getString(2);
+        });
+        jdbcTemplate.query("select id, name, zone_id from centre", rs -> {
+            Short c = dict.centreCodes.get(rs.getLong(1));
+            if (c == null) return;
+            dict.centreNames[c] = rs.getString(2);
+            dict.centreZone[c] = dict.zone(rs.getLong(3));
+        });
+        jdbcTemplate.query("select id, code, description from gfs_code", rs -> {
+            Short g = dict.gfsCodes.get(rs.getLong(1));
+            if (g == null) return;
+            dict.gfsCode[g] = rs.getString(2);
+            dict.gfsDesc[g] = rs.getString(3);
+        });
+        dict.namesStale = false;
+    }
+
+    // ==========================
+    // APPEND
+    // ==========================
+
+    /** Rows a payments upsert inserted (+1), or changed (old values -1, new values +1). */
+    public static final class Delta {
+        int size;
+        int[] minute;
+        long[] centreId;
+        long[] gfsId;
+        String[] type;
+        long[] billed;
+        long[] paid;
+        byte[] sign;
+
+        public Delta(int capacity) {
+            minute = new int[capacity];
+            centreId = new long[capacity];
+            gfsId = new long[capacity];
+            type = new String[capacity];
+            billed = new long[capacity];
+            paid = new long[capacity];
+            sign = new byte[capacity];
+        }
+
+        public void add(int sign, int epochMinute, long centreId, Long gfsId, String type, BigDecimal billed, BigDecimal paid) {
+            if (size == this.sign.length) grow();
+            int i = size++;
+            this.sign[i] = (byte) sign;
+            this.minute[i] = epochMinute;
+            this.centreId[i] = centreId;
+            this.gfsId[i] = gfsId == null ? 0 : gfsId;
+            this.type[i] = type;
+            this.billed[i] = cents(billed);
+            this.paid[i] = cents(paid);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private void grow() {
+            int c = Math.max(16, sign.length * 2);
+            minute = Arrays.copyOf(minute, c);
+            centreId = Arrays.copyOf(centreId, c);
+            gfsId = Arrays.copyOf(gfsId, c);
+            type = Arrays.copyOf(type, c);
+            billed = Arrays.copyOf(billed, c);
+            paid = Arrays.copyOf(paid, c);
+            sign = Arrays.copyOf(sign, c);
+        }
+    }
+
+    /**
+     * Catches up once the current transaction commits, or right away when there is none, so
+     * the rows it logged reach the cube. A rolled back write logged nothing.
+     */
+    public void catchUpAfterCommit() {
+        if (!enabled) return;
+        afterCommit(this::catchUpAsync);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void append(Delta d) {
+        if (d.size == 0) return;
+        boolean compact;
+        lock.writeLock().lock();
+        try {
+            if (!ready) return;
+            Columns c = cols;
+            c.ensure(d.size);
+            for (int k = 0; k < d.size; k++) {
+                int i = c.size++;
+                c.minute[i] = d.minute[k];
+                c.centre[i] = dict.centre(d.centreId[k]);
+                c.gfs[i] = dict.gfs(d.gfsId[k]);
+                c.type[i] = dict.type(d.type[k]);
+                c.billed[i] = d.billed[k];
+                c.paid[i] = d.paid[k];
+                c.sign[i] = d.sign[k];
+                if (d.sign[k] < 0) retracted++;
+            }
+            appendedBatches++;
+            compact = retracted > 1000 && retracted > c.size * maxRetractedRatio;
+        } catch (IllegalStateException e) {
+            // dictionary overflow: stop serving from the cube rather than serve wrong numbers
+            ready = false;
+            log.error("Payment cube disabled: {}", e.getMessage());
+            return;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (compact) reloadAsync();
+    }
+
+    /**
+     * Another node committed payment changes: catch up on its logged rows, and re-read names
+     * and centre zones, which a zone move there may have changed.
+     */
+    public void changedElsewhere() {
+        lock.writeLock().lock();
+        try {
+            dict.namesStale = true;
+            remoteChanges++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        catchUpAsync();
+    }
+
+    /** Prunes the log and catches up in case a change signal was lost. */
+    @Scheduled(fixedDelayString = "${analytics.cube.catch-up-millis:60000}")
+    public void catchUpPeriodically() {
+        jdbcTemplate.update("delete from payment_cube_log where logged_at < now() - make_interval(mins => ?)",
+                Math.max(logRetentionMinutes, 1));
+        if (isReady()) catchUpAsync();
+    }
+
+    /**
+     * Keeps the centre's rows under its new zone once the current transaction commits, or now
+     * when there is none, so a rolled back move leaves the cube as it was.
+     */
+    public void moveCentreAfterCommit(Long centreId, Long zoneId) {
+        afterCommit(() -> moveCentre(centreId, zoneId));
+    }
+
+    private void moveCentre(Long centreId, Long zoneId) {
+        lock.writeLock().lock();
+        try {
+            Short c = dict.centreCodes.get(centreId);
+            if (c != null) {
+                dict.centreZone[c] = dict.zone(zoneId);
+                dict.namesStale = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** {@link #namesChanged()} once the current transaction commits, or now when there is none. */
+    public void namesChangedAfterCommit() {
+        afterCommit(this::namesChanged);
+    }
+
+    /** Re-reads dimension names before the next query, e.g. after a centre was renamed. */
+    public void namesChanged() {
+        lock.writeLock().lock();
+        try {
+            dict.namesStale = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ==========================
+    // QUERY
+    // ==========================
+
+    public boolean isReady() {
+        if (!enabled) return false;
+        lock.readLock().lock();
+        try {
+            return ready;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Query bounds and filters; null filters match everything. */
+    public record Query(LocalDateTime start, LocalDateTime endExclusive, String centreName, String zoneName, String gfsCode) {}
+
+    public record Totals(BigDecimal totalIncome, BigDecimal totalPaid, Long totalTransactions) implements TotalsView {
+        @Override
+        public BigDecimal getTotalIncome() { return totalIncome; }
+
+        @Override
+        public BigDecimal getTotalPaid() { return totalPaid; }
+
+        @Override
+        public Long getTotalTransactions() { return totalTransactions; }
+    }
+
+    public record ServiceSummary(String serviceCode, String serviceDesc, BigDecimal totalBilled, BigDecimal totalPaid,
+                                 Long totalTransactions) implements ServiceSummaryView {
+        @Override
+        public String getServiceCode() { return serviceCode; }
+
+        @Override
+        public String getServiceDesc() { return serviceDesc; }
+
+        @Override
+        public BigDecimal getTotalBilled() { return totalBilled; }
+
+        @Override
+        public BigDecimal getTotalPaid() { return totalPaid; }
+
+        @Override
+        public Long getTotalTransactions() { return totalTransactions; }
+    }
+
+    public Totals totals(Query q) {
+        long[] sums = new long[3];
+        scan(q, (i, c) -> {
+            sums[0] += c.sign[i] * c.billed[i];
+            sums[1] += c.paid[i] * c.sign[i];
+            sums[2] += c.sign[i];
+        }, null);
+        return new Totals(money(sums[0]), money(sums[1]), sums[2]);
+    }
+
+    /** [paymentType, sum(paid)] ordered by sum, like {@code PaymentRepository.topPaymentTypes}. */
+    public List<Object[]> topPaymentTypes(Query q, int limit, boolean ascending) {
+        return top(q, Dim.TYPE, limit, ascending);
+    }
+
+    /** [centreName, sum(paid)] ordered by sum, like {@code PaymentRepository.topCenters}. */
+    public List<Object[]> topCenters(Query q, int limit, boolean ascending) {
+        return top(q, Dim.CENTRE, limit, ascending);
+    }
+
+    public List<ServiceSummaryView> summaryByService(Query q) {
+        int[] width = new int[1];
+        long[][] sums = new long[3][];
+        scan(q, (i, c) -> {
+            int g = c.gfs[i];
+            if (g >= sums[0].length) return;
+            sums[0][g] += c.sign[i] * c.billed[i];
+            sums[1][g] += c.sign[i] * c.paid[i];
+            sums[2][g] += c.sign[i];
+        }, () -> {
+            width[0] = dict.gfsCodes.size();
+            for (int k = 0; k < 3; k++) sums[k] = new long[width[0]];
+        });
+
+        // merge codes that share code/description, as the SQL group by does
+        Map<List<String>, long[]> byLabel = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            for (int g = 0; g < width[0]; g++) {
+                if (sums[2][g] == 0 && sums[0][g] == 0 && sums[1][g] == 0) continue;
+                String code = dict.gfsCode[g] == null ? UNKNOWN : dict.gfsCode[g];
+                String desc = dict.gfsDesc[g] == null ? UNKNOWN : dict.gfsDesc[g];
+                long[] acc = byLabel.computeIfAbsent(List.of(code, desc), k -> new long[3]);
+                acc[0] += sums[0][g];
+                acc[1] += sums[1][g];
+                acc[2] += sums[2][g];
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<ServiceSummaryView> out = new ArrayList<>(byLabel.size());
+        byLabel.forEach((k, v) -> out.add(new ServiceSummary(k.get(0), k.get(1), money(v[0]), money(v[1]), v[2])));
+        out.sort(Comparator.comparing(ServiceSummaryView::getTotalBilled).reversed());
+        return out;
+    }
+
+    private enum Dim { CENTRE, TYPE }
+
+    private List<Object[]> top(Query q, Dim dim, int limit, boolean ascending) {
+        long[][] acc = new long[2][];
+        int[] width = new int[1];
+        scan(q, (i, c) -> {
+            int k = dim == Dim.CENTRE ? c.centre[i] : c.type[i];
+            if (k >= width[0]) return;
+            acc[0][k] += c.sign[i] * c.paid[i];
+            acc[1][k] += c.sign[i];
+        }, () -> {
+            width[0] = dim == Dim.CENTRE ? dict.centreCodes.size() : dict.typeCodes.size();
+            acc[0] = new long[width[0]];
+            acc[1] = new long[width[0]];
+        });
+
+        List<Object[]> rows = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int k = 0; k < width[0]; k++) {
+                if (acc[1][k] <= 0) continue; // no live rows in range
+                String name = dim == Dim.CENTRE ? dict.centreNames[k] : dict.typeNames[k];
+                rows.add(new Object[]{name, money(acc[0][k])});
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Comparator<Object[]> bySum = Comparator.comparing(r -> (BigDecimal) r[1]);
+        rows.sort(ascending ? bySum : bySum.reversed());
+        return rows.size() > limit ? new ArrayList<>(rows.subList(0, limit)) : rows;
+    }
+
+    private interface RowVisitor {
+        void visit(int i, Columns c);
+    }
+
+    /**
+     * Visits the rows inside the time range that pass every active filter (centre, zone, GFS
+     * code), all under the read lock, in one pass over the columns. Centre and zone filters are
+     * folded into one match table per centre code, the GFS filter into one per GFS code, so a
+     * row costs a range check and at most two array lookups. The range is converted to database
+     * wall-clock minutes, so it is exact whatever the JVM and database zones are.
+     *
+     * @param init runs under the lock before the scan, to size accumulators from the dictionaries
+     */
+    private void scan(Query q, RowVisitor visitor, Runnable init) {
+        ensureNames(q);
+
+        int fromMinute = epochMinute(jdbcTimeZone.toDb(q.start()));
+        int toMinute = epochMinute(jdbcTimeZone.toDb(q.endExclusive()));
+
+        lock.readLock().lock();
+        try {
+            if (init != null) init.run();
+            Columns c = cols;
+            int n = c.size;
+
+            boolean[] centres = null;
+            if (q.centreName() != null || q.zoneName() != null) {
+                centres = new boolean[dict.centreCodes.size()];
+                for (int k = 0; k < centres.length; k++) {
+                    short z = dict.centreZone[k];
+                    centres[k] = (q.centreName() == null || q.centreName().equals(dict.centreNames[k]))
+                            && (q.zoneName() == null || (z >= 0 && q.zoneName().equals(dict.zoneNames[z])));
+                }
+            }
+            boolean[] gfs = null;
+            if (q.gfsCode() != null) {
+                gfs = new boolean[dict.gfsCodes.size()];
+                for (int k = 1; k < gfs.length; k++) gfs[k] = q.gfsCode().equals(dict.gfsCode[k]);
+            }
+
+            int[] minute = c.minute;
+            short[] centre = c.centre;
+            short[] gfsCode = c.gfs;
+            for (int i = 0; i < n; i++) {
+                int m = minute[i];
+                if (m < fromMinute || m >= toMinute) continue;
+                if (centres != null && !matches(centres, centre[i])) continue;
+                if (gfs != null && !matches(gfs, gfsCode[i])) continue;
+                visitor.visit(i, c);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static boolean matches(boolean[] match, short code) {
+        return code < match.length && match[code];
+    }
+
+    private void ensureNames(Query q) {
+        boolean stale;
+        lock.readLock().lock();
+        try {
+            stale = dict.namesStale;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!stale) return;
+        lock.writeLock().lock();
+        try {
+            if (dict.namesStale) refreshNames();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Minutes since 1970-01-01T00:00 of a wall-clock time, as LOAD_SQL computes them. */
+    static int epochMinute(LocalDateTime wallClock) {
+        return (int) Math.floorDiv(wallClock.toEpochSecond(ZoneOffset.UTC), 60);
+    }
+
+    private static long cents(BigDecimal v) {
+        return v == null ? 0 : v.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    private static BigDecimal money(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            out.put("enabled", enabled);
+            out.put("ready", ready);
+            out.put("loading", loading);
+            out.put("rows", cols.size);
+            out.put("retractedRows", retracted);
+            out.put("approxBytes", cols.bytes());
+            out.put("centres", dict.centreCodes.size());
+            out.put("gfsCodes", dict.gfsCodes.size());
+            out.put("paymentTypes", dict.typeCodes.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        out.put("appendedBatches", appendedBatches);
+        out.put("catchUps", catchUps);
+        out.put("remoteChanges", remoteChanges);
+        out.put("catchUpMillis", catchUpMillis);
+        out.put("lastLoadAt", lastLoadAt);
+        out.put("lastLoadMillis", lastLoadMillis);
+        out.put("lastCatchUpAt", lastCatchUpAt);
+        return out;
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps {@code payments_daily_agg} in step with {@code payments}.
+ *
+ * Writers of payments append {@link #DELTA_CTE} to their upsert statement: it adds the new
+ * values of every inserted or changed row and subtracts the values the row had before, so the
+ * rollup moves in the same transaction as the payments it summarises. {@link #rebuild()}
+ * recomputes it from scratch for first start-up or repair.
+ */
+@Service
+public class PaymentDailyAggService {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentDailyAggService.class);
+
+    /**
+     * Upsert key of the rollup. An expression index, so rows without a GFS code share a bucket;
+     * Hibernate cannot declare it on the entity.
+     */
+    private static final String UNIQUE_INDEX_SQL = """
+        create unique index if not exists uq_daily_agg_bucket
+        on payments_daily_agg (day, centre_id, zone_id, (coalesce(gfs_code_id, 0)), payment_type)
+    """;
+
+    /**
+     * Delta CTE for a payments upsert. Expects two earlier CTEs:
+     * {@code old} (rows as they were) and {@code up} (RETURNING payment_id,
+     * bill_id, centre_id, gfs_code_id, payment_type, payment_date, total_billed, total_paid).
+     * Rows skipped by the content_hash guard are not in {@code up} and change nothing.
+     * Buckets are written in key order so concurrent writers lock them in the same order.
+     *
+     * Callers take {@link #lockPaymentKeys} (or {@link #lockAllPaymentKeys}) in an earlier
+     * statement of the same transaction, so a second writer of the same keys only starts once
+     * the first one has committed and its snapshot then sees the first one's rows, new keys
+     * included. {@code old} is therefore a plain read and must not lock its rows: the CTEs of
+     * a statement run in no fixed order, and FOR UPDATE skips a row that {@code up} already
+     * updated, which would drop that row's old values from the delta.
+     */
+    static final String DELTA_CTE = """
+        agg as (
+            insert into payments_daily_agg as a (
+                day, centre_id, zone_id, gfs_code_id, payment_type, total_billed, total_paid, tx_count
+            )
+            select d.day, d.centre_id, c.zone_id, d.gfs_code_id, d.payment_type,
+                   sum(d.billed), sum(d.paid), sum(d.cnt)
+            from (
+                select u.payment_date::date as day, u.centre_id, u.gfs_code_id,
+                       coalesce(u.payment_type, 'UNKNOWN') as payment_type,
+                       u.total_billed as billed, u.total_paid as paid, 1 as cnt
+                from up u
+                union all
+                select o.payment_date::date, o.centre_id, o.gfs_code_id,
+                       coalesce(o.payment_type, 'UNKNOWN'),
+                       -o.total_billed, -o.total_paid, -1
+                from old o
+                join up u on u.payment_id = o.payment_id and u.bill_id = o.bill_id
+            ) d
+            join centre c on c.id = d.centre_id
+            group by d.day, d.centre_id, c.zone_id, d.gfs_code_id, d.payment_type
+            having sum(d.cnt) <> 0 or sum(d.billed) <> 0 or sum(d.paid) <> 0
+            order by d.day, d.centre_id, c.zone_id, d.gfs_code_id, d.payment_type
+            on conflict (day, centre_id, zone_id, (coalesce(gfs_code_id, 0)), payment_type) do update set
+                total_billed = a.total_billed + excluded.total_billed,
+                total_paid   = a.total_paid + excluded.total_paid,
+                tx_count     = a.tx_count + excluded.tx_count
+        )
+    """;
+
+    /**
+     * Payment keys are locked per stripe of paymentIds rather than per key, which keeps the
+     * number of advisory locks a chunk holds small and bounded.
+     */
+    public static final int KEY_LOCK_STRIPES = 256;
+
+    private static final String KEY_LOCK_SQL =
+            "select pg_advisory_xact_lock(hashtext('payments-key'), s) from unnest(?::int[]) as s";
+
+    private static final String REBUILD_SQL = """
+        insert into payments_daily_agg (
+            day, centre_id, zone_id, gfs_code_id, payment_type, total_billed, total_paid, tx_count
+        )
+        select p.payment_date::date, p.centre_id, c.zone_id, p.gfs_code_id,
+               coalesce(p.payment_type, 'UNKNOWN'),
+               sum(p.total_billed), sum(p.total_paid), count(*)
+        from payments p
+        join centre c on c.id = p.centre_id
+        group by p.payment_date::date, p.centre_id, c.zone_id, p.gfs_code_id, coalesce(p.payment_type, 'UNKNOWN')
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTimeZone jdbcTimeZone;
+    private final TransactionTemplate transactionTemplate;
+    private final PaymentChangeSignal changeSignal;
+
+    private final AtomicBoolean initialised = new AtomicBoolean();
+    private volatile LocalDateTime lastRebuildAt;
+    private volatile long lastRebuildMillis;
+
+    public PaymentDailyAggService(JdbcTemplate jdbcTemplate, JdbcTimeZone jdbcTimeZone, PlatformTransactionManager transactionManager,
+                                  PaymentChangeSignal changeSignal) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcTimeZone = jdbcTimeZone;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.changeSignal = changeSignal;
+    }
+
+    // before ApplicationReadyEvent, so the first scheduled ingestion already finds the index
+    @EventListener(ContextRefreshedEvent.class)
+    public void init() {
+        if (!initialised.compareAndSet(false, true)) return;
+
+        jdbcTemplate.execute(UNIQUE_INDEX_SQL);
+
+        Boolean empty = jdbcTemplate.queryForObject(
+                "select not exists (select 1 from payments_daily_agg)", Boolean.class);
+        Boolean hasPayments = jdbcTemplate.queryForObject(
+                "select exists (select 1 from payments)", Boolean.class);
+        if (Boolean.TRUE.equals(empty) && Boolean.TRUE.equals(hasPayments)) {
+            log.info("payments_daily_agg is empty, building it from payments");
+            rebuild();
+        }
+    }
+
+    /**
+     * Recomputes the whole rollup. Payment writers are blocked for the duration (SHARE lock),
+     * so no delta can slip in between the delete and the insert.
+     *
+     * @return number of rollup rows written
+     */
+    public int rebuild() {
+        long t0 = System.nanoTime();
+        Integer rows = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("lock table payments in share mode");
+            jdbcTemplate.update("delete from payments_daily_agg");
+            int written = jdbcTemplate.update(REBUILD_SQL);
+            // other nodes may have cached totals from the old rollup
+            changeSignal.publish();
+            return written;
+        });
+        lastRebuildAt = LocalDateTime.now();
+        lastRebuildMillis = (System.nanoTime() - t0) / 1_000_000;
+        log.info("Rebuilt payments_daily_agg: {} rows in {} ms", rows, lastRebuildMillis);
+        return rows == null ? 0 : rows;
+    }
+
+    /** Lock stripe of a paymentId; every line of a payment maps to the same stripe. */
+    public static int keyLockStripe(Long paymentId) {
+        return Math.floorMod(Long.hashCode(paymentId), KEY_LOCK_STRIPES);
+    }
+
+    /**
+     * Locks the stripes of the given paymentIds until the caller's transaction ends. Stripes
+     * are taken in ascending order in one statement, so writers cannot deadlock on them.
+     */
+    public void lockPaymentKeys(Collection<Long> paymentIds) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (Long id : paymentIds) {
+            stripes.add(keyLockStripe(id));
+        }
+        lockStripes(stripes.toArray(new Integer[0]));
+    }
+
+    /** Locks every stripe, for writers that touch too many payments to list them. */
+    public void lockAllPaymentKeys() {
+        Integer[] stripes = new Integer[KEY_LOCK_STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = i;
+        }
+        lockStripes(stripes);
+    }
+
+    private void lockStripes(Integer[] stripes) {
+        if (stripes.length == 0) return;
+        jdbcTemplate.query(
+                con -> {
+                    PreparedStatement ps = con.prepareStatement(KEY_LOCK_SQL);
+                    ps.setArray(1, con.createArrayOf("integer", stripes));
+                    return ps;
+                },
+                rs -> {}
+        );
+    }
+
+    /** Re-points a centre's rollup rows to its new zone. Runs in the caller's transaction. */
+    public int moveCentre(Long centreId, Long zoneId) {
+        return jdbcTemplate.update(
+                "update payments_daily_agg set zone_id = ? where centre_id = ? and zone_id <> ?",
+                zoneId, centreId, zoneId);
+    }
+
+    /**
+     * A JVM-local range split for reading: whole database days {@code [fromDay, toDay)} come
+     * from the rollup, and the partial days at either edge, {@code [headFrom, headTo)} and
+     * {@code [tailFrom, tailTo)} in database wall-clock time, come from payments. An edge is
+     * empty (from equals to) when the bound falls on database midnight.
+     */
+    public record RollupRange(LocalDate fromDay, LocalDate toDay,
+                              LocalDateTime headFrom, LocalDateTime headTo,
+                              LocalDateTime tailFrom, LocalDateTime tailTo) {}
+
+    /**
+     * Splits {@code [start, endExclusive)} into rollup days and edge ranges. Payment dates are
+     * stored in database wall-clock time, so the JVM-local bounds are converted first; when the
+     * zones differ the converted bounds are not midnight and the edges carry the partial days.
+     */
+    public RollupRange range(LocalDateTime start, LocalDateTime endExclusive) {
+        LocalDateTime from = jdbcTimeZone.toDb(start);
+        LocalDateTime to = jdbcTimeZone.toDb(endExclusive);
+
+        LocalDate fromDay = from.toLocalTime().equals(LocalTime.MIDNIGHT) ? from.toLocalDate() : from.toLocalDate().plusDays(1);
+        LocalDate toDay = to.toLocalDate();
+        if (!fromDay.isBefore(toDay)) {
+            // no whole day inside the range: everything comes from payments
+            return new RollupRange(fromDay, fromDay, from, to, to, to);
+        }
+        return new RollupRange(fromDay, toDay, from, fromDay.atStartOfDay(), toDay.atStartOfDay(), to);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("rows", jdbcTemplate.queryForObject("select count(*) from payments_daily_agg", Long.class));
+        out.put("lastRebuildAt", lastRebuildAt);
+        out.put("lastRebuildMillis", lastRebuildMillis);
+        return out;
+    }
+}
@@ -0,0 +1,473 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Monthly range partitioning of {@code payments} on {@code payment_date}.
+ *
+ * Once migrated ({@link #migrate()}), every report and dashboard range query is pruned to the
+ * months it covers, and vacuum and index maintenance work per month instead of on one ever
+ * growing table. Indexes declared on the parent exist on every partition: the B-trees of the
+ * entity, the covering indexes and a BRIN index on {@code payment_date}.
+ *
+ * A unique key on a partitioned table must contain the partition key, so the upsert key
+ * becomes {@code (payment_id, bill_id, payment_date)}. A row whose payment_date changes is
+ * deleted and re-inserted with the same id by the writers (see {@link #upsertSql}).
+ *
+ * Partitions are created a few months ahead by a daily job, and on demand for the months of
+ * each write. There is no default partition, so a row can never land in a catch-all that
+ * would have to be split later.
+ *
+ * Every instance re-reads the layout on a short schedule, and right away after a failed
+ * write, so a migration run on one instance reaches the others without a restart.
+ */
+@Service
+public class PaymentPartitionService {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentPartitionService.class);
+
+    private static final String STAGING_TABLE = "payments_part";
+    private static final String ID_SEQUENCE = "payments_part_id_seq";
+    private static final String RETIRED_TABLE = "payments_unpartitioned";
+    // finds rows written during the copy without scanning the old table under the lock
+    private static final String MIGRATE_INDEX = "idx_payments_updated_at_migrate";
+
+    /**
+     * Upsert key of the unpartitioned table. Not declared on the entity: Hibernate would try to
+     * add it again on every start-up once the table is partitioned, where it is not allowed.
+     * Databases created before already have it as a constraint with an index of this name.
+     */
+    private static final String LINE_KEY_SQL =
+            "create unique index if not exists uq_payment_line on payments (payment_id, bill_id)";
+
+    /**
+     * Moved rows of a partitioned upsert: the old version goes here and {@code up} inserts the
+     * new one under the same id. Expects {@code old} and the input CTE ({@code {input}}).
+     */
+    private static final String MOVED_CTE = """
+        moved as (
+            delete from payments p
+            using old o, {input} i
+            where p.id = o.id and p.payment_date = o.payment_date
+              and i.payment_id = o.payment_id and i.bill_id = o.bill_id
+              and i.payment_date <> o.payment_date
+            returning p.id, p.payment_id, p.bill_id
+        ),
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTimeZone jdbcTimeZone;
+    private final TransactionTemplate ddlTx;
+    private final PaymentZoneService paymentZoneService;
+
+    @Value("${payments.partitioning.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${payments.partitioning.copy-batch-size:50000}")
+    private int copyBatchSize;
+
+    private volatile boolean partitioned;
+    // set after a failed write; the next isPartitioned() reads the layout again
+    private volatile boolean layoutStale;
+    private final Set<YearMonth> knownMonths = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean migrating = new AtomicBoolean();
+    private final AtomicBoolean initialised = new AtomicBoolean();
+
+    private volatile int partitionsCreated;
+    private volatile int layoutChanges;
+    private volatile Map<String, Object> lastMigration;
+
+    public PaymentPartitionService(JdbcTemplate jdbcTemplate, JdbcTimeZone jdbcTimeZone,
+                                   PlatformTransactionManager transactionManager,
+                                   PaymentZoneService paymentZoneService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcTimeZone = jdbcTimeZone;
+        this.paymentZoneService = paymentZoneService;
+        this.ddlTx = new TransactionTemplate(transactionManager);
+        this.ddlTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void init() {
+        if (!initialised.compareAndSet(false, true)) return;
+        partitioned = detectPartitioned();
+        if (partitioned) createAhead();
+        else jdbcTemplate.execute(LINE_KEY_SQL);
+    }
+
+    /** True once payments is a partitioned table; writers switch their upsert key on it. */
+    public boolean isPartitioned() {
+        if (layoutStale) redetect();
+        return partitioned;
+    }
+
+    /**
+     * Called by writers when a payments write failed. If another instance has swapped the
+     * table meanwhile, the upsert key no longer matches; the failed transaction is lost either
+     * way, but its retry is built for the new layout.
+     */
+    public void writeFailed() {
+        layoutStale = true;
+    }
+
+    /** Picks up a migration (or a rollback) done by another instance. */
+    @Scheduled(fixedDelayString = "${payments.partitioning.layout-check-millis:30000}")
+    public void checkLayout() {
+        if (!initialised.get() || migrating.get()) return;
+        try {
+            if (redetect()) createAhead();
+        } catch (RuntimeException e) {
+            log.warn("Checking the payments layout failed: {}", e.getMessage());
+        }
+    }
+
+    /** @return true when payments became partitioned */
+    private boolean redetect() {
+        boolean now = detectPartitioned();
+        layoutStale = false;
+        if (now == partitioned) return false;
+        partitioned = now;
+        knownMonths.clear();
+        layoutChanges++;
+        log.info("payments layout changed by another instance, partitioned={}", now);
+        return now;
+    }
+
+    /**
+     * Builds the payment upsert for the current layout from a template with these tokens:
+     * {@code {moved}} after the {@code old} CTE, {@code {id_column}} / {@code {id_value}} at the
+     * head of the insert list and select list, {@code {moved_join}} after the input joins,
+     * {@code {conflict_key}} and {@code {inserted}} in RETURNING. {@code input} names the input
+     * CTE, which the insert's select aliases {@code t}; {@code old} must select {@code p.id}.
+     */
+    static String upsertSql(String template, String input, boolean partitioned) {
+        if (!partitioned) {
+            return template
+                    .replace("{moved}", "")
+                    .replace("{id_column}", "")
+                    .replace("{id_value}", "")
+                    .replace("{moved_join}", "")
+                    .replace("{conflict_key}", "(payment_id, bill_id)")
+                    .replace("{inserted}", "(xmax = 0)");
+        }
+        return template
+                .replace("{moved}", MOVED_CTE.replace("{input}", input))
+                .replace("{id_column}", "id, ")
+                .replace("{id_value}", "coalesce(m.id, nextval(pg_get_serial_sequence('payments', 'id'))), ")
+                .replace("{moved_join}", "left join moved m on m.payment_id = t.payment_id and m.bill_id = t.bill_id")
+                .replace("{conflict_key}", "(payment_id, bill_id, payment_date)")
+                // xmax cannot be returned from a partitioned table; under the payment key locks a
+                // row is new exactly when it was not in old (a moved row is an update to the caller)
+                .replace("{inserted}", """
+                        (not exists (
+                            select 1 from old o where o.payment_id = payments.payment_id and o.bill_id = payments.bill_id
+                        ))""");
+    }
+
+    /**
+     * Makes sure a partition exists for the month of each date (database wall clock), in the
+     * caller's transaction. Only months not seen yet by this instance cost a round trip.
+     *
+     * A new partition is created as a plain table and then attached, which locks payments in
+     * SHARE UPDATE EXCLUSIVE mode only: readers and writers of other months carry on. Its
+     * foreign keys lock the referenced dimension tables until the caller commits, which is
+     * why this runs in the caller's transaction (it may hold new customers or centres).
+     */
+    public void ensureMonths(Collection<LocalDateTime> dbDates) {
+        Set<YearMonth> missing = missingMonths(dbDates);
+        if (missing.isEmpty()) return;
+        for (YearMonth m : missing) {
+            attachMonth(m);
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            knownMonths.addAll(missing);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                knownMonths.addAll(missing);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #ensureMonths} but commits the partitions before returning, for writers whose
+     * rows are written by other transactions. The caller must not hold uncommitted dimension
+     * rows; the lock timeout turns a mistake into an error instead of a hang.
+     */
+    public void ensureMonthsCommitted(Collection<LocalDateTime> dbDates) {
+        Set<YearMonth> missing = missingMonths(dbDates);
+        if (missing.isEmpty()) return;
+        ddlTx.executeWithoutResult(status -> {
+            jdbcTemplate.execute("set local lock_timeout = '10s'");
+            for (YearMonth m : missing) {
+                attachMonth(m);
+            }
+        });
+        knownMonths.addAll(missing);
+    }
+
+    private Set<YearMonth> missingMonths(Collection<LocalDateTime> dbDates) {
+        Set<YearMonth> missing = new TreeSet<>();
+        if (!partitioned || dbDates == null) return missing;
+        for (LocalDateTime d : dbDates) {
+            if (d == null) continue;
+            YearMonth m = YearMonth.from(d);
+            if (!knownMonths.contains(m)) missing.add(m);
+        }
+        return missing;
+    }
+
+    /** Creates the partitions of the current month and the next {@code months-ahead}. */
+    @Scheduled(cron = "${payments.partitioning.cron:0 20 0 * * *}")
+    public void createAhead() {
+        if (!partitioned) return;
+        YearMonth now = YearMonth.from(jdbcTimeZone.toDb(LocalDateTime.now()));
+        List<LocalDateTime> months = new ArrayList<>();
+        for (int i = 0; i <= Math.max(monthsAhead, 0); i++) {
+            months.add(now.plusMonths(i).atDay(1).atStartOfDay());
+        }
+        try {
+            ensureMonthsCommitted(months);
+        } catch (RuntimeException e) {
+            log.warn("Creating payment partitions ahead failed: {}", e.getMessage());
+        }
+    }
+
+    private void attachMonth(YearMonth m) {
+        // several instances may see the same new month at once
+        jdbcTemplate.query("select pg_advisory_xact_lock(hashtext(?))", rs -> null, "payments:partition");
+        String name = partitionName(m);
+        Boolean exists = jdbcTemplate.queryForObject("select to_regclass(?) is not null", Boolean.class, name);
+        if (Boolean.TRUE.equals(exists)) return;
+
+        jdbcTemplate.execute("create table " + name + " (like payments including defaults)");
+        jdbcTemplate.execute("alter table payments attach partition " + name + " " + bounds(m));
+        partitionsCreated++;
+        log.info("Created payment partition {}", name);
+    }
+
+    // ==========================
+    // Online migration
+    // ==========================
+
+    /**
+     * Moves payments into a partitioned table while ingestion keeps running:
+     * <ol>
+     *   <li>build {@code payments_part} with the same columns and one partition per month,</li>
+     *   <li>copy rows in id ranges, each batch committing on its own,</li>
+     *   <li>build the indexes and foreign keys of payments on it, plus BRIN on payment_date,</li>
+     *   <li>in one short transaction holding an exclusive lock on payments: re-copy rows
+     *       written since the copy started, swap the table names and move the id sequence.</li>
+     * </ol>
+     * The old table is kept as {@code payments_unpartitioned} for rollback; drop it by hand once
+     * the new layout is trusted. Other instances switch to the new upsert key at their next
+     * layout check ({@code payments.partitioning.layout-check-millis}); a write of theirs that
+     * runs into the swap first fails once and is retried with the new key.
+     *
+     * @throws IllegalStateException when payments is already partitioned or a migration runs
+     */
+    public Map<String, Object> migrate() {
+        if (detectPartitioned()) throw new IllegalStateException("payments is already partitioned");
+        if (!migrating.compareAndSet(false, true)) throw new IllegalStateException("Partition migration already running");
+        try {
+            return doMigrate();
+        } finally {
+            migrating.set(false);
+        }
+    }
+
+    private Map<String, Object> doMigrate() {
+        long t0 = System.nanoTime();
+
+        // rows written from here on are re-copied in the swap; the margin covers chunk
+        // transactions that stamped updated_at before the copy and commit after it
+        String watermark = jdbcTimeZone.toDbText(LocalDateTime.now().minusMinutes(10));
+
+        // left over from an aborted run
+        jdbcTemplate.execute("drop table if exists " + STAGING_TABLE + " cascade");
+        jdbcTemplate.execute("drop sequence if exists " + ID_SEQUENCE);
+        jdbcTemplate.execute("create index concurrently if not exists " + MIGRATE_INDEX + " on payments (updated_at)");
+
+        jdbcTemplate.execute("create table " + STAGING_TABLE + " (like payments including defaults) partition by range (payment_date)");
+        jdbcTemplate.execute("create sequence " + ID_SEQUENCE + " owned by " + STAGING_TABLE + ".id");
+        jdbcTemplate.execute("alter table " + STAGING_TABLE + " alter column id set default nextval('" + ID_SEQUENCE + "')");
+
+        Map<String, Object> range = jdbcTemplate.queryForMap(
+                """
+                select date_trunc('month', min(payment_date))::date as lo, date_trunc('month', max(payment_date))::date as hi,
+                       min(id) as min_id, max(id) as max_id
+                from payments
+                """);
+        YearMonth first = YearMonth.from(jdbcTimeZone.toDb(LocalDateTime.now()));
+        YearMonth last = first.plusMonths(Math.max(monthsAhead, 0));
+        if (range.get("lo") != null) {
+            YearMonth lo = YearMonth.from(((Date) range.get("lo")).toLocalDate());
+            YearMonth hi = YearMonth.from(((Date) range.get("hi")).toLocalDate());
+            if (lo.isBefore(first)) first = lo;
+            if (hi.isAfter(last)) last = hi;
+        }
+        int months = 0;
+        for (YearMonth m = first; !m.isAfter(last); m = m.plusMonths(1)) {
+            jdbcTemplate.execute("create table " + partitionName(m) + " partition of " + STAGING_TABLE + " " + bounds(m));
+            months++;
+        }
+
+        // bulk copy before any index exists on the new table
+        long copied = 0;
+        long copiedMaxId = 0;
+        if (range.get("min_id") != null) {
+            long lo = ((Number) range.get("min_id")).longValue() - 1;
+            copiedMaxId = ((Number) range.get("max_id")).longValue();
+            int batch = Math.max(copyBatchSize, 1);
+            for (long from = lo; from < copiedMaxId; from += batch) {
+                copied += jdbcTemplate.update(
+                        "insert into " + STAGING_TABLE + " select * from payments where id > ? and id <= ?",
+                        from, Math.min(from + batch, copiedMaxId));
+            }
+        }
+        long copyMillis = (System.nanoTime() - t0) / 1_000_000;
+
+        List<String> renames = buildIndexes();
+        copyForeignKeys();
+
+        long sinceMaxId = copiedMaxId;
+        Long recopied = ddlTx.execute(status -> swap(watermark, sinceMaxId, renames));
+
+        partitioned = true;
+        knownMonths.clear();
+        createAhead();
+        jdbcTemplate.execute("drop index if exists " + MIGRATE_INDEX);
+        // zone moves do not touch updated_at, so rows re-pointed during the copy are fixed here
+        long zonesFixed = paymentZoneService.repair();
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("partitions", months);
+        out.put("rowsCopied", copied);
+        out.put("rowsRecopied", recopied);
+        out.put("zonesFixed", zonesFixed);
+        out.put("copyMillis", copyMillis);
+        out.put("totalMillis", (System.nanoTime() - t0) / 1_000_000);
+        out.put("retiredTable", RETIRED_TABLE);
+        lastMigration = out;
+        log.info("payments partitioned by month: {}", out);
+        return out;
+    }
+
+    /**
+     * Recreates the non-unique indexes of payments on the staging table under a temporary
+     * name, adds its keys and the BRIN index.
+     *
+     * @return old index names, renamed in the swap
+     */
+    private List<String> buildIndexes() {
+        List<Map<String, Object>> indexes = jdbcTemplate.queryForList("""
+            select indexname, indexdef from pg_indexes
+            where schemaname = current_schema() and tablename = 'payments'
+        """);
+        List<String> names = new ArrayList<>();
+        for (Map<String, Object> ix : indexes) {
+            String name = (String) ix.get("indexname");
+            String def = (String) ix.get("indexdef");
+            // stays on the old table and is dropped after the swap
+            if (name.equals(MIGRATE_INDEX)) continue;
+            names.add(name);
+            // primary and unique keys cannot be copied as they are: they must contain payment_date
+            if (def.startsWith("CREATE UNIQUE")) continue;
+            jdbcTemplate.execute(def.replaceFirst("^CREATE INDEX \\S+ ON \\S+",
+                    "create index " + name + "_p on " + STAGING_TABLE));
+        }
+        jdbcTemplate.execute("alter table " + STAGING_TABLE + " add constraint payments_part_pkey primary key (id, payment_date)");
+        jdbcTemplate.execute("alter table " + STAGING_TABLE + " add constraint uq_payment_line_month unique (payment_id, bill_id, payment_date)");
+        // a few pages per partition; lets wide date scans skip blocks without the B-tree
+        jdbcTemplate.execute("create index if not exists idx_payments_date_brin on " + STAGING_TABLE + " using brin (payment_date)");
+        return names;
+    }
+
+    private void copyForeignKeys() {
+        List<Map<String, Object>> fks = jdbcTemplate.queryForList("""
+            select conname, pg_get_constraintdef(oid) as def from pg_constraint
+            where conrelid = 'payments'::regclass and contype = 'f'
+        """);
+        for (Map<String, Object> fk : fks) {
+            jdbcTemplate.execute("alter table " + STAGING_TABLE + " add constraint " + fk.get("conname") + " " + fk.get("def"));
+        }
+    }
+
+    private long swap(String watermark, long copiedMaxId, List<String> oldIndexes) {
+        jdbcTemplate.execute("set local lock_timeout = '10s'");
+        jdbcTemplate.execute("lock table payments in access exclusive mode");
+
+        String changed = "select id from payments where updated_at >= ?::timestamp or id > ?";
+        jdbcTemplate.update("delete from " + STAGING_TABLE + " where id in (" + changed + ")", watermark, copiedMaxId);
+        long recopied = jdbcTemplate.update(
+                "insert into " + STAGING_TABLE + " select * from payments where updated_at >= ?::timestamp or id > ?",
+                watermark, copiedMaxId);
+
+        for (String name : oldIndexes) {
+            jdbcTemplate.execute("alter index " + name + " rename to " + name + "_unpart");
+        }
+        jdbcTemplate.execute("alter table payments rename to " + RETIRED_TABLE);
+        jdbcTemplate.execute("alter table " + STAGING_TABLE + " rename to payments");
+        for (String name : oldIndexes) {
+            jdbcTemplate.execute("alter index if exists " + name + "_p rename to " + name);
+        }
+        jdbcTemplate.execute("alter index payments_part_pkey rename to payments_pkey");
+        jdbcTemplate.queryForObject(
+                "select setval('" + ID_SEQUENCE + "', (select coalesce(max(id), 0) + 1 from payments), false)", Long.class);
+        return recopied;
+    }
+
+    private boolean detectPartitioned() {
+        Boolean p = jdbcTemplate.queryForObject(
+                "select coalesce((select relkind = 'p' from pg_class where oid = to_regclass('payments')), false)",
+                Boolean.class);
+        return Boolean.TRUE.equals(p);
+    }
+
+    private static String partitionName(YearMonth m) {
+        return String.format("payments_y%04dm%02d", m.getYear(), m.getMonthValue());
+    }
+
+    private static String bounds(YearMonth m) {
+        return "for values from ('" + m.atDay(1) + "') to ('" + m.plusMonths(1).atDay(1) + "')";
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("partitioned", partitioned);
+        out.put("layoutChanges", layoutChanges);
+        out.put("knownMonths", knownMonths.size());
+        out.put("partitionsCreated", partitionsCreated);
+        out.put("migrating", migrating.get());
+        out.put("lastMigration", lastMigration);
+        return out;
+    }
+}
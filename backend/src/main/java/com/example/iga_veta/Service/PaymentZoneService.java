@@ -0,0 +1,116 @@
+package com.example.iga_veta.Service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps {@code payments.zone_id} equal to the zone of the payment's centre.
+ *
+ * The payment upserts copy it from {@code centre} when they write a row and
+ * {@link #moveCentre} re-points a centre's payments when it changes zone, so zone filters
+ * and the covering indexes below never need the centre join. At start-up rows written before
+ * the column existed are filled in batches; {@link #repair()} also catches rows missed by a
+ * concurrent move.
+ */
+@Service
+public class PaymentZoneService {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentZoneService.class);
+
+    /**
+     * Covering indexes for range aggregates by zone/centre: the sums are in the index, so the
+     * scan does not visit the table. INCLUDE cannot be declared on the entity.
+     */
+    private static final String[] INDEX_SQL = {
+            """
+            create index if not exists idx_payments_date_zone_centre
+            on payments (payment_date, zone_id, centre_id) include (total_billed, total_paid)
+            """,
+            """
+            create index if not exists idx_payments_zone_date_cover
+            on payments (zone_id, payment_date) include (centre_id, gfs_code_id, total_billed, total_paid)
+            """
+    };
+
+    private static final String REPAIR_BATCH_SQL = """
+        update payments p
+        set zone_id = c.zone_id
+        from centre c
+        where c.id = p.centre_id
+          and p.id > ? and p.id <= ?
+          and p.zone_id is distinct from c.zone_id
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${payments.zone.repair-batch-size:20000}")
+    private int repairBatchSize;
+
+    private final AtomicBoolean initialised = new AtomicBoolean();
+    private volatile long lastRepairRows;
+    private volatile long lastRepairMillis;
+
+    public PaymentZoneService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    public void init() {
+        if (!initialised.compareAndSet(false, true)) return;
+
+        // only rows from before the column existed; a full check is POST /api/ingestion/payments/zone/repair
+        Boolean missing = jdbcTemplate.queryForObject(
+                "select exists (select 1 from payments where zone_id is null)", Boolean.class);
+        if (Boolean.TRUE.equals(missing)) {
+            long rows = repair();
+            log.info("Set payments.zone_id on {} rows in {} ms", rows, lastRepairMillis);
+        }
+        for (String sql : INDEX_SQL) {
+            jdbcTemplate.execute(sql);
+        }
+    }
+
+    /**
+     * Fixes rows whose zone_id does not match their centre, walking the table in id ranges so
+     * each batch is a primary key range scan and commits on its own.
+     */
+    public long repair() {
+        long t0 = System.nanoTime();
+        long total = 0;
+        int batch = Math.max(repairBatchSize, 1);
+        Map<String, Object> bounds = jdbcTemplate.queryForMap("select min(id) as lo, max(id) as hi from payments");
+        if (bounds.get("lo") != null) {
+            long lo = ((Number) bounds.get("lo")).longValue() - 1;
+            long hi = ((Number) bounds.get("hi")).longValue();
+            for (long from = lo; from < hi; from += batch) {
+                total += jdbcTemplate.update(REPAIR_BATCH_SQL, from, Math.min(from + batch, hi));
+            }
+        }
+        lastRepairRows = total;
+        lastRepairMillis = (System.nanoTime() - t0) / 1_000_000;
+        return total;
+    }
+
+    /** Re-points a centre's payments to its new zone. Runs in the caller's transaction. */
+    public int moveCentre(Long centreId, Long zoneId) {
+        return jdbcTemplate.update(
+                "update payments set zone_id = ? where centre_id = ? and zone_id is distinct from ?",
+                zoneId, centreId, zoneId);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("lastRepairRows", lastRepairRows);
+        out.put("lastRepairMillis", lastRepairMillis);
+        return out;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.iga_veta.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in a report ordered by (date desc, id desc): the date and id of the last row a
+ * client has seen. Sent to clients as an opaque url-safe string.
+ */
+public record ReportCursor(LocalDateTime date, long id) {
+
+    public static ReportCursor after(LocalDateTime date, Long id) {
+        return (date == null || id == null) ? null : new ReportCursor(date, id);
+    }
+
+    public String encode() {
+        String raw = date + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return null for a blank cursor (first page)
+     * @throws IllegalArgumentException when the cursor was not produced by {@link #encode()}
+     */
+    public static ReportCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf('|');
+            if (sep < 0) throw new IllegalArgumentException("Invalid cursor");
+            return new ReportCursor(LocalDateTime.parse(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.iga_veta.Service;
+
+import java.util.Set;
+
+/**
+ * Report and dashboard filters as ids, resolved once per request by
+ * {@link FilterOptionsService#resolve}. Null sets are not filtered on. A name can stand for
+ * several ids (centre, zone and GFS code names are not unique), so each filter is a set.
+ *
+ * @param matchesNothing a filter name did not resolve, so no row can match
+ */
+public record ReportFilter(Set<Long> centreIds, Set<Long> zoneIds, Set<Long> gfsIds, boolean matchesNothing) {
+
+    public static final ReportFilter ALL = new ReportFilter(null, null, null, false);
+    public static final ReportFilter NOTHING = new ReportFilter(null, null, null, true);
+}
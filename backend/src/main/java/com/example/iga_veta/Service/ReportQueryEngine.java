@@ -0,0 +1,425 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Repository.CollectionRowView;
+import com.example.iga_veta.Repository.projections.PaymentRowView;
+import com.example.iga_veta.Repository.projections.ServiceSummaryView;
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Report pages in one round trip: the page of rows, the grand totals and the per-GFS summary
+ * come back from a single statement.
+ *
+ * The rows CTE reads the page straight off the (date desc, id desc) index; the aggregate CTE
+ * scans the filtered range once and {@code GROUPING SETS ((code, desc), ())} yields the
+ * per-service rows and the grand total from that one pass. Both are tagged and returned with
+ * {@code union all}.
+ *
+ * Filters arrive as ids ({@link ReportFilter}) and are applied to the id columns through
+ * {@link SqlPredicates}, so only the filters that are set reach the SQL. The dashboard's
+ * rollup fallback and recent payments are built the same way.
+ */
+@Service
+public class ReportQueryEngine {
+
+    // result row kinds, also the output order
+    private static final int ROW = 0;
+    private static final int TOTAL = 1;
+    private static final int SERVICE = 2;
+
+    private static final String OUTPUT_COLUMNS = """
+        kind, id, payment_id, customer_name, centre_name, zone_name, payment_type, control_number,
+        code, descr, billed, paid, cnt, row_date
+    """;
+
+    private static final String PAYMENT_ROWS_SQL = """
+        select p.id, p.payment_id, cu.name as customer_name, ce.name as centre_name, z.name as zone_name,
+               p.payment_type, p.control_number,
+               coalesce(g.code, 'UNKNOWN') as code, coalesce(g.description, 'UNKNOWN') as descr,
+               p.total_billed, p.total_paid, p.payment_date
+        from payments p
+        join customer cu on cu.id = p.customer_id
+        join centre ce on ce.id = p.centre_id
+        join zone z on z.id = ce.zone_id
+        left join gfs_code g on g.id = p.gfs_code_id
+        where p.payment_date >= ? and p.payment_date < ?
+    """;
+
+    // same columns from the rollup and from payments, so both can feed one aggregate
+    private static final String ROLLUP_DAYS_SQL = """
+            select a.centre_id, a.zone_id, a.gfs_code_id, a.payment_type, a.total_billed, a.total_paid, a.tx_count
+            from payments_daily_agg a
+            where a.day >= ? and a.day < ?
+    """;
+
+    private static final String EDGE_PAYMENTS_SQL = """
+            select p.centre_id, p.zone_id, p.gfs_code_id, coalesce(p.payment_type, 'UNKNOWN'),
+                   p.total_billed, p.total_paid, 1
+            from payments p
+            where p.payment_date >= ? and p.payment_date < ?
+    """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTimeZone jdbcTimeZone;
+
+    public ReportQueryEngine(JdbcTemplate jdbcTemplate, JdbcTimeZone jdbcTimeZone) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.jdbcTimeZone = jdbcTimeZone;
+    }
+
+    /** Report row as returned by this engine; serialises like the repository projection. */
+    public record PaymentRow(Long id, Long paymentId, String customerName, String centreName, String zoneName,
+                             String paymentType, String controlNumber, BigDecimal totalBilled, BigDecimal totalPaid,
+                             LocalDateTime paymentDate, String gfsCode, String gfsDesc) implements PaymentRowView {
+        @Override public Long getId() { return id; }
+        @Override public Long getPaymentId() { return paymentId; }
+        @Override public String getCustomerName() { return customerName; }
+        @Override public String getCentreName() { return centreName; }
+        @Override public String getZoneName() { return zoneName; }
+        @Override public String getPaymentType() { return paymentType; }
+        @Override public String getControlNumber() { return controlNumber; }
+        @Override public BigDecimal getTotalBilled() { return totalBilled; }
+        @Override public BigDecimal getTotalPaid() { return totalPaid; }
+        @Override public LocalDateTime getPaymentDate() { return paymentDate; }
+        @Override public String getGfsCode() { return gfsCode; }
+        @Override public String getGfsDesc() { return gfsDesc; }
+    }
+
+    public record CollectionRow(Long id, String customerName, String centreName, String zoneName, String serviceCode,
+                                String serviceDesc, String paymentType, String controlNumber, BigDecimal amountPaid,
+                                BigDecimal amount, LocalDateTime datePaid) implements CollectionRowView {
+        @Override public Long getId() { return id; }
+        @Override public String getCustomerName() { return customerName; }
+        @Override public String getCentreName() { return centreName; }
+        @Override public String getZoneName() { return zoneName; }
+        @Override public String getServiceCode() { return serviceCode; }
+        @Override public String getServiceDesc() { return serviceDesc; }
+        @Override public String getPaymentType() { return paymentType; }
+        @Override public String getControlNumber() { return controlNumber; }
+        @Override public BigDecimal getAmountPaid() { return amountPaid; }
+        @Override public BigDecimal getAmount() { return amount; }
+        @Override public LocalDateTime getDatePaid() { return datePaid; }
+    }
+
+    /**
+     * @param rows    at most {@code size + 1} rows when reading after a cursor, so callers can tell
+     *                whether another page follows
+     * @param byService sorted by total billed, descending
+     */
+    public record PaymentReport(List<PaymentRowView> rows, PaymentCube.Totals totals, List<ServiceSummaryView> byService) {}
+
+    /** @param byService serviceCode, service and total paid per GFS code, largest first */
+    public record CollectionReport(List<CollectionRowView> rows, BigDecimal totalAmount, long totalRows,
+                                   List<Map<String, Object>> byService) {}
+
+    /** Which page to read: after a cursor (keyset) or by page number (offset). */
+    public record PageSpec(ReportCursor after, int page, int size) {
+        int limit() { return after != null ? size + 1 : size; }
+        long offset() { return after != null ? 0 : (long) page * size; }
+    }
+
+    // ==========================
+    // PAYMENTS
+    // ==========================
+
+    /**
+     * Rows come from {@code payments}; totals and the per-service summary from the daily rollup
+     * for the whole days of the range and from payments for its partial edge days.
+     */
+    public PaymentReport payments(LocalDateTime start, LocalDateTime endExclusive, PaymentDailyAggService.RollupRange range,
+                                  ReportFilter filter, PageSpec spec) {
+        List<Object> args = new ArrayList<>();
+
+        StringBuilder rows = new StringBuilder("page_rows as (\n");
+        appendPaymentRows(rows, args, start, endExclusive, filter, spec);
+        rows.append(")\n");
+
+        StringBuilder agg = new StringBuilder("""
+            agg as (
+                select coalesce(g.code, 'UNKNOWN') as code, coalesce(g.description, 'UNKNOWN') as descr,
+                       grouping(coalesce(g.code, 'UNKNOWN'), coalesce(g.description, 'UNKNOWN')) as grp,
+                       coalesce(sum(a.total_billed), 0) as billed,
+                       coalesce(sum(a.total_paid), 0) as paid,
+                       coalesce(sum(a.tx_count), 0) as cnt
+            """);
+        appendRollupSource(agg, args, range, filter, true);
+        agg.append("""
+                left join gfs_code g on g.id = a.gfs_code_id
+                group by grouping sets ((coalesce(g.code, 'UNKNOWN'), coalesce(g.description, 'UNKNOWN')), ())
+            )
+            """);
+
+        String sql = "with " + rows + ", " + agg + """
+            select %1$s from (
+                select 0 as kind, id, payment_id, customer_name, centre_name, zone_name, payment_type, control_number,
+                       code, descr, total_billed as billed, total_paid as paid, null::bigint as cnt, payment_date as row_date
+                from page_rows
+                union all
+                select case when grp = 0 then 2 else 1 end, null, null, null, null, null, null, null,
+                       code, descr, billed, paid, cnt, null
+                from agg
+            ) r
+            order by kind, row_date desc nulls last, id desc nulls last, billed desc
+            """.formatted(OUTPUT_COLUMNS);
+
+        List<PaymentRowView> out = new ArrayList<>();
+        List<ServiceSummaryView> byService = new ArrayList<>();
+        PaymentCube.Totals[] totals = { new PaymentCube.Totals(BigDecimal.ZERO, BigDecimal.ZERO, 0L) };
+
+        jdbcTemplate.query(sql, rs -> {
+            switch (rs.getInt("kind")) {
+                case ROW -> out.add(paymentRow(rs, "billed", "paid", "row_date"));
+                case TOTAL -> totals[0] = new PaymentCube.Totals(
+                        rs.getBigDecimal("billed"), rs.getBigDecimal("paid"), rs.getLong("cnt"));
+                case SERVICE -> byService.add(new PaymentCube.ServiceSummary(
+                        rs.getString("code"), rs.getString("descr"), rs.getBigDecimal("billed"),
+                        rs.getBigDecimal("paid"), rs.getLong("cnt")));
+                default -> { }
+            }
+        }, args.toArray());
+
+        return new PaymentReport(out, totals[0], byService);
+    }
+
+    /** Just the page of rows, for requests whose totals are already cached. */
+    public List<PaymentRowView> paymentRows(LocalDateTime start, LocalDateTime endExclusive, ReportFilter filter, PageSpec spec) {
+        StringBuilder sql = new StringBuilder();
+        List<Object> args = new ArrayList<>();
+        appendPaymentRows(sql, args, start, endExclusive, filter, spec);
+        return jdbcTemplate.query(sql.toString(), (rs, i) -> paymentRow(rs, "total_billed", "total_paid", "payment_date"),
+                args.toArray());
+    }
+
+    private void appendPaymentRows(StringBuilder sql, List<Object> args, LocalDateTime start, LocalDateTime endExclusive,
+                                   ReportFilter filter, PageSpec spec) {
+        sql.append(PAYMENT_ROWS_SQL);
+        args.add(jdbcTimeZone.toDb(start));
+        args.add(jdbcTimeZone.toDb(endExclusive));
+        SqlPredicates where = new SqlPredicates().filter(filter, "p.centre_id", "p.zone_id", "p.gfs_code_id");
+        if (spec.after() != null) {
+            where.before("p.payment_date", "p.id", jdbcTimeZone.toDb(spec.after().date()), spec.after().id());
+        }
+        where.appendTo(sql, args);
+        sql.append("    order by p.payment_date desc, p.id desc\n    limit ? offset ?\n");
+        args.add(spec.limit());
+        args.add(spec.offset());
+    }
+
+    private PaymentRow paymentRow(ResultSet rs, String billedCol, String paidCol, String dateCol) throws SQLException {
+        return new PaymentRow(
+                rs.getLong("id"), rs.getLong("payment_id"), rs.getString("customer_name"),
+                rs.getString("centre_name"), rs.getString("zone_name"), rs.getString("payment_type"),
+                rs.getString("control_number"), rs.getBigDecimal(billedCol), rs.getBigDecimal(paidCol),
+                jdbcTimeZone.fromDb(rs.getObject(dateCol, LocalDateTime.class)), rs.getString("code"), rs.getString("descr"));
+    }
+
+    // ==========================
+    // DASHBOARD (rollup fallback while the cube loads)
+    // ==========================
+
+    /** [sum billed, transaction count, sum paid] over the range. */
+    public List<Object[]> rollupTotals(PaymentDailyAggService.RollupRange range, ReportFilter filter) {
+        StringBuilder sql = new StringBuilder("""
+            select coalesce(sum(a.total_billed), 0), coalesce(sum(a.tx_count), 0), coalesce(sum(a.total_paid), 0)
+            """);
+        List<Object> args = new ArrayList<>();
+        appendRollupSource(sql, args, range, filter, false);
+        return jdbcTemplate.query(sql.toString(), (rs, i) -> new Object[]{
+                rs.getBigDecimal(1), rs.getLong(2), rs.getBigDecimal(3)}, args.toArray());
+    }
+
+    /** [payment type, total paid], largest first. */
+    public List<Object[]> rollupTopPaymentTypes(PaymentDailyAggService.RollupRange range, ReportFilter filter, int limit) {
+        StringBuilder sql = new StringBuilder("""
+            select a.payment_type, coalesce(sum(a.total_paid), 0) as total
+            """);
+        List<Object> args = new ArrayList<>();
+        appendRollupSource(sql, args, range, filter, false);
+        sql.append("group by a.payment_type order by total desc limit ?");
+        args.add(limit);
+        return jdbcTemplate.query(sql.toString(), (rs, i) -> new Object[]{rs.getString(1), rs.getBigDecimal(2)},
+                args.toArray());
+    }
+
+    /** [centre name, total paid], largest first, or smallest first when asc. */
+    public List<Object[]> rollupTopCentres(PaymentDailyAggService.RollupRange range, ReportFilter filter, int limit, boolean asc) {
+        StringBuilder sql = new StringBuilder("""
+            select ce.name, t.total
+            from (
+                select a.centre_id, coalesce(sum(a.total_paid), 0) as total
+            """);
+        List<Object> args = new ArrayList<>();
+        appendRollupSource(sql, args, range, filter, false);
+        sql.append("    group by a.centre_id\n) t\njoin centre ce on ce.id = t.centre_id\n")
+                .append(asc ? "order by t.total asc" : "order by t.total desc")
+                .append(" limit ?");
+        args.add(limit);
+        return jdbcTemplate.query(sql.toString(), (rs, i) -> new Object[]{rs.getString(1), rs.getBigDecimal(2)},
+                args.toArray());
+    }
+
+    /** [customer, centre, zone, payment type, billed, paid, payment date], newest first. */
+    public List<Object[]> recentPayments(LocalDateTime start, LocalDateTime endExclusive, ReportFilter filter, int limit) {
+        List<Object[]> out = new ArrayList<>();
+        for (PaymentRowView r : paymentRows(start, endExclusive, filter, new PageSpec(null, 0, limit))) {
+            out.add(new Object[]{r.getCustomerName(), r.getCentreName(), r.getZoneName(), r.getPaymentType(),
+                    r.getTotalBilled(), r.getTotalPaid(), r.getPaymentDate()});
+        }
+        return out;
+    }
+
+    // ==========================
+    // COLLECTIONS
+    // ==========================
+
+    /** Same shape for the legacy collections table, which has no rollup: the aggregate scans it once. */
+    public CollectionReport collections(LocalDateTime start, LocalDateTime endExclusive,
+                                        String centre, String zone, String serviceDesc, PageSpec spec) {
+        List<Object> args = new ArrayList<>();
+
+        StringBuilder rows = new StringBuilder("""
+            page_rows as (
+                select c.id, coalesce(cu.name, 'N/A') as customer_name, coalesce(ce.name, 'N/A') as centre_name,
+                       coalesce(z.name, 'N/A') as zone_name,
+                       coalesce(c.payment_type, '') as payment_type, coalesce(c.control_number, '') as control_number,
+                       coalesce(g.code, 'N/A') as code, coalesce(g.description, 'N/A') as descr,
+                       c.amount_billed, coalesce(c.amount_paid, 0) as amount_paid, c.date
+                from collections c
+                join customer cu on cu.id = c.customer_id
+                join centre ce on ce.id = c.centre_id
+                join zone z on z.id = ce.zone_id
+                join gfs_code g on g.id = c.gfs_code_id
+                where c.date >= ? and c.date < ?
+            """);
+        args.add(jdbcTimeZone.toDb(start));
+        args.add(jdbcTimeZone.toDb(endExclusive));
+        SqlPredicates where = collectionFilters(centre, zone, serviceDesc);
+        if (spec.after() != null) {
+            where.before("c.date", "c.id", jdbcTimeZone.toDb(spec.after().date()), spec.after().id());
+        }
+        where.appendTo(rows, args);
+        rows.append("""
+                order by c.date desc, c.id desc
+                limit ? offset ?
+            )
+            """);
+        args.add(spec.limit());
+        args.add(spec.offset());
+
+        StringBuilder agg = new StringBuilder("""
+            agg as (
+                select coalesce(g.code, 'N/A') as code, coalesce(g.description, 'N/A') as descr,
+                       grouping(g.code, g.description) as grp,
+                       coalesce(sum(c.amount_billed), 0) as billed,
+                       coalesce(sum(c.amount_paid), 0) as paid,
+                       count(*) as cnt
+                from collections c
+                join centre ce on ce.id = c.centre_id
+                join gfs_code g on g.id = c.gfs_code_id
+                where c.date >= ? and c.date < ?
+            """);
+        args.add(jdbcTimeZone.toDb(start));
+        args.add(jdbcTimeZone.toDb(endExclusive));
+        collectionFilters(centre, zone, serviceDesc).appendTo(agg, args);
+        agg.append("""
+                group by grouping sets ((g.code, g.description), ())
+            )
+            """);
+
+        String sql = "with " + rows + ", " + agg + """
+            select %1$s from (
+                select 0 as kind, id, null::bigint as payment_id, customer_name, centre_name, zone_name, payment_type,
+                       control_number, code, descr, amount_billed as billed, amount_paid as paid, null::bigint as cnt,
+                       date as row_date
+                from page_rows
+                union all
+                select case when grp = 0 then 2 else 1 end, null, null, null, null, null, null, null,
+                       code, descr, billed, paid, cnt, null
+                from agg
+            ) r
+            order by kind, row_date desc nulls last, id desc nulls last, paid desc
+            """.formatted(OUTPUT_COLUMNS);
+
+        List<CollectionRowView> out = new ArrayList<>();
+        List<Map<String, Object>> byService = new ArrayList<>();
+        BigDecimal[] totalAmount = { BigDecimal.ZERO };
+        long[] totalRows = { 0L };
+
+        jdbcTemplate.query(sql, rs -> {
+            switch (rs.getInt("kind")) {
+                case ROW -> out.add(new CollectionRow(
+                        rs.getLong("id"), rs.getString("customer_name"), rs.getString("centre_name"),
+                        rs.getString("zone_name"), rs.getString("code"), rs.getString("descr"),
+                        rs.getString("payment_type"), rs.getString("control_number"), rs.getBigDecimal("paid"),
+                        rs.getBigDecimal("billed"), jdbcTimeZone.fromDb(rs.getObject("row_date", LocalDateTime.class))));
+                case TOTAL -> {
+                    totalAmount[0] = rs.getBigDecimal("billed");
+                    totalRows[0] = rs.getLong("cnt");
+                }
+                case SERVICE -> {
+                    Map<String, Object> m = new LinkedHashMap<>();
+                    m.put("serviceCode", rs.getString("code"));
+                    m.put("service", rs.getString("descr"));
+                    m.put("total", rs.getBigDecimal("paid"));
+                    byService.add(m);
+                }
+                default -> { }
+            }
+        }, args.toArray());
+
+        return new CollectionReport(out, totalAmount[0], totalRows[0], byService);
+    }
+
+    // ==========================
+    // SQL PIECES
+    // ==========================
+
+    /**
+     * Appends {@code from (...) a}: rollup rows for the whole days of the range plus the
+     * payments of its partial edge days, with the filters applied inside each branch.
+     */
+    private static void appendRollupSource(StringBuilder sql, List<Object> args, PaymentDailyAggService.RollupRange range,
+                                           ReportFilter filter, boolean byGfs) {
+        String gfsCol = byGfs ? "a.gfs_code_id" : null;
+        sql.append("from (\n").append(ROLLUP_DAYS_SQL);
+        args.add(range.fromDay());
+        args.add(range.toDay());
+        new SqlPredicates().filter(filter, "a.centre_id", "a.zone_id", gfsCol).appendTo(sql, args);
+        appendEdge(sql, args, range.headFrom(), range.headTo(), filter, byGfs);
+        appendEdge(sql, args, range.tailFrom(), range.tailTo(), filter, byGfs);
+        sql.append(") a (centre_id, zone_id, gfs_code_id, payment_type, total_billed, total_paid, tx_count)\n");
+    }
+
+    private static void appendEdge(StringBuilder sql, List<Object> args, LocalDateTime from, LocalDateTime to,
+                                   ReportFilter filter, boolean byGfs) {
+        if (!from.isBefore(to)) return;
+        sql.append("    union all\n").append(EDGE_PAYMENTS_SQL);
+        args.add(from);
+        args.add(to);
+        new SqlPredicates().filter(filter, "p.centre_id", "p.zone_id", byGfs ? "p.gfs_code_id" : null).appendTo(sql, args);
+    }
+
+    /**
+     * The legacy collections table is not covered by the filter index, so names are turned
+     * into ids by subqueries on the small dimension tables, and the filter is on centre_id.
+     */
+    private static SqlPredicates collectionFilters(String centre, String zone, String serviceDesc) {
+        SqlPredicates where = new SqlPredicates();
+        if (centre != null) where.and("c.centre_id in (select id from centre where name = ?)", centre);
+        if (zone != null) {
+            where.and("c.centre_id in (select ce2.id from centre ce2 join zone z2 on z2.id = ce2.zone_id where z2.name = ?)", zone);
+        }
+        if (serviceDesc != null) where.and("c.gfs_code_id in (select id from gfs_code where description = ?)", serviceDesc);
+        return where;
+    }
+}
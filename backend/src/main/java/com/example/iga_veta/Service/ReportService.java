@@ -1,31 +1,38 @@
 package com.example.iga_veta.Service;
 
-import com.example.iga_veta.Repository.PaymentRepository;
 import com.example.iga_veta.Repository.projections.PaymentRowView;
 import com.example.iga_veta.Repository.projections.ServiceSummaryView;
 import com.example.iga_veta.Repository.projections.TotalsView;
 import com.example.iga_veta.dto.CollectionsReportResponse;
-import com.example.iga_veta.dto.ServiceOptionDto;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class ReportService {
 
-    private final PaymentRepository repo;
-
-    public ReportService(PaymentRepository repo) {
-        this.repo = repo;
+    private final PaymentDailyAggService dailyAgg;
+    private final PaymentCube cube;
+    private final SummaryCache summaryCache;
+    private final FilterOptionsService filterOptions;
+    private final ReportQueryEngine engine;
+
+    public ReportService(PaymentDailyAggService dailyAgg, PaymentCube cube,
+                         SummaryCache summaryCache, FilterOptionsService filterOptions, ReportQueryEngine engine) {
+        this.dailyAgg = dailyAgg;
+        this.cube = cube;
+        this.summaryCache = summaryCache;
+        this.filterOptions = filterOptions;
+        this.engine = engine;
     }
 
+    /** Aggregate part of the report; cached, since it only changes when ingestion commits. */
+    private record ReportTotals(TotalsView totals, List<ServiceSummaryView> byService, BigDecimal totalAmount) {}
+
     public CollectionsReportResponse collectionsReport(
             LocalDate fromDate,
             LocalDate toDate,
@@ -33,7 +40,8 @@ public class ReportService {
             String zone,
             String serviceCode, // ✅ NOW means gfsCode.code
             int page,
-            int size
+            int size,
+            String cursor
     ) {
         centre = (centre == null || centre.isBlank()) ? null : centre;
         zone = (zone == null || zone.isBlank()) ? null : zone;
@@ -42,52 +50,89 @@ public class ReportService {
         LocalDateTime start = fromDate.atStartOfDay();
         LocalDateTime endExclusive = toDate.plusDays(1).atStartOfDay();
 
-        PageRequest pageable = PageRequest.of(
-                Math.max(page, 0),
-                Math.max(size, 1),
-                Sort.by(Sort.Direction.DESC, "paymentDate")
-        );
+        page = Math.max(page, 0);
+        size = Math.max(size, 1);
+        ReportQueryEngine.PageSpec spec = new ReportQueryEngine.PageSpec(ReportCursor.decode(cursor), page, size);
+        // names -> ids once; the SQL then filters on id columns only
+        ReportFilter filter = filterOptions.resolve(centre, zone, serviceCode);
+
+        // a totals miss answered by the engine brings this page's rows along
+        AtomicReference<List<PaymentRowView>> engineRows = new AtomicReference<>();
+        SummaryCache.Key key = new SummaryCache.Key("report", fromDate, toDate, centre, zone, serviceCode);
+        ReportTotals totals = summaryCache.get(key,
+                () -> reportTotals(start, endExclusive, key.centre(), key.zone(), key.service(), filter, spec, engineRows));
 
-        TotalsView tv = repo.totalsView(start, endExclusive, centre, zone, serviceCode);
+        TotalsView tv = totals.totals();
         BigDecimal totalIncome = (tv != null && tv.getTotalIncome() != null) ? tv.getTotalIncome() : BigDecimal.ZERO;
         BigDecimal totalPaid = (tv != null && tv.getTotalPaid() != null) ? tv.getTotalPaid() : BigDecimal.ZERO;
         long totalTx = (tv != null && tv.getTotalTransactions() != null) ? tv.getTotalTransactions() : 0L;
 
-        Page<PaymentRowView> rowsPage = repo.reportRows(start, endExclusive, centre, zone, serviceCode, pageable);
+        // total comes from the cached totals (rollup/cube count), so no count query per page
+        List<PaymentRowView> fetched = engineRows.get();
+        if (fetched == null) {
+            fetched = engine.paymentRows(start, endExclusive, filter, spec);
+        }
 
-        List<ServiceSummaryView> byService = repo.summaryByService(start, endExclusive, centre, zone, serviceCode);
+        List<PaymentRowView> rows;
+        boolean hasNext;
+        if (spec.after() != null) {
+            hasNext = fetched.size() > size;
+            rows = hasNext ? fetched.subList(0, size) : fetched;
+        } else {
+            rows = fetched;
+            hasNext = rows.size() == size && (long) (page + 1) * size < totalTx;
+        }
+        PaymentRowView last = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+        ReportCursor next = (hasNext && last != null) ? ReportCursor.after(last.getPaymentDate(), last.getId()) : null;
 
-        BigDecimal totalAmount = repo.totalAmount(start, endExclusive, centre, zone, serviceCode);
-        if (totalAmount == null) totalAmount = BigDecimal.ZERO;
+        List<ServiceSummaryView> byService = totals.byService();
 
-        List<String> centres = repo.centreOptions();
-        List<String> zones = repo.zoneOptions();
+        BigDecimal totalAmount = totals.totalAmount();
+        if (totalAmount == null) totalAmount = BigDecimal.ZERO;
 
-        List<ServiceOptionDto> services = new ArrayList<>();
-        for (Object[] r : repo.serviceOptions()) {
-            String code = (r != null && r.length > 0) ? String.valueOf(r[0]) : null;
-            String desc = (r != null && r.length > 1) ? String.valueOf(r[1]) : null;
-            if (code != null && desc != null) services.add(new ServiceOptionDto(code, desc));
-        }
+        // in-memory; clients that poll should use /api/payments/filter-options instead
+        FilterOptionsService.Options options = filterOptions.current();
 
         CollectionsReportResponse out = new CollectionsReportResponse();
         out.setTotalIncome(totalIncome);
         out.setTotalPaid(totalPaid);
         out.setTotalTransactions(totalTx);
 
-        out.setPage(rowsPage.getNumber());
-        out.setSize(rowsPage.getSize());
-        out.setTotalElements(rowsPage.getTotalElements());
-        out.setTotalPages(rowsPage.getTotalPages());
+        out.setPage(page);
+        out.setSize(size);
+        out.setTotalElements(totalTx);
+        out.setTotalPages((int) ((totalTx + size - 1) / size));
+        out.setNextCursor(next == null ? null : next.encode());
+        out.setHasNext(next != null);
 
-        out.setRows(rowsPage.getContent());
+        out.setRows(rows);
         out.setSummaryByService(byService);
         out.setTotalAmount(totalAmount);
 
-        out.setCentres(centres);
-        out.setZones(zones);
-        out.setServices(services);
+        out.setCentres(options.centres());
+        out.setZones(options.zones());
+        out.setServices(options.services());
 
         return out;
     }
-}
\ No newline at end of file
+
+    /**
+     * Totals and per-service sums from the in-memory cube or, until it has loaded, from one
+     * engine statement that also returns the requested page of rows.
+     */
+    private ReportTotals reportTotals(LocalDateTime start, LocalDateTime endExclusive, String centre, String zone,
+                                      String serviceCode, ReportFilter filter, ReportQueryEngine.PageSpec spec,
+                                      AtomicReference<List<PaymentRowView>> rowsOut) {
+        if (cube.isReady()) {
+            PaymentCube.Query q = new PaymentCube.Query(start, endExclusive, centre, zone, serviceCode);
+            PaymentCube.Totals tv = cube.totals(q);
+            // same sum as totalIncome
+            return new ReportTotals(tv, cube.summaryByService(q), tv.totalIncome());
+        }
+
+        ReportQueryEngine.PaymentReport r = engine.payments(
+                start, endExclusive, dailyAgg.range(start, endExclusive), filter, spec);
+        rowsOut.set(r.rows());
+        return new ReportTotals(r.totals(), r.byService(), r.totals().totalIncome());
+    }
+}
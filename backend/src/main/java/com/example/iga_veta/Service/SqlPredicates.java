@@ -0,0 +1,58 @@
+package com.example.iga_veta.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Builds the {@code and ...} tail of a where clause from the filters that are actually set,
+ * instead of {@code (? is null or col = ?)}. Each combination of filters becomes its own
+ * statement, so Postgres plans it against the matching index rather than one generic plan.
+ */
+final class SqlPredicates {
+
+    private final StringBuilder sql = new StringBuilder();
+    private final List<Object> args = new ArrayList<>();
+
+    /** Adds {@code and <expr>}; one {@code ?} in expr per value. */
+    SqlPredicates and(String expr, Object... values) {
+        sql.append("      and ").append(expr).append('\n');
+        for (Object v : values) args.add(v);
+        return this;
+    }
+
+    /** {@code and column = ?}, only when value is set. */
+    SqlPredicates eq(String column, Object value) {
+        return value == null ? this : and(column + " = ?", value);
+    }
+
+    /**
+     * {@code and column = ?} for one id, {@code and column = any(?)} for several, nothing when
+     * ids is null.
+     */
+    SqlPredicates in(String column, Collection<Long> ids) {
+        if (ids == null) return this;
+        if (ids.size() == 1) return eq(column, ids.iterator().next());
+        return and(column + " = any(?)", (Object) ids.toArray(new Long[0]));
+    }
+
+    /** Centre, zone and GFS id filters against the given columns; a null column skips that filter. */
+    SqlPredicates filter(ReportFilter f, String centreCol, String zoneCol, String gfsCol) {
+        if (f.matchesNothing()) return and("false");
+        if (centreCol != null) in(centreCol, f.centreIds());
+        if (zoneCol != null) in(zoneCol, f.zoneIds());
+        if (gfsCol != null) in(gfsCol, f.gfsIds());
+        return this;
+    }
+
+    /** Keyset seek for (date desc, id desc) ordering: rows strictly after the cursor. */
+    SqlPredicates before(String dateCol, String idCol, Object date, Long id) {
+        return and("(" + dateCol + ", " + idCol + ") < (?, ?)", date, id);
+    }
+
+    /** Appends the predicates to sql and their values to args. */
+    void appendTo(StringBuilder target, List<Object> targetArgs) {
+        target.append(sql);
+        targetArgs.addAll(args);
+    }
+}
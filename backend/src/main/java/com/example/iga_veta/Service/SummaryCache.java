@@ -0,0 +1,133 @@
+package com.example.iga_veta.Service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Cache for dashboard and report aggregates. Data only changes when ingestion commits, so
+ * every payment write clears it after commit, and commits on other nodes clear it through
+ * {@link PaymentChangeSignal}; the TTL is just a safety net.
+ *
+ * Concurrent misses on the same key share one computation. A result computed while a write
+ * committed is returned to its callers but not stored, so the cache never keeps numbers
+ * older than the last commit.
+ */
+@Service
+public class SummaryCache {
+
+    /** What is cached, and for which filters. Names are trimmed, blank means "all". */
+    public record Key(String kind, LocalDate fromDate, LocalDate toDate, String centre, String zone, String service) {}
+
+    private final BoundedCache<Key, Object> cache;
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    // bumped on every invalidation; loads started under an older generation are not stored
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong maxLoadNanos = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public SummaryCache(
+            @Value("${dashboard.cache.max-size:500}") int maxSize,
+            @Value("${dashboard.cache.ttl-minutes:30}") long ttlMinutes
+    ) {
+        this.cache = new BoundedCache<>("summary", maxSize, ttlMinutes * 60_000L);
+    }
+
+    public <T> T get(Key key, Supplier<T> loader) {
+        return get(key, loader, v -> true);
+    }
+
+    /**
+     * Cached value for the key, or the loader's result. Concurrent callers with the same key
+     * wait for the first one's load.
+     *
+     * @param cacheable results failing this test (e.g. partial dashboards) are returned but not stored
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key key, Supplier<T> loader, Predicate<T> cacheable) {
+        Object hit = cache.get(key);
+        if (hit != null) return (T) hit;
+
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loading.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        long gen = generation.get();
+        long t0 = System.nanoTime();
+        try {
+            T value = loader.get();
+            long took = System.nanoTime() - t0;
+            loads.incrementAndGet();
+            loadNanos.addAndGet(took);
+            maxLoadNanos.accumulateAndGet(took, Math::max);
+
+            if (value != null && cacheable.test(value) && generation.get() == gen) {
+                cache.put(key, value);
+            }
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /** Clears the cache once the current transaction commits, or now when there is none. */
+    public void invalidateAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateAll();
+            return;
+        }
+        // loads that start before the commit must not be stored either
+        generation.incrementAndGet();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateAll();
+            }
+        });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>(cache.stats());
+        long n = loads.get();
+        out.put("loads", n);
+        out.put("avgLoadMillis", n == 0 ? 0.0 : loadNanos.get() / 1_000_000.0 / n);
+        out.put("maxLoadMillis", maxLoadNanos.get() / 1_000_000.0);
+        out.put("coalescedMisses", coalesced.get());
+        out.put("inFlightLoads", loading.size());
+        out.put("invalidations", invalidations.get());
+        return out;
+    }
+}
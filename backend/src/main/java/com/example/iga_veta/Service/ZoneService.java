@@ -15,6 +15,9 @@ public class ZoneService {
     @Autowired
     private ZoneRepository zoneRepository;
 
+    @Autowired
+    private FilterOptionsService filterOptionsService;
+
     public Zone saveZones(String name,String zoneCode) {
         Zone zone = new Zone();
         zone.setName(name);
@@ -44,6 +47,7 @@ public class ZoneService {
                 zone1.setCode(zone.getCode());
             }
             zoneRepository.save(zone1);
+            filterOptionsService.markStale();
             return "Zone updated";
         }
 
@@ -54,6 +58,7 @@ public class ZoneService {
         Zone zone1 = zoneRepository.findById(zoneId).orElse(null);
         if (zone1 != null) {
             zoneRepository.delete(zone1);
+            filterOptionsService.markStale();
             return "Zone deleted";
         }
         return "Zone not found";
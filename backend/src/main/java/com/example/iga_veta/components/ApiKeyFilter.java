@@ -1,6 +1,7 @@
 package com.example.iga_veta.components;
 
 
+import com.example.iga_veta.Model.ApiKey;
 import com.example.iga_veta.Model.ApiUsage;
 import com.example.iga_veta.Repository.ApiKeyRepository;
 import com.example.iga_veta.Repository.ApiUsageRepository;
@@ -9,6 +10,7 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -16,10 +18,14 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.Collections;
+import java.util.List;
 
 @Component
 public class ApiKeyFilter extends OncePerRequestFilter {
 
+    /** Role of a request made with a push source's key (and no user token). */
+    public static final String PUSH_SOURCE_ROLE = "PUSH_SOURCE";
+
     private final ApiKeyRepository apiKeyRepository;
     private final ApiUsageRepository apiUsageRepository;
 
@@ -55,12 +61,20 @@ public class ApiKeyFilter extends OncePerRequestFilter {
             return;
         }
 
+        // a push source's key is only good for pushing
+        boolean pushKey = ApiKey.SCOPE_PUSH.equals(keyOpt.get().getScope());
+        if (pushKey && !request.getRequestURI().startsWith(request.getContextPath() + "/api/ingestion/push")) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            response.getWriter().write("API Key may only push collections");
+            return;
+        }
+
         // ✅ Authenticate the request
         UsernamePasswordAuthenticationToken authentication =
                 new UsernamePasswordAuthenticationToken(
                         keyOpt.get().getOwner(),
                         null,
-                        Collections.emptyList()
+                        pushKey ? List.of(new SimpleGrantedAuthority("ROLE_" + PUSH_SOURCE_ROLE)) : Collections.emptyList()
                 );
         SecurityContextHolder.getContext().setAuthentication(authentication);
 
@@ -0,0 +1,43 @@
+package com.example.iga_veta.components;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Converts LocalDateTime values the same way Hibernate does when
+ * {@code hibernate.jdbc.time_zone} is set, so rows written or read through plain JDBC
+ * line up with rows written through JPA.
+ */
+@Component
+public class JdbcTimeZone {
+
+    private static final DateTimeFormatter SQL_TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+
+    private final ZoneId jvmZone = ZoneId.systemDefault();
+    private final ZoneId dbZone;
+
+    public JdbcTimeZone(@Value("${spring.jpa.properties.hibernate.jdbc.time_zone:}") String jdbcTimeZone) {
+        this.dbZone = (jdbcTimeZone == null || jdbcTimeZone.isBlank()) ? jvmZone : ZoneId.of(jdbcTimeZone.trim());
+    }
+
+    public LocalDateTime toDb(LocalDateTime value) {
+        if (value == null || dbZone.equals(jvmZone)) return value;
+        return value.atZone(jvmZone).withZoneSameInstant(dbZone).toLocalDateTime();
+    }
+
+    public LocalDateTime fromDb(LocalDateTime value) {
+        if (value == null || dbZone.equals(jvmZone)) return value;
+        return value.atZone(dbZone).withZoneSameInstant(jvmZone).toLocalDateTime();
+    }
+
+    /** Database wall-clock text, for binding inside {@code ?::timestamp[]} arrays. */
+    public String toDbText(LocalDateTime value) {
+        LocalDateTime db = toDb(value);
+        return db == null ? null : db.format(SQL_TIMESTAMP);
+    }
+}
@@ -12,6 +12,7 @@ public class CollectionsReportRequest {
 
     private Integer page;       // 0...
     private Integer size;       // 10...
+    private String cursor;      // nextCursor of the previous page; takes precedence over page
 
     public LocalDate getFromDate() { return fromDate; }
     public void setFromDate(LocalDate fromDate) { this.fromDate = fromDate; }
@@ -33,4 +34,7 @@ public class CollectionsReportRequest {
 
     public Integer getSize() { return size; }
     public void setSize(Integer size) { this.size = size; }
+
+    public String getCursor() { return cursor; }
+    public void setCursor(String cursor) { this.cursor = cursor; }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.example.iga_veta.Controller;
+
+import com.example.iga_veta.Model.ApiKey;
+import com.example.iga_veta.Repository.ApiKeyRepository;
+import com.example.iga_veta.Service.JwtService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.util.Optional;
+
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class IngestionControllerSecurityTest {
+
+    private static final String APP_KEY = "app-key";
+    private static final String PUSH_KEY = "push-key";
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @MockitoBean
+    private ApiKeyRepository apiKeyRepository;
+
+    @BeforeEach
+    void setUp() {
+        when(apiKeyRepository.findByApiKeyAndActiveTrue(APP_KEY)).thenReturn(Optional.of(key("ADMIN_SYSTEM", null)));
+        when(apiKeyRepository.findByApiKeyAndActiveTrue(PUSH_KEY)).thenReturn(Optional.of(key("relay-dar", ApiKey.SCOPE_PUSH)));
+    }
+
+    @Test
+    void operationsNeedAnAdmin() throws Exception {
+        mvc.perform(as(post("/api/ingestion/payments/partition"), APP_KEY, "ACCOUNT_OFFICER")).andExpect(status().isForbidden());
+        mvc.perform(as(post("/api/ingestion/run"), APP_KEY, null)).andExpect(status().isForbidden());
+        mvc.perform(as(post("/api/ingestion/rollup/rebuild"), PUSH_KEY, null)).andExpect(status().isForbidden());
+        mvc.perform(as(get("/api/ingestion/status"), APP_KEY, "ADMIN")).andExpect(status().isOk());
+    }
+
+    @Test
+    void pushesNeedAPushSourceKey() throws Exception {
+        mvc.perform(as(post("/api/ingestion/push"), APP_KEY, "ADMIN")
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"collections\": []}"))
+                .andExpect(status().isForbidden());
+        mvc.perform(as(get("/api/ingestion/push/-1"), PUSH_KEY, null)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void aPushSourceKeyOpensNothingElse() throws Exception {
+        mvc.perform(as(get("/api/ingestion/status"), PUSH_KEY, null)).andExpect(status().isForbidden());
+        mvc.perform(as(get("/api/zones"), PUSH_KEY, null)).andExpect(status().isForbidden());
+    }
+
+    private MockHttpServletRequestBuilder as(MockHttpServletRequestBuilder request, String apiKey, String role) {
+        request.header("X-API-KEY", apiKey);
+        if (role != null) request.header("Authorization", "Bearer " + jwtService.generateToken("user@veta.go.tz", role));
+        return request;
+    }
+
+    private static ApiKey key(String owner, String scope) {
+        ApiKey key = new ApiKey();
+        key.setOwner(owner);
+        key.setScope(scope);
+        return key;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.iga_veta.Service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveFetchWindowTest {
+
+    private final AdaptiveFetchWindow window = new AdaptiveFetchWindow(
+            Duration.ofHours(6), Duration.ofMinutes(5), Duration.ofDays(7), 20_000, Duration.ofSeconds(30));
+
+    @Test
+    void theWindowMovesTowardTheTargetRows() {
+        window.record(40_000, Duration.ofSeconds(5));
+        assertThat(window.current()).isEqualTo(Duration.ofHours(3));
+
+        window.record(10_000, Duration.ofSeconds(5));
+        assertThat(window.current()).isEqualTo(Duration.ofHours(6));
+
+        window.record(16_000, Duration.ofSeconds(5));
+        assertThat(window.current()).isEqualTo(Duration.ofMinutes(450));
+    }
+
+    @Test
+    void aSlowResponseShrinksTheWindowEvenUnderTheTargetRows() {
+        window.record(5_000, Duration.ofSeconds(60));
+
+        assertThat(window.current()).isEqualTo(Duration.ofHours(3));
+    }
+
+    @Test
+    void oneStepMovesAtMostTwofoldAndStaysWithinBounds() {
+        window.record(2_000_000, Duration.ofSeconds(1));
+        assertThat(window.current()).isEqualTo(Duration.ofHours(3));
+
+        for (int i = 0; i < 20; i++) window.record(2_000_000, Duration.ofSeconds(1));
+        assertThat(window.current()).isEqualTo(Duration.ofMinutes(5));
+
+        for (int i = 0; i < 20; i++) window.record(0, Duration.ofMillis(50));
+        assertThat(window.current()).isEqualTo(Duration.ofDays(7));
+    }
+}
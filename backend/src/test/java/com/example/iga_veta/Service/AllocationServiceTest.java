@@ -0,0 +1,138 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Model.Allocation;
+import com.example.iga_veta.Model.Centre;
+import com.example.iga_veta.Model.GfsCode;
+import com.example.iga_veta.Model.Payment;
+import com.example.iga_veta.Repository.AllocationRepository;
+import com.example.iga_veta.Repository.CentreRepository;
+import com.example.iga_veta.Repository.Gfs_codeRepository;
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** The summed-in-SQL allocation against the per-payment one, over the same payments. */
+class AllocationServiceTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 3, 1, 0, 0);
+    private static final LocalDateTime END = LocalDateTime.of(2026, 3, 31, 23, 59, 59);
+
+    private TestDatabase db;
+    private AllocationService service;
+
+    private Centre kipawa;
+    private Centre mwanza;
+    private Centre moshi;
+    private GfsCode shortCourses;
+    private GfsCode hostel;
+    private long customer;
+    private final List<Payment> payments = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase().withSchema();
+        long zone = db.zone("Dar");
+        kipawa = centre("Kipawa", zone);
+        mwanza = centre("Mwanza", zone);
+        moshi = centre("Moshi", zone);
+        customer = db.customer("Asha", kipawa.getId());
+        shortCourses = gfsCode("142301600001", "Short courses", "10");
+        hostel = gfsCode("140102", "Hostel", "25%");
+
+        CentreRepository centres = mock(CentreRepository.class);
+        when(centres.findAll()).thenReturn(List.of(kipawa, mwanza, moshi));
+        Gfs_codeRepository gfsCodes = mock(Gfs_codeRepository.class);
+        when(gfsCodes.findAllById(any())).thenReturn(List.of(shortCourses, hostel));
+        service = new AllocationService(mock(AllocationRepository.class), gfsCodes, db.jdbc, new JdbcTimeZone(""));
+        ReflectionTestUtils.setField(service, "centreRepository", centres);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (db != null) db.close();
+    }
+
+    @Test
+    void summedAllocationsMatchThePerPaymentOnes() {
+        LocalDateTime day = LocalDateTime.of(2026, 3, 10, 9, 0);
+        payment(kipawa, shortCourses, "PSV Driving Class", "Fee", "120.00", day);
+        payment(kipawa, shortCourses, "Basic driving", "Fee", "80.00", day.plusDays(1));
+        payment(kipawa, shortCourses, "Welding", "Short Course Tuition Fee", "300.00", day.plusDays(2));
+        payment(kipawa, shortCourses, "Welding", "short course tuition fee ", "50.00", day.plusDays(3));
+        payment(kipawa, shortCourses, "Welding", "Registration", "15.00", day);
+        payment(kipawa, shortCourses, null, null, "5.00", day.plusDays(4));
+        payment(kipawa, hostel, "Room", "Fee", "40.00", day);
+        payment(mwanza, hostel, "Room", "Fee", "60.00", END);                      // the end bound is inclusive
+        payment(mwanza, hostel, "Room", "Fee", "1000.00", END.plusSeconds(1));     // after the range
+        payment(mwanza, shortCourses, "Welding", "Short Course Tuition Fee", "700.00", START.minusSeconds(1));
+
+        List<Allocation> summed = service.allocateAllCentres(START, END);
+        List<Allocation> perPayment = service.allocateAllCentres(payments, START, END);
+
+        assertThat(summed).containsExactlyInAnyOrderElementsOf(perPayment);
+        assertThat(summed).extracting(Allocation::getGfs_code).containsExactlyInAnyOrder(
+                "142301600001-DRIVING", "142301600001-SHORT_COURSE_TUITION_FEE", "142301600001-OTHER_CONTRIBUTION",
+                "140102", "140102", "N/A");
+        assertThat(summed).filteredOn(a -> a.getCentre() == mwanza)
+                .extracting(Allocation::getOriginalAmount).containsExactly(new BigDecimal("60.00"));
+        assertThat(summed).filteredOn(a -> "142301600001-DRIVING".equals(a.getGfs_code()))
+                .extracting(Allocation::getOriginalAmount, Allocation::getDate)
+                .containsExactly(tuple(new BigDecimal("200.00"), day));
+    }
+
+    private void payment(Centre centre, GfsCode gfs, String description, String paymentType, String paid,
+                         LocalDateTime date) {
+        long paymentId = payments.size() + 1;
+        Long id = db.jdbc.queryForObject("""
+            insert into payments (payment_id, bill_id, customer_id, centre_id, gfs_code_id, payment_type,
+                                  description, total_billed, total_paid, payment_date)
+            values (?, 1, ?, ?, ?, ?, ?, ?, ?, ?)
+            returning id
+            """, Long.class, paymentId, customer, centre.getId(), gfs.getId(), paymentType,
+                description == null ? "" : description, new BigDecimal(paid), new BigDecimal(paid), Timestamp.valueOf(date));
+
+        Payment p = new Payment();
+        p.setId(id);
+        p.setPaymentId(paymentId);
+        p.setCentre(centre);
+        p.setGfsCode(gfs);
+        p.setDescription(description);
+        p.setPaymentType(paymentType);
+        p.setTotalPaid(new BigDecimal(paid));
+        p.setPaymentDate(date);
+        payments.add(p);
+    }
+
+    private Centre centre(String name, long zone) {
+        Centre centre = new Centre();
+        centre.setId(db.centre(name, zone));
+        centre.setName(name);
+        return centre;
+    }
+
+    private GfsCode gfsCode(String code, String description, String markup) {
+        long id = db.jdbc.queryForObject(
+                "insert into gfs_code (code, description, markup_percent) values (?, ?, ?) returning id", Long.class,
+                code, description, markup);
+        GfsCode gfs = new GfsCode();
+        gfs.setId(id);
+        gfs.setCode(code);
+        gfs.setDescription(description);
+        gfs.setMarkupPercent(markup);
+        return gfs;
+    }
+}
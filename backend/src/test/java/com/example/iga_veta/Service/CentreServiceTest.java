@@ -0,0 +1,149 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Model.Centre;
+import com.example.iga_veta.Model.Zone;
+import com.example.iga_veta.Repository.CentreRepository;
+import com.example.iga_veta.Repository.ZoneRepository;
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** A zone move racing payment writers, on the real payment tables; the JPA repositories are stubbed with SQL. */
+class CentreServiceTest {
+
+    private static final LocalDateTime MAR_1 = LocalDateTime.of(2026, 3, 1, 10, 0);
+
+    private TestDatabase db;
+    private CentreService centres;
+    private PaymentBulkWriter writer;
+    private TransactionTemplate tx;
+
+    private final CountDownLatch moved = new CountDownLatch(1);
+    private final CountDownLatch releaseMove = new CountDownLatch(1);
+
+    private long dar;
+    private long pwani;
+    private long kipawa;
+    private long customer;
+    private long gfs;
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase().withSchema();
+        JdbcTimeZone tz = new JdbcTimeZone("");
+        PaymentChangeSignal signal = mock(PaymentChangeSignal.class);
+        PaymentDailyAggService dailyAgg = new PaymentDailyAggService(db.jdbc, tz, db.transactionManager, signal);
+        PaymentPartitionService partitions = new PaymentPartitionService(db.jdbc, tz, db.transactionManager,
+                mock(PaymentZoneService.class));
+        partitions.init();
+        writer = new PaymentBulkWriter(db.jdbc, tz, db.transactionManager, mock(PaymentCube.class), mock(SummaryCache.class),
+                mock(FilterOptionsService.class), partitions, dailyAgg, signal);
+        tx = new TransactionTemplate(db.transactionManager);
+
+        dar = db.zone("Dar");
+        pwani = db.zone("Pwani");
+        kipawa = db.centre("Kipawa", dar);
+        customer = db.customer("Asha", kipawa);
+        gfs = db.gfsCode("140101", "Tuition");
+
+        CentreRepository centreRepository = mock(CentreRepository.class);
+        when(centreRepository.findById(kipawa)).thenReturn(Optional.of(new Centre()));
+        when(centreRepository.saveAndFlush(any())).thenAnswer(inv -> {
+            Centre centre = inv.getArgument(0);
+            db.jdbc.update("update centre set zone_id = ? where id = ?", centre.getZones().getId(), kipawa);
+            centre.setId(kipawa);
+            return centre;
+        });
+        ZoneRepository zoneRepository = mock(ZoneRepository.class);
+        Zone zone = new Zone();
+        zone.setId(pwani);
+        when(zoneRepository.findById(pwani)).thenReturn(Optional.of(zone));
+        // the last step inside the move's transaction: hold it open there
+        PaymentCube cube = mock(PaymentCube.class);
+        doAnswer(inv -> {
+            moved.countDown();
+            await(releaseMove);
+            return null;
+        }).when(cube).moveCentreAfterCommit(anyLong(), anyLong());
+
+        centres = new CentreService();
+        ReflectionTestUtils.setField(centres, "centreRepository", centreRepository);
+        ReflectionTestUtils.setField(centres, "zoneRepository", zoneRepository);
+        ReflectionTestUtils.setField(centres, "dimensionCacheService", mock(DimensionCacheService.class));
+        ReflectionTestUtils.setField(centres, "paymentDailyAggService", dailyAgg);
+        ReflectionTestUtils.setField(centres, "paymentCube", cube);
+        ReflectionTestUtils.setField(centres, "paymentZoneService", new PaymentZoneService(db.jdbc));
+        ReflectionTestUtils.setField(centres, "summaryCache", mock(SummaryCache.class));
+        ReflectionTestUtils.setField(centres, "filterOptionsService", mock(FilterOptionsService.class));
+        ReflectionTestUtils.setField(centres, "paymentChangeSignal", signal);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseMove.countDown();
+        if (db != null) db.close();
+    }
+
+    @Test
+    void aChunkWrittenDuringAZoneMoveLandsInTheNewZone() throws Exception {
+        write(1, "10.00");
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> move = pool.submit(() -> tx.execute(status -> centres.updateCentre(kipawa, new Centre(), pwani)));
+            assertThat(moved.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // payments and rollup are moved but not committed: the chunk waits for the commit
+            Future<?> chunk = pool.submit(() -> write(2, "25.00"));
+            Thread.sleep(300);
+            assertThat(chunk.isDone()).isFalse();
+            releaseMove.countDown();
+
+            move.get(10, TimeUnit.SECONDS);
+            chunk.get(10, TimeUnit.SECONDS);
+        } finally {
+            releaseMove.countDown();
+            pool.shutdownNow();
+        }
+
+        assertThat(db.jdbc.queryForList("select distinct zone_id from payments", Long.class)).containsExactly(pwani);
+        assertThat(db.jdbc.queryForList("select distinct zone_id from payments_daily_agg", Long.class))
+                .containsExactly(pwani);
+        assertThat(db.jdbc.queryForObject("select sum(total_paid) from payments_daily_agg", BigDecimal.class))
+                .isEqualByComparingTo("35.00");
+    }
+
+    private void write(long paymentId, String paid) {
+        BigDecimal amount = new BigDecimal(paid);
+        tx.execute(status -> writer.upsert(List.of(new PaymentBulkWriter.PaymentUpsert(paymentId, 1L, customer, kipawa, gfs,
+                "CN" + paymentId, "BANK", "", amount, amount, MAR_1, MAR_1))));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+
+/** A dump loaded through COPY and the set-based merge, then checked against what the live writer would store. */
+class CollectionBackfillServiceTest {
+
+    private static final LocalDateTime MAR_1 = LocalDateTime.of(2026, 3, 1, 10, 0);
+
+    @TempDir
+    Path dir;
+
+    private TestDatabase db;
+    private CollectionBackfillService backfill;
+    private PaymentBulkWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase().withSchema();
+        JdbcTimeZone tz = new JdbcTimeZone("");
+        PaymentChangeSignal signal = mock(PaymentChangeSignal.class);
+        PaymentDailyAggService dailyAgg = new PaymentDailyAggService(db.jdbc, tz, db.transactionManager, signal);
+        PaymentPartitionService partitions = new PaymentPartitionService(db.jdbc, tz, db.transactionManager,
+                mock(PaymentZoneService.class));
+        partitions.init();
+
+        // only its parsing helpers are used, and they keep no state
+        CollectionService collectionService = mock(CollectionService.class, CALLS_REAL_METHODS);
+        backfill = new CollectionBackfillService(collectionService, mock(DimensionCacheService.class), db.jdbc, tz,
+                db.dataSource, new ObjectMapper(), db.transactionManager, mock(PaymentCube.class), mock(SummaryCache.class),
+                mock(FilterOptionsService.class), partitions, dailyAgg, signal);
+        ReflectionTestUtils.setField(backfill, "backfillDir", dir.toString());
+        writer = new PaymentBulkWriter(db.jdbc, tz, db.transactionManager, mock(PaymentCube.class), mock(SummaryCache.class),
+                mock(FilterOptionsService.class), partitions, dailyAgg, signal);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (db != null) db.close();
+    }
+
+    @Test
+    void aCsvDumpIsGroupedAndMergedLikeTheLiveFeed() throws IOException {
+        Files.writeString(dir.resolve("march.csv"), """
+                paymentId,billId,customerName,gfsCode,centreName,description,amountBilled,amountPaid,paymentDate,paymentType
+                1,100,Asha,142201,Kipawa,Tuition,60,60,2026-03-01T10:00:00,BANK
+                1,100,asha,142201,kipawa,Tuition,40.5,40.5,2026-03-01T10:00:00,BANK
+                2,200,Juma,142201,Kipawa,"Welding, level ""2""
+                evening class",25,20,2026-03-02T09:30:00,MOBILE
+                ,300,Nobody,142201,Kipawa,No id,5,5,2026-03-02T09:30:00,BANK
+                """);
+
+        CollectionBackfillService.BackfillResult first = backfill.backfill("march.csv");
+
+        assertThat(first.linesRead()).isEqualTo(4);
+        assertThat(first.skippedNoPaymentId()).isEqualTo(1);
+        assertThat(first.groups()).isEqualTo(2);
+        assertThat(first.centresCreated()).isEqualTo(1);
+        assertThat(first.customersCreated()).isEqualTo(2);
+        assertThat(first.inserted()).isEqualTo(2);
+        assertThat(db.jdbc.queryForObject("select total_paid from payments where payment_id = 1", BigDecimal.class))
+                .isEqualByComparingTo("100.50");
+        assertThat(db.jdbc.queryForObject("select description from payments where payment_id = 2", String.class))
+                .isEqualTo("Welding, level \"2\"\nevening class");
+        assertThat(db.jdbc.queryForObject("select sum(total_paid) from payments_daily_agg", BigDecimal.class))
+                .isEqualByComparingTo("120.50");
+        assertThat(db.jdbc.queryForObject("select count(*) from payment_cube_log where sign = 0", Long.class)).isEqualTo(1L);
+
+        // loading it again changes nothing, and neither does the live feed sending the same payment
+        CollectionBackfillService.BackfillResult again = backfill.backfill("march.csv");
+        assertThat(again.inserted() + again.updated()).isZero();
+        assertThat(again.unchanged()).isEqualTo(2);
+        assertThat(live(1, 100, "Tuition", "BANK", "100.5", MAR_1)).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 0, 1));
+    }
+
+    private PaymentBulkWriter.UpsertResult live(long paymentId, long billId, String description, String type, String paid,
+                                                LocalDateTime date) {
+        Long centre = db.jdbc.queryForObject("select id from centre where name = 'Kipawa'", Long.class);
+        Long customer = db.jdbc.queryForObject("select id from customer where name = 'Asha'", Long.class);
+        Long gfs = db.jdbc.queryForObject("select id from gfs_code where code = '142201'", Long.class);
+        BigDecimal amount = new BigDecimal(paid);
+        PaymentBulkWriter.PaymentUpsert row = new PaymentBulkWriter.PaymentUpsert(paymentId, billId, customer, centre, gfs,
+                null, type, description, amount, amount, date, date);
+        return new TransactionTemplate(db.transactionManager).execute(status -> writer.upsert(List.of(row)));
+    }
+}
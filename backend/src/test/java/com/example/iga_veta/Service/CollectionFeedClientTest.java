@@ -0,0 +1,105 @@
+package com.example.iga_veta.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/** The breaker against a local upstream: what counts as a failure of the feed and what does not. */
+class CollectionFeedClientTest {
+
+    private HttpServer upstream;
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final AtomicInteger hits = new AtomicInteger();
+    private String url;
+
+    private CollectionFeedClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        upstream.createContext("/collections", exchange -> {
+            hits.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = "{\"collections\":[]}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status.get(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        upstream.start();
+        url = "http://127.0.0.1:" + upstream.getAddress().getPort() + "/collections";
+
+        client = new CollectionFeedClient(new ObjectMapper(), 2);
+        ReflectionTestUtils.setField(client, "requestTimeoutSeconds", 5L);
+        ReflectionTestUtils.setField(client, "readIdleTimeoutSeconds", 5L);
+        ReflectionTestUtils.setField(client, "maxAttempts", 1);
+        ReflectionTestUtils.setField(client, "failureThreshold", 2);
+        ReflectionTestUtils.setField(client, "openSeconds", 60L);
+        ReflectionTestUtils.setField(client, "maxOpenSeconds", 60L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdown();
+        upstream.stop(0);
+    }
+
+    @Test
+    void serverErrorsOpenTheCircuitOfThatSourceOnly() {
+        status.set(503);
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> fetch("feed-a")).isInstanceOf(UncheckedIOException.class);
+        }
+
+        assertThat(client.isAvailable("feed-a")).isFalse();
+        assertThatThrownBy(() -> fetch("feed-a")).isInstanceOf(CollectionFeedClient.CircuitOpenException.class);
+        assertThat(hits.get()).isEqualTo(2);
+
+        status.set(200);
+        assertThat(client.isAvailable("feed-b")).isTrue();
+        assertThat(fetch("feed-b")).isEqualTo("{\"collections\":[]}");
+    }
+
+    @Test
+    void unreadableBodiesOpenTheCircuit() {
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> client.post("feed-a", url, Map.of(), body -> {
+                throw new IOException("unexpected token");
+            })).isInstanceOf(UncheckedIOException.class);
+        }
+
+        assertThat(client.isAvailable("feed-a")).isFalse();
+    }
+
+    @Test
+    void failuresOfTheConsumerDoNotOpenTheCircuit() {
+        for (int i = 0; i < 5; i++) {
+            assertThatThrownBy(() -> client.post("feed-a", url, Map.of(), body -> {
+                body.readAllBytes();
+                throw new IllegalStateException("chunk write failed");
+            })).hasMessage("chunk write failed");
+        }
+
+        assertThat(client.isAvailable("feed-a")).isTrue();
+        assertThat(fetch("feed-a")).isEqualTo("{\"collections\":[]}");
+        assertThat(hits.get()).isEqualTo(6);
+    }
+
+    private String fetch(String source) {
+        return client.post(source, url, Map.of(), body -> new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+}
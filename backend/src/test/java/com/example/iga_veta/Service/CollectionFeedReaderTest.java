@@ -0,0 +1,145 @@
+package com.example.iga_veta.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CollectionFeedReaderTest {
+
+    private final CollectionFeedReader reader = new CollectionFeedReader(new ObjectMapper());
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(reader, "maxTrackedPayments", 1_000_000);
+    }
+
+    @Test
+    void adjacentLinesOfOnePaymentStayInOneChunk() throws IOException {
+        List<Chunk> chunks = read(2, line(1, "10"), line(2, "20"), line(2, "5"), line(3, "7"));
+
+        assertThat(chunks).hasSize(2);
+        assertThat(paymentIds(chunks.get(0).rows())).containsExactly("1", "2", "2");
+        assertThat(paymentIds(chunks.get(1).rows())).containsExactly("3");
+        assertThat(chunks).allSatisfy(c -> assertThat(c.continued()).isEmpty());
+    }
+
+    @Test
+    void laterLinesOfAPaymentAreMarkedAsItsContinuation() throws IOException {
+        // payment 1 comes back after the chunk holding its first line was handed out
+        List<Chunk> chunks = read(2,
+                line(1, "10"), line(2, "20"), line(3, "30"), line(4, "40"), line(1, "5"), line(5, "1"));
+
+        assertThat(chunks).hasSize(3);
+        // only the new line goes out again, nothing is replayed
+        assertThat(paymentIds(chunks.get(2).rows())).containsExactly("1", "5");
+        assertThat(chunks.get(2).rows().get(0).get("amountPaid")).isEqualTo("5");
+        assertThat(chunks.get(2).continued()).containsExactly(1L);
+        assertThat(chunks.get(1).continued()).isEmpty();
+    }
+
+    @Test
+    void retainedStateStaysBoundedOnALargeResponse() throws IOException {
+        // 150k payments, each sent as two lines half a response apart
+        int payments = 150_000;
+        int chunkSize = 1_000;
+        List<Integer> sizes = new ArrayList<>();
+        long[] continuedRows = new long[1];
+
+        CollectionFeedReader.FeedSummary summary = reader.read(syntheticFeed(payments, 2), chunkSize, (rows, last, continued) -> {
+            sizes.add(rows.size());
+            continuedRows[0] += continued.size();
+        });
+
+        assertThat(summary.rows()).isEqualTo(2L * payments);
+        assertThat(sizes).allSatisfy(size -> assertThat(size).isLessThanOrEqualTo(chunkSize));
+        assertThat(continuedRows[0]).isEqualTo(payments);
+        // one long per paymentId seen before the last chunk, no lines
+        assertThat(summary.trackedPayments()).isLessThanOrEqualTo(payments);
+    }
+
+    @Test
+    void aFullPaymentIdSetBuffersTheRestOfTheResponse() throws IOException {
+        ReflectionTestUtils.setField(reader, "maxTrackedPayments", 10_000);
+        List<Integer> sizes = new ArrayList<>();
+
+        CollectionFeedReader.FeedSummary summary = reader.read(syntheticFeed(50_000, 1), 1_000,
+                (rows, last, continued) -> sizes.add(rows.size()));
+
+        assertThat(summary.trackedPayments()).isLessThanOrEqualTo(10_000);
+        assertThat(sizes).hasSize(11);
+        assertThat(sizes.get(10)).isEqualTo(40_000);
+    }
+
+    @Test
+    void summaryCountsFeedRowsOnly() throws IOException {
+        String json = feed(line(1, "1"), line(2, "2"), line(1, "3"));
+        CollectionFeedReader.FeedSummary summary = reader.read(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), 1, (rows, last, continued) -> {});
+
+        assertThat(summary.rows()).isEqualTo(3);
+        assertThat(summary.chunks()).isEqualTo(3);
+        assertThat(summary.lastFetchedDate()).isEqualTo("2026-01-01T00:00:00");
+    }
+
+    private record Chunk(List<Map<String, String>> rows, Set<Long> continued) {}
+
+    private List<Chunk> read(int chunkSize, String... lines) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        reader.read(new ByteArrayInputStream(feed(lines).getBytes(StandardCharsets.UTF_8)), chunkSize,
+                (rows, last, continued) -> chunks.add(new Chunk(rows, continued)));
+        return chunks;
+    }
+
+    /** {@code payments} paymentIds, sent {@code passes} times over in order; generated while it is read. */
+    private static InputStream syntheticFeed(int payments, int passes) {
+        Enumeration<InputStream> parts = new Enumeration<>() {
+            private int next = -1;
+            private final int total = payments * passes;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next <= total;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String part;
+                if (next < 0) part = "{\"lastFetchedDate\":\"2026-01-01T00:00:00\",\"collections\":[";
+                else if (next == total) part = "]}";
+                else part = (next > 0 ? "," : "") + line(next % payments + 1, "1.00");
+                next++;
+                return new ByteArrayInputStream(part.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        return new SequenceInputStream(parts);
+    }
+
+    private static List<String> paymentIds(List<Map<String, String>> chunk) {
+        return chunk.stream().map(r -> r.get("paymentId")).toList();
+    }
+
+    private static String feed(String... lines) {
+        return "{\"lastFetchedDate\":\"2026-01-01T00:00:00\",\"collections\":[" + String.join(",", lines) + "]}";
+    }
+
+    private static String line(long paymentId, String amountPaid) {
+        return "{\"paymentId\":" + paymentId + ",\"billId\":" + (paymentId * 10)
+                + ",\"centreName\":\"Centre\",\"customerName\":\"Customer\",\"gfsCode\":\"140202\""
+                + ",\"amountBilled\":\"" + amountPaid + "\",\"amountPaid\":\"" + amountPaid + "\""
+                + ",\"paymentDate\":\"2026-01-01T10:00:00\"}";
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Model.CollectionPushBatch;
+import com.example.iga_veta.Repository.CollectionPushBatchRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The applier on the real batch table. The repository is stubbed with SQL; its claim query is
+ * the one declared on {@link CollectionPushBatchRepository}, run as is.
+ */
+class CollectionPushServiceTest {
+
+    private static final BeanPropertyRowMapper<CollectionPushBatch> BATCH = new BeanPropertyRowMapper<>(CollectionPushBatch.class);
+
+    private TestDatabase db;
+    private CollectionPushService push;
+    private final List<String> applied = new ArrayList<>();
+    private boolean failNext;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = new TestDatabase().withSchema();
+        String claimSql = CollectionPushBatchRepository.class.getMethod("claimNextPending", LocalDateTime.class)
+                .getAnnotation(Query.class).value().replace(":now", "?");
+
+        CollectionPushBatchRepository batches = mock(CollectionPushBatchRepository.class);
+        when(batches.claimNextPending(any())).thenAnswer(inv ->
+                db.jdbc.query(claimSql, BATCH, inv.<LocalDateTime>getArgument(0)).stream().findFirst());
+        when(batches.findById(anyLong())).thenAnswer(inv ->
+                db.jdbc.query("select * from collections_push_batch where id = ?", BATCH, inv.<Long>getArgument(0))
+                        .stream().findFirst());
+        when(batches.findBySourceAndIdempotencyKey(anyString(), anyString())).thenReturn(Optional.empty());
+        when(batches.save(any())).thenAnswer(inv -> save(inv.getArgument(0)));
+
+        CollectionService collectionService = mock(CollectionService.class);
+        doAnswer(inv -> {
+            List<Map<String, String>> rows = inv.getArgument(1);
+            String batch = inv.<String>getArgument(0) + "#" + rows.get(0).get("paymentId");
+            if (failNext) {
+                failNext = false;
+                throw new IllegalStateException("batch " + batch + " failed");
+            }
+            applied.add(batch);
+            return null;
+        }).when(collectionService).processChunk(anyString(), anyList(), any());
+
+        push = new CollectionPushService(batches, collectionService, new ObjectMapper(), db.jdbc, db.transactionManager);
+        ReflectionTestUtils.setField(push, "maxBatchRows", 100);
+        ReflectionTestUtils.setField(push, "maxAttempts", 5);
+        ReflectionTestUtils.setField(push, "allowedOwners", "");
+        // batches are only stored on enqueue; drain() stands in for the applier thread
+        ReflectionTestUtils.setField(push, "draining", new AtomicBoolean(true));
+    }
+
+    @AfterEach
+    void tearDown() {
+        push.shutdown();
+        if (db != null) db.close();
+    }
+
+    @Test
+    void aRetryingBatchHoldsBackTheNewerBatchesOfItsSourceOnly() {
+        enqueue("relay-dar", 1);
+        enqueue("relay-dar", 2);
+        enqueue("relay-mwanza", 3);
+        enqueue("relay-dar", 4);
+
+        failNext = true;
+        drain();
+
+        assertThat(applied).containsExactly("push:relay-mwanza#3");
+        assertThat(db.jdbc.queryForList("select status from collections_push_batch order by id", String.class))
+                .containsExactly("PENDING", "PENDING", "APPLIED", "PENDING");
+
+        // its backoff is over
+        db.jdbc.update("update collections_push_batch set next_attempt_at = next_attempt_at - interval '1 hour'");
+        drain();
+
+        assertThat(applied).containsExactly("push:relay-mwanza#3", "push:relay-dar#1", "push:relay-dar#2", "push:relay-dar#4");
+        assertThat(db.jdbc.queryForList("select attempts from collections_push_batch order by id", Integer.class))
+                .containsExactly(2, 1, 1, 1);
+    }
+
+    private void enqueue(String owner, long paymentId) {
+        push.enqueue(owner, null, List.of(Map.of("paymentId", paymentId, "centreName", "Kipawa")));
+    }
+
+    private void drain() {
+        while (Boolean.TRUE.equals(ReflectionTestUtils.invokeMethod(push, "applyNext"))) {
+            // one batch per call, as on the applier thread
+        }
+    }
+
+    private CollectionPushBatch save(CollectionPushBatch b) {
+        if (b.getId() == null) {
+            b.setId(db.jdbc.queryForObject("""
+                insert into collections_push_batch (source, idempotency_key, payload, row_count, status, attempts,
+                                                    received_at, next_attempt_at)
+                values (?, ?, ?, ?, ?, ?, ?, ?)
+                returning id
+                """, Long.class, b.getSource(), b.getIdempotencyKey(), b.getPayload(), b.getRowCount(), b.getStatus(),
+                    b.getAttempts(), b.getReceivedAt(), b.getNextAttemptAt()));
+        } else {
+            db.jdbc.update("""
+                update collections_push_batch
+                set status = ?, attempts = ?, next_attempt_at = ?, applied_at = ?, last_error = ?
+                where id = ?
+                """, b.getStatus(), b.getAttempts(), b.getNextAttemptAt(), b.getAppliedAt(), b.getLastError(), b.getId());
+        }
+        return b;
+    }
+}
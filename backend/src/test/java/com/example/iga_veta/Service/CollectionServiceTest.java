@@ -0,0 +1,158 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Configuration.CollectionSourceProperties;
+import com.example.iga_veta.Model.IngestionCheckpoint;
+import com.example.iga_veta.Repository.CollectionRepository;
+import com.example.iga_veta.Repository.IngestionCheckpointRepository;
+import com.example.iga_veta.Repository.PaymentRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Ingestion runs against a canned feed. The database side is stubbed: checkpoints live in a
+ * map and the writer only counts, so these tests are about what the run commits and when.
+ */
+class CollectionServiceTest {
+
+    private static final LocalDateTime MAR_1 = LocalDateTime.of(2026, 3, 1, 10, 0);
+
+    private final Map<String, IngestionCheckpoint> checkpoints = new HashMap<>();
+    private final List<String> cursorsSent = new ArrayList<>();
+    private final List<Integer> failingWrites = new ArrayList<>();
+    private int writes;
+
+    private CollectionService service;
+    private CollectionSourceProperties.Source source;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        IngestionCheckpointRepository checkpointRepository = mock(IngestionCheckpointRepository.class);
+        when(checkpointRepository.findById(anyString()))
+                .thenAnswer(inv -> Optional.ofNullable(checkpoints.get(inv.<String>getArgument(0))));
+        when(checkpointRepository.save(any())).thenAnswer(inv -> {
+            IngestionCheckpoint cp = inv.getArgument(0);
+            checkpoints.put(cp.getSource(), cp);
+            return cp;
+        });
+        PaymentRepository paymentRepository = mock(PaymentRepository.class);
+        when(paymentRepository.findMaxPaymentDate()).thenReturn(Optional.of(MAR_1.minusDays(1)));
+        IngestionCheckpointService checkpointService = new IngestionCheckpointService(checkpointRepository, paymentRepository);
+        ReflectionTestUtils.setField(checkpointService, "overlapMinutes", 5L);
+
+        DimensionCacheService dimensions = mock(DimensionCacheService.class);
+        when(dimensions.resolveCentres(any())).thenAnswer(inv -> {
+            Map<String, DimensionCacheService.CentreRef> out = new HashMap<>();
+            for (String name : (Collection<String>) inv.getArgument(0)) {
+                out.put(name.toLowerCase(Locale.ROOT), new DimensionCacheService.CentreRef(1L, name, 1L));
+            }
+            return out;
+        });
+        when(dimensions.resolveGfsCodes(any())).thenReturn(Map.of());
+        when(dimensions.resolveCustomers(any())).thenAnswer(inv -> {
+            Map<String, Long> out = new HashMap<>();
+            for (DimensionCacheService.CustomerKey k : (Collection<DimensionCacheService.CustomerKey>) inv.getArgument(0)) {
+                out.put(k.cacheKey(), 1L);
+            }
+            return out;
+        });
+
+        PaymentBulkWriter writer = mock(PaymentBulkWriter.class);
+        when(writer.upsert(any())).thenAnswer(inv -> {
+            if (failingWrites.contains(++writes)) throw new IllegalStateException("write " + writes + " failed");
+            return new PaymentBulkWriter.UpsertResult(((Collection<?>) inv.getArgument(0)).size(), 0, 0);
+        });
+
+        CollectionFeedReader reader = new CollectionFeedReader(new ObjectMapper());
+        ReflectionTestUtils.setField(reader, "maxTrackedPayments", 1_000);
+        CollectionFeedClient feedClient = mock(CollectionFeedClient.class);
+        when(feedClient.post(anyString(), anyString(), anyMap(), any())).thenAnswer(inv -> {
+            cursorsSent.add((String) inv.<Map<String, Object>>getArgument(2).get("lastFetchedDate"));
+            CollectionFeedClient.BodyReader<?> body = inv.getArgument(3);
+            return body.read(new ByteArrayInputStream(feed(6).getBytes(StandardCharsets.UTF_8)));
+        });
+
+        service = new CollectionService(mock(CollectionRepository.class), paymentRepository, mock(RestTemplate.class),
+                reader, feedClient, writer, dimensions, checkpointService, mock(PlatformTransactionManager.class),
+                mock(IngestionPipeline.class), new CollectionSourceProperties(), 360, 5, 10080, 20000, 30);
+        ReflectionTestUtils.setField(service, "streaming", true);
+        ReflectionTestUtils.setField(service, "chunkSize", 2);
+        ReflectionTestUtils.setField(service, "lookupBatchSize", 1000);
+
+        source = new CollectionSourceProperties.Source();
+        source.setName("feed-a");
+        source.setUrl("http://upstream.invalid/collections");
+    }
+
+    @Test
+    void aFailedChunkLeavesTheCheckpointAfterTheLastCommittedOne() {
+        failingWrites.add(2);
+
+        assertThatThrownBy(() -> service.fetchDataFromApi(source)).hasMessageContaining("write 2 failed");
+
+        IngestionCheckpoint cp = checkpoints.get("feed-a");
+        assertThat(cp.getStatus()).isEqualTo(IngestionCheckpointService.STATUS_FAILED);
+        assertThat(cp.getLastFetchedDate()).isEqualTo(MAR_1.plusMinutes(2));
+        assertThat(cp.getRowsCommitted()).isEqualTo(2L);
+        assertThat(cp.getLastError()).contains("write 2 failed");
+
+        // the next run starts after the first chunk, less the overlap, and runs to the end
+        CollectionService.RunSummary summary = service.fetchDataFromApi(source);
+
+        assertThat(cursorsSent).containsExactly("2026-02-28T09:55:00", "2026-03-01T09:57:00");
+        assertThat(summary.chunks()).isEqualTo(3L);
+        assertThat(cp.getStatus()).isEqualTo(IngestionCheckpointService.STATUS_COMPLETED);
+        assertThat(cp.getLastFetchedDate()).isEqualTo(MAR_1.plusMinutes(6));
+        assertThat(cp.getRowsCommitted()).isEqualTo(8L);
+    }
+
+    @Test
+    void eachSourceKeepsItsOwnCheckpoint() {
+        CollectionSourceProperties.Source other = new CollectionSourceProperties.Source();
+        other.setName("feed-b");
+        other.setUrl("http://other.invalid/collections");
+        failingWrites.add(1);
+
+        assertThatThrownBy(() -> service.fetchDataFromApi(source)).hasMessageContaining("write 1 failed");
+        service.fetchDataFromApi(other);
+
+        assertThat(checkpoints.get("feed-a").getStatus()).isEqualTo(IngestionCheckpointService.STATUS_FAILED);
+        assertThat(checkpoints.get("feed-a").getRowsCommitted()).isZero();
+        assertThat(checkpoints.get("feed-b").getStatus()).isEqualTo(IngestionCheckpointService.STATUS_COMPLETED);
+        assertThat(checkpoints.get("feed-b").getLastFetchedDate()).isEqualTo(MAR_1.plusMinutes(6));
+    }
+
+    /** Payments 1..n, one line each, a minute apart from 10:01. */
+    private static String feed(int payments) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= payments; i++) {
+            lines.add("{\"paymentId\":" + i + ",\"billId\":" + (i * 10)
+                    + ",\"centreName\":\"Kipawa\",\"customerName\":\"Asha\",\"amountBilled\":\"10\",\"amountPaid\":\"10\""
+                    + ",\"paymentDate\":\"" + MAR_1.plusMinutes(i) + ":00\"}");
+        }
+        return "{\"lastFetchedDate\":\"2026-03-01T11:00:00\",\"collections\":[" + String.join(",", lines) + "]}";
+    }
+}
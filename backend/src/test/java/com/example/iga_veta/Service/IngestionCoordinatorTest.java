@@ -0,0 +1,125 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Configuration.CollectionSourceProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** Two nodes sharing one database, each with a run in flight; the cluster lock is the real advisory lock. */
+class IngestionCoordinatorTest {
+
+    private TestDatabase db;
+    private CollectionService collectionService;
+    private IngestionCoordinator node;
+    private IngestionCoordinator otherNode;
+    private String source;
+    private final CollectionSourceProperties properties = new CollectionSourceProperties();
+
+    private final CountDownLatch running = new CountDownLatch(1);
+    private final CountDownLatch releaseRun = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase();
+        // advisory locks are database-wide: a source of its own keeps parallel test runs apart
+        source = "feed-" + db.schema;
+        properties.setSources(new ArrayList<>(List.of(source(source))));
+
+        collectionService = mock(CollectionService.class);
+        when(collectionService.fetchDataFromApi(any())).thenAnswer(inv -> {
+            running.countDown();
+            releaseRun.await(10, TimeUnit.SECONDS);
+            return new CollectionService.RunSummary(source, 1, 1, 1, 0, 0, null);
+        });
+        node = new IngestionCoordinator(collectionService, mock(IngestionCheckpointService.class), db.dataSource,
+                mock(CollectionFeedClient.class), properties);
+        otherNode = new IngestionCoordinator(collectionService, mock(IngestionCheckpointService.class), db.dataSource,
+                mock(CollectionFeedClient.class), properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseRun.countDown();
+        node.shutdown();
+        otherNode.shutdown();
+        if (db != null) db.close();
+    }
+
+    @Test
+    void aSecondRunOfASourceJoinsHereAndIsRejectedElsewhere() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<IngestionCoordinator.RunResult> scheduled = pool.submit(() -> node.runNow(source, "scheduled"));
+            assertThat(running.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // same node: waits for the run in flight instead of starting one
+            Future<IngestionCoordinator.RunResult> manual = pool.submit(() -> node.runNow(source, "manual"));
+            // another node: the advisory lock is taken
+            IngestionCoordinator.RunResult elsewhere = otherNode.runNow(source, "scheduled");
+            assertThat(elsewhere.outcome()).isEqualTo(IngestionCoordinator.Outcome.SKIPPED_LOCKED);
+            Thread.sleep(200);
+            assertThat(manual.isDone()).isFalse();
+            releaseRun.countDown();
+
+            IngestionCoordinator.RunResult first = scheduled.get(10, TimeUnit.SECONDS);
+            assertThat(first.outcome()).isEqualTo(IngestionCoordinator.Outcome.SUCCESS);
+            assertThat(manual.get(10, TimeUnit.SECONDS)).isSameAs(first);
+        } finally {
+            releaseRun.countDown();
+            pool.shutdownNow();
+        }
+        verify(collectionService, times(1)).fetchDataFromApi(any());
+
+        // the lock went with the run: the other node can take the next one
+        assertThat(otherNode.runNow(source, "scheduled").outcome()).isEqualTo(IngestionCoordinator.Outcome.SUCCESS);
+    }
+
+    @Test
+    void aFailingSourceDoesNotStopTheOthers() {
+        String other = "other-" + db.schema;
+        properties.getSources().add(source(other));
+        doAnswer(inv -> new CollectionService.RunSummary(source, 2, 2, 2, 0, 0, null))
+                .when(collectionService).fetchDataFromApi(argThat(s -> s != null && source.equals(s.getName())));
+        doThrow(new IllegalStateException("upstream sent garbage"))
+                .when(collectionService).fetchDataFromApi(argThat(s -> s != null && other.equals(s.getName())));
+
+        List<IngestionCoordinator.RunResult> results = node.runAll("manual");
+
+        assertThat(results).extracting(IngestionCoordinator.RunResult::source, IngestionCoordinator.RunResult::outcome)
+                .containsExactly(
+                        tuple(source, IngestionCoordinator.Outcome.SUCCESS),
+                        tuple(other, IngestionCoordinator.Outcome.FAILED));
+        IngestionCoordinator.RunResult folded = node.runNow("manual");
+        assertThat(folded.outcome()).isEqualTo(IngestionCoordinator.Outcome.FAILED);
+        assertThat(folded.error()).isEqualTo(other + ": upstream sent garbage");
+
+        // and the lock of the failed source was released with its run
+        assertThat(otherNode.runNow(other, "scheduled").error()).isEqualTo("upstream sent garbage");
+    }
+
+    private static CollectionSourceProperties.Source source(String name) {
+        CollectionSourceProperties.Source src = new CollectionSourceProperties.Source();
+        src.setName(name);
+        src.setUrl("http://upstream.invalid/collections");
+        return src;
+    }
+}
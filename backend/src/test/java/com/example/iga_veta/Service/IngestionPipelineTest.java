@@ -0,0 +1,70 @@
+package com.example.iga_veta.Service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IngestionPipelineTest {
+
+    private IngestionPipeline pipeline;
+    private final List<Integer> resolved = new CopyOnWriteArrayList<>();
+    private final List<Integer> written = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        pipeline = new IngestionPipeline();
+        ReflectionTestUtils.setField(pipeline, "parseThreads", 2);
+        ReflectionTestUtils.setField(pipeline, "resolveThreads", 3);
+        ReflectionTestUtils.setField(pipeline, "queueCapacity", 4);
+    }
+
+    @Test
+    void chunksAreWrittenInFetchOrderWhenResolvedOutOfOrder() {
+        // the first chunk resolves only after the next two have
+        CountDownLatch laterResolved = new CountDownLatch(2);
+
+        pipeline.run("feed-a", chunks(8), chunk -> chunk, chunk -> {
+            if (chunk == 0) await(laterResolved);
+            resolved.add(chunk);
+            if (chunk == 1 || chunk == 2) laterResolved.countDown();
+            return chunk;
+        }, written::add);
+
+        assertThat(resolved.indexOf(0)).isGreaterThan(resolved.indexOf(2));
+        assertThat(written).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+    }
+
+    @Test
+    void aFailedChunkStopsTheWritesAfterIt() {
+        assertThatThrownBy(() -> pipeline.run("feed-a", chunks(8), chunk -> chunk, chunk -> {
+            if (chunk == 3) throw new IllegalStateException("chunk 3 unresolvable");
+            return chunk;
+        }, written::add)).hasMessage("chunk 3 unresolvable");
+
+        assertThat(written).doesNotContain(3, 4, 5, 6, 7);
+        assertThat(written).isEqualTo(IntStream.range(0, written.size()).boxed().toList());
+    }
+
+    private static IngestionPipeline.Feed<Integer> chunks(int n) {
+        return emit -> {
+            for (int i = 0; i < n; i++) emit.emit(i, 10);
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class PaymentBulkWriterTest {
+
+    private static final LocalDateTime MAR_1 = LocalDateTime.of(2026, 3, 1, 10, 0);
+
+    /** Rollup rows that differ from the rollup recomputed from payments; empty when exact. */
+    private static final String ROLLUP_MISMATCH_SQL = """
+        with fresh as (
+            select p.payment_date::date as day, p.centre_id, c.zone_id, coalesce(p.gfs_code_id, 0) as gfs,
+                   coalesce(p.payment_type, 'UNKNOWN') as type,
+                   sum(p.total_billed) as billed, sum(p.total_paid) as paid, count(*) as cnt
+            from payments p
+            join centre c on c.id = p.centre_id
+            group by 1, 2, 3, 4, 5
+        ),
+        kept as (
+            select day, centre_id, zone_id, coalesce(gfs_code_id, 0), payment_type, total_billed, total_paid, tx_count
+            from payments_daily_agg
+            where tx_count <> 0 or total_billed <> 0 or total_paid <> 0
+        )
+        select count(*) from (
+            (select * from fresh except select * from kept)
+            union all
+            (select * from kept except select * from fresh)
+        ) d
+    """;
+
+    private TestDatabase db;
+    private PaymentPartitionService partitions;
+    private PaymentBulkWriter writer;
+    private TransactionTemplate tx;
+
+    private long centreA;
+    private long centreB;
+    private long customer;
+    private long gfs;
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase().withSchema();
+        JdbcTimeZone tz = new JdbcTimeZone("");
+        PaymentChangeSignal signal = mock(PaymentChangeSignal.class);
+
+        PaymentDailyAggService dailyAgg = new PaymentDailyAggService(db.jdbc, tz, db.transactionManager, signal);
+        dailyAgg.init();
+        partitions = new PaymentPartitionService(db.jdbc, tz, db.transactionManager, mock(PaymentZoneService.class));
+        partitions.init();
+        writer = new PaymentBulkWriter(db.jdbc, tz, db.transactionManager, mock(PaymentCube.class), mock(SummaryCache.class),
+                mock(FilterOptionsService.class), partitions, dailyAgg, signal);
+        ReflectionTestUtils.setField(writer, "writeBatchSize", 2);
+        tx = new TransactionTemplate(db.transactionManager);
+
+        long zone = db.zone("Dar");
+        centreA = db.centre("Kipawa", zone);
+        centreB = db.centre("Chang'ombe", db.zone("Pwani"));
+        customer = db.customer("Asha", centreA);
+        gfs = db.gfsCode("140101", "Tuition");
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown();
+        if (db != null) db.close();
+    }
+
+    @Test
+    void changedRowsMoveTheRollupByTheirDifference() {
+        PaymentBulkWriter.UpsertResult first = write(
+                row(1, 1, centreA, "100.00", MAR_1), row(1, 2, centreA, "50.00", MAR_1), row(2, 1, centreA, "30.00", MAR_1));
+        assertThat(first).isEqualTo(new PaymentBulkWriter.UpsertResult(3, 0, 0));
+
+        // resent unchanged: no rewrite, no delta
+        PaymentBulkWriter.UpsertResult again = write(
+                row(1, 1, centreA, "100.00", MAR_1), row(1, 2, centreA, "50.00", MAR_1), row(2, 1, centreA, "30.00", MAR_1));
+        assertThat(again).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 0, 3));
+
+        // new amount and day, new centre (and so zone), one new line
+        PaymentBulkWriter.UpsertResult changed = write(
+                row(1, 1, centreA, "120.00", MAR_1.plusDays(1)), row(2, 1, centreB, "30.00", MAR_1), row(3, 1, centreB, "5.00", MAR_1));
+        assertThat(changed).isEqualTo(new PaymentBulkWriter.UpsertResult(1, 2, 0));
+
+        assertThat(rollupMismatches()).isZero();
+        assertThat(db.jdbc.queryForObject("select sum(tx_count) from payments_daily_agg", Long.class)).isEqualTo(4L);
+        assertThat(db.jdbc.queryForObject("select sum(total_paid) from payments_daily_agg", BigDecimal.class))
+                .isEqualByComparingTo("205.00");
+        // the cube log nets out to the same rows
+        assertThat(db.jdbc.queryForObject("select sum(sign) from payment_cube_log", Long.class)).isEqualTo(4L);
+        assertThat(db.jdbc.queryForObject("select sum(sign * total_paid) from payment_cube_log", BigDecimal.class))
+                .isEqualByComparingTo("205.00");
+    }
+
+    @Test
+    void anUnchangedRowIsNotRewritten() {
+        write(row(1, 1, centreA, "10.00", MAR_1));
+        String before = db.jdbc.queryForObject(
+                "select ctid::text || '/' || xmin::text || '/' || updated_at::text from payments where payment_id = 1", String.class);
+
+        // same content at another scale and a later fetch time
+        BigDecimal ten = new BigDecimal("10");
+        PaymentBulkWriter.UpsertResult resent = write(new PaymentBulkWriter.PaymentUpsert(1L, 1L, customer, centreA, gfs,
+                "CN1", "BANK", "", ten, ten, MAR_1, MAR_1.plusHours(1)));
+
+        assertThat(resent).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 0, 1));
+        assertThat(db.jdbc.queryForObject(
+                "select ctid::text || '/' || xmin::text || '/' || updated_at::text from payments where payment_id = 1", String.class))
+                .isEqualTo(before);
+        assertThat(db.jdbc.queryForObject("select count(*) from payment_cube_log", Long.class)).isEqualTo(1L);
+
+        // one cent more is a change
+        assertThat(write(row(1, 1, centreA, "10.01", MAR_1))).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 1, 0));
+    }
+
+    @Test
+    void concurrentWritersOfOneNewPaymentCountItOnce() throws Exception {
+        CountDownLatch firstWrote = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<PaymentBulkWriter.UpsertResult> first = pool.submit(() -> tx.execute(status -> {
+                PaymentBulkWriter.UpsertResult r = writer.upsert(List.of(row(7, 1, centreA, "10.00", MAR_1)));
+                firstWrote.countDown();
+                await(releaseFirst);
+                return r;
+            }));
+            assertThat(firstWrote.await(10, TimeUnit.SECONDS)).isTrue();
+
+            Future<PaymentBulkWriter.UpsertResult> second = pool.submit(() -> tx.execute(status ->
+                    writer.upsert(List.of(row(7, 1, centreA, "25.00", MAR_1)))));
+            // waits on the payment key until the first writer commits
+            Thread.sleep(300);
+            assertThat(second.isDone()).isFalse();
+            releaseFirst.countDown();
+
+            assertThat(first.get(10, TimeUnit.SECONDS).inserted()).isEqualTo(1);
+            assertThat(second.get(10, TimeUnit.SECONDS).updated()).isEqualTo(1);
+        } finally {
+            releaseFirst.countDown();
+            pool.shutdownNow();
+        }
+
+        assertThat(rollupMismatches()).isZero();
+        assertThat(db.jdbc.queryForObject("select sum(tx_count) from payments_daily_agg", Long.class)).isEqualTo(1L);
+    }
+
+    @Test
+    void partitionedTableMovesARowToItsNewMonthUnderTheSameId() {
+        write(row(1, 1, centreA, "100.00", MAR_1), row(2, 1, centreA, "30.00", MAR_1));
+        Long id = db.jdbc.queryForObject("select id from payments where payment_id = 1", Long.class);
+
+        partitions.migrate();
+        PaymentBulkWriter.UpsertResult moved = write(
+                row(1, 1, centreA, "100.00", MAR_1.plusMonths(1)), row(4, 1, centreA, "8.00", MAR_1.plusMonths(2)));
+
+        assertThat(moved).isEqualTo(new PaymentBulkWriter.UpsertResult(1, 1, 0));
+        assertThat(db.jdbc.queryForObject("select id from payments where payment_id = 1", Long.class)).isEqualTo(id);
+        assertThat(db.jdbc.queryForObject("select tableoid::regclass::text from payments where payment_id = 1", String.class))
+                .isEqualTo("payments_y2026m04");
+        assertThat(db.jdbc.queryForObject("select count(*) from payments", Long.class)).isEqualTo(3L);
+        assertThat(rollupMismatches()).isZero();
+    }
+
+    @Test
+    void aNewBillIdFromUpstreamMovesTheStoredRow() {
+        write(row(1, 0, centreA, "100.00", MAR_1));
+        Long id = db.jdbc.queryForObject("select id from payments where payment_id = 1", Long.class);
+
+        // same content under the billId upstream now sends, matched to the stored row
+        PaymentBulkWriter.UpsertResult rebilled = write(rebill(row(1, 9, centreA, "100.00", MAR_1), 0L));
+
+        assertThat(rebilled).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 1, 0));
+        assertThat(db.jdbc.queryForList("select bill_id from payments where payment_id = 1", Long.class)).containsExactly(9L);
+        assertThat(db.jdbc.queryForObject("select id from payments where payment_id = 1", Long.class)).isEqualTo(id);
+        assertThat(rollupMismatches()).isZero();
+        assertThat(db.jdbc.queryForObject("select sum(tx_count) from payments_daily_agg", Long.class)).isEqualTo(1L);
+    }
+
+    @Test
+    void aContinuationAddsItsLinesToTheStoredRow() {
+        write(row(1, 1, centreA, "100.00", MAR_1), row(2, 1, centreA, "30.00", MAR_1));
+
+        // later lines of payment 1 in a later chunk, with fields of their own
+        PaymentBulkWriter.UpsertResult merged = write(continuation(row(1, 1, centreB, "20.00", MAR_1.plusDays(1))));
+        PaymentBulkWriter.UpsertResult mergedAgain = write(continuation(row(1, 1, centreA, "5.00", MAR_1)));
+
+        assertThat(merged).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 1, 0));
+        assertThat(mergedAgain).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 1, 0));
+        assertThat(db.jdbc.queryForMap("select total_paid, centre_id, payment_date from payments where payment_id = 1"))
+                .containsEntry("total_paid", new BigDecimal("125.00"))
+                .containsEntry("centre_id", centreA)
+                .containsEntry("payment_date", Timestamp.valueOf(MAR_1));
+        assertThat(rollupMismatches()).isZero();
+
+        // the next response sends the payment whole: its sum replaces the merged one
+        PaymentBulkWriter.UpsertResult whole = write(row(1, 1, centreA, "125.00", MAR_1));
+        assertThat(whole).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 1, 0));
+        assertThat(write(row(1, 1, centreA, "125.00", MAR_1))).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 0, 1));
+        assertThat(db.jdbc.queryForObject("select sum(total_paid) from payments_daily_agg", BigDecimal.class))
+                .isEqualByComparingTo("155.00");
+    }
+
+    @Test
+    void partitionedWorkersWriteTheSameRowsAndRollup() {
+        ReflectionTestUtils.setField(writer, "parallel", true);
+        ReflectionTestUtils.setField(writer, "workers", 4);
+        ReflectionTestUtils.setField(writer, "parallelMinRows", 10);
+
+        List<PaymentBulkWriter.PaymentUpsert> rows = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            rows.add(row(i, 1, i % 2 == 0 ? centreA : centreB, "10.00", MAR_1.plusHours(i)));
+            if (i % 5 == 0) rows.add(row(i, 2, centreA, "1.00", MAR_1.plusHours(i)));
+        }
+        // no caller transaction: every partition commits on its own
+        assertThat(writer.upsert(rows)).isEqualTo(new PaymentBulkWriter.UpsertResult(48, 0, 0));
+        assertThat(writer.stats()).containsEntry("parallelChunks", 1L);
+        assertThat((Long) writer.stats().get("partitionWrites")).isGreaterThan(1L);
+
+        List<PaymentBulkWriter.PaymentUpsert> changed = new ArrayList<>(rows);
+        for (int i = 0; i < changed.size(); i += 3) {
+            PaymentBulkWriter.PaymentUpsert r = changed.get(i);
+            changed.set(i, row(r.paymentId(), r.billId(), centreA, "12.50", MAR_1.plusDays(1)));
+        }
+        assertThat(writer.upsert(changed)).isEqualTo(new PaymentBulkWriter.UpsertResult(0, 16, 32));
+
+        // under the fan-out threshold: written in the caller's transaction as before
+        assertThat(write(row(41, 1, centreA, "3.00", MAR_1))).isEqualTo(new PaymentBulkWriter.UpsertResult(1, 0, 0));
+        assertThat(writer.stats()).containsEntry("parallelChunks", 2L);
+
+        assertThat(rollupMismatches()).isZero();
+        assertThat(db.jdbc.queryForObject("select count(*) from payments", Long.class)).isEqualTo(49L);
+        assertThat(db.jdbc.queryForObject("select sum(tx_count) from payments_daily_agg", Long.class)).isEqualTo(49L);
+    }
+
+    private PaymentBulkWriter.UpsertResult write(PaymentBulkWriter.PaymentUpsert... rows) {
+        return tx.execute(status -> writer.upsert(List.of(rows)));
+    }
+
+    private PaymentBulkWriter.PaymentUpsert row(long paymentId, long billId, long centreId, String paid, LocalDateTime date) {
+        BigDecimal amount = new BigDecimal(paid);
+        return new PaymentBulkWriter.PaymentUpsert(paymentId, billId, customer, centreId, gfs, "CN" + paymentId,
+                "BANK", "", amount, amount, date, date);
+    }
+
+    private static PaymentBulkWriter.PaymentUpsert rebill(PaymentBulkWriter.PaymentUpsert r, long storedBillId) {
+        return new PaymentBulkWriter.PaymentUpsert(r.paymentId(), r.billId(), r.customerId(), r.centreId(), r.gfsCodeId(),
+                r.controlNumber(), r.paymentType(), r.description(), r.totalBilled(), r.totalPaid(),
+                r.paymentDate(), r.lastFetched(), storedBillId, false);
+    }
+
+    private static PaymentBulkWriter.PaymentUpsert continuation(PaymentBulkWriter.PaymentUpsert r) {
+        return new PaymentBulkWriter.PaymentUpsert(r.paymentId(), r.billId(), r.customerId(), r.centreId(), r.gfsCodeId(),
+                r.controlNumber(), r.paymentType(), r.description(), r.totalBilled(), r.totalPaid(),
+                r.paymentDate(), r.lastFetched(), null, true);
+    }
+
+    private long rollupMismatches() {
+        return db.jdbc.queryForObject(ROLLUP_MISMATCH_SQL, Long.class);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Repository.projections.ServiceSummaryView;
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** JVM in UTC, database in Nairobi (UTC+3), as in {@link ReportQueryEngineTest}. */
+class PaymentCubeTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 3, 1, 0, 0);
+    private static final LocalDateTime END = START.plusDays(2);
+
+    private TestDatabase db;
+    private PaymentCube cube;
+
+    private long dar;
+    private long kipawaPwani;
+    private long hostel;
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase().withSchema();
+        cube = new PaymentCube(db.jdbc, db.transactionManager, utcJvmNairobiDatabase());
+        ReflectionTestUtils.setField(cube, "enabled", true);
+        ReflectionTestUtils.setField(cube, "maxRetractedRatio", 0.2);
+        ReflectionTestUtils.setField(cube, "logRetentionMinutes", 60);
+
+        dar = db.zone("Dar");
+        long pwani = db.zone("Pwani");
+        long kipawaDar = db.centre("Kipawa", dar);
+        kipawaPwani = db.centre("Kipawa", pwani);
+        long mwanza = db.centre("Mwanza", dar);
+        long tuition = db.gfsCode("140101", "Tuition");
+        hostel = db.gfsCode("140102", "Hostel");
+        long customer = db.customer("Asha", kipawaDar);
+
+        // database wall-clock times; only the middle three are inside [START, END) in JVM time
+        payment(1, customer, kipawaDar, tuition, "10.00", LocalDateTime.of(2026, 3, 1, 2, 59));
+        payment(2, customer, kipawaDar, tuition, "20.00", LocalDateTime.of(2026, 3, 1, 3, 0));
+        payment(3, customer, kipawaPwani, hostel, "40.00", LocalDateTime.of(2026, 3, 2, 12, 0));
+        payment(4, customer, mwanza, tuition, "80.00", LocalDateTime.of(2026, 3, 3, 2, 59));
+        payment(5, customer, kipawaDar, tuition, "160.00", LocalDateTime.of(2026, 3, 3, 3, 0));
+        load();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (db != null) db.close();
+    }
+
+    @Test
+    void rangesAreExactToTheMinuteInDatabaseTime() {
+        PaymentCube.Totals totals = cube.totals(query(null, null, null));
+
+        assertThat(cube.isReady()).isTrue();
+        assertThat(totals.totalPaid()).isEqualByComparingTo("140.00");
+        assertThat(totals.totalTransactions()).isEqualTo(3L);
+    }
+
+    @Test
+    void filtersMatchNamesAndCodes() {
+        // both centres called Kipawa
+        assertThat(cube.totals(query("Kipawa", null, null)).totalPaid()).isEqualByComparingTo("60.00");
+        assertThat(cube.totals(query(null, "Pwani", null)).totalPaid()).isEqualByComparingTo("40.00");
+        assertThat(cube.totals(query(null, null, "140101")).totalPaid()).isEqualByComparingTo("100.00");
+
+        List<ServiceSummaryView> byService = cube.summaryByService(query(null, null, null));
+        assertThat(byService).extracting(ServiceSummaryView::getServiceDesc).containsExactly("Tuition", "Hostel");
+        assertThat(cube.topCenters(query(null, null, null), 5, false)).extracting(r -> r[0])
+                .containsExactly("Mwanza", "Kipawa", "Kipawa");
+    }
+
+    @Test
+    void loggedChangesRetractTheOldValues() {
+        // payment 3 re-sent with a new amount, and a new payment, as a writer logs them
+        LocalDateTime noon = LocalDateTime.of(2026, 3, 2, 12, 0);
+        db.jdbc.update("update payments set total_billed = 45.50, total_paid = 45.50 where payment_id = 3");
+        logged(-1, noon, kipawaPwani, hostel, "40.00");
+        logged(1, noon, kipawaPwani, hostel, "45.50");
+        logged(1, noon, kipawaPwani, null, "1.00");
+
+        catchUp();
+
+        PaymentCube.Totals totals = cube.totals(query(null, null, null));
+        assertThat(totals.totalPaid()).isEqualByComparingTo("146.50");
+        assertThat(totals.totalTransactions()).isEqualTo(4L);
+        assertThat(cube.summaryByService(query(null, null, null)))
+                .extracting(ServiceSummaryView::getServiceCode).contains("UNKNOWN");
+
+        // applied once: the snapshot moved past them
+        catchUp();
+        assertThat(cube.totals(query(null, null, null)).totalPaid()).isEqualByComparingTo("146.50");
+    }
+
+    @Test
+    void aLoadDoesNotWaitForWritersAndReplaysWhatTheyCommitAfterwards() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = pool.submit(() -> new TransactionTemplate(db.transactionManager).executeWithoutResult(status -> {
+                LocalDateTime noon = LocalDateTime.of(2026, 3, 2, 12, 0);
+                db.jdbc.update("update payments set total_billed = 50.00, total_paid = 50.00 where payment_id = 3");
+                logged(-1, noon, kipawaPwani, hostel, "40.00");
+                logged(1, noon, kipawaPwani, hostel, "50.00");
+                written.countDown();
+                await(commit);
+            }));
+            assertThat(written.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // the writer holds its row locks and is not committed: the load reads around it
+            Future<?> loading = pool.submit(this::load);
+            loading.get(10, TimeUnit.SECONDS);
+            assertThat(cube.totals(query(null, null, null)).totalPaid()).isEqualByComparingTo("140.00");
+
+            commit.countDown();
+            writer.get(10, TimeUnit.SECONDS);
+        } finally {
+            commit.countDown();
+            pool.shutdownNow();
+        }
+
+        catchUp();
+        assertThat(cube.totals(query(null, null, null)).totalPaid()).isEqualByComparingTo("150.00");
+        assertThat(cube.totals(query(null, null, null)).totalTransactions()).isEqualTo(3L);
+    }
+
+    @Test
+    void aReloadMarkerReloadsFromPayments() {
+        db.jdbc.update("update payments set total_billed = 60.00, total_paid = 60.00 where payment_id = 3");
+        db.jdbc.update(PaymentCube.RELOAD_MARKER_SQL);
+
+        catchUp();
+
+        assertThat(cube.totals(query(null, null, null)).totalPaid()).isEqualByComparingTo("160.00");
+    }
+
+    @Test
+    void aCentreMovedToAnotherZoneIsCountedThere() {
+        db.jdbc.update("update centre set zone_id = ? where id = ?", dar, kipawaPwani);
+        cube.moveCentreAfterCommit(kipawaPwani, dar);
+
+        assertThat(cube.totals(query(null, "Pwani", null)).totalTransactions()).isZero();
+        assertThat(cube.totals(query(null, "Dar", null)).totalPaid()).isEqualByComparingTo("140.00");
+    }
+
+    @Test
+    void epochMinutesMatchTheDatabase() {
+        for (LocalDateTime t : List.of(LocalDateTime.of(2026, 3, 1, 2, 59, 59), LocalDateTime.of(1969, 12, 31, 23, 59, 30))) {
+            Integer expected = db.jdbc.queryForObject(
+                    "select floor(extract(epoch from ?::timestamp) / 60)::int", Integer.class, Timestamp.valueOf(t));
+            assertThat(PaymentCube.epochMinute(t)).isEqualTo(expected);
+        }
+    }
+
+    private void load() {
+        ReflectionTestUtils.invokeMethod(cube, "load");
+    }
+
+    private void catchUp() {
+        ReflectionTestUtils.invokeMethod(cube, "catchUp");
+    }
+
+    private void logged(int sign, LocalDateTime date, long centre, Long gfs, String amount) {
+        db.jdbc.update("""
+            insert into payment_cube_log (sign, minute, centre_id, gfs_code_id, payment_type, total_billed, total_paid)
+            values (?, floor(extract(epoch from ?::timestamp) / 60)::int, ?, ?, 'BANK', ?, ?)
+            """, sign, Timestamp.valueOf(date), centre, gfs, new BigDecimal(amount), new BigDecimal(amount));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void payment(long paymentId, long customer, long centre, long gfs, String amount, LocalDateTime date) {
+        db.jdbc.update("""
+            insert into payments (payment_id, bill_id, customer_id, centre_id, gfs_code_id, payment_type,
+                                  description, total_billed, total_paid, payment_date)
+            values (?, 1, ?, ?, ?, 'BANK', '', ?, ?, ?)
+            """, paymentId, customer, centre, gfs, new BigDecimal(amount), new BigDecimal(amount), Timestamp.valueOf(date));
+    }
+
+    private static PaymentCube.Query query(String centre, String zone, String gfsCode) {
+        return new PaymentCube.Query(START, END, centre, zone, gfsCode);
+    }
+
+    private static JdbcTimeZone utcJvmNairobiDatabase() {
+        TimeZone previous = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        try {
+            return new JdbcTimeZone("Africa/Nairobi");
+        } finally {
+            TimeZone.setDefault(previous);
+        }
+    }
+}
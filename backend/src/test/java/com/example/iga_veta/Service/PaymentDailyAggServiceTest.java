@@ -0,0 +1,58 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaymentDailyAggServiceTest {
+
+    private static final LocalDateTime MAR_1 = LocalDateTime.of(2026, 3, 1, 0, 0);
+
+    @Test
+    void jvmDaysBecomeRollupDaysPlusEdgesInTheDatabaseZone() {
+        // JVM in UTC, database in Nairobi (UTC+3): JVM midnight is 03:00 in the database
+        PaymentDailyAggService.RollupRange r = service("UTC", "Africa/Nairobi").range(MAR_1, MAR_1.plusDays(3));
+
+        assertThat(r.fromDay()).isEqualTo(LocalDate.of(2026, 3, 2));
+        assertThat(r.toDay()).isEqualTo(LocalDate.of(2026, 3, 4));
+        assertThat(r.headFrom()).isEqualTo(MAR_1.withHour(3));
+        assertThat(r.headTo()).isEqualTo(MAR_1.plusDays(1));
+        assertThat(r.tailFrom()).isEqualTo(MAR_1.plusDays(3));
+        assertThat(r.tailTo()).isEqualTo(MAR_1.plusDays(3).withHour(3));
+    }
+
+    @Test
+    void rangeWithoutAWholeDatabaseDayIsReadFromPaymentsOnly() {
+        PaymentDailyAggService.RollupRange r = service("UTC", "Africa/Nairobi").range(MAR_1, MAR_1.plusDays(1));
+
+        assertThat(r.fromDay()).isEqualTo(r.toDay());
+        assertThat(r.headFrom()).isEqualTo(MAR_1.withHour(3));
+        assertThat(r.headTo()).isEqualTo(MAR_1.plusDays(1).withHour(3));
+        assertThat(r.tailFrom()).isEqualTo(r.tailTo());
+    }
+
+    @Test
+    void sameZonesNeedNoEdges() {
+        PaymentDailyAggService.RollupRange r = service("Africa/Nairobi", "Africa/Nairobi").range(MAR_1, MAR_1.plusDays(3));
+
+        assertThat(r.fromDay()).isEqualTo(LocalDate.of(2026, 3, 1));
+        assertThat(r.toDay()).isEqualTo(LocalDate.of(2026, 3, 4));
+        assertThat(r.headFrom()).isEqualTo(r.headTo());
+        assertThat(r.tailFrom()).isEqualTo(r.tailTo());
+    }
+
+    private static PaymentDailyAggService service(String jvmZone, String dbZone) {
+        TimeZone previous = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(jvmZone));
+        try {
+            return new PaymentDailyAggService(null, new JdbcTimeZone(dbZone), null, null);
+        } finally {
+            TimeZone.setDefault(previous);
+        }
+    }
+}
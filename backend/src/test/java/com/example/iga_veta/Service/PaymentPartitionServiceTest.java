@@ -0,0 +1,143 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class PaymentPartitionServiceTest {
+
+    private static final LocalDateTime NOV_10 = LocalDateTime.of(2025, 11, 10, 9, 30);
+
+    private TestDatabase db;
+    private long centre;
+    private long customer;
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase().withSchema();
+        centre = db.centre("Kipawa", db.zone("Dar"));
+        customer = db.customer("Asha", centre);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (db != null) db.close();
+    }
+
+    @Test
+    void initCreatesTheLineKeyOnAnUnpartitionedTable() {
+        PaymentPartitionService service = service();
+        service.init();
+
+        assertThat(service.isPartitioned()).isFalse();
+        insert(1, 1, NOV_10, LocalDateTime.now().minusDays(1));
+        assertThat(insertSql(1, 1, centre, NOV_10, "on conflict (payment_id, bill_id) do nothing")).isZero();
+    }
+
+    @Test
+    void migrateSwapsInAMonthlyTableKeepingRowsIdsAndKeys() {
+        PaymentPartitionService service = service();
+        service.init();
+        LocalDateTime old = LocalDateTime.now().minusDays(1);
+        insert(1, 1, NOV_10, old);
+        insert(2, 1, NOV_10.plusMonths(1), old);
+        insert(3, 1, NOV_10.plusMonths(2), old);
+        // written "during" the copy: re-copied under the lock
+        insert(4, 1, NOV_10.plusMonths(2), LocalDateTime.now());
+        List<Long> idsBefore = ids();
+
+        Map<String, Object> result = service.migrate();
+
+        assertThat(service.isPartitioned()).isTrue();
+        assertThat(result.get("rowsCopied")).isEqualTo(4L);
+        assertThat(result.get("rowsRecopied")).isEqualTo(1L);
+        assertThat(relkind("payments")).isEqualTo("p");
+        assertThat(relkind("payments_y2025m11")).isEqualTo("r");
+        assertThat(relkind("payments_y2026m01")).isEqualTo("r");
+        assertThat(ids()).isEqualTo(idsBefore);
+        assertThat(db.jdbc.queryForObject("select count(*) from payments_unpartitioned", Long.class)).isEqualTo(4L);
+        assertThat(indexes("payments")).contains("payments_pkey", "idx_payments_centre", "idx_payments_date_brin");
+
+        // ids continue after the copied ones, the upsert key includes the month
+        insert(5, 1, NOV_10, old);
+        assertThat(db.jdbc.queryForObject("select id from payments where payment_id = 5", Long.class))
+                .isGreaterThan(idsBefore.get(idsBefore.size() - 1));
+        assertThat(insertSql(1, 1, centre, NOV_10, "on conflict (payment_id, bill_id, payment_date) do nothing")).isZero();
+        // foreign keys came along
+        assertThatThrownBy(() -> insertSql(6, 1, 99, NOV_10, "")).isInstanceOf(DataAccessException.class);
+
+        assertThatThrownBy(service::migrate).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void otherInstancesPickUpTheSwapWithoutARestart() {
+        PaymentPartitionService migrating = service();
+        PaymentPartitionService scheduled = service();
+        PaymentPartitionService failed = service();
+        migrating.init();
+        scheduled.init();
+        failed.init();
+        insert(1, 1, NOV_10, LocalDateTime.now().minusDays(1));
+
+        migrating.migrate();
+
+        assertThat(scheduled.isPartitioned()).isFalse();
+        scheduled.checkLayout();
+        assertThat(scheduled.isPartitioned()).isTrue();
+        assertThat(scheduled.stats().get("layoutChanges")).isEqualTo(1);
+
+        // a writer whose upsert ran into the swap re-reads the layout before its retry
+        assertThat(failed.isPartitioned()).isFalse();
+        assertThatThrownBy(() -> insertSql(1, 1, centre, NOV_10, "on conflict (payment_id, bill_id) do nothing")).isInstanceOf(DataAccessException.class);
+        failed.writeFailed();
+        assertThat(failed.isPartitioned()).isTrue();
+    }
+
+    private PaymentPartitionService service() {
+        PaymentPartitionService service = new PaymentPartitionService(
+                db.jdbc, new JdbcTimeZone(""), db.transactionManager, mock(PaymentZoneService.class));
+        // several batches for four rows
+        ReflectionTestUtils.setField(service, "copyBatchSize", 2);
+        return service;
+    }
+
+    private void insert(long paymentId, long billId, LocalDateTime paymentDate, LocalDateTime updatedAt) {
+        db.jdbc.update("""
+            insert into payments (payment_id, bill_id, customer_id, centre_id, description, total_billed, total_paid,
+                                  payment_date, updated_at)
+            values (?, ?, ?, ?, '', 0, 0, ?, ?)
+            """, paymentId, billId, customer, centre, Timestamp.valueOf(paymentDate), Timestamp.valueOf(updatedAt));
+    }
+
+    private int insertSql(long paymentId, long billId, long centreId, LocalDateTime paymentDate, String onConflict) {
+        return db.jdbc.update("""
+            insert into payments (payment_id, bill_id, customer_id, centre_id, description, total_billed, total_paid, payment_date)
+            values (?, ?, ?, ?, '', 0, 0, ?)
+            """ + onConflict, paymentId, billId, customer, centreId, Timestamp.valueOf(paymentDate));
+    }
+
+    private List<Long> ids() {
+        return db.jdbc.queryForList("select id from payments order by id", Long.class);
+    }
+
+    private String relkind(String table) {
+        return db.jdbc.queryForObject("select relkind::text from pg_class where oid = to_regclass(?)", String.class, table);
+    }
+
+    private List<String> indexes(String table) {
+        return db.jdbc.queryForList(
+                "select indexname from pg_indexes where schemaname = current_schema() and tablename = ?", String.class, table);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.iga_veta.Service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ReportCursorTest {
+
+    @Test
+    void encodedCursorDecodesToTheSamePosition() {
+        ReportCursor cursor = ReportCursor.after(LocalDateTime.of(2026, 3, 2, 23, 0, 5, 123_000_000), 42L);
+
+        String encoded = cursor.encode();
+
+        assertThat(encoded).doesNotContain("=", "+", "/");
+        assertThat(ReportCursor.decode(encoded)).isEqualTo(cursor);
+        assertThat(ReportCursor.decode(" " + encoded + " ")).isEqualTo(cursor);
+    }
+
+    @Test
+    void blankCursorIsTheFirstPage() {
+        assertThat(ReportCursor.decode(null)).isNull();
+        assertThat(ReportCursor.decode("  ")).isNull();
+        assertThat(ReportCursor.after(null, 1L)).isNull();
+        assertThat(ReportCursor.after(LocalDateTime.of(2026, 3, 1, 0, 0), null)).isNull();
+    }
+
+    @Test
+    void foreignCursorsAreRejected() {
+        assertThatThrownBy(() -> ReportCursor.decode("not a cursor!")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReportCursor.decode(encode("2026-03-01T00:00"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReportCursor.decode(encode("yesterday|7"))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ReportCursor.decode(encode("2026-03-01T00:00|x"))).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
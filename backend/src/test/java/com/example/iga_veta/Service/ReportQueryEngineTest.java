@@ -0,0 +1,162 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.Repository.projections.PaymentRowView;
+import com.example.iga_veta.Repository.projections.ServiceSummaryView;
+import com.example.iga_veta.components.JdbcTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * JVM in UTC, database in Nairobi (UTC+3): the JVM days [Mar 1, Mar 3) are the database
+ * range [Mar 1 03:00, Mar 3 03:00), so Mar 2 comes from the rollup and the edges from payments.
+ */
+class ReportQueryEngineTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2026, 3, 1, 0, 0);
+    private static final LocalDateTime END = START.plusDays(2);
+
+    private TestDatabase db;
+    private ReportQueryEngine engine;
+    private PaymentDailyAggService.RollupRange range;
+
+    private long kipawaDar;
+    private long kipawaPwani;
+    private long pwani;
+    private long tuition;
+
+    @BeforeEach
+    void setUp() {
+        db = new TestDatabase().withSchema();
+        JdbcTimeZone tz = utcJvmNairobiDatabase();
+        PaymentDailyAggService dailyAgg = new PaymentDailyAggService(db.jdbc, tz, db.transactionManager,
+                mock(PaymentChangeSignal.class));
+        dailyAgg.init();
+        engine = new ReportQueryEngine(db.jdbc, tz);
+        range = dailyAgg.range(START, END);
+
+        long dar = db.zone("Dar");
+        pwani = db.zone("Pwani");
+        // two centres share a name, as they do upstream
+        kipawaDar = db.centre("Kipawa", dar);
+        kipawaPwani = db.centre("Kipawa", pwani);
+        long mwanza = db.centre("Mwanza", dar);
+        tuition = db.gfsCode("140101", "Tuition");
+        long hostel = db.gfsCode("140102", "Hostel");
+        long customer = db.customer("Asha", kipawaDar);
+
+        // database wall-clock times
+        payment(1, customer, kipawaDar, dar, tuition, "10.00", LocalDateTime.of(2026, 3, 1, 2, 0));     // before the range
+        payment(2, customer, kipawaDar, dar, tuition, "20.00", LocalDateTime.of(2026, 3, 1, 4, 0));     // head edge
+        payment(3, customer, kipawaPwani, pwani, hostel, "40.00", LocalDateTime.of(2026, 3, 2, 12, 0)); // rollup day
+        payment(4, customer, mwanza, dar, tuition, "80.00", LocalDateTime.of(2026, 3, 3, 2, 0));        // tail edge
+        payment(5, customer, kipawaDar, dar, tuition, "160.00", LocalDateTime.of(2026, 3, 3, 4, 0));    // after the range
+        dailyAgg.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (db != null) db.close();
+    }
+
+    @Test
+    void totalsAddTheEdgeDaysToTheRollupDays() {
+        ReportQueryEngine.PaymentReport report = engine.payments(START, END, range, ReportFilter.ALL, firstPage(10));
+
+        assertThat(paymentIds(report.rows())).containsExactly(4L, 3L, 2L);
+        // read back in JVM time
+        assertThat(report.rows().get(0).getPaymentDate()).isEqualTo(LocalDateTime.of(2026, 3, 2, 23, 0));
+        assertThat(report.totals().totalPaid()).isEqualByComparingTo("140.00");
+        assertThat(report.totals().totalTransactions()).isEqualTo(3L);
+        assertThat(report.byService()).extracting(ServiceSummaryView::getServiceDesc).containsExactly("Tuition", "Hostel");
+        assertThat(report.byService().get(0).getTotalPaid()).isEqualByComparingTo("100.00");
+        assertThat(report.byService().get(0).getTotalTransactions()).isEqualTo(2L);
+    }
+
+    @Test
+    void aDuplicateNameFiltersOnEveryMatchingId() {
+        ReportFilter kipawa = new ReportFilter(Set.of(kipawaDar, kipawaPwani), null, null, false);
+
+        ReportQueryEngine.PaymentReport report = engine.payments(START, END, range, kipawa, firstPage(10));
+
+        assertThat(paymentIds(report.rows())).containsExactly(3L, 2L);
+        assertThat(report.totals().totalPaid()).isEqualByComparingTo("60.00");
+        assertThat(engine.rollupTotals(range, kipawa).get(0)[2]).isEqualTo(new BigDecimal("60.00"));
+    }
+
+    @Test
+    void zoneGfsAndUnresolvedFiltersApplyToRowsAndTotals() {
+        ReportFilter byZone = new ReportFilter(null, Set.of(pwani), null, false);
+        ReportFilter byGfs = new ReportFilter(null, null, Set.of(tuition), false);
+
+        assertThat(engine.payments(START, END, range, byZone, firstPage(10)).totals().totalPaid()).isEqualByComparingTo("40.00");
+        ReportQueryEngine.PaymentReport tuitionOnly = engine.payments(START, END, range, byGfs, firstPage(10));
+        assertThat(paymentIds(tuitionOnly.rows())).containsExactly(4L, 2L);
+        assertThat(tuitionOnly.totals().totalPaid()).isEqualByComparingTo("100.00");
+
+        ReportQueryEngine.PaymentReport none = engine.payments(START, END, range, ReportFilter.NOTHING, firstPage(10));
+        assertThat(none.rows()).isEmpty();
+        assertThat(none.byService()).isEmpty();
+        assertThat(none.totals().totalTransactions()).isZero();
+    }
+
+    @Test
+    void keysetPagesFollowEachOtherWithoutGapsOrRepeats() {
+        List<PaymentRowView> first = engine.paymentRows(START, END, ReportFilter.ALL, firstPage(2));
+        assertThat(paymentIds(first)).containsExactly(4L, 3L);
+
+        PaymentRowView last = first.get(first.size() - 1);
+        ReportCursor cursor = ReportCursor.decode(ReportCursor.after(last.getPaymentDate(), last.getId()).encode());
+        List<PaymentRowView> next = engine.paymentRows(START, END, ReportFilter.ALL,
+                new ReportQueryEngine.PageSpec(cursor, 0, 2));
+
+        assertThat(paymentIds(next)).containsExactly(2L);
+    }
+
+    @Test
+    void rollupFallbackMatchesTheReport() {
+        Object[] totals = engine.rollupTotals(range, ReportFilter.ALL).get(0);
+        assertThat(totals[0]).isEqualTo(new BigDecimal("140.00"));
+        assertThat(totals[1]).isEqualTo(3L);
+
+        List<Object[]> centres = engine.rollupTopCentres(range, ReportFilter.ALL, 5, false);
+        assertThat(centres).extracting(r -> r[0]).containsExactly("Mwanza", "Kipawa", "Kipawa");
+        assertThat(engine.rollupTopPaymentTypes(range, ReportFilter.ALL, 5).get(0)[1]).isEqualTo(new BigDecimal("140.00"));
+    }
+
+    private void payment(long paymentId, long customer, long centre, long zone, long gfs, String amount, LocalDateTime date) {
+        db.jdbc.update("""
+            insert into payments (payment_id, bill_id, customer_id, centre_id, zone_id, gfs_code_id, payment_type,
+                                  description, total_billed, total_paid, payment_date)
+            values (?, 1, ?, ?, ?, ?, 'BANK', '', ?, ?, ?)
+            """, paymentId, customer, centre, zone, gfs, new BigDecimal(amount), new BigDecimal(amount), Timestamp.valueOf(date));
+    }
+
+    private static ReportQueryEngine.PageSpec firstPage(int size) {
+        return new ReportQueryEngine.PageSpec(null, 0, size);
+    }
+
+    private static List<Long> paymentIds(List<PaymentRowView> rows) {
+        return rows.stream().map(PaymentRowView::getPaymentId).toList();
+    }
+
+    private static JdbcTimeZone utcJvmNairobiDatabase() {
+        TimeZone previous = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        try {
+            return new JdbcTimeZone("Africa/Nairobi");
+        } finally {
+            TimeZone.setDefault(previous);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.iga_veta.Service;
+
+import com.example.iga_veta.components.JdbcTimeZone;
+import jakarta.persistence.Entity;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * A throwaway schema on the test database, for tests of SQL that only Postgres can run.
+ *
+ * The database is the one of application.properties, like {@code IgaVetaApplicationTests};
+ * {@code -Dtest.database.url}, {@code .username} and {@code .password} point elsewhere. Every
+ * instance gets its own schema, dropped by {@link #close()}, so tests never see application
+ * tables or each other's rows. A database that cannot be reached fails the test: these tests
+ * are the only check of the SQL, so they must not pass without running it.
+ */
+class TestDatabase implements AutoCloseable {
+
+    final String schema = "test_" + UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+    final DriverManagerDataSource dataSource;
+    final JdbcTemplate jdbc;
+    final DataSourceTransactionManager transactionManager;
+
+    private final JdbcTemplate admin;
+
+    TestDatabase() {
+        Properties app = new Properties();
+        try (InputStream in = TestDatabase.class.getResourceAsStream("/application.properties")) {
+            if (in != null) app.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        String url = System.getProperty("test.database.url", app.getProperty("spring.datasource.url"));
+        String user = System.getProperty("test.database.username", app.getProperty("spring.datasource.username"));
+        String password = System.getProperty("test.database.password", app.getProperty("spring.datasource.password"));
+
+        DriverManagerDataSource adminSource = new DriverManagerDataSource(url, user, password);
+        try (Connection ignored = adminSource.getConnection()) {
+            // reachable
+        } catch (SQLException e) {
+            throw new IllegalStateException("No test database at " + url
+                    + " (start one, or point -Dtest.database.url at one): " + e.getMessage(), e);
+        }
+        admin = new JdbcTemplate(adminSource);
+        admin.execute("create schema " + schema);
+
+        dataSource = new DriverManagerDataSource(
+                url + (url.contains("?") ? "&" : "?") + "currentSchema=" + schema, user, password);
+        jdbc = new JdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+    }
+
+    /**
+     * Creates the application schema the way a fresh deployment gets it: Hibernate's
+     * {@code ddl-auto=update} over every entity, with Boot's naming strategies, then the keys and
+     * indexes the services add in init().
+     */
+    TestDatabase withSchema() {
+        try {
+            createSchema();
+        } catch (RuntimeException e) {
+            // the caller never gets this instance to close
+            close();
+            throw e;
+        }
+        return this;
+    }
+
+    private void createSchema() {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DATASOURCE, dataSource)
+                .applySetting(AvailableSettings.HBM2DDL_AUTO, "update")
+                .applySetting(AvailableSettings.PHYSICAL_NAMING_STRATEGY, new CamelCaseToUnderscoresNamingStrategy())
+                .applySetting(AvailableSettings.IMPLICIT_NAMING_STRATEGY, new SpringImplicitNamingStrategy())
+                .build();
+        try {
+            MetadataSources sources = new MetadataSources(registry);
+            ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+            scanner.addIncludeFilter(new AnnotationTypeFilter(Entity.class));
+            for (BeanDefinition entity : scanner.findCandidateComponents("com.example.iga_veta.Model")) {
+                sources.addAnnotatedClassName(entity.getBeanClassName());
+            }
+            try (SessionFactory ignored = sources.buildMetadata().buildSessionFactory()) {
+                // the schema is written while the factory starts
+            }
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+
+        JdbcTimeZone tz = new JdbcTimeZone("");
+        PaymentZoneService zones = new PaymentZoneService(jdbc);
+        ReflectionTestUtils.setField(zones, "repairBatchSize", 20_000);
+        zones.init();
+        new PaymentPartitionService(jdbc, tz, transactionManager, zones).init();
+        new PaymentDailyAggService(jdbc, tz, transactionManager, mock(PaymentChangeSignal.class)).init();
+        new PaymentCube(jdbc, transactionManager, tz).init();
+    }
+
+    long zone(String name) {
+        return jdbc.queryForObject("insert into zone (name) values (?) returning id", Long.class, name);
+    }
+
+    long centre(String name, long zoneId) {
+        return jdbc.queryForObject("insert into centre (name, rank, zone_id) values (?, 'A', ?) returning id", Long.class, name, zoneId);
+    }
+
+    long gfsCode(String code, String description) {
+        return jdbc.queryForObject("insert into gfs_code (code, description, markup_percent) values (?, ?, '0') returning id", Long.class,
+                code, description);
+    }
+
+    long customer(String name, long centreId) {
+        return jdbc.queryForObject("""
+                insert into customer (name, centre_id, created_at, updated_at)
+                values (?, ?, localtimestamp, localtimestamp) returning id
+                """, Long.class,
+                name, centreId);
+    }
+
+    @Override
+    public void close() {
+        admin.execute("drop schema if exists " + schema + " cascade");
+    }
+}